@@ -9,9 +9,22 @@
  */
 package org.openmrs.module.pharmacyapi;
 
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.task.FilaOutboxTask;
+import org.openmrs.module.pharmacyapi.api.orderlineage.task.OrderLineageBackfillTask;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.task.PrescriptionStateSweepTask;
+import org.openmrs.scheduler.SchedulerException;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
 
 /**
  * This class contains the logic that is run every time this module is either started or shutdown
@@ -24,9 +37,56 @@ public class OpenMRSPharmacyModuleActivator extends BaseModuleActivator {
 	 * @see #started()
 	 */
 	public void started() {
+		
+		for (final MetadataRegistry metadataRegistry : Context.getRegisteredComponents(MetadataRegistry.class)) {
+			metadataRegistry.refresh();
+		}
+		this.registerTasks();
 		log.info("Started OpenMRS Pharmacy Module");
 	}
 	
+	private void registerTasks() {
+		
+		final long oneDay = TimeUnit.DAYS.toSeconds(1);
+		
+		// run once on each start, the orders saved since are linked by the pharmacy services
+		this.registerTask(OrderLineageBackfillTask.NAME, OrderLineageBackfillTask.class,
+		    "Links the existing drug orders to the NEW order of their chain", new Date(), 0);
+		
+		final Date nextMidnight = DateUtils.addDays(DateUtils.truncate(new Date(), Calendar.DAY_OF_MONTH), 1);
+		this.registerTask(PrescriptionStateSweepTask.NAME, PrescriptionStateSweepTask.class,
+		    "Re-evaluates the prescription states that may have expired", nextMidnight, oneDay);
+		
+		this.registerTask(FilaOutboxTask.NAME, FilaOutboxTask.class,
+		    "Builds the FILA of the dispensations queued in the FILA outbox", new Date(),
+		    TimeUnit.MINUTES.toSeconds(1));
+	}
+	
+	private void registerTask(final String name, final Class<?> taskClass, final String description,
+	        final Date startTime, final long repeatInterval) {
+		
+		final SchedulerService schedulerService = Context.getSchedulerService();
+		
+		if (schedulerService.getTaskByName(name) == null) {
+			
+			final TaskDefinition taskDefinition = new TaskDefinition();
+			taskDefinition.setName(name);
+			taskDefinition.setDescription(description);
+			taskDefinition.setTaskClass(taskClass.getName());
+			taskDefinition.setStartOnStartup(Boolean.TRUE);
+			taskDefinition.setStartTime(startTime);
+			taskDefinition.setRepeatInterval(repeatInterval);
+			schedulerService.saveTaskDefinition(taskDefinition);
+			
+			try {
+				schedulerService.scheduleTask(taskDefinition);
+			}
+			catch (final SchedulerException e) {
+				log.error("Could not schedule " + name, e);
+			}
+		}
+	}
+	
 	/**
 	 * @see #shutdown()
 	 */
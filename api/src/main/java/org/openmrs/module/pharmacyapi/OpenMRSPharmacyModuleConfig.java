@@ -18,4 +18,6 @@ import org.springframework.stereotype.Component;
 public class OpenMRSPharmacyModuleConfig {
 	
 	public final static String MODULE_PRIVILEGE = "OpenMRS Pharmacy Module Privilege";
+	
+	public final static String GP_FILA_OUTBOX_ENABLED = "pharmacyapi.fila.outbox.enabled";
 }
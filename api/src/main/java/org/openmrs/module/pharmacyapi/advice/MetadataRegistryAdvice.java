@@ -0,0 +1,71 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.advice;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openmrs.OpenmrsObject;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
+import org.springframework.aop.AfterReturningAdvice;
+
+/**
+ * Keeps the {@link MetadataRegistry} up to date when the concepts, encounter types, encounter roles
+ * and forms it holds are changed through the core services. Only the write methods of that
+ * metadata are followed, the advice returns at once for every other method of the services, such as
+ * the encounter saves of the dispensations. The metadata is evicted once the write commits, so a
+ * concurrent request does not load it again, unchanged, before then.
+ */
+public class MetadataRegistryAdvice implements AfterReturningAdvice {
+	
+	private static final Set<String> WRITE_METHODS = new HashSet<>(Arrays.asList("saveConcept", "retireConcept",
+	    "unretireConcept", "purgeConcept", "saveEncounterType", "retireEncounterType", "unretireEncounterType",
+	    "purgeEncounterType", "saveEncounterRole", "retireEncounterRole", "unretireEncounterRole",
+	    "purgeEncounterRole", "saveForm", "retireForm", "unretireForm", "purgeForm"));
+	
+	private volatile MetadataRegistry metadataRegistry;
+	
+	@Override
+	public void afterReturning(final Object returnValue, final Method method, final Object[] args,
+	        final Object target) throws Throwable {
+		
+		if (!WRITE_METHODS.contains(method.getName()) || (args == null)) {
+			return;
+		}
+		
+		final List<OpenmrsObject> objects = new ArrayList<>();
+		for (final Object arg : args) {
+			
+			if (arg instanceof OpenmrsObject) {
+				objects.add((OpenmrsObject) arg);
+			}
+		}
+		
+		if (!objects.isEmpty()) {
+			this.getMetadataRegistry().evictOnCommit(objects);
+		}
+	}
+	
+	private MetadataRegistry getMetadataRegistry() {
+		
+		if (this.metadataRegistry == null) {
+			this.metadataRegistry = Context.getRegisteredComponents(MetadataRegistry.class).get(0);
+		}
+		return this.metadataRegistry;
+	}
+}
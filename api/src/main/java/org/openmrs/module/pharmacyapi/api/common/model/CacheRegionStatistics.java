@@ -0,0 +1,59 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.common.model;
+
+/**
+ * The hits, misses and puts of a second-level cache region since the statistics of the session
+ * factory were enabled or last cleared.
+ */
+public class CacheRegionStatistics {
+	
+	private final String regionName;
+	
+	private final long hitCount;
+	
+	private final long missCount;
+	
+	private final long putCount;
+	
+	private final long elementCountInMemory;
+	
+	public CacheRegionStatistics(final String regionName, final long hitCount, final long missCount,
+	        final long putCount, final long elementCountInMemory) {
+		this.regionName = regionName;
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.putCount = putCount;
+		this.elementCountInMemory = elementCountInMemory;
+	}
+	
+	public String getRegionName() {
+		return this.regionName;
+	}
+	
+	public long getHitCount() {
+		return this.hitCount;
+	}
+	
+	public long getMissCount() {
+		return this.missCount;
+	}
+	
+	public long getPutCount() {
+		return this.putCount;
+	}
+	
+	public long getElementCountInMemory() {
+		return this.elementCountInMemory;
+	}
+}
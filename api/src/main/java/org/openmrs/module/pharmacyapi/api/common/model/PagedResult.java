@@ -0,0 +1,55 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.common.model;
+
+import java.util.List;
+
+/**
+ * One page of a search paged in the database. The DAOs fetch one row more than the page size,
+ * which tells whether there is a next page without counting; the total is only counted on demand.
+ */
+public class PagedResult<T> {
+	
+	private final List<T> results;
+	
+	private final boolean hasMoreResults;
+	
+	private final Long totalCount;
+	
+	public PagedResult(final List<T> results, final boolean hasMoreResults, final Long totalCount) {
+		this.results = results;
+		this.hasMoreResults = hasMoreResults;
+		this.totalCount = totalCount;
+	}
+	
+	/**
+	 * @param fetched the rows fetched with a limit of {@code limit + 1}
+	 */
+	public static <T> PagedResult<T> fromFetched(final List<T> fetched, final int limit, final Long totalCount) {
+		
+		final boolean hasMoreResults = fetched.size() > limit;
+		return new PagedResult<>(hasMoreResults ? fetched.subList(0, limit) : fetched, hasMoreResults, totalCount);
+	}
+	
+	public List<T> getResults() {
+		return this.results;
+	}
+	
+	public boolean hasMoreResults() {
+		return this.hasMoreResults;
+	}
+	
+	public Long getTotalCount() {
+		return this.totalCount;
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.openmrs.module.pharmacyapi.api.common.model.CacheRegionStatistics;
+import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
+import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * The second-level cache regions of the module: one entity region per cached entity, named after
+ * its class, and the regions of the cacheable named queries. Writes made through the session keep
+ * them consistent by themselves, the read-write entity regions are updated on flush and the query
+ * results are dropped once one of their tables is written. Only changes made behind hibernate's
+ * back, such as SQL scripts, need an explicit eviction.
+ * <p>
+ * The query regions and the statistics are only built when the install sets the
+ * hibernate.cache.use_query_cache and hibernate.generate_statistics runtime properties.
+ */
+@Component
+public class CatalogCache {
+	
+	public static final String CATALOG_QUERY_REGION = "pharmacyapi.catalogQueries";
+	
+	public static final String DISPENSATION_QUERY_REGION = "pharmacyapi.dispensationQueries";
+	
+	private static final Class<?>[] CACHED_ENTITIES = { DrugItem.class, DrugRegime.class,
+	        PrescriptionDispensation.class };
+	
+	private static final String[] QUERY_REGIONS = { CATALOG_QUERY_REGION, DISPENSATION_QUERY_REGION };
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	public void evictAll() {
+		
+		final Cache cache = this.sessionFactory.getCache();
+		for (final Class<?> entityClass : CACHED_ENTITIES) {
+			cache.evictEntityRegion(entityClass);
+		}
+		for (final String queryRegion : QUERY_REGIONS) {
+			cache.evictQueryRegion(queryRegion);
+		}
+	}
+	
+	/**
+	 * @return false when the region is not one of the module
+	 */
+	public boolean evictRegion(final String regionName) {
+		
+		final Cache cache = this.sessionFactory.getCache();
+		for (final Class<?> entityClass : CACHED_ENTITIES) {
+			if (entityClass.getName().equals(regionName)) {
+				cache.evictEntityRegion(entityClass);
+				return true;
+			}
+		}
+		for (final String queryRegion : QUERY_REGIONS) {
+			if (queryRegion.equals(regionName)) {
+				cache.evictQueryRegion(queryRegion);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public boolean isStatisticsEnabled() {
+		
+		return this.sessionFactory.getStatistics().isStatisticsEnabled();
+	}
+	
+	/**
+	 * @return the statistics of the regions of the module that were built, none when the
+	 *         second-level cache is disabled
+	 */
+	public List<CacheRegionStatistics> getStatistics() {
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		final List<CacheRegionStatistics> regions = new ArrayList<>();
+		
+		// the region names carry the configured region prefix, if any
+		for (final String regionName : statistics.getSecondLevelCacheRegionNames()) {
+			
+			final String moduleRegionName = this.toModuleRegionName(regionName);
+			if (moduleRegionName == null) {
+				continue;
+			}
+			
+			final SecondLevelCacheStatistics region = statistics.getSecondLevelCacheStatistics(regionName);
+			if (region != null) {
+				regions.add(new CacheRegionStatistics(moduleRegionName, region.getHitCount(),
+				        region.getMissCount(), region.getPutCount(), region.getElementCountInMemory()));
+			}
+		}
+		return regions;
+	}
+	
+	public CacheRegionStatistics getStatistics(final String regionName) {
+		
+		for (final CacheRegionStatistics region : this.getStatistics()) {
+			if (region.getRegionName().equals(regionName)) {
+				return region;
+			}
+		}
+		return null;
+	}
+	
+	private String toModuleRegionName(final String regionName) {
+		
+		for (final Class<?> entityClass : CACHED_ENTITIES) {
+			if (regionName.endsWith(entityClass.getName())) {
+				return entityClass.getName();
+			}
+		}
+		for (final String queryRegion : QUERY_REGIONS) {
+			if (regionName.endsWith(queryRegion)) {
+				return queryRegion;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.common.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+
+/**
+ * The observations of a set of encounters indexed by encounter id and concept id, so that reading
+ * the value of a question does not scan the obs of the encounter again. A digest is built for one
+ * request, from obs loaded in a single query, and must not outlive it.
+ */
+public class EncounterObsDigest {
+	
+	private final Map<Integer, List<Obs>> observationsByEncounterId = new HashMap<>();
+	
+	private final Map<Integer, Map<Integer, List<Obs>>> observationsByEncounterIdAndConceptId = new HashMap<>();
+	
+	private final MetadataRegistry metadataRegistry;
+	
+	/**
+	 * @param observations the obs to index, in the order they should be returned
+	 */
+	public EncounterObsDigest(final List<Obs> observations, final MetadataRegistry metadataRegistry) {
+		
+		this.metadataRegistry = metadataRegistry;
+		
+		for (final Obs obs : observations) {
+			
+			if (obs.getEncounter() == null) {
+				continue;
+			}
+			
+			// the ids of the proxies are read without loading them
+			final Integer encounterId = obs.getEncounter().getEncounterId();
+			this.addValue(this.observationsByEncounterId, encounterId, obs);
+			
+			Map<Integer, List<Obs>> observationsByConceptId = this.observationsByEncounterIdAndConceptId
+			        .get(encounterId);
+			if (observationsByConceptId == null) {
+				this.observationsByEncounterIdAndConceptId.put(encounterId,
+				    observationsByConceptId = new HashMap<>());
+			}
+			this.addValue(observationsByConceptId, obs.getConcept().getConceptId(), obs);
+		}
+	}
+	
+	public List<Obs> getObs(final Encounter encounter) {
+		
+		return this.getValues(this.observationsByEncounterId, encounter.getEncounterId());
+	}
+	
+	public List<Obs> getObs(final Encounter encounter, final String conceptUuid) {
+		
+		final Map<Integer, List<Obs>> observationsByConceptId = this.observationsByEncounterIdAndConceptId
+		        .get(encounter.getEncounterId());
+		
+		if (observationsByConceptId == null) {
+			return Collections.emptyList();
+		}
+		return this.getValues(observationsByConceptId, this.metadataRegistry.getConceptId(conceptUuid));
+	}
+	
+	public Obs findObs(final Encounter encounter, final String conceptUuid) {
+		
+		final List<Obs> observations = this.getObs(encounter, conceptUuid);
+		return observations.isEmpty() ? null : observations.get(0);
+	}
+	
+	public Concept findValueCoded(final Encounter encounter, final String conceptUuid) {
+		
+		final Obs obs = this.findObs(encounter, conceptUuid);
+		return obs == null ? null : obs.getValueCoded();
+	}
+	
+	public Date findValueDatetime(final Encounter encounter, final String conceptUuid) {
+		
+		final Obs obs = this.findObs(encounter, conceptUuid);
+		return obs == null ? null : obs.getValueDatetime();
+	}
+	
+	private void addValue(final Map<Integer, List<Obs>> map, final Integer key, final Obs value) {
+		
+		List<Obs> values = map.get(key);
+		if (values == null) {
+			map.put(key, values = new ArrayList<>());
+		}
+		values.add(value);
+	}
+	
+	private List<Obs> getValues(final Map<Integer, List<Obs>> map, final Integer key) {
+		
+		final List<Obs> values = map.get(key);
+		return values == null ? Collections.<Obs> emptyList() : values;
+	}
+}
@@ -12,8 +12,10 @@
  */
 package org.openmrs.module.pharmacyapi.api.common.util;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Stélio Moiane
@@ -44,4 +46,8 @@ public class MappedDurationUnits {
 	public static int getDurationDays(final String durationUnit) {
 		return durationUnits.get(durationUnit);
 	}
+	
+	public static Set<String> getDurationUnits() {
+		return Collections.unmodifiableSet(durationUnits.keySet());
+	}
 }
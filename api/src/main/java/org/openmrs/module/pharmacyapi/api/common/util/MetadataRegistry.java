@@ -0,0 +1,313 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.common.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Concept;
+import org.openmrs.ConceptAnswer;
+import org.openmrs.EncounterRole;
+import org.openmrs.EncounterType;
+import org.openmrs.Form;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.api.context.Context;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Resolves once the metadata referenced by {@link MappedConcepts}, {@link MappedEncounters},
+ * {@link MappedForms} and {@link MappedDurationUnits} and hands out the resolved references (or
+ * their ids) without going to the database. The references are detached from the session that
+ * loaded them, so they are meant to be used as associations of new objects or for comparisons by
+ * id. The registry is loaded by the module activator and an entry is evicted, to be resolved again
+ * on the next access, once the save, retirement or purge of the underlying metadata commits. The coded
+ * answers of a mapped question are resolved together, the first time one of them is asked for.
+ */
+@Component
+public class MetadataRegistry {
+	
+	private static final Log LOG = LogFactory.getLog(MetadataRegistry.class);
+	
+	private static final Set<String> ENCOUNTER_ROLES = new HashSet<>(
+	        Arrays.asList(MappedEncounters.DEFAULT_ENCONTER_ROLE));
+	
+	private final Set<String> conceptUuids = new HashSet<>();
+	
+	private final Set<String> encounterTypeUuids = new HashSet<>();
+	
+	private final Set<String> formUuids = new HashSet<>();
+	
+	private final ConcurrentMap<String, Concept> concepts = new ConcurrentHashMap<>();
+	
+	private final ConcurrentMap<String, EncounterType> encounterTypes = new ConcurrentHashMap<>();
+	
+	private final ConcurrentMap<String, EncounterRole> encounterRoles = new ConcurrentHashMap<>();
+	
+	private final ConcurrentMap<String, Form> forms = new ConcurrentHashMap<>();
+	
+	private final ConcurrentMap<String, Map<String, Concept>> answersByQuestionUuid = new ConcurrentHashMap<>();
+	
+	public MetadataRegistry() {
+		
+		this.conceptUuids.addAll(this.getMappedUuids(MappedConcepts.class));
+		this.conceptUuids.addAll(MappedDurationUnits.getDurationUnits());
+		this.encounterTypeUuids.addAll(this.getMappedUuids(MappedEncounters.class));
+		this.encounterTypeUuids.removeAll(ENCOUNTER_ROLES);
+		this.formUuids.addAll(this.getMappedUuids(MappedForms.class));
+	}
+	
+	public void refresh() {
+		
+		this.evictAll();
+		
+		for (final String uuid : this.conceptUuids) {
+			this.getConcept(uuid);
+		}
+		for (final String uuid : this.encounterTypeUuids) {
+			this.getEncounterType(uuid);
+		}
+		for (final String uuid : ENCOUNTER_ROLES) {
+			this.getEncounterRole(uuid);
+		}
+		for (final String uuid : this.formUuids) {
+			this.getForm(uuid);
+		}
+		
+		LOG.info("Pharmacy metadata registry loaded " + this.concepts.size() + " concepts, "
+		        + this.encounterTypes.size() + " encounter types, " + this.encounterRoles.size()
+		        + " encounter roles and " + this.forms.size() + " forms");
+	}
+	
+	public Concept getConcept(final String uuid) {
+		
+		final Concept concept = this.concepts.get(uuid);
+		if (concept != null) {
+			return concept;
+		}
+		
+		final Concept found = Context.getConceptService().getConceptByUuid(uuid);
+		if ((found != null) && this.conceptUuids.contains(uuid)) {
+			
+			// initialized while attached since the validators read them when saving obs
+			found.getDatatype().getName();
+			found.getConceptClass().getName();
+			this.concepts.put(uuid, found);
+		}
+		return found;
+	}
+	
+	public Integer getConceptId(final String uuid) {
+		
+		final Concept concept = this.getConcept(uuid);
+		return concept == null ? null : concept.getConceptId();
+	}
+	
+	/**
+	 * @return the answer with the given uuid of the mapped question, the concept is looked up when it
+	 *         is not one of the answers of the question
+	 */
+	public Concept getAnswer(final String questionUuid, final String answerUuid) {
+		
+		if (answerUuid == null) {
+			return null;
+		}
+		
+		final Concept answer = this.getAnswers(questionUuid).get(answerUuid);
+		return answer != null ? answer : Context.getConceptService().getConceptByUuid(answerUuid);
+	}
+	
+	/**
+	 * @return the answer with the given id of the mapped question, the concept is looked up when it is
+	 *         not one of the answers of the question
+	 */
+	public Concept getAnswer(final String questionUuid, final Integer answerId) {
+		
+		for (final Concept answer : this.getAnswers(questionUuid).values()) {
+			if (answer.getConceptId().equals(answerId)) {
+				return answer;
+			}
+		}
+		return Context.getConceptService().getConcept(answerId);
+	}
+	
+	public EncounterType getEncounterType(final String uuid) {
+		
+		final EncounterType encounterType = this.encounterTypes.get(uuid);
+		if (encounterType != null) {
+			return encounterType;
+		}
+		
+		final EncounterType found = Context.getEncounterService().getEncounterTypeByUuid(uuid);
+		if ((found != null) && this.encounterTypeUuids.contains(uuid)) {
+			this.encounterTypes.put(uuid, found);
+		}
+		return found;
+	}
+	
+	public EncounterRole getEncounterRole(final String uuid) {
+		
+		final EncounterRole encounterRole = this.encounterRoles.get(uuid);
+		if (encounterRole != null) {
+			return encounterRole;
+		}
+		
+		final EncounterRole found = Context.getEncounterService().getEncounterRoleByUuid(uuid);
+		if ((found != null) && ENCOUNTER_ROLES.contains(uuid)) {
+			this.encounterRoles.put(uuid, found);
+		}
+		return found;
+	}
+	
+	public Form getForm(final String uuid) {
+		
+		final Form form = this.forms.get(uuid);
+		if (form != null) {
+			return form;
+		}
+		
+		final Form found = Context.getFormService().getFormByUuid(uuid);
+		if ((found != null) && this.formUuids.contains(uuid)) {
+			this.forms.put(uuid, found);
+		}
+		return found;
+	}
+	
+	public boolean isMapped(final OpenmrsObject object) {
+		
+		final String uuid = object.getUuid();
+		return this.conceptUuids.contains(uuid) || this.encounterTypeUuids.contains(uuid)
+		        || ENCOUNTER_ROLES.contains(uuid) || this.formUuids.contains(uuid);
+	}
+	
+	public void evict(final OpenmrsObject object) {
+		
+		if (object == null) {
+			return;
+		}
+		
+		final String uuid = object.getUuid();
+		for (final Entry<String, Map<String, Concept>> answers : this.answersByQuestionUuid.entrySet()) {
+			if (answers.getKey().equals(uuid) || answers.getValue().containsKey(uuid)) {
+				this.answersByQuestionUuid.remove(answers.getKey());
+			}
+		}
+		
+		if (!this.isMapped(object)) {
+			return;
+		}
+		
+		this.concepts.remove(uuid);
+		this.encounterTypes.remove(uuid);
+		this.encounterRoles.remove(uuid);
+		this.forms.remove(uuid);
+	}
+	
+	/**
+	 * Evicts the objects when the current transaction commits, or at once when there is no
+	 * transaction. Nothing is evicted when the transaction rolls back, since the metadata did not
+	 * change.
+	 */
+	public void evictOnCommit(final Collection<OpenmrsObject> objects) {
+		
+		final List<OpenmrsObject> evicted = new ArrayList<>(objects);
+		
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			this.evict(evicted);
+			return;
+		}
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			
+			@Override
+			public void afterCommit() {
+				MetadataRegistry.this.evict(evicted);
+			}
+		});
+	}
+	
+	/**
+	 * Drops every entry, each one is resolved again on its next access
+	 */
+	public void evictAll() {
+		
+		this.concepts.clear();
+		this.encounterTypes.clear();
+		this.encounterRoles.clear();
+		this.forms.clear();
+		this.answersByQuestionUuid.clear();
+	}
+	
+	private void evict(final List<OpenmrsObject> objects) {
+		
+		for (final OpenmrsObject object : objects) {
+			this.evict(object);
+		}
+	}
+	
+	private Map<String, Concept> getAnswers(final String questionUuid) {
+		
+		final Map<String, Concept> answers = this.answersByQuestionUuid.get(questionUuid);
+		if (answers != null) {
+			return answers;
+		}
+		
+		final Map<String, Concept> found = new HashMap<>();
+		final Concept question = this.conceptUuids.contains(questionUuid)
+		        ? Context.getConceptService().getConceptByUuid(questionUuid) : null;
+		
+		if (question != null) {
+			for (final ConceptAnswer conceptAnswer : question.getAnswers(false)) {
+				
+				// initialized while attached since the validators display them
+				final Concept answer = conceptAnswer.getAnswerConcept();
+				answer.getDisplayString();
+				found.put(answer.getUuid(), answer);
+			}
+			this.answersByQuestionUuid.put(questionUuid, found);
+		}
+		return found;
+	}
+	
+	private Set<String> getMappedUuids(final Class<?> mappedClass) {
+		
+		final Set<String> uuids = new HashSet<>();
+		
+		for (final Field field : mappedClass.getFields()) {
+			
+			if (Modifier.isStatic(field.getModifiers()) && String.class.equals(field.getType())) {
+				try {
+					uuids.add((String) field.get(null));
+				}
+				catch (final IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		return uuids;
+	}
+}
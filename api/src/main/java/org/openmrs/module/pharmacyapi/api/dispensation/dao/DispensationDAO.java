@@ -12,12 +12,15 @@
  */
 package org.openmrs.module.pharmacyapi.api.dispensation.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
 import org.hibernate.SessionFactory;
+import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.Encounter;
+import org.openmrs.EncounterProvider;
 import org.openmrs.EncounterType;
 import org.openmrs.Order.Action;
 import org.openmrs.Patient;
@@ -33,12 +36,52 @@ public interface DispensationDAO {
 	
 	List<DrugOrder> findDispensedDrugOrdersByPatient(Patient patient);
 	
+	List<DrugOrder> findNotDispensedDrugOrdersByPatients(Collection<Patient> patients, EncounterType... encounterTypes);
+	
+	List<DrugOrder> findDispensedDrugOrdersByPatients(Collection<Patient> patients);
+	
 	List<Encounter> findEncountersByPatientAndEncounterTypeAndDateInterval(Patient patient, EncounterType encounterType,
 	        Date startDate, Date endDate);
 	
+	/**
+	 * @param itemConcept only the encounters holding a not voided obs of this concept are paged
+	 * @return one page of the encounters, the most recent first
+	 */
+	List<Encounter> findEncountersByPatientAndEncounterTypeAndDateInterval(Patient patient, EncounterType encounterType,
+	        Date startDate, Date endDate, Concept itemConcept, int firstResult, int maxResults);
+	
+	/**
+	 * @param itemConcept only the encounters holding a not voided obs of this concept are counted
+	 */
+	long countEncountersByPatientAndEncounterTypeAndDateInterval(Patient patient, EncounterType encounterType,
+	        Date startDate, Date endDate, Concept itemConcept);
+	
 	DrugOrder findDrugOrderByOrderUuid(String orderUuid);
 	
+	/**
+	 * @return the drug orders with the given uuids, with their drugs fetched
+	 */
+	List<DrugOrder> findDrugOrdersByUuids(Collection<String> uuids);
+	
+	List<Encounter> findEncountersByUuids(Collection<String> uuids);
+	
 	List<DrugOrder> findDrugOrderByEncounterAndOrderActionAndVoided(Encounter encounter, Action orderAction,
 	        boolean voided);
 	
+	/**
+	 * @return the drug orders of the encounters, voided or not
+	 */
+	List<DrugOrder> findDrugOrdersByEncounters(Collection<Encounter> encounters);
+	
+	/**
+	 * @return the drug orders with the given ids, with their previous orders fetched
+	 */
+	List<DrugOrder> findDrugOrdersByIds(Collection<Integer> orderIds);
+	
+	/**
+	 * @return the providers of the encounters with their providers fetched, in the order they were
+	 *         added
+	 */
+	List<EncounterProvider> findEncounterProvidersByEncounters(Collection<Encounter> encounters);
+	
 }
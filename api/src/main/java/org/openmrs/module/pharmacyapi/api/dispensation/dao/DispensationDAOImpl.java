@@ -12,20 +12,31 @@
  */
 package org.openmrs.module.pharmacyapi.api.dispensation.dao;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
 import org.hibernate.Criteria;
 import org.hibernate.Query;
 import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.criterion.Subqueries;
+import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.Encounter;
+import org.openmrs.EncounterProvider;
 import org.openmrs.EncounterType;
+import org.openmrs.Obs;
 import org.openmrs.Order.Action;
 import org.openmrs.Patient;
 import org.openmrs.module.pharmacyapi.api.common.util.DateUtils;
+import org.openmrs.module.pharmacyapi.db.PrescriptionGraph;
 
 /**
  */
@@ -53,6 +64,7 @@ public class DispensationDAOImpl implements DispensationDAO {
 		searchCriteria.add(Restrictions.isNull("drugOrder.dateStopped"));
 		searchCriteria.add(Restrictions
 		        .not(Restrictions.in("drugOrder.action", Arrays.asList(Action.REVISE, Action.DISCONTINUE))));
+		PrescriptionGraph.fetch(searchCriteria);
 		
 		return searchCriteria.list();
 	}
@@ -61,14 +73,74 @@ public class DispensationDAOImpl implements DispensationDAO {
 	@Override
 	public List<DrugOrder> findDispensedDrugOrdersByPatient(final Patient patient) {
 		
-		final String hql = "select distinct o from DrugOrder o where o.patient = :patient and o.voided is false "
-		        + " and o.orderId = ( select max(dispensationDrugOrder.orderId) "
-		        + "	from PrescriptionDispensation pd "
-		        + " join pd.dispensation dispensation, DrugOrder dispensationDrugOrder where dispensationDrugOrder.encounter = dispensation and dispensationDrugOrder.drug = o.drug and pd.retired is false and dispensationDrugOrder.voided is false  and pd.patient = :patient) ";
+		// the latest dispensation order of each drug, in a single grouped pass over the dispensations
+		final String hql = "select max(dispensationDrugOrder.orderId) from PrescriptionDispensation pd "
+		        + " join pd.dispensation dispensation, DrugOrder dispensationDrugOrder "
+		        + " where dispensationDrugOrder.encounter = dispensation and dispensationDrugOrder.drug is not null "
+		        + " and pd.retired is false and dispensationDrugOrder.voided is false and pd.patient = :patient "
+		        + " group by dispensationDrugOrder.drug";
 		
-		final Query query = this.sessionFactory.getCurrentSession().createQuery(hql);
+		final List<Integer> orderIds = this.sessionFactory.getCurrentSession().createQuery(hql)
+		        .setParameter("patient", patient).list();
 		
-		return query.setParameter("patient", patient).list();
+		if (orderIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.sessionFactory.getCurrentSession()
+		        .createQuery("select o from DrugOrder o where o.orderId in (:orderIds) and o.patient = :patient "
+		                + " and o.voided is false")
+		        .setParameterList("orderIds", orderIds).setParameter("patient", patient).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugOrder> findNotDispensedDrugOrdersByPatients(final Collection<Patient> patients,
+	        final EncounterType... encounterTypes) {
+		
+		if (patients.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(DrugOrder.class,
+		    "drugOrder");
+		searchCriteria.add(Restrictions.in("drugOrder.patient", patients));
+		searchCriteria.createAlias("drugOrder.encounter", "encounter");
+		searchCriteria.add(Restrictions.in("encounter.encounterType", encounterTypes));
+		searchCriteria.add(Restrictions.eq("drugOrder.voided", false));
+		searchCriteria.add(Restrictions.isNull("drugOrder.dateStopped"));
+		searchCriteria.add(Restrictions
+		        .not(Restrictions.in("drugOrder.action", Arrays.asList(Action.REVISE, Action.DISCONTINUE))));
+		PrescriptionGraph.fetch(searchCriteria);
+		
+		return searchCriteria.list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugOrder> findDispensedDrugOrdersByPatients(final Collection<Patient> patients) {
+		
+		if (patients.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select max(dispensationDrugOrder.orderId) from PrescriptionDispensation pd "
+		        + " join pd.dispensation dispensation, DrugOrder dispensationDrugOrder "
+		        + " where dispensationDrugOrder.encounter = dispensation and dispensationDrugOrder.drug is not null "
+		        + " and pd.retired is false and dispensationDrugOrder.voided is false and pd.patient in (:patients) "
+		        + " group by pd.patient, dispensationDrugOrder.drug";
+		
+		final List<Integer> orderIds = this.sessionFactory.getCurrentSession().createQuery(hql)
+		        .setParameterList("patients", patients).list();
+		
+		if (orderIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.sessionFactory.getCurrentSession()
+		        .createQuery("select o from DrugOrder o where o.orderId in (:orderIds) and o.patient in (:patients) "
+		                + " and o.voided is false")
+		        .setParameterList("orderIds", orderIds).setParameterList("patients", patients).list();
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -76,6 +148,57 @@ public class DispensationDAOImpl implements DispensationDAO {
 	public List<Encounter> findEncountersByPatientAndEncounterTypeAndDateInterval(final Patient patient,
 	        final EncounterType encounterType, final Date startDate, final Date endDate) {
 		
+		return this.createEncountersByPatientAndEncounterTypeAndDateIntervalCriteria(patient, encounterType, startDate,
+		    endDate).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Encounter> findEncountersByPatientAndEncounterTypeAndDateInterval(final Patient patient,
+	        final EncounterType encounterType, final Date startDate, final Date endDate, final Concept itemConcept,
+	        final int firstResult, final int maxResults) {
+		
+		final Criteria searchCriteria = this.createEncountersByPatientAndEncounterTypeAndDateIntervalCriteria(patient,
+		    encounterType, startDate, endDate);
+		searchCriteria.add(this.holdingObsOf(itemConcept));
+		searchCriteria.addOrder(Order.desc("encounter.encounterDatetime"));
+		searchCriteria.addOrder(Order.desc("encounter.encounterId"));
+		searchCriteria.setFirstResult(firstResult);
+		searchCriteria.setMaxResults(maxResults);
+		
+		return searchCriteria.list();
+	}
+	
+	@Override
+	public long countEncountersByPatientAndEncounterTypeAndDateInterval(final Patient patient,
+	        final EncounterType encounterType, final Date startDate, final Date endDate, final Concept itemConcept) {
+		
+		final Criteria searchCriteria = this.createEncountersByPatientAndEncounterTypeAndDateIntervalCriteria(patient,
+		    encounterType, startDate, endDate);
+		searchCriteria.add(this.holdingObsOf(itemConcept));
+		searchCriteria.setProjection(Projections.rowCount());
+		
+		return ((Number) searchCriteria.uniqueResult()).longValue();
+	}
+	
+	/**
+	 * Keeps the encounters of the criteria holding a not voided obs of the concept, so that the page
+	 * and the count only see the encounters that have items to show
+	 */
+	private Criterion holdingObsOf(final Concept concept) {
+		
+		final DetachedCriteria observations = DetachedCriteria.forClass(Obs.class, "obs");
+		observations.add(Restrictions.eqProperty("obs.encounter.encounterId", "encounter.encounterId"));
+		observations.add(Restrictions.eq("obs.concept", concept));
+		observations.add(Restrictions.eq("obs.voided", false));
+		observations.setProjection(Projections.id());
+		
+		return Subqueries.exists(observations);
+	}
+	
+	private Criteria createEncountersByPatientAndEncounterTypeAndDateIntervalCriteria(final Patient patient,
+	        final EncounterType encounterType, final Date startDate, final Date endDate) {
+		
 		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(Encounter.class,
 		    "encounter");
 		searchCriteria.add(Restrictions.eq("encounter.patient", patient));
@@ -84,7 +207,7 @@ public class DispensationDAOImpl implements DispensationDAO {
 		searchCriteria.add(Restrictions.between("encounter.encounterDatetime", DateUtils.lowDateTime(startDate),
 		    DateUtils.highDateTime(endDate)));
 		
-		return searchCriteria.list();
+		return searchCriteria;
 	}
 	
 	@Override
@@ -96,6 +219,35 @@ public class DispensationDAOImpl implements DispensationDAO {
 		return (DrugOrder) searchCriteria.uniqueResult();
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugOrder> findDrugOrdersByUuids(final Collection<String> uuids) {
+		
+		if (uuids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select drugOrder from DrugOrder drugOrder left join fetch drugOrder.drug "
+		        + " where drugOrder.uuid in (:uuids)";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("uuids", uuids).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Encounter> findEncountersByUuids(final Collection<String> uuids) {
+		
+		if (uuids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(Encounter.class,
+		    "encounter");
+		searchCriteria.add(Restrictions.in("encounter.uuid", uuids));
+		
+		return searchCriteria.list();
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Override
 	public List<DrugOrder> findDrugOrderByEncounterAndOrderActionAndVoided(final Encounter encounter,
@@ -109,4 +261,49 @@ public class DispensationDAOImpl implements DispensationDAO {
 		return searchCriteria.list();
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugOrder> findDrugOrdersByEncounters(final Collection<Encounter> encounters) {
+		
+		if (encounters.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select drugOrder from DrugOrder drugOrder where drugOrder.encounter in (:encounters) "
+		        + " order by drugOrder.orderId";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("encounters", encounters)
+		        .list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugOrder> findDrugOrdersByIds(final Collection<Integer> orderIds) {
+		
+		if (orderIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select drugOrder from DrugOrder drugOrder left join fetch drugOrder.previousOrder "
+		        + " where drugOrder.orderId in (:orderIds)";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("orderIds", orderIds)
+		        .list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<EncounterProvider> findEncounterProvidersByEncounters(final Collection<Encounter> encounters) {
+		
+		if (encounters.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select encounterProvider from EncounterProvider encounterProvider "
+		        + " join fetch encounterProvider.provider where encounterProvider.encounter in (:encounters) "
+		        + " order by encounterProvider.encounterProviderId";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("encounters", encounters)
+		        .list();
+	}
 }
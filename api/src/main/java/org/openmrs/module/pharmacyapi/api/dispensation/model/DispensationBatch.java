@@ -0,0 +1,65 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmrs.BaseOpenmrsData;
+
+/**
+ * A list of dispensations, usually for different patients, submitted together from a community
+ * dispensing point, along with the outcome of each of them once dispensed.
+ */
+public class DispensationBatch extends BaseOpenmrsData implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private Integer dispensationBatchId;
+	
+	private List<Dispensation> dispensations;
+	
+	private List<DispensationResult> results;
+	
+	public DispensationBatch() {
+		this.dispensations = new ArrayList<>();
+		this.results = new ArrayList<>();
+	}
+	
+	@Override
+	public Integer getId() {
+		return this.dispensationBatchId;
+	}
+	
+	@Override
+	public void setId(final Integer dispensationBatchId) {
+		this.dispensationBatchId = dispensationBatchId;
+	}
+	
+	public List<Dispensation> getDispensations() {
+		return this.dispensations;
+	}
+	
+	public void setDispensations(final List<Dispensation> dispensations) {
+		this.dispensations = dispensations;
+	}
+	
+	public List<DispensationResult> getResults() {
+		return this.results;
+	}
+	
+	public void setResults(final List<DispensationResult> results) {
+		this.results = results;
+	}
+}
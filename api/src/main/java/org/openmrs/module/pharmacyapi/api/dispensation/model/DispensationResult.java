@@ -0,0 +1,53 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.model;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of one dispensation of a batch: either it was dispensed or it was rejected with the
+ * message of the business rule it broke.
+ */
+public class DispensationResult implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final Dispensation dispensation;
+	
+	private final String errorMessage;
+	
+	private DispensationResult(final Dispensation dispensation, final String errorMessage) {
+		this.dispensation = dispensation;
+		this.errorMessage = errorMessage;
+	}
+	
+	public static DispensationResult success(final Dispensation dispensation) {
+		return new DispensationResult(dispensation, null);
+	}
+	
+	public static DispensationResult failure(final Dispensation dispensation, final String errorMessage) {
+		return new DispensationResult(dispensation, errorMessage);
+	}
+	
+	public Dispensation getDispensation() {
+		return this.dispensation;
+	}
+	
+	public String getErrorMessage() {
+		return this.errorMessage;
+	}
+	
+	public boolean isSuccessful() {
+		return this.errorMessage == null;
+	}
+}
@@ -15,6 +15,7 @@ package org.openmrs.module.pharmacyapi.api.dispensation.service;
 import java.util.Date;
 import java.util.List;
 
+import org.openmrs.Encounter;
 import org.openmrs.Patient;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.EncounterService;
@@ -26,8 +27,11 @@ import org.openmrs.api.PersonService;
 import org.openmrs.api.ProviderService;
 import org.openmrs.module.inventorypoc.batch.service.BatchService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.dispensation.dao.DispensationDAO;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationResult;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service.PrescriptionDispensationService;
 import org.openmrs.module.pharmacyapi.db.DbSessionManager;
@@ -41,6 +45,24 @@ public interface DispensationService extends OpenmrsService {
 	
 	Dispensation dispense(final Dispensation dispensation) throws PharmacyBusinessException;
 	
+	/**
+	 * Dispenses a list of dispensations in one transaction. All of them are validated before the
+	 * valid ones are written, each under its own savepoint. A dispensation that breaks a business
+	 * rule, or takes stock already taken by a previous one of the list, is reported in its result and
+	 * left out while the others are dispensed. Any other failure rolls back the whole list.
+	 *
+	 * @return one result per dispensation, in the order they were given
+	 */
+	List<DispensationResult> dispenseAll(List<Dispensation> dispensations);
+	
+	/**
+	 * Builds the FILA of a saved ARV dispensation encounter, attached to the last visit of the patient
+	 * on the dispensation date. A dispensation that already has its FILA is left as it is.
+	 *
+	 * @return the FILA, or null when the dispensation has no ARV order left
+	 */
+	Encounter generateFila(Encounter dispensationEncounter, Date dispensationDate) throws PharmacyBusinessException;
+	
 	void setProviderService(final ProviderService providerService);
 	
 	void setOrderService(final OrderService orderService);
@@ -65,9 +87,26 @@ public interface DispensationService extends OpenmrsService {
 	
 	void setBatchService(BatchService batchService);
 	
+	/**
+	 * Cancels all the items of the dispensation in one go: their obs are voided together, each FILA
+	 * quantity is recomputed once and the stock of the orders is given back.
+	 */
 	void cancelDispensationItems(Dispensation dispensation, String cancelationReason) throws Exception;
 	
+	/**
+	 * @return the entities referenced by the uuids of the dispensation, loaded once for all the rules
+	 *         validating it
+	 */
+	DispensationContext loadDispensationContext(Dispensation dispensation);
+	
 	List<Dispensation> findFilaDispensationByPatientAndDateInterval(Patient patient, Date startDate, Date endDate)
 	        throws PharmacyBusinessException;
 	
+	/**
+	 * Pages the FILA encounters in the database, the most recent first. FILAs without ARV items have
+	 * no dispensation to show and are neither paged nor counted.
+	 */
+	PagedResult<Dispensation> findFilaDispensationByPatientAndDateInterval(Patient patient, Date startDate,
+	        Date endDate, int startIndex, int limit, boolean includeTotalCount) throws PharmacyBusinessException;
+	
 }
@@ -12,15 +12,23 @@
  */
 package org.openmrs.module.pharmacyapi.api.dispensation.service;
 
+import java.sql.Savepoint;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.exception.ConstraintViolationException;
 import org.openmrs.Concept;
 import org.openmrs.Drug;
 import org.openmrs.DrugOrder;
@@ -46,23 +54,38 @@ import org.openmrs.api.PersonService;
 import org.openmrs.api.ProviderService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.inventorypoc.batch.model.Batch;
 import org.openmrs.module.inventorypoc.batch.service.BatchService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.common.util.DateUtils;
+import org.openmrs.module.pharmacyapi.api.common.util.EncounterObsDigest;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedEncounters;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedForms;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
 import org.openmrs.module.pharmacyapi.api.dispensation.dao.DispensationDAO;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationItem;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationResult;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationOrderLocks;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.FilaHistory;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.StockAvailabilityCache;
 import org.openmrs.module.pharmacyapi.api.dispensation.validation.DispensationValidator;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.service.FilaOutboxService;
+import org.openmrs.module.pharmacyapi.api.orderlineage.service.OrderLineageService;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.util.PrescriptionUtils;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service.PrescriptionDispensationService;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.service.PrescriptionStateService;
 import org.openmrs.module.pharmacyapi.db.DbSessionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * @author Stélio Moiane
@@ -96,6 +119,15 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 	@Autowired
 	private PrescriptionUtils prescriptionUtils;
 	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
+	@Autowired
+	private StockAvailabilityCache stockAvailabilityCache;
+	
+	@Autowired
+	private DispensationOrderLocks dispensationOrderLocks;
+	
 	private DispensationDAO dispensationDAO;
 	
 	private BatchService batchService;
@@ -174,169 +206,535 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 	@Override
 	public Dispensation dispense(final Dispensation dispensation) throws PharmacyBusinessException {
 		
+		// claimed before anything is read, a previous dispensation of the same orders only releases them
+		// once committed, so they are read as it left them
+		this.lockOrders(dispensation);
+		
+		final DispensationContext context;
+		boolean completed = false;
+		this.dbSessionManager.beginWriteUnit();
 		try {
 			
-			// workaround to controll the hibernate sessions commits
-			this.dbSessionManager.setManualFlushMode();
-			this.dispensationValidator.validateCreation(dispensation);
-			
-			final Person person = this.personService.getPersonByUuid(dispensation.getProviderUuid());
-			final Provider provider = this.providerService.getProvidersByPerson(person).iterator().next();
-			final Patient patient = this.patientService.getPatientByUuid(dispensation.getPatientUuid());
+			context = this.loadDispensationContext(dispensation, new SharedReferences());
+			this.dispensationValidator.validateCreation(dispensation, context);
+			final Visit filaVisit = this.findFilaVisit(dispensation, context);
 			
-			final EncounterRole encounterRole = this.encounterService
-			        .getEncounterRoleByUuid(MappedEncounters.DEFAULT_ENCONTER_ROLE);
-			final EncounterType encounterType = this.encounterService
-			        .getEncounterTypeByUuid(MappedEncounters.DISPENSATION_ENCOUNTER_TYPE);
+			this.performDispensation(dispensation, context, filaVisit);
+			completed = true;
+		}
+		catch (final ConstraintViolationException e) {
+			throw this.orderDispensedConcurrently(e);
+		}
+		finally {
+			this.endWriteUnit(completed);
+		}
+		
+		// the states are read from the dispensed orders, so only once the unit is flushed
+		Context.getService(PrescriptionStateService.class).updatePrescriptionStates(context.getPatient(), new Date());
+		
+		return dispensation;
+	}
+	
+	@Override
+	public List<DispensationResult> dispenseAll(final List<Dispensation> dispensations) {
+		
+		final List<DispensationResult> results = new ArrayList<>();
+		final List<ValidDispensation> validDispensations = new ArrayList<>();
+		final Set<String> claimedOrderUuids = new HashSet<>();
+		final Set<Patient> patients = new LinkedHashSet<>();
+		final BatchStock batchStock = new BatchStock();
+		
+		SharedReferences sharedReferences = new SharedReferences();
+		
+		// all the dispensations are validated before any is written, a rejected one has sent nothing and
+		// left the transaction as it was
+		for (final Dispensation dispensation : dispensations) {
 			
-			final Location location = this.locationService.getLocationByUuid(dispensation.getLocationUuid());
+			try {
+				
+				this.checkOrdersNotInBatch(dispensation, claimedOrderUuids);
+				
+				// claimed before its orders are read, as a single dispensation does
+				this.lockOrders(dispensation);
+				final DispensationContext context = this.loadDispensationContext(dispensation, sharedReferences);
+				this.dispensationValidator.validateCreation(dispensation, context);
+				batchStock.check(dispensation, context);
+				final Visit filaVisit = this.findFilaVisit(dispensation, context);
+				
+				batchStock.take(dispensation, context);
+				for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
+					claimedOrderUuids.add(dispensationItem.getOrderUuid());
+				}
+				validDispensations.add(new ValidDispensation(results.size(), dispensation, context, filaVisit));
+				results.add(DispensationResult.success(dispensation));
+			}
+			catch (final PharmacyBusinessException e) {
+				results.add(DispensationResult.failure(dispensation, e.getMessage()));
+			}
+		}
+		
+		// each one is written under its own savepoint, a failed one is rolled back to it and the session
+		// cleared, the dispensations after it are then read again
+		boolean sessionCleared = false;
+		for (final ValidDispensation validDispensation : validDispensations) {
 			
-			final List<DispensationItem> arvDispensationItems = new ArrayList<>();
+			final Dispensation dispensation = validDispensation.dispensation;
+			try {
+				
+				DispensationContext context = validDispensation.context;
+				Visit filaVisit = validDispensation.filaVisit;
+				if (sessionCleared) {
+					context = this.loadDispensationContext(dispensation, sharedReferences);
+					filaVisit = this.findFilaVisit(dispensation, context);
+				}
+				
+				this.writeDispensation(dispensation, context, filaVisit);
+				patients.add(context.getPatient());
+			}
+			catch (final PharmacyBusinessException e) {
+				
+				sessionCleared = true;
+				sharedReferences = new SharedReferences();
+				results.set(validDispensation.index, DispensationResult.failure(dispensation, e.getMessage()));
+			}
+		}
+		
+		// the states are read from the dispensed orders, so only once they are flushed
+		try {
+			final Date evaluationDate = new Date();
+			for (final Patient patient : patients) {
+				Context.getService(PrescriptionStateService.class).updatePrescriptionStates(patient, evaluationDate);
+			}
+		}
+		catch (final PharmacyBusinessException e) {
+			throw new APIException(e.getMessage(), e);
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Writes one dispensation of a batch in its own write unit, flushed before the savepoint is
+	 * released. When it fails, the statements already sent are rolled back to the savepoint and the
+	 * session, which still holds the failed writes, is cleared.
+	 */
+	private void writeDispensation(final Dispensation dispensation, final DispensationContext context,
+	        final Visit filaVisit) throws PharmacyBusinessException {
+		
+		final Savepoint savepoint = this.dbSessionManager.setSavepoint();
+		boolean performed = false;
+		boolean written = false;
+		this.dbSessionManager.beginWriteUnit();
+		try {
 			
-			final Concept arvConceptQuestion = Context.getConceptService()
-			        .getConceptByUuid(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+			this.performDispensation(dispensation, context, filaVisit);
+			performed = true;
+			this.dbSessionManager.endWriteUnit();
+			written = true;
+		}
+		catch (final ConstraintViolationException e) {
+			throw this.orderDispensedConcurrently(e);
+		}
+		finally {
+			if (!performed) {
+				this.dbSessionManager.abandonWriteUnit();
+			}
+			if (written) {
+				this.dbSessionManager.releaseSavepoint(savepoint);
+			} else {
+				this.dbSessionManager.rollbackToSavepoint(savepoint);
+				Context.clearSession();
+			}
+		}
+	}
+	
+	@Override
+	public Encounter generateFila(final Encounter dispensationEncounter, final Date dispensationDate)
+	        throws PharmacyBusinessException {
+		
+		final PrescriptionDispensation prescriptionDispensation = this.prescriptionDispensationService
+		        .findPrescriptionDispensationByDispensation(dispensationEncounter);
+		if (prescriptionDispensation.getFila() != null) {
+			return prescriptionDispensation.getFila();
+		}
+		
+		final Visit filaVisit = this.pharmacyHeuristicService
+		        .findLastVisitByPatientAndEncounterDate(dispensationEncounter.getPatient(), dispensationDate);
+		return this.buildFila(dispensationEncounter, filaVisit);
+	}
+	
+	private void performDispensation(final Dispensation dispensation, final DispensationContext context,
+	        final Visit filaVisit) throws PharmacyBusinessException {
+		
+		final Provider provider = context.getProvider();
+		final Patient patient = context.getPatient();
+		
+		final EncounterRole encounterRole = this.metadataRegistry
+		        .getEncounterRole(MappedEncounters.DEFAULT_ENCONTER_ROLE);
+		final EncounterType encounterType = this.metadataRegistry
+		        .getEncounterType(MappedEncounters.DISPENSATION_ENCOUNTER_TYPE);
+		
+		final Location location = context.getLocation();
+		
+		final List<DispensationItem> arvDispensationItems = new ArrayList<>();
+		
+		final Concept arvConceptQuestion = this.metadataRegistry
+		        .getConcept(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+		
+		final Concept dispensationConceptSet = this.metadataRegistry.getConcept(MappedConcepts.DISPENSATION_SET);
+		final Concept quantityConcept = this.metadataRegistry.getConcept(MappedConcepts.MEDICATION_QUANTITY);
+		final Concept nextPickUpConcept = this.metadataRegistry.getConcept(MappedConcepts.DATE_OF_NEXT_PICK_UP);
+		
+		final Map<Encounter, List<DispensationItem>> mapDispensationItemByPrescription = this
+		        .groupDispensationItemsByPrescription(dispensation, context);
+		
+		final FilaOutboxService filaOutboxService = Context.getService(FilaOutboxService.class);
+		final boolean filaOutboxEnabled = filaOutboxService.isFilaOutboxEnabled();
+		
+		final Map<DrugOrder, Double> mapQuantityByDrugOrder = new HashMap<>();
+		for (final Entry<Encounter, List<DispensationItem>> prescriptionDispensationItems : mapDispensationItemByPrescription
+		        .entrySet()) {
 			
-			final Concept dispensationConceptSet = this.conceptService
-			        .getConceptByUuid(MappedConcepts.DISPENSATION_SET);
-			final Concept quantityConcept = this.conceptService.getConceptByUuid(MappedConcepts.MEDICATION_QUANTITY);
-			final Concept nextPickUpConcept = this.conceptService.getConceptByUuid(MappedConcepts.DATE_OF_NEXT_PICK_UP);
+			final Encounter prescriptionEncounter = prescriptionDispensationItems.getKey();
+			Encounter dispensationEncounter = this.createEncounter(provider, patient, encounterRole, encounterType,
+			    location);
 			
-			final Map<Encounter, List<DispensationItem>> mapDispensationItemByPrescription = this
-			        .groupDispensationItemsByPrescription(dispensation);
+			boolean hasArvItems = false;
+			final List<Order> dispensedOrders = new ArrayList<>();
 			
-			final Map<DrugOrder, Double> mapQuantityByDrugOrder = new HashMap<>();
-			for (final Entry<Encounter, List<DispensationItem>> prescriptionDispensationItems : mapDispensationItemByPrescription
-			        .entrySet()) {
+			for (final DispensationItem dispensationItem : prescriptionDispensationItems.getValue()) {
 				
-				final Encounter prescriptionEncounter = prescriptionDispensationItems.getKey();
-				Encounter dispensationEncounter = this.createEncounter(provider, patient, encounterRole, encounterType,
-				    location);
-				dispensationEncounter = this.encounterService.saveEncounter(dispensationEncounter);
+				final Order order = context.getDrugOrder(dispensationItem.getOrderUuid());
+				Order orderProcess = order.cloneForRevision();
 				
-				for (final DispensationItem dispensationItem : prescriptionDispensationItems.getValue()) {
-					
-					final Order order = this.orderService.getOrderByUuid(dispensationItem.getOrderUuid());
-					Order orderProcess = order.cloneForRevision();
-					
-					if (dispensationItem.getTotalDispensed().equals(((DrugOrder) orderProcess).getQuantity())) {
-						orderProcess = order.cloneForDiscontinuing();
-						((DrugOrder) (orderProcess)).setDispenseAsWritten(Boolean.TRUE);
-					}
-					
-					if (StringUtils.isNotEmpty(dispensationItem.getRegimeUuid())) {
-						arvDispensationItems.add(dispensationItem);
-					}
-					
-					orderProcess.setOrderer(provider);
-					orderProcess.setPatient(order.getPatient());
-					this.prepareDispensation(orderProcess, dispensationEncounter, dispensationConceptSet,
-					    quantityConcept, nextPickUpConcept, dispensationItem, arvConceptQuestion);
-					
-					mapQuantityByDrugOrder.put((DrugOrder) orderProcess, dispensationItem.getQuantityToDispense());
-					
-					this.orderService.saveOrder(orderProcess, null);
+				if (dispensationItem.getTotalDispensed().equals(((DrugOrder) orderProcess).getQuantity())) {
+					orderProcess = order.cloneForDiscontinuing();
+					((DrugOrder) (orderProcess)).setDispenseAsWritten(Boolean.TRUE);
 				}
 				
-				this.encounterService.saveEncounter(dispensationEncounter);
+				if (StringUtils.isNotEmpty(dispensationItem.getRegimeUuid())) {
+					hasArvItems = true;
+					arvDispensationItems.add(dispensationItem);
+				}
 				
-				this.prescriptionDispensationService.savePrescriptionDispensation(patient, prescriptionEncounter,
-				    dispensationEncounter);
+				orderProcess.setOrderer(provider);
+				orderProcess.setPatient(order.getPatient());
+				this.prepareDispensation(orderProcess, dispensationEncounter, dispensationConceptSet,
+				    quantityConcept, nextPickUpConcept, dispensationItem, arvConceptQuestion, context);
 				
-				this.performWastDrugOrders(mapQuantityByDrugOrder, location);
+				mapQuantityByDrugOrder.put((DrugOrder) orderProcess, dispensationItem.getQuantityToDispense());
+				dispensedOrders.add(orderProcess);
+			}
+			
+			// saved once with its orders and obs attached, the orders before the obs that refer to them
+			dispensationEncounter = this.encounterService.saveEncounter(dispensationEncounter);
+			Context.getService(OrderLineageService.class).saveOrderLineages(dispensedOrders);
+			
+			this.prescriptionDispensationService.savePrescriptionDispensation(patient, prescriptionEncounter,
+			    dispensationEncounter);
+			
+			this.performWastDrugOrders(mapQuantityByDrugOrder, location);
+			
+			if (filaOutboxEnabled) {
 				
-				if (!arvDispensationItems.isEmpty()) {
-					
-					final EncounterType filaEncounterType = this.encounterService
-					        .getEncounterTypeByUuid(MappedEncounters.FILA_ENCOUNTER_TYPE);
-					
-					final Encounter filaEncounter = this.createEncounter(provider, patient, encounterRole,
-					    filaEncounterType, location);
-					
-					this.processFila(filaEncounter, dispensationEncounter, arvDispensationItems, arvConceptQuestion,
-					    quantityConcept, nextPickUpConcept, dispensation.getDispensationDate());
+				// the outbox builds the FILA from the obs of this dispensation encounter alone
+				if (hasArvItems) {
+					filaOutboxService.enqueueFila(dispensationEncounter, dispensation.getDispensationDate());
 				}
+			} else if (!arvDispensationItems.isEmpty()) {
+				
+				final EncounterType filaEncounterType = this.metadataRegistry
+				        .getEncounterType(MappedEncounters.FILA_ENCOUNTER_TYPE);
+				
+				final Encounter filaEncounter = this.createEncounter(provider, patient, encounterRole,
+				    filaEncounterType, location);
+				
+				this.processFila(filaEncounter, dispensationEncounter, arvDispensationItems, arvConceptQuestion,
+				    quantityConcept, nextPickUpConcept, filaVisit, context);
 			}
 		}
-		finally {
-			Context.flushSession();
+	}
+	
+	/**
+	 * @return the visit the FILA of an ARV dispensation is attached to, or null when the dispensation
+	 *         has no ARV items or its FILA is deferred to the outbox, which looks the visit up itself
+	 */
+	private Visit findFilaVisit(final Dispensation dispensation, final DispensationContext context)
+	        throws PharmacyBusinessException {
+		
+		if (Context.getService(FilaOutboxService.class).isFilaOutboxEnabled()) {
+			return null;
 		}
 		
-		return dispensation;
+		for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
+			
+			if (StringUtils.isNotEmpty(dispensationItem.getRegimeUuid())) {
+				return this.pharmacyHeuristicService.findLastVisitByPatientAndEncounterDate(context.getPatient(),
+				    dispensation.getDispensationDate());
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Rejects a dispensation of a batch that dispenses an order already dispensed by a previous one
+	 * of the same batch, with a clearer message than the validation of the order stopped by it.
+	 */
+	private void checkOrdersNotInBatch(final Dispensation dispensation, final Set<String> claimedOrderUuids)
+	        throws PharmacyBusinessException {
+		
+		if ((dispensation == null) || (dispensation.getDispensationItems() == null)) {
+			return;
+		}
+		
+		for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
+			
+			if (claimedOrderUuids.contains(dispensationItem.getOrderUuid())) {
+				throw new PharmacyBusinessException("pharmacyapi.error.dispensation.order.already.in.batch",
+				        dispensationItem.getOrderUuid());
+			}
+		}
+	}
+	
+	/**
+	 * Claims the orders of the dispensation until the end of the transaction, failing at once when
+	 * another dispensation is dispensing any of them.
+	 */
+	private void lockOrders(final Dispensation dispensation) throws PharmacyBusinessException {
+		
+		// a dispensation without items is rejected by the validation
+		if ((dispensation == null) || (dispensation.getDispensationItems() == null)) {
+			return;
+		}
+		
+		final List<String> orderUuids = new ArrayList<>();
+		for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
+			
+			if (dispensationItem.getOrderUuid() != null) {
+				orderUuids.add(dispensationItem.getOrderUuid());
+			}
+		}
+		
+		// registered before the claim, a transaction that cannot release the orders never claims them;
+		// only the claims of this thread are released, a rejected claim gave its orders back already
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			
+			@Override
+			public void afterCompletion(final int status) {
+				DispensationServiceImpl.this.dispensationOrderLocks.release(orderUuids);
+			}
+		});
+		
+		final String lockedOrderUuid = this.dispensationOrderLocks.tryClaim(orderUuids);
+		if (lockedOrderUuid != null) {
+			throw new PharmacyBusinessException("pharmacyapi.error.dispensation.order.being.dispensed",
+			        lockedOrderUuid);
+		}
+	}
+	
+	/**
+	 * Flushes the write unit once its work completed, a failed one is left to the rollback unflushed.
+	 */
+	private void endWriteUnit(final boolean completed) {
+		
+		if (!completed) {
+			this.dbSessionManager.abandonWriteUnit();
+			return;
+		}
+		
+		try {
+			this.dbSessionManager.endWriteUnit();
+		}
+		catch (final ConstraintViolationException e) {
+			throw this.orderDispensedConcurrently(e);
+		}
+	}
+	
+	/**
+	 * The only unique constraint a dispensation can break is the previous order of the lineage, when
+	 * another instance of the application revised the same order at the same time. The lineage row is
+	 * inserted when it is saved where the database generates its id, and by the flush of the unit
+	 * otherwise, so the violation is translated at both places.
+	 */
+	private APIException orderDispensedConcurrently(final ConstraintViolationException e) {
+		
+		return new APIException(Context.getMessageSourceService().getMessage(
+		    "pharmacyapi.error.dispensation.order.dispensed.concurrently", null, Context.getLocale()), e);
 	}
 	
 	@Override
 	public void cancelDispensationItems(final Dispensation dispensation, final String cancelationReason)
 	        throws Exception {
 		
-		this.dispensationValidator.validateCancellation(dispensation, new Date());
+		final DispensationContext context = this.loadDispensationContext(dispensation, new SharedReferences());
+		this.dispensationValidator.validateCancellation(dispensation, context, new Date());
+		
+		final Map<Integer, DrugOrder> drugOrdersById = new LinkedHashMap<>();
+		final List<DrugOrder> regimeDrugOrders = new ArrayList<>();
+		final Set<Encounter> regimeEncounters = new HashSet<>();
 		
-		final DispensationItem dispensationItem = dispensation.getDispensationItems().iterator().next();
-		final DrugOrder drugOrder = (DrugOrder) Context.getOrderService()
-		        .getOrderByUuid(dispensationItem.getOrderUuid());
+		for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
+			
+			final DrugOrder drugOrder = context.getDrugOrder(dispensationItem.getOrderUuid());
+			drugOrdersById.put(drugOrder.getOrderId(), drugOrder);
+			
+			if (StringUtils.isNotBlank(dispensationItem.getRegimeUuid())) {
+				regimeDrugOrders.add(drugOrder);
+				regimeEncounters.add(drugOrder.getEncounter());
+			}
+		}
 		
-		if (StringUtils.isNotBlank(dispensationItem.getRegimeUuid())
-		        && this.prescriptionDispensationService.isArvDrug(drugOrder)) {
-			this.removeDrugOrderObsFromFilaEncounter(dispensation, drugOrder);
+		// the regimes of all the items are read from one digest
+		final Set<Integer> regimeOrderIds = new HashSet<>();
+		if (!regimeDrugOrders.isEmpty()) {
 			
+			final EncounterObsDigest obsDigest = this.pharmacyHeuristicService
+			        .loadEncounterObsDigest(regimeEncounters, MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+			for (final DrugOrder drugOrder : regimeDrugOrders) {
+				
+				if (this.prescriptionDispensationService.isArvDrug(drugOrder, obsDigest)) {
+					regimeOrderIds.add(drugOrder.getOrderId());
+				}
+			}
 		}
-		Context.getOrderService().voidOrder(drugOrder, cancelationReason);
 		
-		final List<Obs> lstObs = this.pharmacyHeuristicService.findObservationsByOrder(drugOrder);
+		// the obs of all the orders, the FILA ones included, are loaded once
+		final List<Obs> orderObs = this.pharmacyHeuristicService.findObservationsByOrders(drugOrdersById.values());
+		
+		this.removeDrugOrderObsFromFilaEncounters(orderObs, drugOrdersById, regimeOrderIds);
 		
-		for (final Obs obs : lstObs) {
+		final Map<Location, List<DrugOrder>> drugOrdersByLocation = new HashMap<>();
+		for (final DrugOrder drugOrder : drugOrdersById.values()) {
 			
-			Context.getObsService().voidObs(obs,
-			    "Cancellation of Dispensation Item " + drugOrder.getDrug().getDisplayName());
+			Context.getOrderService().voidOrder(drugOrder, cancelationReason);
+			Context.getService(OrderLineageService.class).releasePreviousOrder(drugOrder);
+			
+			// an encounter without location holds no stock to read again
+			final Location location = drugOrder.getEncounter().getLocation();
+			if (location == null) {
+				continue;
+			}
+			if (!drugOrdersByLocation.containsKey(location)) {
+				drugOrdersByLocation.put(location, new ArrayList<DrugOrder>());
+			}
+			drugOrdersByLocation.get(location).add(drugOrder);
 		}
 		
-		this.batchService.reverseWastedDrug(drugOrder);
+		for (final Obs obs : orderObs) {
+			
+			// group members and FILA obs may already be voided with their group or encounter
+			if (!obs.isVoided()) {
+				Context.getObsService().voidObs(obs, "Cancellation of Dispensation Item "
+				        + drugOrdersById.get(obs.getOrder().getOrderId()).getDrug().getDisplayName());
+			}
+		}
+		
+		this.reverseWastedDrugs(drugOrdersById.values());
+		for (final Entry<Location, List<DrugOrder>> entry : drugOrdersByLocation.entrySet()) {
+			this.stockAvailabilityCache.invalidateOnCommit(entry.getKey(), this.getDrugs(entry.getValue()));
+		}
+		
+		Context.getService(PrescriptionStateService.class).updatePrescriptionStates(context.getPatient(), new Date());
+	}
+	
+	/**
+	 * Reverses the waste of the orders in one write unit. The inventory module reverses the waste of
+	 * one order at a time, the unit holds their writes so that a batch several orders were taken from
+	 * is updated once and the updates of all the batches are sent in one flush.
+	 */
+	private void reverseWastedDrugs(final Collection<DrugOrder> drugOrders) throws Exception {
+		
+		boolean completed = false;
+		this.dbSessionManager.beginWriteUnit();
+		try {
+			
+			for (final DrugOrder drugOrder : drugOrders) {
+				this.batchService.reverseWastedDrug(drugOrder);
+			}
+			completed = true;
+		}
+		finally {
+			if (completed) {
+				this.dbSessionManager.endWriteUnit();
+			} else {
+				this.dbSessionManager.abandonWriteUnit();
+			}
+		}
 	}
 	
 	@Override
 	public List<Dispensation> findFilaDispensationByPatientAndDateInterval(final Patient patient, final Date startDate,
 	        final Date endDate) throws PharmacyBusinessException {
 		
-		final EncounterType filaEncounter = Context.getEncounterService()
-		        .getEncounterTypeByUuid(MappedEncounters.FILA_ENCOUNTER_TYPE);
+		final EncounterType filaEncounter = this.metadataRegistry
+		        .getEncounterType(MappedEncounters.FILA_ENCOUNTER_TYPE);
 		
 		final List<Encounter> filas = this.dispensationDAO
 		        .findEncountersByPatientAndEncounterTypeAndDateInterval(patient, filaEncounter, startDate, endDate);
 		
-		final Concept arvDrugConcept = Context.getConceptService()
-		        .getConceptByUuid(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+		return this.toDispensations(filas);
+	}
+	
+	@Override
+	public PagedResult<Dispensation> findFilaDispensationByPatientAndDateInterval(final Patient patient,
+	        final Date startDate, final Date endDate, final int startIndex, final int limit,
+	        final boolean includeTotalCount) throws PharmacyBusinessException {
+		
+		final EncounterType filaEncounter = this.metadataRegistry
+		        .getEncounterType(MappedEncounters.FILA_ENCOUNTER_TYPE);
+		
+		// the FILAs without ARV items, which have no dispensation to show, are neither paged nor counted
+		final Concept arvItemConcept = this.metadataRegistry.getConcept(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+		
+		final List<Encounter> fetched = this.dispensationDAO.findEncountersByPatientAndEncounterTypeAndDateInterval(
+		    patient, filaEncounter, startDate, endDate, arvItemConcept, startIndex, limit + 1);
+		
+		Long totalCount = null;
+		if (includeTotalCount) {
+			totalCount = this.dispensationDAO.countEncountersByPatientAndEncounterTypeAndDateInterval(patient,
+			    filaEncounter, startDate, endDate, arvItemConcept);
+		}
+		
+		final PagedResult<Encounter> filas = PagedResult.fromFetched(fetched, limit, totalCount);
+		
+		return new PagedResult<>(this.toDispensations(filas.getResults()), filas.hasMoreResults(),
+		        filas.getTotalCount());
+	}
+	
+	private List<Dispensation> toDispensations(final List<Encounter> filas) throws PharmacyBusinessException {
+		
+		final FilaHistory filaHistory = this.loadFilaHistory(filas);
+		final EncounterObsDigest encounterObsDigest = filaHistory.getEncounterObsDigest();
+		
 		final List<Dispensation> dispensations = new ArrayList<>();
 		for (final Encounter fila : filas) {
 			
-			final PrescriptionDispensation prescriptionDispensation = this.prescriptionDispensationService
-			        .findPrescriptionDispensationByFila(fila);
+			final PrescriptionDispensation prescriptionDispensation = filaHistory.getPrescriptionDispensation(fila);
+			final Encounter prescriptionEncounter = prescriptionDispensation.getPrescription();
 			
 			final Dispensation dispensation = new Dispensation();
-			dispensation.setProviderUuid(prescriptionDispensation.getDispensation().getEncounterProviders().iterator()
-			        .next().getProvider().getUuid());
-			final List<DrugOrder> drugOrders = this.dispensationDAO.findDrugOrderByEncounterAndOrderActionAndVoided(
-			    prescriptionDispensation.getPrescription(), Action.NEW, false);
+			dispensation.setProviderUuid(filaHistory.getProvider(prescriptionDispensation.getDispensation()).getUuid());
 			
 			final Date prescriptionExpirationDate = this.prescriptionUtils
-			        .calculatePrescriptionExpirationDate(drugOrders);
+			        .calculatePrescriptionExpirationDate(filaHistory.getDrugOrders(prescriptionEncounter, Action.NEW));
+			final Prescription prescription = this.preparePrescription(prescriptionEncounter,
+			    filaHistory.getDrugOrders(prescriptionEncounter), encounterObsDigest);
 			
 			final List<DispensationItem> dispensationItems = new ArrayList<>();
-			for (final Obs obs : fila.getAllObs()) {
+			for (final Obs obs : encounterObsDigest.getObs(fila, MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS)) {
 				
-				if (arvDrugConcept.equals(obs.getConcept())) {
-					final DispensationItem dispensationItem = new DispensationItem();
-					DrugOrder drugOrder = this.dispensationDAO.findDrugOrderByOrderUuid(obs.getOrder().getUuid());
-					if (Action.DISCONTINUE.equals(drugOrder.getAction())) {
-						drugOrder = (DrugOrder) drugOrder.getPreviousOrder();
-					}
-					dispensationItem.setDrugOrder(drugOrder);
-					dispensationItem.setQuantityDispensed(obs.getValueNumeric());
-					dispensationItem.setDateOfNextPickUp(obs.getValueDatetime());
-					dispensationItem
-					        .setPrescription(this.preparePrescription(prescriptionDispensation.getPrescription()));
-					dispensationItems.add(dispensationItem);
-					dispensationItem.setPrescriptionExpirationDate(prescriptionExpirationDate);
-					dispensationItem.setDispensationItemCreationDate(fila.getDateCreated());
+				final DispensationItem dispensationItem = new DispensationItem();
+				DrugOrder drugOrder = filaHistory.getDrugOrder(obs.getOrder());
+				if (Action.DISCONTINUE.equals(drugOrder.getAction())) {
+					drugOrder = filaHistory.getPreviousOrder(drugOrder);
 				}
+				dispensationItem.setDrugOrder(drugOrder);
+				dispensationItem.setQuantityDispensed(obs.getValueNumeric());
+				dispensationItem.setDateOfNextPickUp(obs.getValueDatetime());
+				dispensationItem.setPrescription(prescription);
+				dispensationItems.add(dispensationItem);
+				dispensationItem.setPrescriptionExpirationDate(prescriptionExpirationDate);
+				dispensationItem.setDispensationItemCreationDate(fila.getDateCreated());
 			}
 			if (!dispensationItems.isEmpty()) {
 				dispensation.setDispensationItems(dispensationItems);
@@ -347,6 +745,248 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 		return dispensations;
 	}
 	
+	/**
+	 * Loads with a fixed number of queries, whatever the number of filas, their prescription
+	 * dispensations, the obs of the filas and prescriptions, the drug orders of the prescriptions and
+	 * the ones the obs refer to, and the providers of the dispensations.
+	 */
+	private FilaHistory loadFilaHistory(final List<Encounter> filas) throws PharmacyBusinessException {
+		
+		final List<PrescriptionDispensation> prescriptionDispensations = this.prescriptionDispensationService
+		        .findPrescriptionDispensationsByFilas(filas);
+		
+		final Set<Integer> filaIds = new HashSet<>();
+		final List<Encounter> prescriptions = new ArrayList<>();
+		final List<Encounter> dispensations = new ArrayList<>();
+		for (final PrescriptionDispensation prescriptionDispensation : prescriptionDispensations) {
+			
+			filaIds.add(prescriptionDispensation.getFila().getEncounterId());
+			prescriptions.add(prescriptionDispensation.getPrescription());
+			dispensations.add(prescriptionDispensation.getDispensation());
+		}
+		
+		for (final Encounter fila : filas) {
+			if (!filaIds.contains(fila.getEncounterId())) {
+				throw new PharmacyBusinessException(
+				        "Entity PrescriptionDispensation not found for parameter fila = " + fila);
+			}
+		}
+		
+		final List<Encounter> encounters = new ArrayList<>(filas);
+		encounters.addAll(prescriptions);
+		final EncounterObsDigest encounterObsDigest = this.pharmacyHeuristicService.loadEncounterObsDigest(encounters,
+		    MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS, MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE);
+		
+		final Set<Integer> orderIds = new HashSet<>();
+		for (final Encounter fila : filas) {
+			for (final Obs obs : encounterObsDigest.getObs(fila, MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS)) {
+				
+				// the ids of the proxies are read without loading them
+				orderIds.add(obs.getOrder().getOrderId());
+			}
+		}
+		
+		final List<DrugOrder> drugOrders = this.dispensationDAO.findDrugOrdersByEncounters(prescriptions);
+		drugOrders.addAll(this.dispensationDAO.findDrugOrdersByIds(orderIds));
+		
+		return new FilaHistory(prescriptionDispensations, drugOrders,
+		        this.dispensationDAO.findEncounterProvidersByEncounters(dispensations), encounterObsDigest);
+	}
+	
+	/**
+	 * Resolves with one query per kind of entity the patient, location, provider, drug orders,
+	 * prescriptions and regimes referenced by the dispensation.
+	 */
+	@Override
+	public DispensationContext loadDispensationContext(final Dispensation dispensation) {
+		
+		return this.loadDispensationContext(dispensation, new SharedReferences());
+	}
+	
+	private DispensationContext loadDispensationContext(final Dispensation dispensation,
+	        final SharedReferences sharedReferences) {
+		
+		if (dispensation == null) {
+			return new DispensationContext(null, null, null, Collections.<DrugOrder> emptyList(),
+			        Collections.<Encounter> emptyList(), Collections.<Concept> emptyList());
+		}
+		
+		final Set<String> orderUuids = new HashSet<>();
+		final Set<String> prescriptionUuids = new HashSet<>();
+		final Set<String> regimeUuids = new HashSet<>();
+		
+		if (dispensation.getDispensationItems() != null) {
+			
+			for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
+				
+				if (dispensationItem.getOrderUuid() != null) {
+					orderUuids.add(dispensationItem.getOrderUuid());
+				}
+				if (dispensationItem.getPrescriptionUuid() != null) {
+					prescriptionUuids.add(dispensationItem.getPrescriptionUuid());
+				}
+				if (StringUtils.isNotEmpty(dispensationItem.getRegimeUuid())) {
+					regimeUuids.add(dispensationItem.getRegimeUuid());
+				}
+			}
+		}
+		
+		final List<Concept> regimes = new ArrayList<>();
+		for (final String regimeUuid : regimeUuids) {
+			
+			final Concept regime = sharedReferences.getRegime(regimeUuid);
+			if (regime != null) {
+				regimes.add(regime);
+			}
+		}
+		
+		return new DispensationContext(this.patientService.getPatientByUuid(dispensation.getPatientUuid()),
+		        sharedReferences.getLocation(dispensation.getLocationUuid()),
+		        sharedReferences.getProvider(dispensation.getProviderUuid()),
+		        this.dispensationDAO.findDrugOrdersByUuids(orderUuids),
+		        this.dispensationDAO.findEncountersByUuids(prescriptionUuids), regimes);
+	}
+	
+	/**
+	 * The units of each drug taken from the stock of the location by the dispensations of a batch. The
+	 * stock of a drug is read the first time the batch dispenses it, the units the dispensations validated
+	 * since took are counted against it, so that two of them cannot both take the last units.
+	 */
+	private class BatchStock {
+		
+		private final Map<String, Double> availableUnitsByKey = new HashMap<>();
+		
+		private final Map<String, Double> takenUnitsByKey = new HashMap<>();
+		
+		private void check(final Dispensation dispensation, final DispensationContext context)
+		        throws PharmacyBusinessException {
+			
+			final List<String> drugsWithoutStock = new ArrayList<>();
+			for (final Entry<Drug, Double> entry : this.getUnitsByDrug(dispensation, context).entrySet()) {
+				
+				final String key = this.getKey(context.getLocation(), entry.getKey());
+				if (!this.availableUnitsByKey.containsKey(key)) {
+					this.availableUnitsByKey.put(key, this.findAvailableUnits(context.getLocation(), entry.getKey(),
+					    dispensation.getDispensationDate()));
+				}
+				
+				final Double takenUnits = this.takenUnitsByKey.get(key);
+				if (((takenUnits == null ? 0d : takenUnits) + entry.getValue()) > this.availableUnitsByKey.get(key)) {
+					drugsWithoutStock.add(entry.getKey().getDisplayName());
+				}
+			}
+			
+			if (!drugsWithoutStock.isEmpty()) {
+				throw new PharmacyBusinessException("pharmacyapi.error.insufficent.stock.for.dispensation",
+				        StringUtils.join(drugsWithoutStock, ", "));
+			}
+		}
+		
+		private void take(final Dispensation dispensation, final DispensationContext context) {
+			
+			for (final Entry<Drug, Double> entry : this.getUnitsByDrug(dispensation, context).entrySet()) {
+				
+				final String key = this.getKey(context.getLocation(), entry.getKey());
+				final Double takenUnits = this.takenUnitsByKey.get(key);
+				this.takenUnitsByKey.put(key, (takenUnits == null ? 0d : takenUnits) + entry.getValue());
+			}
+		}
+		
+		private Map<Drug, Double> getUnitsByDrug(final Dispensation dispensation, final DispensationContext context) {
+			
+			final Map<Drug, Double> unitsByDrug = new LinkedHashMap<>();
+			for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
+				
+				final Drug drug = context.getDrugOrder(dispensationItem.getOrderUuid()).getDrug();
+				final Double units = unitsByDrug.get(drug);
+				unitsByDrug.put(drug, (units == null ? 0d : units) + dispensationItem.getQuantityToDispense());
+			}
+			return unitsByDrug;
+		}
+		
+		private Double findAvailableUnits(final Location location, final Drug drug, final Date dispensationDate) {
+			
+			double availableUnits = 0d;
+			for (final Batch batch : DispensationServiceImpl.this.batchService
+			        .findBatchesByDrugAndLocationAndNotExpiredDate(drug, location,
+			            DateUtils.highDateTime(dispensationDate))) {
+				
+				if (batch.getRemainPackageQuantityUnits() != null) {
+					availableUnits += batch.getRemainPackageQuantityUnits().doubleValue();
+				}
+			}
+			return availableUnits;
+		}
+		
+		private String getKey(final Location location, final Drug drug) {
+			
+			return location.getLocationId() + ":" + drug.getDrugId();
+		}
+	}
+	
+	/**
+	 * A dispensation of a batch that passed the validation, with what was read to validate it.
+	 */
+	private static class ValidDispensation {
+		
+		private final int index;
+		
+		private final Dispensation dispensation;
+		
+		private final DispensationContext context;
+		
+		private final Visit filaVisit;
+		
+		private ValidDispensation(final int index, final Dispensation dispensation, final DispensationContext context,
+		        final Visit filaVisit) {
+			this.index = index;
+			this.dispensation = dispensation;
+			this.context = context;
+			this.filaVisit = filaVisit;
+		}
+	}
+	
+	/**
+	 * The locations, providers and regimes already resolved, shared by the dispensations of a batch
+	 * which are mostly made by the same provider at the same location. Uuids not found are kept too.
+	 */
+	private class SharedReferences {
+		
+		private final Map<String, Location> locationsByUuid = new HashMap<>();
+		
+		private final Map<String, Provider> providersByPersonUuid = new HashMap<>();
+		
+		private final Map<String, Concept> regimesByUuid = new HashMap<>();
+		
+		private Location getLocation(final String uuid) {
+			
+			if (!this.locationsByUuid.containsKey(uuid)) {
+				this.locationsByUuid.put(uuid, DispensationServiceImpl.this.locationService.getLocationByUuid(uuid));
+			}
+			return this.locationsByUuid.get(uuid);
+		}
+		
+		private Provider getProvider(final String personUuid) {
+			
+			if (!this.providersByPersonUuid.containsKey(personUuid)) {
+				
+				final Person person = DispensationServiceImpl.this.personService.getPersonByUuid(personUuid);
+				final Collection<Provider> providers = person == null ? Collections.<Provider> emptyList()
+				        : DispensationServiceImpl.this.providerService.getProvidersByPerson(person);
+				this.providersByPersonUuid.put(personUuid, providers.isEmpty() ? null : providers.iterator().next());
+			}
+			return this.providersByPersonUuid.get(personUuid);
+		}
+		
+		private Concept getRegime(final String uuid) {
+			
+			if (!this.regimesByUuid.containsKey(uuid)) {
+				this.regimesByUuid.put(uuid, DispensationServiceImpl.this.conceptService.getConceptByUuid(uuid));
+			}
+			return this.regimesByUuid.get(uuid);
+		}
+	}
+	
 	private void performWastDrugOrders(final Map<DrugOrder, Double> mapQuantityByDrugOrder, final Location location) {
 		for (final Entry<DrugOrder, Double> entry : mapQuantityByDrugOrder.entrySet()) {
 			try {
@@ -356,6 +996,16 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 				throw new APIException(e.getMessage());
 			}
 		}
+		this.stockAvailabilityCache.invalidateOnCommit(location, this.getDrugs(mapQuantityByDrugOrder.keySet()));
+	}
+	
+	private List<Drug> getDrugs(final Collection<DrugOrder> drugOrders) {
+		
+		final List<Drug> drugs = new ArrayList<>();
+		for (final DrugOrder drugOrder : drugOrders) {
+			drugs.add(drugOrder.getDrug());
+		}
+		return drugs;
 	}
 	
 	private Encounter createEncounter(final Provider provider, final Patient patient, final EncounterRole encounterRole,
@@ -373,7 +1023,8 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 	
 	private void prepareDispensation(final Order order, final Encounter dispensationEncounter,
 	        final Concept dispensationConceptSet, final Concept quantityConcept, final Concept nextPickUpConcept,
-	        final DispensationItem dispensationItem, final Concept arvConceptQuestion) {
+	        final DispensationItem dispensationItem, final Concept arvConceptQuestion,
+	        final DispensationContext context) {
 		
 		final Obs obsGroup = new Obs();
 		obsGroup.setConcept(dispensationConceptSet);
@@ -393,7 +1044,7 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 		obsGroup.addGroupMember(obsNextPickUp);
 		
 		if (StringUtils.isNotEmpty(dispensationItem.getRegimeUuid())) {
-			final Concept valueCoded = Context.getConceptService().getConceptByUuid(dispensationItem.getRegimeUuid());
+			final Concept valueCoded = context.getRegime(dispensationItem.getRegimeUuid());
 			final Obs obsRegime = new Obs();
 			obsRegime.setConcept(arvConceptQuestion);
 			obsRegime.setValueCoded(valueCoded);
@@ -407,15 +1058,15 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 	
 	private void processFila(final Encounter filaEncounter, final Encounter dispensationEncounter,
 	        final List<DispensationItem> arvDispensationItems, final Concept arvConceptQuestion,
-	        final Concept quantityConcept, final Concept nextPickUpConcept, final Date dispensationDate)
-	        throws PharmacyBusinessException {
+	        final Concept quantityConcept, final Concept nextPickUpConcept, final Visit filaVisit,
+	        final DispensationContext context) throws PharmacyBusinessException {
 		
 		final DispensationItem dispensationItem = arvDispensationItems.iterator().next();
-		final Order arvOrder = this.orderService.getOrderByUuid(dispensationItem.getOrderUuid());
+		final Order arvOrder = context.getDrugOrder(dispensationItem.getOrderUuid());
 		
-		final Concept posologyConcept = this.conceptService.getConceptByUuid(MappedConcepts.POSOLOGY);
-		final Concept regimenConcept = this.conceptService.getConceptByUuid(MappedConcepts.REGIMEN);
-		final Concept regime = this.conceptService.getConceptByUuid(dispensationItem.getRegimeUuid());
+		final Concept posologyConcept = this.metadataRegistry.getConcept(MappedConcepts.POSOLOGY);
+		final Concept regimenConcept = this.metadataRegistry.getConcept(MappedConcepts.REGIMEN);
+		final Concept regime = context.getRegime(dispensationItem.getRegimeUuid());
 		
 		final Obs obsQuantity = new Obs();
 		obsQuantity.setConcept(quantityConcept);
@@ -441,12 +1092,10 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 		regimenObs.setConcept(regimenConcept);
 		regimenObs.setValueCoded(regime);
 		
-		final Visit lastVisit = this.pharmacyHeuristicService
-		        .findLastVisitByPatientAndEncounterDate(filaEncounter.getPatient(), dispensationDate);
-		final Form filaForm = Context.getFormService().getFormByUuid(MappedForms.FILA);
+		final Form filaForm = this.metadataRegistry.getForm(MappedForms.FILA);
 		
 		filaEncounter.setForm(filaForm);
-		filaEncounter.setVisit(lastVisit);
+		filaEncounter.setVisit(filaVisit);
 		filaEncounter.addObs(obsQuantity);
 		filaEncounter.addObs(obsNextPickUp);
 		filaEncounter.addObs(posologyObs);
@@ -454,7 +1103,7 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 		
 		for (final DispensationItem dispItem : arvDispensationItems) {
 			
-			final DrugOrder order = (DrugOrder) this.orderService.getOrderByUuid(dispItem.getOrderUuid());
+			final DrugOrder order = context.getDrugOrder(dispItem.getOrderUuid());
 			
 			final Obs obsDrugOrder = new Obs();
 			obsDrugOrder.setConcept(arvConceptQuestion);
@@ -501,36 +1150,184 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 		return totalQuantityToDispense;
 	}
 	
-	private void removeDrugOrderObsFromFilaEncounter(final Dispensation dispensation, final DrugOrder drugOrder)
+	/**
+	 * Builds the FILA of a dispensation encounter queued in the FILA outbox from its saved obs: the
+	 * regime obs tell which of its orders are ARV, their dispensation set obs hold the quantity and
+	 * the next pick up date. The dispensation items are gone by then, the orders are taken in the
+	 * order they were saved.
+	 *
+	 * @return the FILA, or null when the encounter has no ARV order left
+	 */
+	private Encounter buildFila(final Encounter dispensationEncounter, final Visit filaVisit)
 	        throws PharmacyBusinessException {
 		
-		final Patient patient = Context.getPatientService().getPatientByUuid(dispensation.getPatientUuid());
+		final Concept arvConceptQuestion = this.metadataRegistry
+		        .getConcept(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+		final Concept dispensationConceptSet = this.metadataRegistry.getConcept(MappedConcepts.DISPENSATION_SET);
+		final Concept quantityConcept = this.metadataRegistry.getConcept(MappedConcepts.MEDICATION_QUANTITY);
+		final Concept nextPickUpConcept = this.metadataRegistry.getConcept(MappedConcepts.DATE_OF_NEXT_PICK_UP);
+		final Concept posologyConcept = this.metadataRegistry.getConcept(MappedConcepts.POSOLOGY);
+		final Concept regimenConcept = this.metadataRegistry.getConcept(MappedConcepts.REGIMEN);
 		
-		final EncounterType filaEncounterType = this.encounterService
-		        .getEncounterTypeByUuid(MappedEncounters.FILA_ENCOUNTER_TYPE);
-		final Encounter filaEncounter = this.pharmacyHeuristicService
-		        .findEncounterByPatientAndEncounterTypeAndOrder(patient, filaEncounterType, drugOrder);
+		final List<Obs> regimeObservations = new ArrayList<>();
+		final Map<Integer, Double> quantityByOrderId = new HashMap<>();
+		final Map<Integer, Date> nextPickUpByOrderId = new HashMap<>();
 		
-		final Concept arvConceptQuestion = Context.getConceptService()
-		        .getConceptByUuid(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
-		final Concept quantityConcept = this.conceptService.getConceptByUuid(MappedConcepts.MEDICATION_QUANTITY);
-		final Set<Obs> filaObs = filaEncounter.getAllObs();
+		for (final Obs obs : dispensationEncounter.getObsAtTopLevel(false)) {
+			
+			if (obs.getConcept().equals(arvConceptQuestion)) {
+				regimeObservations.add(obs);
+			} else if (obs.getConcept().equals(dispensationConceptSet)) {
+				
+				for (final Obs member : obs.getGroupMembers(false)) {
+					
+					if (member.getConcept().equals(quantityConcept)) {
+						quantityByOrderId.put(member.getOrder().getOrderId(), member.getValueNumeric());
+					} else if (member.getConcept().equals(nextPickUpConcept)) {
+						nextPickUpByOrderId.put(member.getOrder().getOrderId(), member.getValueDatetime());
+					}
+				}
+			}
+		}
 		
-		Double valueToCancel = 0.0;
-		Obs obsQuantity = null;
+		if (regimeObservations.isEmpty()) {
+			return null;
+		}
 		
-		for (final Obs obs : filaObs) {
-			if (obs.getConcept().equals(arvConceptQuestion)
-			        && (obs.getOrder().getOrderId().intValue() == drugOrder.getOrderId().intValue())) {
-				
-				valueToCancel += obs.getValueNumeric();
-				Context.getObsService().voidObs(obs,
-				    "Cancellation of Dispensation Item " + drugOrder.getDrug().getDisplayName());
-			} else if (obs.getConcept().equals(quantityConcept)) {
-				obsQuantity = obs;
+		// the orders were saved in the order of the dispensation items
+		Collections.sort(regimeObservations, new Comparator<Obs>() {
+			
+			@Override
+			public int compare(final Obs obs, final Obs other) {
+				return obs.getOrder().getOrderId().compareTo(other.getOrder().getOrderId());
+			}
+		});
+		
+		final Obs firstRegimeObs = regimeObservations.get(0);
+		final DrugOrder firstArvOrder = (DrugOrder) firstRegimeObs.getOrder();
+		
+		// a discontinuing order does not carry the dosing of the order it stops
+		final DrugOrder prescribedOrder = Action.DISCONTINUE.equals(firstArvOrder.getAction())
+		        ? (DrugOrder) firstArvOrder.getPreviousOrder() : firstArvOrder;
+		
+		Double totalQuantity = 0.0;
+		for (final Obs regimeObs : regimeObservations) {
+			totalQuantity += quantityByOrderId.get(regimeObs.getOrder().getOrderId());
+		}
+		
+		final Obs obsQuantity = new Obs();
+		obsQuantity.setConcept(quantityConcept);
+		obsQuantity.setValueNumeric(totalQuantity);
+		
+		final Obs obsNextPickUp = new Obs();
+		obsNextPickUp.setConcept(nextPickUpConcept);
+		obsNextPickUp.setValueDatetime(nextPickUpByOrderId.get(firstArvOrder.getOrderId()));
+		
+		final Obs posologyObs = new Obs();
+		posologyObs.setConcept(posologyConcept);
+		
+		final StringBuilder posologyBuilder = new StringBuilder();
+		posologyBuilder.append(prescribedOrder.getDose());
+		posologyBuilder.append(" ");
+		posologyBuilder.append(prescribedOrder.getDoseUnits().getName());
+		posologyBuilder.append(" ");
+		posologyBuilder.append(prescribedOrder.getFrequency().getName());
+		
+		posologyObs.setValueText(posologyBuilder.toString());
+		
+		final Obs regimenObs = new Obs();
+		regimenObs.setConcept(regimenConcept);
+		regimenObs.setValueCoded(firstRegimeObs.getValueCoded());
+		
+		final Encounter filaEncounter = this.createEncounter(
+		    dispensationEncounter.getEncounterProviders().iterator().next().getProvider(),
+		    dispensationEncounter.getPatient(),
+		    this.metadataRegistry.getEncounterRole(MappedEncounters.DEFAULT_ENCONTER_ROLE),
+		    this.metadataRegistry.getEncounterType(MappedEncounters.FILA_ENCOUNTER_TYPE),
+		    dispensationEncounter.getLocation());
+		
+		filaEncounter.setEncounterDatetime(dispensationEncounter.getEncounterDatetime());
+		filaEncounter.setForm(this.metadataRegistry.getForm(MappedForms.FILA));
+		filaEncounter.setVisit(filaVisit);
+		filaEncounter.addObs(obsQuantity);
+		filaEncounter.addObs(obsNextPickUp);
+		filaEncounter.addObs(posologyObs);
+		filaEncounter.addObs(regimenObs);
+		
+		for (final Obs regimeObs : regimeObservations) {
+			
+			final DrugOrder dispensedDrugOrder = (DrugOrder) regimeObs.getOrder();
+			
+			final Obs obsDrugOrder = new Obs();
+			obsDrugOrder.setConcept(arvConceptQuestion);
+			obsDrugOrder.setValueCoded(dispensedDrugOrder.getDrug().getConcept());
+			obsDrugOrder.setValueNumeric(quantityByOrderId.get(dispensedDrugOrder.getOrderId()));
+			obsDrugOrder.setValueDatetime(nextPickUpByOrderId.get(dispensedDrugOrder.getOrderId()));
+			obsDrugOrder.setOrder(dispensedDrugOrder);
+			obsDrugOrder.setValueDrug(dispensedDrugOrder.getDrug());
+			
+			filaEncounter.addObs(obsDrugOrder);
+		}
+		
+		final Encounter createdEncounter = this.encounterService.saveEncounter(filaEncounter);
+		final PrescriptionDispensation prescriptionDispensation = this.prescriptionDispensationService
+		        .findPrescriptionDispensationByDispensation(dispensationEncounter);
+		prescriptionDispensation.setFila(createdEncounter);
+		this.prescriptionDispensationService.updatePrescriptionDispensation(prescriptionDispensation);
+		
+		return createdEncounter;
+	}
+	
+	/**
+	 * Removes the regime obs of the cancelled ARV orders from their FILAs, recomputing once the
+	 * quantity of each FILA. A FILA left without quantity is voided with its prescription dispensation.
+	 */
+	private void removeDrugOrderObsFromFilaEncounters(final List<Obs> orderObs,
+	        final Map<Integer, DrugOrder> drugOrdersById, final Set<Integer> regimeOrderIds)
+	        throws PharmacyBusinessException {
+		
+		final Integer filaEncounterTypeId = this.metadataRegistry
+		        .getEncounterType(MappedEncounters.FILA_ENCOUNTER_TYPE).getEncounterTypeId();
+		final Concept arvConceptQuestion = this.metadataRegistry
+		        .getConcept(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+		final Concept quantityConcept = this.metadataRegistry.getConcept(MappedConcepts.MEDICATION_QUANTITY);
+		
+		final Map<Integer, Encounter> filasById = new LinkedHashMap<>();
+		final Map<Integer, Double> valuesToCancelByFilaId = new HashMap<>();
+		final Map<Integer, DrugOrder> drugOrdersByFilaId = new HashMap<>();
+		
+		for (final Obs obs : orderObs) {
+			
+			final Integer orderId = obs.getOrder().getOrderId();
+			final Encounter encounter = obs.getEncounter();
+			
+			// the FILA may still be waiting in the outbox, it is then built without the voided obs
+			if ((encounter == null) || !regimeOrderIds.contains(orderId) || !obs.getConcept().equals(arvConceptQuestion)
+			        || !filaEncounterTypeId.equals(encounter.getEncounterType().getEncounterTypeId())) {
+				continue;
 			}
+			
+			final Double valueToCancel = valuesToCancelByFilaId.get(encounter.getEncounterId());
+			valuesToCancelByFilaId.put(encounter.getEncounterId(),
+			    (valueToCancel == null ? 0.0 : valueToCancel) + obs.getValueNumeric());
+			filasById.put(encounter.getEncounterId(), encounter);
+			drugOrdersByFilaId.put(encounter.getEncounterId(), drugOrdersById.get(orderId));
 		}
-		if ((obsQuantity != null) && (valueToCancel > 0.0)) {
+		
+		for (final Encounter filaEncounter : filasById.values()) {
+			
+			final Double valueToCancel = valuesToCancelByFilaId.get(filaEncounter.getEncounterId());
+			Obs obsQuantity = null;
+			
+			for (final Obs obs : filaEncounter.getAllObs()) {
+				if (obs.getConcept().equals(quantityConcept)) {
+					obsQuantity = obs;
+				}
+			}
+			
+			if ((obsQuantity == null) || (valueToCancel <= 0.0)) {
+				continue;
+			}
 			
 			obsQuantity.setValueNumeric(obsQuantity.getValueNumeric() - valueToCancel);
 			
@@ -538,27 +1335,23 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 				Context.getEncounterService().voidEncounter(filaEncounter,
 				    "retired resulting from cancellation of regimen Dispensation");
 				
-				final PrescriptionDispensation prescriptionDispensation = Context
-				        .getService(PrescriptionDispensationService.class)
+				final DrugOrder drugOrder = drugOrdersByFilaId.get(filaEncounter.getEncounterId());
+				final PrescriptionDispensation prescriptionDispensation = this.prescriptionDispensationService
 				        .findPrescriptionDispensationByDispensation(drugOrder.getEncounter());
-				Context.getService(PrescriptionDispensationService.class).retire(drugOrder.getCreator(),
-				    prescriptionDispensation, "retired resulting from cancellation of regimen Dispensation");
+				this.prescriptionDispensationService.retire(drugOrder.getCreator(), prescriptionDispensation,
+				    "retired resulting from cancellation of regimen Dispensation");
 			}
 		}
 	}
 	
 	private Map<Encounter, List<DispensationItem>> groupDispensationItemsByPrescription(
-	        final Dispensation dispensation) {
+	        final Dispensation dispensation, final DispensationContext context) {
 		
 		final Map<Encounter, List<DispensationItem>> mapPrescription = new HashMap<>();
 		
-		final Map<String, Encounter> mapCachedPrescription = new HashMap<>();
-		
 		for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
 			
-			final Encounter prescription = mapCachedPrescription.get(dispensationItem.getPrescriptionUuid()) != null
-			        ? mapCachedPrescription.get(dispensationItem.getPrescriptionUuid())
-			        : Context.getEncounterService().getEncounterByUuid(dispensationItem.getPrescriptionUuid());
+			final Encounter prescription = context.getPrescription(dispensationItem.getPrescriptionUuid());
 			
 			List<DispensationItem> list = mapPrescription.get(prescription);
 			
@@ -571,23 +1364,18 @@ public class DispensationServiceImpl extends BaseOpenmrsService implements Dispe
 		return mapPrescription;
 	}
 	
-	private Prescription preparePrescription(final Encounter prescriptionEncounter) {
+	private Prescription preparePrescription(final Encounter prescriptionEncounter,
+	        final List<DrugOrder> prescriptionDrugOrders, final EncounterObsDigest encounterObsDigest) {
 		
-		final Order anyOrder = prescriptionEncounter.getOrders().iterator().next();
+		final Order anyOrder = prescriptionDrugOrders.isEmpty() ? prescriptionEncounter.getOrders().iterator().next()
+		        : prescriptionDrugOrders.get(0);
 		final Prescription prescription = new Prescription();
 		prescription.setProvider(anyOrder.getOrderer());
 		prescription.setPrescriptionEncounter(prescriptionEncounter);
 		prescription.setPatient(prescriptionEncounter.getPatient());
 		prescription.setLocation(prescriptionEncounter.getLocation());
-		final Set<Obs> allObs = prescriptionEncounter.getAllObs();
-		final Concept precriptionDateConcept = this.conceptService
-		        .getConceptByUuid(MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE);
-		for (final Obs obs : allObs) {
-			if (obs.getConcept().equals(precriptionDateConcept)) {
-				prescription.setPrescriptionDate(obs.getValueDatetime());
-				break;
-			}
-		}
+		prescription.setPrescriptionDate(encounterObsDigest.findValueDatetime(prescriptionEncounter,
+		    MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE));
 		return prescription;
 	}
 	
@@ -0,0 +1,88 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Provider;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+
+/**
+ * Holds the entities referenced by the uuids of a {@link Dispensation}, loaded upfront so that the
+ * validation rules and the service resolve each of them once instead of querying item by item.
+ * Entities that were not found are simply absent, the rules report them.
+ */
+public class DispensationContext {
+	
+	private final Patient patient;
+	
+	private final Location location;
+	
+	private final Provider provider;
+	
+	private final Map<String, DrugOrder> drugOrdersByUuid = new HashMap<>();
+	
+	private final Map<String, Encounter> prescriptionsByUuid = new HashMap<>();
+	
+	private final Map<String, Concept> regimesByUuid = new HashMap<>();
+	
+	public DispensationContext(final Patient patient, final Location location, final Provider provider,
+	        final Collection<DrugOrder> drugOrders, final Collection<Encounter> prescriptions,
+	        final Collection<Concept> regimes) {
+		
+		this.patient = patient;
+		this.location = location;
+		this.provider = provider;
+		
+		for (final DrugOrder drugOrder : drugOrders) {
+			this.drugOrdersByUuid.put(drugOrder.getUuid(), drugOrder);
+		}
+		for (final Encounter prescription : prescriptions) {
+			this.prescriptionsByUuid.put(prescription.getUuid(), prescription);
+		}
+		for (final Concept regime : regimes) {
+			this.regimesByUuid.put(regime.getUuid(), regime);
+		}
+	}
+	
+	public Patient getPatient() {
+		return this.patient;
+	}
+	
+	public Location getLocation() {
+		return this.location;
+	}
+	
+	public Provider getProvider() {
+		return this.provider;
+	}
+	
+	public DrugOrder getDrugOrder(final String uuid) {
+		return this.drugOrdersByUuid.get(uuid);
+	}
+	
+	public Encounter getPrescription(final String uuid) {
+		return this.prescriptionsByUuid.get(uuid);
+	}
+	
+	public Concept getRegime(final String uuid) {
+		return this.regimesByUuid.get(uuid);
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * In memory claims of the drug orders being dispensed, so that two pharmacists dispensing the same
+ * order at the same moment do not both revise it: the second claim fails at once instead of waiting
+ * for the first dispensation. The claims are split in stripes by the order uuid, dispensations of
+ * unrelated orders only meet on the short critical section of a stripe. A claim belongs to the
+ * thread of the transaction that made it, which may claim the order again, and must be released when
+ * that transaction completes. Other instances of the application are not seen, the unique previous
+ * order of {@code phm_order_lineage} guards the orders across them.
+ */
+@Component
+public class DispensationOrderLocks {
+	
+	static final int STRIPES = 64;
+	
+	private final Stripe[] stripes;
+	
+	public DispensationOrderLocks() {
+		this(STRIPES);
+	}
+	
+	DispensationOrderLocks(final int stripes) {
+		
+		this.stripes = new Stripe[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe();
+		}
+	}
+	
+	/**
+	 * Claims all the orders or none of them.
+	 *
+	 * @return the first order already claimed by another thread, or null when all the orders were
+	 *         claimed
+	 */
+	public String tryClaim(final Collection<String> orderUuids) {
+		
+		final Thread owner = Thread.currentThread();
+		final List<String> claimed = new ArrayList<>();
+		
+		for (final String orderUuid : new LinkedHashSet<>(orderUuids)) {
+			
+			final Stripe stripe = this.getStripe(orderUuid);
+			synchronized (stripe) {
+				
+				final Thread current = stripe.ownersByOrderUuid.get(orderUuid);
+				if (current == null) {
+					stripe.ownersByOrderUuid.put(orderUuid, owner);
+					claimed.add(orderUuid);
+					continue;
+				}
+				if (current == owner) {
+					continue;
+				}
+			}
+			
+			this.release(claimed);
+			return orderUuid;
+		}
+		return null;
+	}
+	
+	/**
+	 * Releases the orders claimed by the current thread, the claims of other threads are kept.
+	 */
+	public void release(final Collection<String> orderUuids) {
+		
+		final Thread owner = Thread.currentThread();
+		for (final String orderUuid : orderUuids) {
+			
+			final Stripe stripe = this.getStripe(orderUuid);
+			synchronized (stripe) {
+				
+				if (stripe.ownersByOrderUuid.get(orderUuid) == owner) {
+					stripe.ownersByOrderUuid.remove(orderUuid);
+				}
+			}
+		}
+	}
+	
+	private Stripe getStripe(final String orderUuid) {
+		
+		return this.stripes[(orderUuid.hashCode() & Integer.MAX_VALUE) % this.stripes.length];
+	}
+	
+	private static final class Stripe {
+		
+		private final Map<String, Thread> ownersByOrderUuid = new HashMap<>();
+	}
+}
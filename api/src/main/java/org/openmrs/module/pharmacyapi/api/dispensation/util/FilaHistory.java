@@ -0,0 +1,136 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterProvider;
+import org.openmrs.Order;
+import org.openmrs.Order.Action;
+import org.openmrs.Provider;
+import org.openmrs.module.pharmacyapi.api.common.util.EncounterObsDigest;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
+
+/**
+ * The prescription dispensations, drug orders, providers and obs of a range of FILA encounters,
+ * loaded with one query per kind of entity, so that the dispensation history is assembled in memory
+ * instead of querying FILA by FILA.
+ */
+public class FilaHistory {
+	
+	private final Map<Integer, PrescriptionDispensation> prescriptionDispensationsByFilaId = new HashMap<>();
+	
+	private final Map<Integer, DrugOrder> drugOrdersById = new HashMap<>();
+	
+	private final Map<Integer, List<DrugOrder>> drugOrdersByEncounterId = new HashMap<>();
+	
+	private final Map<Integer, Provider> providersByEncounterId = new HashMap<>();
+	
+	private final EncounterObsDigest encounterObsDigest;
+	
+	/**
+	 * @param encounterProviders the providers of the dispensations, the first one of each is kept
+	 */
+	public FilaHistory(final Collection<PrescriptionDispensation> prescriptionDispensations,
+	        final Collection<DrugOrder> drugOrders, final Collection<EncounterProvider> encounterProviders,
+	        final EncounterObsDigest encounterObsDigest) {
+		
+		this.encounterObsDigest = encounterObsDigest;
+		
+		for (final PrescriptionDispensation prescriptionDispensation : prescriptionDispensations) {
+			this.prescriptionDispensationsByFilaId.put(prescriptionDispensation.getFila().getEncounterId(),
+			    prescriptionDispensation);
+		}
+		
+		for (final DrugOrder drugOrder : drugOrders) {
+			
+			if (this.drugOrdersById.put(drugOrder.getOrderId(), drugOrder) != null) {
+				continue;
+			}
+			
+			final Integer encounterId = drugOrder.getEncounter().getEncounterId();
+			List<DrugOrder> encounterDrugOrders = this.drugOrdersByEncounterId.get(encounterId);
+			if (encounterDrugOrders == null) {
+				this.drugOrdersByEncounterId.put(encounterId, encounterDrugOrders = new ArrayList<>());
+			}
+			encounterDrugOrders.add(drugOrder);
+		}
+		
+		for (final EncounterProvider encounterProvider : encounterProviders) {
+			
+			final Integer encounterId = encounterProvider.getEncounter().getEncounterId();
+			if (!this.providersByEncounterId.containsKey(encounterId)) {
+				this.providersByEncounterId.put(encounterId, encounterProvider.getProvider());
+			}
+		}
+	}
+	
+	public PrescriptionDispensation getPrescriptionDispensation(final Encounter fila) {
+		return this.prescriptionDispensationsByFilaId.get(fila.getEncounterId());
+	}
+	
+	public Provider getProvider(final Encounter encounter) {
+		return this.providersByEncounterId.get(encounter.getEncounterId());
+	}
+	
+	public EncounterObsDigest getEncounterObsDigest() {
+		return this.encounterObsDigest;
+	}
+	
+	/**
+	 * @return the drug order referenced by an obs, the order itself is usually a proxy of
+	 *         {@link Order} that cannot be cast
+	 */
+	public DrugOrder getDrugOrder(final Order order) {
+		return this.drugOrdersById.get(order.getOrderId());
+	}
+	
+	public DrugOrder getPreviousOrder(final DrugOrder drugOrder) {
+		
+		final Order previousOrder = drugOrder.getPreviousOrder();
+		if (previousOrder == null) {
+			return null;
+		}
+		
+		final DrugOrder found = this.drugOrdersById.get(previousOrder.getOrderId());
+		return found != null ? found : (DrugOrder) previousOrder;
+	}
+	
+	public List<DrugOrder> getDrugOrders(final Encounter encounter) {
+		
+		final List<DrugOrder> drugOrders = this.drugOrdersByEncounterId.get(encounter.getEncounterId());
+		return drugOrders == null ? Collections.<DrugOrder> emptyList() : drugOrders;
+	}
+	
+	/**
+	 * @return the not voided drug orders of the encounter with the given action
+	 */
+	public List<DrugOrder> getDrugOrders(final Encounter encounter, final Action action) {
+		
+		final List<DrugOrder> drugOrders = new ArrayList<>();
+		for (final DrugOrder drugOrder : this.getDrugOrders(encounter)) {
+			
+			if (action.equals(drugOrder.getAction()) && !drugOrder.isVoided()) {
+				drugOrders.add(drugOrder);
+			}
+		}
+		return drugOrders;
+	}
+}
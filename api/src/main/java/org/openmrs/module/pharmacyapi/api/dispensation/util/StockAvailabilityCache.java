@@ -0,0 +1,170 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openmrs.Drug;
+import org.openmrs.Location;
+import org.openmrs.module.inventorypoc.batch.service.BatchService;
+import org.openmrs.module.pharmacyapi.api.common.util.DateUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Short lived snapshot, per location, of the drugs having a not expired batch on a given day. The
+ * dispensation validation checks all the drugs of a dispensation against it, so that the same
+ * location and drug are not queried again for every dispensation of the morning rush. A snapshot
+ * is dropped after {@link #TTL_MILLIS}. The drugs whose stock is changed through the dispensation
+ * service are dropped from the snapshot of their location once the change is committed, so that a
+ * concurrent validation cannot load the stock of before the commit back into it.
+ */
+@Component
+public class StockAvailabilityCache {
+	
+	static final long TTL_MILLIS = 60 * 1000L;
+	
+	@Autowired
+	private BatchService batchService;
+	
+	private final ConcurrentMap<Integer, Snapshot> snapshotsByLocationId = new ConcurrentHashMap<>();
+	
+	/**
+	 * @return the given drugs, without repetitions, that have no batch on the location still valid at
+	 *         the end of the day of the date
+	 */
+	public List<Drug> findDrugsWithoutStock(final Location location, final Collection<Drug> drugs,
+	        final Date date) {
+		
+		final Date endOfDay = DateUtils.highDateTime(date);
+		final Map<Integer, Boolean> stockByDrugId = this.getSnapshot(location).getStockByDrugId(endOfDay);
+		
+		final Map<Integer, Drug> distinctDrugs = new LinkedHashMap<>();
+		for (final Drug drug : drugs) {
+			distinctDrugs.put(drug.getDrugId(), drug);
+		}
+		
+		final List<Drug> drugsWithoutStock = new ArrayList<>();
+		for (final Drug drug : distinctDrugs.values()) {
+			
+			Boolean hasStock = stockByDrugId.get(drug.getDrugId());
+			if (hasStock == null) {
+				hasStock = !this.batchService.findBatchesByDrugAndLocationAndNotExpiredDate(drug, location, endOfDay)
+				        .isEmpty();
+				stockByDrugId.put(drug.getDrugId(), hasStock);
+			}
+			if (!hasStock) {
+				drugsWithoutStock.add(drug);
+			}
+		}
+		return drugsWithoutStock;
+	}
+	
+	/**
+	 * Drops the drugs from the snapshot of the location when the current transaction commits, or at
+	 * once when there is no transaction. Nothing is dropped when the transaction rolls back, since the
+	 * stock did not change.
+	 */
+	public void invalidateOnCommit(final Location location, final Collection<Drug> drugs) {
+		
+		final Integer locationId = location.getLocationId();
+		final Set<Integer> drugIds = new HashSet<>();
+		for (final Drug drug : drugs) {
+			drugIds.add(drug.getDrugId());
+		}
+		
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			this.invalidate(locationId, drugIds);
+			return;
+		}
+		
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			
+			@Override
+			public void afterCommit() {
+				StockAvailabilityCache.this.invalidate(locationId, drugIds);
+			}
+		});
+	}
+	
+	void invalidate(final Integer locationId, final Set<Integer> drugIds) {
+		
+		final Snapshot snapshot = this.snapshotsByLocationId.get(locationId);
+		if (snapshot != null) {
+			snapshot.remove(drugIds);
+		}
+	}
+	
+	public void invalidateAll() {
+		
+		this.snapshotsByLocationId.clear();
+	}
+	
+	private Snapshot getSnapshot(final Location location) {
+		
+		final long now = System.currentTimeMillis();
+		final Snapshot current = this.snapshotsByLocationId.get(location.getLocationId());
+		
+		if ((current != null) && ((now - current.loadedAt) < TTL_MILLIS)) {
+			return current;
+		}
+		
+		final Snapshot snapshot = new Snapshot(now);
+		this.snapshotsByLocationId.put(location.getLocationId(), snapshot);
+		return snapshot;
+	}
+	
+	private static final class Snapshot {
+		
+		private final long loadedAt;
+		
+		private final ConcurrentMap<Date, ConcurrentMap<Integer, Boolean>> stockByDayAndDrugId = new ConcurrentHashMap<>();
+		
+		private Snapshot(final long loadedAt) {
+			
+			this.loadedAt = loadedAt;
+		}
+		
+		private Map<Integer, Boolean> getStockByDrugId(final Date day) {
+			
+			ConcurrentMap<Integer, Boolean> stockByDrugId = this.stockByDayAndDrugId.get(day);
+			if (stockByDrugId == null) {
+				
+				final ConcurrentMap<Integer, Boolean> created = new ConcurrentHashMap<>();
+				stockByDrugId = this.stockByDayAndDrugId.putIfAbsent(day, created);
+				if (stockByDrugId == null) {
+					stockByDrugId = created;
+				}
+			}
+			return stockByDrugId;
+		}
+		
+		private void remove(final Set<Integer> drugIds) {
+			
+			for (final ConcurrentMap<Integer, Boolean> stockByDrugId : this.stockByDayAndDrugId.values()) {
+				stockByDrugId.keySet().removeAll(drugIds);
+			}
+		}
+	}
+}
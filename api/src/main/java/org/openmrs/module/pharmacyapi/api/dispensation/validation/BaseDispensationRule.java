@@ -0,0 +1,32 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.validation;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.service.DispensationService;
+
+/**
+ * A dispensation rule validated on its own loads the entities of the dispensation first, the
+ * {@link DispensationValidator} loads them once and passes them to all its rules.
+ */
+public abstract class BaseDispensationRule implements IDispensationRuleValidation {
+	
+	@Override
+	public void validate(final Dispensation dispensation) throws PharmacyBusinessException {
+		
+		this.validate(dispensation,
+		    Context.getService(DispensationService.class).loadDispensationContext(dispensation));
+	}
+}
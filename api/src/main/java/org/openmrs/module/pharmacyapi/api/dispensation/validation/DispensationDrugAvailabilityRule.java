@@ -18,43 +18,34 @@ import java.util.List;
 import org.apache.commons.lang3.StringUtils;
 import org.openmrs.Drug;
 import org.openmrs.DrugOrder;
-import org.openmrs.Location;
-import org.openmrs.api.context.Context;
-import org.openmrs.module.inventorypoc.batch.model.Batch;
-import org.openmrs.module.inventorypoc.batch.service.BatchService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationItem;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.StockAvailabilityCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
-public class DispensationDrugAvailabilityRule implements IDispensationRuleValidation {
+public class DispensationDrugAvailabilityRule extends BaseDispensationRule {
 	
 	@Autowired
-	private BatchService batchService;
+	private StockAvailabilityCache stockAvailabilityCache;
 	
 	@Override
-	public void validate(final Dispensation dispensation) throws PharmacyBusinessException {
+	public void validate(final Dispensation dispensation, final DispensationContext context)
+	        throws PharmacyBusinessException {
 		
-		final List<DispensationItem> dispensationItems = dispensation.getDispensationItems();
-		final Location location = Context.getLocationService().getLocationByUuid(dispensation.getLocationUuid());
-		
-		final List<Drug> drugsWithoutStock = new ArrayList<>();
-		for (final DispensationItem dispensationItem : dispensationItems) {
-			
-			final DrugOrder drugOrder = (DrugOrder) Context.getOrderService()
-			        .getOrderByUuid(dispensationItem.getOrderUuid());
-			final Drug drug = Context.getConceptService().getDrug(drugOrder.getDrug().getDrugId());
+		final List<Drug> drugs = new ArrayList<>();
+		for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
 			
-			final List<Batch> batches = this.batchService.findBatchesByDrugAndLocationAndNotExpiredDate(drug, location,
-			    dispensation.getDispensationDate());
-			
-			if (batches.isEmpty()) {
-				drugsWithoutStock.add(drugOrder.getDrug());
-			}
+			final DrugOrder drugOrder = context.getDrugOrder(dispensationItem.getOrderUuid());
+			drugs.add(drugOrder.getDrug());
 		}
 		
+		final List<Drug> drugsWithoutStock = this.stockAvailabilityCache.findDrugsWithoutStock(context.getLocation(),
+		    drugs, dispensation.getDispensationDate());
+		
 		if (!drugsWithoutStock.isEmpty()) {
 			
 			throw new PharmacyBusinessException("pharmacyapi.error.insufficent.stock.for.dispensation",
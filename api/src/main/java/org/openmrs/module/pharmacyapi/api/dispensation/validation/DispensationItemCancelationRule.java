@@ -12,31 +12,28 @@
  */
 package org.openmrs.module.pharmacyapi.api.dispensation.validation;
 
-import java.util.Arrays;
 import java.util.Date;
 
 import org.openmrs.DrugOrder;
-import org.openmrs.Order;
-import org.openmrs.Order.Action;
 import org.openmrs.api.APIException;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationItem;
-import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
-import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
-import org.openmrs.module.pharmacyapi.api.prescription.util.PrescriptionGenerator;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem.PrescriptionItemStatus;
+import org.openmrs.module.pharmacyapi.api.prescription.util.OrderStatusEvaluator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
-public class DispensationItemCancelationRule implements IDispensationRuleValidation {
+public class DispensationItemCancelationRule extends BaseDispensationRule {
 	
 	@Autowired
-	private PrescriptionGenerator prescriptionGenerator;
+	private OrderStatusEvaluator orderStatusEvaluator;
 	
 	@Override
-	public void validate(final Dispensation dispensation) throws PharmacyBusinessException {
+	public void validate(final Dispensation dispensation, final DispensationContext context)
+	        throws PharmacyBusinessException {
 		
 		if (dispensation == null) {
 			
@@ -48,16 +45,24 @@ public class DispensationItemCancelationRule implements IDispensationRuleValidat
 			throw new PharmacyBusinessException("No provided Item(s) of drugOrder to be Dispensed");
 		}
 		
+		if (context.getPatient() == null) {
+			throw new PharmacyBusinessException("Patient not found for given uuid " + dispensation.getPatientUuid());
+		}
+		
 		for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
 			
-			final DrugOrder order = (DrugOrder) Context.getOrderService()
-			        .getOrderByUuid(dispensationItem.getOrderUuid());
+			final DrugOrder order = context.getDrugOrder(dispensationItem.getOrderUuid());
 			
 			if (order == null) {
 				throw new PharmacyBusinessException(
 				        "No Order found for given uuid: " + dispensationItem.getOrderUuid());
 			}
 			
+			if (!order.getPatient().getPatientId().equals(context.getPatient().getPatientId())) {
+				throw new PharmacyBusinessException("pharmacyapi.error.dispensation.order.of.another.patient",
+				        order.getUuid());
+			}
+			
 			this.validateForInterruptedReason(order);
 			this.validateForExpirationReason(order, dispensation.getDispensationDate());
 		}
@@ -65,21 +70,15 @@ public class DispensationItemCancelationRule implements IDispensationRuleValidat
 	
 	private void validateForInterruptedReason(final DrugOrder order) {
 		
-		Order childOrder = null;
-		if (Action.REVISE.equals(order.getAction())) {
-			childOrder = Context.getService(PharmacyHeuristicService.class).findOrderByPreviousOrder(order);
-		}
-		if ((order.getOrderReason() != null) || ((childOrder != null) && (childOrder.getOrderReason() != null))) {
+		if (this.orderStatusEvaluator.isInterrupted(order)) {
 			throw new APIException("Medicamento " + order.getDrug().getDisplayName()
 			        + " não pode ser cancelado pois foi interrompido");
 		}
 	}
 	
-	private void validateForExpirationReason(final DrugOrder order, final Date date) throws PharmacyBusinessException {
+	private void validateForExpirationReason(final DrugOrder order, final Date date) {
 		
-		final Prescription prescription = this.prescriptionGenerator.generatePrescriptions(Arrays.asList(order), date)
-		        .iterator().next();
-		if (Prescription.PrescriptionStatus.EXPIRED.equals(prescription.getPrescriptionStatus())) {
+		if (PrescriptionItemStatus.EXPIRED.equals(this.orderStatusEvaluator.evaluate(order, date))) {
 			throw new APIException(
 			        "Medicamento " + order.getDrug().getDisplayName() + " não pode ser cancelado pois está expirado");
 		}
@@ -13,19 +13,19 @@
 package org.openmrs.module.pharmacyapi.api.dispensation.validation;
 
 import org.openmrs.DrugOrder;
-import org.openmrs.Encounter;
 import org.openmrs.Order.Action;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationItem;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
 import org.springframework.stereotype.Component;
 
 @Component
-public class DispensationItemCreationRule implements IDispensationRuleValidation {
+public class DispensationItemCreationRule extends BaseDispensationRule {
 	
 	@Override
-	public void validate(final Dispensation dispensation) throws PharmacyBusinessException {
+	public void validate(final Dispensation dispensation, final DispensationContext context)
+	        throws PharmacyBusinessException {
 		
 		if (dispensation == null) {
 			
@@ -39,15 +39,15 @@ public class DispensationItemCreationRule implements IDispensationRuleValidation
 		
 		for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
 			
-			final DrugOrder order = (DrugOrder) Context.getOrderService()
-			        .getOrderByUuid(dispensationItem.getOrderUuid());
+			final DrugOrder order = context.getDrugOrder(dispensationItem.getOrderUuid());
 			
-			this.checkIfOrderIsVoided(order);
 			this.checkDrugOrderIfNull(dispensationItem, order);
+			this.checkIfOrderIsVoided(order);
+			this.checkIfOrderIsStopped(order);
 			this.checkQuantityToDispense(dispensationItem, order);
 			this.checkIfOrderActionIsDiscontinue(dispensationItem, order);
 			this.checkQuantityAmountIfLessOrEqualThanOrderQuantity(dispensationItem, order);
-			this.checkIfPrescriptionEncounterExist(dispensationItem, order);
+			this.checkIfPrescriptionEncounterExist(dispensationItem, order, context);
 		}
 	}
 	
@@ -58,13 +58,19 @@ public class DispensationItemCreationRule implements IDispensationRuleValidation
 		}
 	}
 	
-	private void checkIfPrescriptionEncounterExist(final DispensationItem dispensationItem, final DrugOrder order)
-	        throws PharmacyBusinessException {
+	private void checkIfOrderIsStopped(final DrugOrder order) throws PharmacyBusinessException {
 		
-		final Encounter prescriptionEncounter = Context.getEncounterService()
-		        .getEncounterByUuid(dispensationItem.getPrescriptionUuid());
+		// a dispensed order is stopped by the revision or the discontinuation that dispensed it
+		if (order.getDateStopped() != null) {
+			throw new PharmacyBusinessException("pharmacyapi.error.dispensation.order.already.dispensed",
+			        order.getUuid());
+		}
+	}
+	
+	private void checkIfPrescriptionEncounterExist(final DispensationItem dispensationItem, final DrugOrder order,
+	        final DispensationContext context) throws PharmacyBusinessException {
 		
-		if (prescriptionEncounter == null) {
+		if (context.getPrescription(dispensationItem.getPrescriptionUuid()) == null) {
 			
 			throw new PharmacyBusinessException("Encounter of Prescription not Found for Dispensation Item " + order);
 		}
@@ -20,6 +20,7 @@ import javax.annotation.PostConstruct;
 
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -67,20 +68,21 @@ public class DispensationValidator {
 		
 	}
 	
-	public void validateCreation(final Dispensation dispensation) throws PharmacyBusinessException {
+	public void validateCreation(final Dispensation dispensation, final DispensationContext context)
+	        throws PharmacyBusinessException {
 		
 		for (final IDispensationRuleValidation rule : this.rulesForCreateDispensation) {
 			
-			rule.validate(dispensation);
+			rule.validate(dispensation, context);
 		}
 	}
 	
-	public void validateCancellation(final Dispensation dispensation, final Date date)
-	        throws PharmacyBusinessException {
+	public void validateCancellation(final Dispensation dispensation, final DispensationContext context,
+	        final Date date) throws PharmacyBusinessException {
 		
 		for (final IDispensationRuleValidation rule : this.rulesForCancellationDispensation) {
 			
-			rule.validate(dispensation);
+			rule.validate(dispensation, context);
 		}
 	}
 }
@@ -12,12 +12,18 @@
  */
 package org.openmrs.module.pharmacyapi.api.dispensation.validation;
 
+import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.common.validation.IValidationRule;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
 
 /**
  * s *
  */
 public interface IDispensationRuleValidation extends IValidationRule<Dispensation> {
 	
+	/**
+	 * @param context the entities referenced by the dispensation, loaded once for all the rules
+	 */
+	void validate(Dispensation dispensation, DispensationContext context) throws PharmacyBusinessException;
 }
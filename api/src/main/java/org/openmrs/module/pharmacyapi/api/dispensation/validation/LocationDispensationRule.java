@@ -12,25 +12,23 @@
  */
 package org.openmrs.module.pharmacyapi.api.dispensation.validation;
 
-import org.openmrs.Location;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
 import org.springframework.stereotype.Component;
 
 @Component
-public class LocationDispensationRule implements IDispensationRuleValidation {
+public class LocationDispensationRule extends BaseDispensationRule {
 	
 	@Override
-	public void validate(final Dispensation dispensation) throws PharmacyBusinessException {
+	public void validate(final Dispensation dispensation, final DispensationContext context)
+	        throws PharmacyBusinessException {
 		
 		if (dispensation == null) {
 			throw new PharmacyBusinessException(" Invalid Dispensation argument");
 		}
 		
-		final Location location = Context.getLocationService().getLocationByUuid(dispensation.getLocationUuid());
-		
-		if (location == null) {
+		if (context.getLocation() == null) {
 			
 			throw new PharmacyBusinessException(
 			        "Location with uuid '" + dispensation.getLocationUuid() + "' not found");
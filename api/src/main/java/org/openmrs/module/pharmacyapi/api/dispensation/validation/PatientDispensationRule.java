@@ -12,25 +12,23 @@
  */
 package org.openmrs.module.pharmacyapi.api.dispensation.validation;
 
-import org.openmrs.Patient;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
 import org.springframework.stereotype.Component;
 
 @Component
-public class PatientDispensationRule implements IDispensationRuleValidation {
+public class PatientDispensationRule extends BaseDispensationRule {
 	
 	@Override
-	public void validate(final Dispensation dispensation) throws PharmacyBusinessException {
+	public void validate(final Dispensation dispensation, final DispensationContext context)
+	        throws PharmacyBusinessException {
 		
 		if (dispensation == null) {
 			throw new PharmacyBusinessException(" Invalid prescriprion argument");
 		}
 		
-		final Patient patient = Context.getPatientService().getPatientByUuid(dispensation.getPatientUuid());
-		
-		if (patient == null) {
+		if (context.getPatient() == null) {
 			throw new PharmacyBusinessException("Patient not found for given uuid " + dispensation.getPatientUuid());
 		}
 	}
@@ -12,31 +12,26 @@
  */
 package org.openmrs.module.pharmacyapi.api.dispensation.validation;
 
-import java.util.Collection;
-
-import org.openmrs.Person;
-import org.openmrs.Provider;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationContext;
 import org.springframework.stereotype.Component;
 
 /**
  *
  */
 @Component
-public class ProviderDispensationRule implements IDispensationRuleValidation {
+public class ProviderDispensationRule extends BaseDispensationRule {
 	
 	@Override
-	public void validate(final Dispensation dispensation) throws PharmacyBusinessException {
+	public void validate(final Dispensation dispensation, final DispensationContext context)
+	        throws PharmacyBusinessException {
 		
 		if (dispensation == null) {
 			throw new PharmacyBusinessException(" Invalid Dispensation argument");
 		}
-		final Person person = Context.getPersonService().getPersonByUuid(dispensation.getProviderUuid());
-		final Collection<Provider> providers = Context.getProviderService().getProvidersByPerson(person);
 		
-		if ((providers == null) || providers.isEmpty()) {
+		if (context.getProvider() == null) {
 			throw new PharmacyBusinessException("Provider not found for given uuid " + dispensation.getProviderUuid());
 		}
 	}
@@ -45,6 +45,10 @@ public interface DrugItemDAO {
 	
 	List<DrugItem> findAll(Boolean retired);
 	
+	List<DrugItem> findAll(Boolean retired, int firstResult, int maxResults);
+	
+	long countAll(Boolean retired);
+	
 	DrugItem findByFNM(String fnm);
 	
 }
@@ -17,6 +17,8 @@ import java.util.List;
 import org.hibernate.Criteria;
 import org.hibernate.Query;
 import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.openmrs.module.pharmacyapi.api.common.exception.EntityNotFoundException;
 import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
@@ -71,6 +73,37 @@ public class DrugItemDAOImpl implements DrugItemDAO {
 		
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugItem> findAll(final Boolean retired, final int firstResult, final int maxResults) {
+		
+		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(DrugItem.class,
+		    "drugItem");
+		
+		if (!retired) {
+			searchCriteria.add(Restrictions.eq("drugItem.retired", false));
+		}
+		searchCriteria.addOrder(Order.asc("drugItem.drugId"));
+		searchCriteria.setFirstResult(firstResult);
+		searchCriteria.setMaxResults(maxResults);
+		
+		return searchCriteria.list();
+	}
+	
+	@Override
+	public long countAll(final Boolean retired) {
+		
+		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(DrugItem.class,
+		    "drugItem");
+		
+		if (!retired) {
+			searchCriteria.add(Restrictions.eq("drugItem.retired", false));
+		}
+		searchCriteria.setProjection(Projections.rowCount());
+		
+		return ((Number) searchCriteria.uniqueResult()).longValue();
+	}
+	
 	@Override
 	public DrugItem findByFNM(final String fnm) {
 		
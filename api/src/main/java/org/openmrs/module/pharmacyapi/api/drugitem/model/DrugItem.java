@@ -23,21 +23,32 @@ import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToOne;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.QueryHints;
 import org.openmrs.Concept;
 import org.openmrs.Drug;
 import org.openmrs.module.pharmacyapi.api.common.model.BaseOpenmrsMetadataWrapper;
+import org.openmrs.module.pharmacyapi.api.common.util.CatalogCache;
 import org.openmrs.module.pharmacyapi.api.drugitem.dao.DrugItemDAO;
 
 /**
  *
  */
-@NamedQueries(value = { @NamedQuery(name = DrugItemDAO.QUERY_NAME.findByDrugId, query = DrugItemDAO.QUERY.findByDrugId),
-        @NamedQuery(name = DrugItemDAO.QUERY_NAME.findByUUID, query = DrugItemDAO.QUERY.findByUUID) })
+@NamedQueries(value = {
+        @NamedQuery(name = DrugItemDAO.QUERY_NAME.findByDrugId, query = DrugItemDAO.QUERY.findByDrugId, hints = {
+                @QueryHint(name = QueryHints.CACHEABLE, value = "true"),
+                @QueryHint(name = QueryHints.CACHE_REGION, value = CatalogCache.CATALOG_QUERY_REGION) }),
+        @NamedQuery(name = DrugItemDAO.QUERY_NAME.findByUUID, query = DrugItemDAO.QUERY.findByUUID, hints = {
+                @QueryHint(name = QueryHints.CACHEABLE, value = "true"),
+                @QueryHint(name = QueryHints.CACHE_REGION, value = CatalogCache.CATALOG_QUERY_REGION) }) })
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "phm_drug_items", uniqueConstraints = { @UniqueConstraint(columnNames = { "fnm_code" }) })
 public class DrugItem extends BaseOpenmrsMetadataWrapper implements Serializable {
 	
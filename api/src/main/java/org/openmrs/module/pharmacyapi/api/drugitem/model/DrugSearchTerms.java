@@ -0,0 +1,63 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.drugitem.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The texts a drug is searched by in the typeahead: its name, the FNM code of its drug item and
+ * the names of its concept.
+ */
+public class DrugSearchTerms {
+	
+	private final Integer drugId;
+	
+	private final Integer conceptId;
+	
+	private final String name;
+	
+	private final List<String> terms = new ArrayList<>();
+	
+	public DrugSearchTerms(final Integer drugId, final Integer conceptId, final String name) {
+		this.drugId = drugId;
+		this.conceptId = conceptId;
+		this.name = name;
+	}
+	
+	public Integer getDrugId() {
+		return this.drugId;
+	}
+	
+	public Integer getConceptId() {
+		return this.conceptId;
+	}
+	
+	public String getName() {
+		return this.name;
+	}
+	
+	/**
+	 * @return the FNM code and concept names, the name excluded
+	 */
+	public List<String> getTerms() {
+		return this.terms;
+	}
+	
+	public void addTerm(final String term) {
+		
+		if (term != null) {
+			this.terms.add(term);
+		}
+	}
+}
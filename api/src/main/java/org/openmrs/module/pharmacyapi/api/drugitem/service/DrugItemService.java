@@ -16,6 +16,7 @@ import java.util.List;
 
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.drugitem.dao.DrugItemDAO;
 import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
 
@@ -29,6 +30,8 @@ public interface DrugItemService extends OpenmrsService {
 	
 	List<DrugItem> findAllDrugItem(Boolean retired);
 	
+	PagedResult<DrugItem> findAllDrugItem(Boolean retired, int startIndex, int limit, boolean includeTotalCount);
+	
 	DrugItem findDrugItemByDrugId(Integer drugId) throws PharmacyBusinessException;
 	
 	DrugItem findDrugItemByFNM(String fnm);
@@ -13,6 +13,7 @@ import java.util.List;
 
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.drugitem.dao.DrugItemDAO;
 import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
 import org.springframework.transaction.annotation.Transactional;
@@ -42,6 +43,14 @@ public class DrugItemServiceImpl extends BaseOpenmrsService implements DrugItemS
 		return this.drugItemDAO.findAll(retired);
 	}
 	
+	@Override
+	public PagedResult<DrugItem> findAllDrugItem(final Boolean retired, final int startIndex, final int limit,
+	        final boolean includeTotalCount) {
+		
+		return PagedResult.fromFetched(this.drugItemDAO.findAll(retired, startIndex, limit + 1), limit,
+		    includeTotalCount ? this.drugItemDAO.countAll(retired) : null);
+	}
+	
 	@Override
 	public DrugItem findDrugItemByDrugId(final Integer drugId) throws PharmacyBusinessException {
 		return this.drugItemDAO.findByDrugId(drugId);
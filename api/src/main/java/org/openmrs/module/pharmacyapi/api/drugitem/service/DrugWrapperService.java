@@ -12,11 +12,14 @@
  */
 package org.openmrs.module.pharmacyapi.api.drugitem.service;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.hibernate.SessionFactory;
 import org.openmrs.Drug;
 import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugSearchTerms;
 
 /**
  * Wrapper used as a workaround to a problem we are having with the DrugResource rest
@@ -25,5 +28,17 @@ public interface DrugWrapperService extends OpenmrsService {
 	
 	void setSessionFactory(SessionFactory sessionFactory);
 	
+	/**
+	 * @return the not retired drugs whose name, FNM code or concept names match the phrase, ranked
+	 *         by the in memory drug search index
+	 */
 	List<Drug> findDrugsByNameLike(String phrase);
+	
+	PagedResult<Drug> findDrugsByNameLike(String phrase, int startIndex, int limit, boolean includeTotalCount);
+	
+	/**
+	 * @param drugIds the drugs to load, all the not retired ones when null
+	 * @return the terms the drug search index is built from, retired drugs left out
+	 */
+	List<DrugSearchTerms> findDrugSearchTerms(Collection<Integer> drugIds);
 }
@@ -12,15 +12,23 @@
  */
 package org.openmrs.module.pharmacyapi.api.drugitem.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.hibernate.Criteria;
+import org.hibernate.Query;
 import org.hibernate.SessionFactory;
-import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Restrictions;
 import org.openmrs.Drug;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugSearchTerms;
+import org.openmrs.module.pharmacyapi.api.drugitem.util.DrugSearchIndex;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -31,22 +39,106 @@ public class DrugWrapperServiceImpl extends BaseOpenmrsService implements DrugWr
 	
 	private SessionFactory sessionFactory;
 	
+	@Autowired
+	private DrugSearchIndex drugSearchIndex;
+	
 	@Override
 	public void setSessionFactory(SessionFactory sessionFactory) {
 		this.sessionFactory = sessionFactory;
 	}
 	
-	@SuppressWarnings("unchecked")
 	@Override
 	public List<Drug> findDrugsByNameLike(String phrase) {
 		
 		if (phrase == null || phrase.length() < 3) {
 			return Collections.emptyList();
 		}
-		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(Drug.class, "drug");
-		searchCriteria.add(Restrictions.eq("drug.retired", false));
-		searchCriteria.add(Restrictions.like("drug.name", phrase, MatchMode.START));
+		return this.findDrugsByIds(this.drugSearchIndex.search(phrase));
+	}
+	
+	@Override
+	public PagedResult<Drug> findDrugsByNameLike(String phrase, int startIndex, int limit, boolean includeTotalCount) {
+		
+		if (phrase == null || phrase.length() < 3) {
+			return new PagedResult<>(Collections.<Drug> emptyList(), false, includeTotalCount ? 0L : null);
+		}
+		
+		final List<Integer> drugIds = this.drugSearchIndex.search(phrase);
+		final int fromIndex = Math.min(startIndex, drugIds.size());
+		final int toIndex = Math.min(startIndex + limit + 1, drugIds.size());
+		
+		return PagedResult.fromFetched(this.findDrugsByIds(drugIds.subList(fromIndex, toIndex)), limit,
+		    includeTotalCount ? Long.valueOf(drugIds.size()) : null);
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<DrugSearchTerms> findDrugSearchTerms(Collection<Integer> drugIds) {
+		
+		if (drugIds != null && drugIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final Map<Integer, DrugSearchTerms> termsByDrugId = new LinkedHashMap<>();
+		for (final Object[] row : this.list("select drug.drugId, drug.concept.conceptId, drug.name from Drug drug "
+		        + " where drug.retired is false", "drug.drugId", drugIds)) {
+			termsByDrugId.put((Integer) row[0],
+			    new DrugSearchTerms((Integer) row[0], (Integer) row[1], (String) row[2]));
+		}
+		
+		final List<Object[]> terms = this.list("select drugItem.drugId, drugItem.fnmCode from DrugItem drugItem "
+		        + " where drugItem.retired is false", "drugItem.drugId", drugIds);
+		terms.addAll(this.list("select drug.drugId, conceptName.name from Drug drug join drug.concept concept "
+		        + " join concept.names conceptName where drug.retired is false and conceptName.voided is false",
+		    "drug.drugId", drugIds));
+		
+		for (final Object[] row : terms) {
+			
+			final DrugSearchTerms drugSearchTerms = termsByDrugId.get(row[0]);
+			if (drugSearchTerms != null) {
+				drugSearchTerms.addTerm((String) row[1]);
+			}
+		}
+		return new ArrayList<>(termsByDrugId.values());
+	}
+	
+	/**
+	 * @return the drugs in the order of the ids
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Drug> findDrugsByIds(List<Integer> drugIds) {
+		
+		if (drugIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final Map<Integer, Drug> drugsById = new HashMap<>();
+		for (final Drug drug : (List<Drug>) this.sessionFactory.getCurrentSession().createCriteria(Drug.class, "drug")
+		        .add(Restrictions.in("drug.drugId", drugIds)).list()) {
+			drugsById.put(drug.getDrugId(), drug);
+		}
+		
+		final List<Drug> drugs = new ArrayList<>();
+		for (final Integer drugId : drugIds) {
+			if (drugsById.containsKey(drugId)) {
+				drugs.add(drugsById.get(drugId));
+			}
+		}
+		return drugs;
+	}
+	
+	/**
+	 * @param drugIds restricts the rows to these drugs, unless null
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Object[]> list(String hql, String drugIdProperty, Collection<Integer> drugIds) {
+		
+		if (drugIds == null) {
+			return this.sessionFactory.getCurrentSession().createQuery(hql).list();
+		}
 		
-		return searchCriteria.list();
+		final Query query = this.sessionFactory.getCurrentSession()
+		        .createQuery(hql + " and " + drugIdProperty + " in (:drugIds)");
+		return query.setParameterList("drugIds", drugIds).list();
 	}
 }
@@ -0,0 +1,496 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.drugitem.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugSearchTerms;
+import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugWrapperService;
+import org.springframework.stereotype.Component;
+
+/**
+ * In memory search index of the not retired drugs, used by the drug typeahead. Each drug is
+ * searched by its name, the FNM code of its drug item and the names of its concept, matched
+ * without case nor accents. A prefix trie over the tokens answers the prefix matches and the
+ * postings of the trigrams of the tokens the infix ones, so that a search does not go to the
+ * database.
+ * <p>
+ * The index is loaded on first use. The drugs changed afterwards, as reported by
+ * {@link DrugSearchIndexInterceptor}, are reloaded alone on the next search and the view is
+ * rebuilt from the drugs already in memory.
+ */
+@Component
+public class DrugSearchIndex {
+	
+	private static final Log LOG = LogFactory.getLog(DrugSearchIndex.class);
+	
+	/**
+	 * Ranks of a match, the lower the better
+	 */
+	private static final int EXACT = 0;
+	
+	private static final int PREFIX = 1;
+	
+	private static final int TOKEN_PREFIX = 2;
+	
+	private static final int INFIX = 3;
+	
+	private static final int GRAM = 3;
+	
+	private final AtomicInteger version = new AtomicInteger();
+	
+	private final Set<Integer> changedDrugIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	
+	private final Set<Integer> changedConceptIds = Collections
+	        .newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	
+	private volatile Snapshot snapshot;
+	
+	/**
+	 * @return the ids of the drugs matching every word of the phrase, the best matches first: the
+	 *         ones with a term equal to the phrase, then starting with it, then having words starting
+	 *         with each of its words and last containing them; ties are ordered by name
+	 */
+	public List<Integer> search(final String phrase) {
+		
+		final String query = normalize(phrase);
+		if (query.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return this.getSnapshot().search(query);
+	}
+	
+	/**
+	 * Reloads the given drugs, and the drugs of the given concepts, on the next search
+	 */
+	public void markChanged(final Collection<Integer> drugIds, final Collection<Integer> conceptIds) {
+		
+		this.changedDrugIds.addAll(drugIds);
+		this.changedConceptIds.addAll(conceptIds);
+	}
+	
+	public void invalidate() {
+		
+		this.version.incrementAndGet();
+	}
+	
+	/**
+	 * Loads all the drugs and swaps the whole view at once. The view keeps the version read before
+	 * loading, so an {@link #invalidate()} that happens while loading discards it on the next access.
+	 * The changes marked until then are cleared, the load reads them already.
+	 */
+	public synchronized void rebuild() {
+		
+		final int loadedVersion = this.version.get();
+		this.changedDrugIds.clear();
+		this.changedConceptIds.clear();
+		
+		final List<Document> documents = this.loadDocuments(null);
+		this.snapshot = new Snapshot(loadedVersion, documents);
+		
+		LOG.info("Pharmacy drug search index loaded " + documents.size() + " drugs");
+	}
+	
+	static String normalize(final String text) {
+		
+		if (text == null) {
+			return "";
+		}
+		
+		final String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+		final StringBuilder normalized = new StringBuilder(decomposed.length());
+		
+		boolean pendingSpace = false;
+		for (int i = 0; i < decomposed.length(); i++) {
+			
+			final char c = decomposed.charAt(i);
+			if (Character.getType(c) == Character.NON_SPACING_MARK) {
+				continue;
+			}
+			if (Character.isLetterOrDigit(c)) {
+				if (pendingSpace && (normalized.length() > 0)) {
+					normalized.append(' ');
+				}
+				normalized.append(Character.toLowerCase(c));
+				pendingSpace = false;
+			} else {
+				pendingSpace = true;
+			}
+		}
+		return normalized.toString();
+	}
+	
+	private Snapshot getSnapshot() {
+		
+		final Snapshot current = this.snapshot;
+		
+		if ((current == null) || (current.version != this.version.get())) {
+			this.rebuild();
+			return this.snapshot;
+		}
+		if (!this.changedDrugIds.isEmpty() || !this.changedConceptIds.isEmpty()) {
+			return this.applyChanges();
+		}
+		return current;
+	}
+	
+	private synchronized Snapshot applyChanges() {
+		
+		final Snapshot current = this.snapshot;
+		
+		final Set<Integer> drugIds = new HashSet<>();
+		for (final Integer drugId : new ArrayList<>(this.changedDrugIds)) {
+			this.changedDrugIds.remove(drugId);
+			drugIds.add(drugId);
+		}
+		for (final Integer conceptId : new ArrayList<>(this.changedConceptIds)) {
+			this.changedConceptIds.remove(conceptId);
+			drugIds.addAll(current.getDrugIds(conceptId));
+		}
+		if (drugIds.isEmpty()) {
+			return current;
+		}
+		
+		final Map<Integer, Document> documentsByDrugId = new HashMap<>();
+		for (final Document document : current.documents) {
+			if (!drugIds.contains(document.drugId)) {
+				documentsByDrugId.put(document.drugId, document);
+			}
+		}
+		for (final Document document : this.loadDocuments(drugIds)) {
+			documentsByDrugId.put(document.drugId, document);
+		}
+		
+		this.snapshot = new Snapshot(current.version, new ArrayList<>(documentsByDrugId.values()));
+		return this.snapshot;
+	}
+	
+	/**
+	 * @param drugIds the drugs to load, all when null; the ones retired or deleted are left out
+	 */
+	private List<Document> loadDocuments(final Collection<Integer> drugIds) {
+		
+		final List<Document> documents = new ArrayList<>();
+		for (final DrugSearchTerms drugSearchTerms : Context.getService(DrugWrapperService.class)
+		        .findDrugSearchTerms(drugIds)) {
+			documents.add(new Document(drugSearchTerms));
+		}
+		return documents;
+	}
+	
+	/**
+	 * A drug as it is searched, with its terms normalized
+	 */
+	private static final class Document {
+		
+		private final int drugId;
+		
+		private final Integer conceptId;
+		
+		private final String name;
+		
+		private final String[] terms;
+		
+		private final String[] tokens;
+		
+		private Document(final DrugSearchTerms drugSearchTerms) {
+			
+			this.drugId = drugSearchTerms.getDrugId();
+			this.conceptId = drugSearchTerms.getConceptId();
+			this.name = normalize(drugSearchTerms.getName());
+			
+			final Set<String> normalizedTerms = new LinkedHashSet<>();
+			final Set<String> tokens = new LinkedHashSet<>();
+			normalizedTerms.add(this.name);
+			for (final String term : drugSearchTerms.getTerms()) {
+				normalizedTerms.add(normalize(term));
+			}
+			normalizedTerms.remove("");
+			for (final String term : normalizedTerms) {
+				tokens.addAll(Arrays.asList(term.split(" ")));
+			}
+			
+			this.terms = normalizedTerms.toArray(new String[normalizedTerms.size()]);
+			this.tokens = tokens.toArray(new String[tokens.size()]);
+		}
+		
+		private boolean hasTokenContaining(final String queryToken) {
+			
+			for (final String token : this.tokens) {
+				if (token.contains(queryToken)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private int rank(final String query) {
+			
+			int rank = TOKEN_PREFIX;
+			for (final String term : this.terms) {
+				if (term.equals(query)) {
+					return EXACT;
+				}
+				if (term.startsWith(query)) {
+					rank = PREFIX;
+				}
+			}
+			return rank;
+		}
+	}
+	
+	private static final class Snapshot {
+		
+		private final int version;
+		
+		private final Document[] documents;
+		
+		private final TrieNode trie = new TrieNode();
+		
+		private final Map<String, int[]> postingsByGram = new HashMap<>();
+		
+		private final Map<Integer, List<Integer>> drugIdsByConceptId = new HashMap<>();
+		
+		private Snapshot(final int version, final List<Document> documents) {
+			
+			this.version = version;
+			this.documents = documents.toArray(new Document[documents.size()]);
+			
+			// the postings are then ordered by name, which is the order of the ties
+			Arrays.sort(this.documents, new Comparator<Document>() {
+				
+				@Override
+				public int compare(final Document a, final Document b) {
+					
+					final int byName = a.name.compareTo(b.name);
+					return byName != 0 ? byName : Integer.compare(a.drugId, b.drugId);
+				}
+			});
+			
+			final Map<String, List<Integer>> grams = new HashMap<>();
+			for (int i = 0; i < this.documents.length; i++) {
+				
+				final Document document = this.documents[i];
+				if (document.conceptId != null) {
+					List<Integer> drugIds = this.drugIdsByConceptId.get(document.conceptId);
+					if (drugIds == null) {
+						this.drugIdsByConceptId.put(document.conceptId, drugIds = new ArrayList<>());
+					}
+					drugIds.add(document.drugId);
+				}
+				
+				for (final String token : document.tokens) {
+					
+					this.trie.add(token, i);
+					for (int start = 0; (start + GRAM) <= token.length(); start++) {
+						this.addPosting(grams, token.substring(start, start + GRAM), i);
+					}
+				}
+			}
+			for (final Entry<String, List<Integer>> entry : grams.entrySet()) {
+				this.postingsByGram.put(entry.getKey(), toArray(entry.getValue()));
+			}
+			this.trie.seal();
+		}
+		
+		private List<Integer> getDrugIds(final Integer conceptId) {
+			
+			final List<Integer> drugIds = this.drugIdsByConceptId.get(conceptId);
+			return drugIds == null ? Collections.<Integer> emptyList() : drugIds;
+		}
+		
+		private List<Integer> search(final String query) {
+			
+			BitSet matches = null;
+			BitSet tokenPrefixMatches = null;
+			
+			for (final String queryToken : query.split(" ")) {
+				
+				final BitSet prefixes = this.findPrefixes(queryToken);
+				final BitSet tokenMatches = (BitSet) prefixes.clone();
+				tokenMatches.or(this.findInfixes(queryToken, matches));
+				
+				if (matches == null) {
+					matches = tokenMatches;
+					tokenPrefixMatches = prefixes;
+				} else {
+					matches.and(tokenMatches);
+					tokenPrefixMatches.and(prefixes);
+				}
+				if (matches.isEmpty()) {
+					return Collections.emptyList();
+				}
+			}
+			
+			final List<List<Integer>> drugIdsByRank = new ArrayList<>();
+			for (int rank = EXACT; rank <= INFIX; rank++) {
+				drugIdsByRank.add(new ArrayList<Integer>());
+			}
+			for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+				
+				final Document document = this.documents[i];
+				final int rank = tokenPrefixMatches.get(i) ? document.rank(query) : INFIX;
+				drugIdsByRank.get(rank).add(document.drugId);
+			}
+			
+			final List<Integer> drugIds = new ArrayList<>(matches.cardinality());
+			for (final List<Integer> rankDrugIds : drugIdsByRank) {
+				drugIds.addAll(rankDrugIds);
+			}
+			return drugIds;
+		}
+		
+		private BitSet findPrefixes(final String queryToken) {
+			
+			final BitSet found = new BitSet(this.documents.length);
+			final TrieNode node = this.trie.find(queryToken);
+			if (node != null) {
+				for (final int posting : node.postings) {
+					found.set(posting);
+				}
+			}
+			return found;
+		}
+		
+		/**
+		 * @param candidates the documents matching the previous words of the query, all when null
+		 */
+		private BitSet findInfixes(final String queryToken, final BitSet candidates) {
+			
+			final BitSet found = new BitSet(this.documents.length);
+			if (queryToken.length() < GRAM) {
+				return found;
+			}
+			
+			BitSet withGrams = candidates == null ? null : (BitSet) candidates.clone();
+			for (int start = 0; (start + GRAM) <= queryToken.length(); start++) {
+				
+				final int[] postings = this.postingsByGram.get(queryToken.substring(start, start + GRAM));
+				if (postings == null) {
+					return found;
+				}
+				
+				final BitSet gramMatches = new BitSet(this.documents.length);
+				for (final int posting : postings) {
+					gramMatches.set(posting);
+				}
+				if (withGrams == null) {
+					withGrams = gramMatches;
+				} else {
+					withGrams.and(gramMatches);
+				}
+			}
+			
+			// the grams may be spread over different tokens
+			for (int i = withGrams.nextSetBit(0); i >= 0; i = withGrams.nextSetBit(i + 1)) {
+				if (this.documents[i].hasTokenContaining(queryToken)) {
+					found.set(i);
+				}
+			}
+			return found;
+		}
+		
+		private void addPosting(final Map<String, List<Integer>> map, final String key, final int posting) {
+			
+			List<Integer> postings = map.get(key);
+			if (postings == null) {
+				map.put(key, postings = new ArrayList<>());
+			}
+			if (postings.isEmpty() || (postings.get(postings.size() - 1) != posting)) {
+				postings.add(posting);
+			}
+		}
+	}
+	
+	/**
+	 * A node of the prefix trie, holding the documents having a token starting with the path to it
+	 */
+	private static final class TrieNode {
+		
+		private Map<Character, TrieNode> children = new HashMap<>();
+		
+		private List<Integer> postingList = new ArrayList<>();
+		
+		private int[] postings;
+		
+		private void add(final String token, final int posting) {
+			
+			TrieNode node = this;
+			for (int i = 0; i < token.length(); i++) {
+				
+				TrieNode child = node.children.get(token.charAt(i));
+				if (child == null) {
+					node.children.put(token.charAt(i), child = new TrieNode());
+				}
+				child.addPosting(posting);
+				node = child;
+			}
+		}
+		
+		private void addPosting(final int posting) {
+			
+			final int size = this.postingList.size();
+			if ((size == 0) || (this.postingList.get(size - 1) != posting)) {
+				this.postingList.add(posting);
+			}
+		}
+		
+		private TrieNode find(final String prefix) {
+			
+			TrieNode node = this;
+			for (int i = 0; (i < prefix.length()) && (node != null); i++) {
+				node = node.children.get(prefix.charAt(i));
+			}
+			return node;
+		}
+		
+		/**
+		 * Turns the postings into arrays once all the tokens are added
+		 */
+		private void seal() {
+			
+			this.postings = toArray(this.postingList);
+			this.postingList = null;
+			for (final TrieNode child : this.children.values()) {
+				child.seal();
+			}
+		}
+	}
+	
+	private static int[] toArray(final List<Integer> values) {
+		
+		final int[] array = new int[values.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = values.get(i);
+		}
+		return array;
+	}
+}
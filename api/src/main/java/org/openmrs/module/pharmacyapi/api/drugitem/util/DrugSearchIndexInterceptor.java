@@ -0,0 +1,111 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.drugitem.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.ConceptName;
+import org.openmrs.Drug;
+import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports to the {@link DrugSearchIndex} the drugs inserted, updated or deleted by a transaction,
+ * directly or through their {@link DrugItem} or the names of their concept, once it is committed.
+ * The entities are kept until then because the ids of the new ones are only generated on insert, and
+ * they are dropped when the transaction rolls back.
+ */
+@Component("interceptor.drugSearchIndex")
+public class DrugSearchIndexInterceptor extends EmptyInterceptor {
+	
+	private static final long serialVersionUID = -6342179453102748816L;
+	
+	private static final ThreadLocal<List<Object>> CHANGED = new ThreadLocal<>();
+	
+	@Autowired
+	private transient DrugSearchIndex drugSearchIndex;
+	
+	@Override
+	public boolean onSave(final Object entity, final Serializable id, final Object[] state,
+	        final String[] propertyNames, final Type[] types) {
+		
+		this.registerChange(entity);
+		return false;
+	}
+	
+	@Override
+	public boolean onFlushDirty(final Object entity, final Serializable id, final Object[] currentState,
+	        final Object[] previousState, final String[] propertyNames, final Type[] types) {
+		
+		this.registerChange(entity);
+		return false;
+	}
+	
+	@Override
+	public void onDelete(final Object entity, final Serializable id, final Object[] state,
+	        final String[] propertyNames, final Type[] types) {
+		
+		this.registerChange(entity);
+	}
+	
+	@Override
+	public void afterTransactionCompletion(final Transaction tx) {
+		
+		final List<Object> changed = CHANGED.get();
+		if (changed == null) {
+			return;
+		}
+		CHANGED.remove();
+		
+		// a transaction not known to Hibernate is taken as committed, a needless reload is harmless
+		if ((tx != null) && !tx.wasCommitted()) {
+			return;
+		}
+		
+		final Set<Integer> drugIds = new HashSet<>();
+		final Set<Integer> conceptIds = new HashSet<>();
+		for (final Object entity : changed) {
+			
+			if (entity instanceof Drug) {
+				drugIds.add(((Drug) entity).getDrugId());
+			} else if (entity instanceof DrugItem) {
+				drugIds.add(((DrugItem) entity).getId());
+			} else if (((ConceptName) entity).getConcept() != null) {
+				conceptIds.add(((ConceptName) entity).getConcept().getConceptId());
+			}
+		}
+		drugIds.remove(null);
+		conceptIds.remove(null);
+		this.drugSearchIndex.markChanged(drugIds, conceptIds);
+	}
+	
+	private void registerChange(final Object entity) {
+		
+		if ((entity instanceof Drug) || (entity instanceof DrugItem) || (entity instanceof ConceptName)) {
+			
+			List<Object> changed = CHANGED.get();
+			if (changed == null) {
+				CHANGED.set(changed = new ArrayList<>());
+			}
+			changed.add(entity);
+		}
+	}
+}
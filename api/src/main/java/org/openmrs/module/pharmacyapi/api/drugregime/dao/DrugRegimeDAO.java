@@ -16,6 +16,7 @@ import java.util.List;
 
 import org.hibernate.SessionFactory;
 import org.openmrs.Concept;
+import org.openmrs.Drug;
 import org.openmrs.module.pharmacyapi.api.common.exception.EntityNotFoundException;
 import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
 import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
@@ -47,8 +48,19 @@ public interface DrugRegimeDAO {
 	
 	List<DrugRegime> findByRegime(Concept regime, boolean retired);
 	
+	/**
+	 * @return the drug regimes with their regime, drug item and drug loaded by the same query
+	 */
 	List<DrugRegime> findAll(boolean retired);
 	
+	List<DrugRegime> findAll(boolean retired, int firstResult, int maxResults);
+	
+	long countAll(boolean retired);
+	
+	List<Drug> findArvDrugs(int firstResult, int maxResults);
+	
+	long countArvDrugs();
+	
 	DrugRegime findByUuid(String uuid);
 	
 	DrugRegime findByRegimeAndDrugItem(Concept regime, DrugItem drugItem) throws EntityNotFoundException;
@@ -17,8 +17,11 @@ import java.util.List;
 import org.hibernate.Criteria;
 import org.hibernate.Query;
 import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.openmrs.Concept;
+import org.openmrs.Drug;
 import org.openmrs.module.pharmacyapi.api.common.exception.EntityNotFoundException;
 import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
 import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
@@ -50,15 +53,60 @@ public class DrugRegimeDAOImpl implements DrugRegimeDAO {
 	@Override
 	public List<DrugRegime> findAll(final boolean retired) {
 		
+		final String hql = "select drugRegime from DrugRegime drugRegime join fetch drugRegime.regime "
+		        + " join fetch drugRegime.drugItem drugItem join fetch drugItem.drug"
+		        + (retired ? "" : " where drugRegime.retired = false");
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugRegime> findAll(final boolean retired, final int firstResult, final int maxResults) {
+		
 		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(DrugRegime.class,
 		    "drugRegime");
 		
 		if (!retired) {
 			searchCriteria.add(Restrictions.eq("drugRegime.retired", false));
 		}
+		searchCriteria.addOrder(Order.asc("drugRegime.drugRegimeId"));
+		searchCriteria.setFirstResult(firstResult);
+		searchCriteria.setMaxResults(maxResults);
+		
 		return searchCriteria.list();
 	}
 	
+	@Override
+	public long countAll(final boolean retired) {
+		
+		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(DrugRegime.class,
+		    "drugRegime");
+		
+		if (!retired) {
+			searchCriteria.add(Restrictions.eq("drugRegime.retired", false));
+		}
+		searchCriteria.setProjection(Projections.rowCount());
+		
+		return ((Number) searchCriteria.uniqueResult()).longValue();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Drug> findArvDrugs(final int firstResult, final int maxResults) {
+		
+		return this.sessionFactory.getCurrentSession()
+		        .createQuery("select drugRegime.drugItem.drug from DrugRegime drugRegime "
+		                + " where drugRegime.retired is false order by drugRegime.drugRegimeId")
+		        .setFirstResult(firstResult).setMaxResults(maxResults).list();
+	}
+	
+	@Override
+	public long countArvDrugs() {
+		
+		return this.countAll(false);
+	}
+	
 	@Override
 	public DrugRegime findByUuid(final String uuid) {
 		
@@ -22,19 +22,29 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.QueryHints;
 import org.openmrs.Concept;
 import org.openmrs.module.pharmacyapi.api.common.model.BaseOpenmrsMetadataWrapper;
+import org.openmrs.module.pharmacyapi.api.common.util.CatalogCache;
 import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
 import org.openmrs.module.pharmacyapi.api.drugregime.dao.DrugRegimeDAO;
 
 @NamedQueries(value = {
         @NamedQuery(name = DrugRegimeDAO.QUERY_NAME.findByRegime, query = DrugRegimeDAO.QUERY.findByRegime),
-        @NamedQuery(name = DrugRegimeDAO.QUERY_NAME.findByRegimeAndDrugItem, query = DrugRegimeDAO.QUERY.findByRegimeAndDrugItem),
-        @NamedQuery(name = DrugRegimeDAO.QUERY_NAME.findByDrugUuid, query = DrugRegimeDAO.QUERY.findByDrugUuid) })
+        @NamedQuery(name = DrugRegimeDAO.QUERY_NAME.findByRegimeAndDrugItem, query = DrugRegimeDAO.QUERY.findByRegimeAndDrugItem, hints = {
+                @QueryHint(name = QueryHints.CACHEABLE, value = "true"),
+                @QueryHint(name = QueryHints.CACHE_REGION, value = CatalogCache.CATALOG_QUERY_REGION) }),
+        @NamedQuery(name = DrugRegimeDAO.QUERY_NAME.findByDrugUuid, query = DrugRegimeDAO.QUERY.findByDrugUuid, hints = {
+                @QueryHint(name = QueryHints.CACHEABLE, value = "true"),
+                @QueryHint(name = QueryHints.CACHE_REGION, value = CatalogCache.CATALOG_QUERY_REGION) }) })
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "phm_drug_regime", uniqueConstraints = { @UniqueConstraint(columnNames = { "drug_item_id", "regime_id" }) })
 public class DrugRegime extends BaseOpenmrsMetadataWrapper implements Serializable {
 	
@@ -18,6 +18,7 @@ import org.openmrs.Concept;
 import org.openmrs.Drug;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
 import org.openmrs.module.pharmacyapi.api.drugregime.dao.DrugRegimeDAO;
 import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
@@ -33,6 +34,8 @@ public interface DrugRegimeService extends OpenmrsService {
 	
 	List<DrugRegime> findAllDrugRegimes(Boolean retired);
 	
+	PagedResult<DrugRegime> findAllDrugRegimes(Boolean retired, int startIndex, int limit, boolean includeTotalCount);
+	
 	DrugRegime findDrugRegimeByUuid(String uuid);
 	
 	DrugRegime findDrugRegimeByRegimeAndDrugItem(Concept regime, DrugItem drugItem) throws PharmacyBusinessException;
@@ -41,4 +44,6 @@ public interface DrugRegimeService extends OpenmrsService {
 	
 	List<Drug> findArvDrugs();
 	
+	PagedResult<Drug> findArvDrugs(int startIndex, int limit, boolean includeTotalCount);
+	
 }
@@ -21,6 +21,7 @@ import org.openmrs.Concept;
 import org.openmrs.Drug;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
 import org.openmrs.module.pharmacyapi.api.drugregime.dao.DrugRegimeDAO;
 import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
@@ -52,6 +53,14 @@ public class DrugRegimeServiceImpl extends BaseOpenmrsService implements DrugReg
 		return this.drugRegimeDAO.findAll(retired);
 	}
 	
+	@Override
+	public PagedResult<DrugRegime> findAllDrugRegimes(final Boolean retired, final int startIndex, final int limit,
+	        final boolean includeTotalCount) {
+		
+		return PagedResult.fromFetched(this.drugRegimeDAO.findAll(retired, startIndex, limit + 1), limit,
+		    includeTotalCount ? this.drugRegimeDAO.countAll(retired) : null);
+	}
+	
 	@Override
 	public DrugRegime findDrugRegimeByUuid(final String uuid) {
 		
@@ -80,6 +89,13 @@ public class DrugRegimeServiceImpl extends BaseOpenmrsService implements DrugReg
 		return drugs;
 	}
 	
+	@Override
+	public PagedResult<Drug> findArvDrugs(final int startIndex, final int limit, final boolean includeTotalCount) {
+		
+		return PagedResult.fromFetched(this.drugRegimeDAO.findArvDrugs(startIndex, limit + 1), limit,
+		    includeTotalCount ? this.drugRegimeDAO.countArvDrugs() : null);
+	}
+	
 	@Override
 	public List<DrugRegime> findDrugRegimeByDrugUuid(final String drugUuid) {
 		
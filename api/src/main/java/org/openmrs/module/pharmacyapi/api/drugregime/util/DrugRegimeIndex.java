@@ -0,0 +1,264 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.drugregime.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Drug;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
+import org.openmrs.module.pharmacyapi.api.drugregime.service.DrugRegimeService;
+import org.springframework.stereotype.Component;
+
+/**
+ * In memory view of phm_drug_regime used by the ARV checks. It holds the regimes of each drug (by
+ * drug uuid), the drugs of each regime and the (regime, drug) pairs, all keyed by the primitive ids
+ * so that a lookup does not go to the database, throw or allocate. The view is loaded on first use
+ * and replaced as a whole when {@link DrugRegimeIndexInterceptor} sees a {@link DrugRegime} or a
+ * DrugItem being changed. A single thread loads the new view, the others keep reading the previous
+ * one meanwhile and only wait for the first load.
+ */
+@Component
+public class DrugRegimeIndex {
+	
+	private static final Log LOG = LogFactory.getLog(DrugRegimeIndex.class);
+	
+	private static final int[] NONE = new int[0];
+	
+	private final AtomicInteger version = new AtomicInteger();
+	
+	final ReentrantLock rebuildLock = new ReentrantLock();
+	
+	private volatile Snapshot snapshot;
+	
+	/**
+	 * @return the concept ids of the regimes (retired ones included) the drug belongs to; the
+	 *         returned array is shared and must not be modified
+	 */
+	public int[] getRegimeIds(final String drugUuid) {
+		
+		final int[] regimeIds = this.getSnapshot().regimeIdsByDrugUuid.get(drugUuid);
+		return regimeIds == null ? NONE : regimeIds;
+	}
+	
+	/**
+	 * @return the ids of the drugs of the regime (retired entries included); the returned array is
+	 *         shared and must not be modified
+	 */
+	public int[] getDrugIds(final Integer regimeId) {
+		
+		final int[] drugIds = this.getSnapshot().drugIdsByRegimeId.get(regimeId);
+		return drugIds == null ? NONE : drugIds;
+	}
+	
+	public boolean hasRegimes(final Drug drug) {
+		
+		return this.getSnapshot().regimeIdsByDrugUuid.containsKey(drug.getUuid());
+	}
+	
+	public boolean isMember(final int regimeId, final int drugId) {
+		
+		return this.getSnapshot().members.contains(regimeId, drugId);
+	}
+	
+	/**
+	 * @return true when the drug is part of a non retired regime, the same drugs returned by
+	 *         {@link DrugRegimeService#findArvDrugs()}
+	 */
+	public boolean isArvDrug(final Drug drug) {
+		
+		return this.getSnapshot().arvDrugUuids.contains(drug.getUuid());
+	}
+	
+	public void invalidate() {
+		
+		this.version.incrementAndGet();
+	}
+	
+	/**
+	 * Loads the regimes and swaps the whole view at once. A change that happens while loading bumps
+	 * the version, so the view being built is discarded on the next access.
+	 */
+	public void rebuild() {
+		
+		this.rebuildLock.lock();
+		try {
+			this.load();
+		}
+		finally {
+			this.rebuildLock.unlock();
+		}
+	}
+	
+	private Snapshot getSnapshot() {
+		
+		final Snapshot current = this.snapshot;
+		
+		if ((current != null) && (current.version == this.version.get())) {
+			return current;
+		}
+		
+		if (current == null) {
+			this.rebuildLock.lock();
+		} else if (!this.rebuildLock.tryLock()) {
+			return current;
+		}
+		
+		try {
+			final Snapshot loaded = this.snapshot;
+			if ((loaded == null) || (loaded.version != this.version.get())) {
+				this.load();
+			}
+			return this.snapshot;
+		}
+		finally {
+			this.rebuildLock.unlock();
+		}
+	}
+	
+	private void load() {
+		
+		final int loadedVersion = this.version.get();
+		final List<DrugRegime> drugRegimes = Context.getService(DrugRegimeService.class).findAllDrugRegimes(true);
+		this.snapshot = new Snapshot(loadedVersion, drugRegimes);
+		
+		LOG.info("Pharmacy drug regime index loaded " + drugRegimes.size() + " drug regimes");
+	}
+	
+	private static final class Snapshot {
+		
+		private final int version;
+		
+		private final Map<String, int[]> regimeIdsByDrugUuid = new HashMap<>();
+		
+		private final Map<Integer, int[]> drugIdsByRegimeId = new HashMap<>();
+		
+		private final Set<String> arvDrugUuids = new HashSet<>();
+		
+		private final PairSet members;
+		
+		private Snapshot(final int version, final List<DrugRegime> drugRegimes) {
+			
+			this.version = version;
+			this.members = new PairSet(drugRegimes.size());
+			
+			final Map<String, List<Integer>> regimeIds = new HashMap<>();
+			final Map<Integer, List<Integer>> drugIds = new HashMap<>();
+			
+			for (final DrugRegime drugRegime : drugRegimes) {
+				
+				final Drug drug = drugRegime.getDrugItem().getDrug();
+				final Integer regimeId = drugRegime.getRegime().getConceptId();
+				
+				this.addValue(regimeIds, drug.getUuid(), regimeId);
+				this.addValue(drugIds, regimeId, drug.getDrugId());
+				this.members.add(regimeId, drug.getDrugId());
+				
+				if (!drugRegime.isRetired()) {
+					this.arvDrugUuids.add(drug.getUuid());
+				}
+			}
+			
+			for (final Entry<String, List<Integer>> entry : regimeIds.entrySet()) {
+				this.regimeIdsByDrugUuid.put(entry.getKey(), this.toArray(entry.getValue()));
+			}
+			for (final Entry<Integer, List<Integer>> entry : drugIds.entrySet()) {
+				this.drugIdsByRegimeId.put(entry.getKey(), this.toArray(entry.getValue()));
+			}
+		}
+		
+		private <K> void addValue(final Map<K, List<Integer>> map, final K key, final Integer value) {
+			
+			List<Integer> values = map.get(key);
+			if (values == null) {
+				map.put(key, values = new ArrayList<>());
+			}
+			values.add(value);
+		}
+		
+		private int[] toArray(final List<Integer> values) {
+			
+			final int[] array = new int[values.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = values.get(i);
+			}
+			return array;
+		}
+	}
+	
+	/**
+	 * Open addressing set of (regime id, drug id) pairs packed in a long. Ids are positive, so zero
+	 * marks a free slot.
+	 */
+	private static final class PairSet {
+		
+		private final long[] keys;
+		
+		private final int mask;
+		
+		private PairSet(final int expectedSize) {
+			
+			int capacity = 16;
+			while (capacity < (expectedSize * 2)) {
+				capacity <<= 1;
+			}
+			this.keys = new long[capacity];
+			this.mask = capacity - 1;
+		}
+		
+		private void add(final int regimeId, final int drugId) {
+			
+			final long key = key(regimeId, drugId);
+			int slot = this.slot(key);
+			
+			while ((this.keys[slot] != 0) && (this.keys[slot] != key)) {
+				slot = (slot + 1) & this.mask;
+			}
+			this.keys[slot] = key;
+		}
+		
+		private boolean contains(final int regimeId, final int drugId) {
+			
+			final long key = key(regimeId, drugId);
+			int slot = this.slot(key);
+			
+			while (this.keys[slot] != 0) {
+				if (this.keys[slot] == key) {
+					return true;
+				}
+				slot = (slot + 1) & this.mask;
+			}
+			return false;
+		}
+		
+		private int slot(final long key) {
+			
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & this.mask;
+		}
+		
+		private static long key(final int regimeId, final int drugId) {
+			
+			return ((long) regimeId << 32) | (drugId & 0xFFFFFFFFL);
+		}
+	}
+}
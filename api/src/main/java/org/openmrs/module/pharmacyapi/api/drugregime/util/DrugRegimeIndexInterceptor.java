@@ -0,0 +1,79 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.drugregime.util;
+
+import java.io.Serializable;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
+import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Invalidates the {@link DrugRegimeIndex} once a transaction that inserted, updated or deleted a
+ * {@link DrugRegime} or a {@link DrugItem} is completed. The module has no write path of its own
+ * for these entities, so the changes are caught at the session level. The bean name prefix is
+ * what makes the core session factory chain it with its own interceptors.
+ */
+@Component("interceptor.drugRegimeIndex")
+public class DrugRegimeIndexInterceptor extends EmptyInterceptor {
+	
+	private static final long serialVersionUID = 4812365809346128734L;
+	
+	private static final ThreadLocal<Boolean> CHANGED = new ThreadLocal<>();
+	
+	@Autowired
+	private transient DrugRegimeIndex drugRegimeIndex;
+	
+	@Override
+	public boolean onSave(final Object entity, final Serializable id, final Object[] state,
+	        final String[] propertyNames, final Type[] types) {
+		
+		this.registerChange(entity);
+		return false;
+	}
+	
+	@Override
+	public boolean onFlushDirty(final Object entity, final Serializable id, final Object[] currentState,
+	        final Object[] previousState, final String[] propertyNames, final Type[] types) {
+		
+		this.registerChange(entity);
+		return false;
+	}
+	
+	@Override
+	public void onDelete(final Object entity, final Serializable id, final Object[] state,
+	        final String[] propertyNames, final Type[] types) {
+		
+		this.registerChange(entity);
+	}
+	
+	@Override
+	public void afterTransactionCompletion(final Transaction tx) {
+		
+		if (Boolean.TRUE.equals(CHANGED.get())) {
+			CHANGED.remove();
+			this.drugRegimeIndex.invalidate();
+		}
+	}
+	
+	private void registerChange(final Object entity) {
+		
+		if ((entity instanceof DrugRegime) || (entity instanceof DrugItem)) {
+			CHANGED.set(Boolean.TRUE);
+		}
+	}
+}
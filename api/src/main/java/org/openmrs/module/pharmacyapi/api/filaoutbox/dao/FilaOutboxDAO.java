@@ -0,0 +1,102 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.filaoutbox.dao;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.openmrs.Encounter;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry.FilaOutboxStatus;
+
+public interface FilaOutboxDAO {
+	
+	public interface QUERY_NAME {
+		
+		String findByUuid = "FilaOutboxEntry.findByUuid";
+		
+		String findByDispensation = "FilaOutboxEntry.findByDispensation";
+		
+		String findIdsByStatusesAndDueDate = "FilaOutboxEntry.findIdsByStatusesAndDueDate";
+		
+		String claim = "FilaOutboxEntry.claim";
+		
+		String findIdsByStatusAndOwner = "FilaOutboxEntry.findIdsByStatusAndOwner";
+		
+		String findByIdAndStatusAndOwner = "FilaOutboxEntry.findByIdAndStatusAndOwner";
+		
+		String findByStatus = "FilaOutboxEntry.findByStatus";
+		
+		String countByStatus = "FilaOutboxEntry.countByStatus";
+	}
+	
+	public interface QUERY {
+		
+		String findByUuid = "select entry from FilaOutboxEntry entry where entry.uuid = :uuid";
+		
+		String findByDispensation = "select entry from FilaOutboxEntry entry where entry.dispensation = :dispensation";
+		
+		String findIdsByStatusesAndDueDate = "select entry.filaOutboxId from FilaOutboxEntry entry where entry.status in (:statuses) and entry.nextAttemptDate <= :dueDate order by entry.nextAttemptDate, entry.filaOutboxId";
+		
+		String claim = "update FilaOutboxEntry entry set entry.status = :claimed, entry.claimedBy = :owner, entry.nextAttemptDate = :leaseEnd where entry.filaOutboxId in (:filaOutboxIds) and entry.status in (:statuses) and entry.nextAttemptDate <= :dueDate";
+		
+		String findIdsByStatusAndOwner = "select entry.filaOutboxId from FilaOutboxEntry entry where entry.status = :status and entry.claimedBy = :owner order by entry.filaOutboxId";
+		
+		String findByIdAndStatusAndOwner = "select entry from FilaOutboxEntry entry where entry.filaOutboxId = :filaOutboxId and entry.status = :status and entry.claimedBy = :owner";
+		
+		String findByStatus = "select entry from FilaOutboxEntry entry where entry.status = :status order by entry.filaOutboxId desc";
+		
+		String countByStatus = "select entry.status, count(entry.filaOutboxId) from FilaOutboxEntry entry group by entry.status";
+	}
+	
+	void setSessionFactory(SessionFactory sessionFactory);
+	
+	FilaOutboxEntry save(FilaOutboxEntry filaOutboxEntry);
+	
+	FilaOutboxEntry findById(Integer filaOutboxId);
+	
+	FilaOutboxEntry findByUuid(String uuid);
+	
+	FilaOutboxEntry findByDispensation(Encounter dispensation);
+	
+	/**
+	 * @return the ids of the entries with any of the statuses whose next attempt is due, the oldest
+	 *         first
+	 */
+	List<Integer> findIdsByStatusesAndDueDate(Collection<FilaOutboxStatus> statuses, Date dueDate, int limit);
+	
+	/**
+	 * Claims for the owner, with a single update, the given entries still having any of the statuses
+	 * and due. An entry claimed by a concurrent owner in the meantime is left out.
+	 *
+	 * @return the number of entries claimed
+	 */
+	int claim(Collection<Integer> filaOutboxIds, Collection<FilaOutboxStatus> statuses, Date dueDate, String owner,
+	        Date leaseEnd);
+	
+	List<Integer> findIdsByStatusAndOwner(FilaOutboxStatus status, String owner);
+	
+	/**
+	 * @return the entry with the status and owner, or null
+	 */
+	FilaOutboxEntry findByIdAndStatusAndOwner(Integer filaOutboxId, FilaOutboxStatus status, String owner);
+	
+	List<FilaOutboxEntry> findByStatus(FilaOutboxStatus status, int startIndex, int limit);
+	
+	/**
+	 * @return pairs of status and number of entries, for the statuses having entries
+	 */
+	List<Object[]> countByStatus();
+}
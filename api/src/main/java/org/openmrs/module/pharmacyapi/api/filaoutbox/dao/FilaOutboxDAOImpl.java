@@ -0,0 +1,131 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.filaoutbox.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.EntityKey;
+import org.openmrs.Encounter;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry.FilaOutboxStatus;
+
+public class FilaOutboxDAOImpl implements FilaOutboxDAO {
+	
+	private SessionFactory sessionFactory;
+	
+	@Override
+	public void setSessionFactory(final SessionFactory sessionFactory) {
+		
+		this.sessionFactory = sessionFactory;
+	}
+	
+	@Override
+	public FilaOutboxEntry save(final FilaOutboxEntry filaOutboxEntry) {
+		
+		this.sessionFactory.getCurrentSession().saveOrUpdate(filaOutboxEntry);
+		return filaOutboxEntry;
+	}
+	
+	@Override
+	public FilaOutboxEntry findById(final Integer filaOutboxId) {
+		
+		return (FilaOutboxEntry) this.sessionFactory.getCurrentSession().get(FilaOutboxEntry.class, filaOutboxId);
+	}
+	
+	@Override
+	public FilaOutboxEntry findByUuid(final String uuid) {
+		
+		return (FilaOutboxEntry) this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(FilaOutboxDAO.QUERY_NAME.findByUuid).setParameter("uuid", uuid).uniqueResult();
+	}
+	
+	@Override
+	public FilaOutboxEntry findByDispensation(final Encounter dispensation) {
+		
+		return (FilaOutboxEntry) this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(FilaOutboxDAO.QUERY_NAME.findByDispensation).setParameter("dispensation", dispensation)
+		        .uniqueResult();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Integer> findIdsByStatusesAndDueDate(final Collection<FilaOutboxStatus> statuses,
+	        final Date dueDate, final int limit) {
+		
+		return this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(FilaOutboxDAO.QUERY_NAME.findIdsByStatusesAndDueDate)
+		        .setParameterList("statuses", statuses).setParameter("dueDate", dueDate).setMaxResults(limit).list();
+	}
+	
+	@Override
+	public int claim(final Collection<Integer> filaOutboxIds, final Collection<FilaOutboxStatus> statuses,
+	        final Date dueDate, final String owner, final Date leaseEnd) {
+		
+		final Session session = this.sessionFactory.getCurrentSession();
+		final int claimed = session.getNamedQuery(FilaOutboxDAO.QUERY_NAME.claim)
+		        .setParameter("claimed", FilaOutboxStatus.CLAIMED).setParameter("owner", owner)
+		        .setParameter("leaseEnd", leaseEnd).setParameterList("filaOutboxIds", filaOutboxIds)
+		        .setParameterList("statuses", statuses).setParameter("dueDate", dueDate).executeUpdate();
+		
+		// the update bypasses the session, the entries it already holds are read again
+		for (final Object key : new ArrayList<>(session.getStatistics().getEntityKeys())) {
+			
+			final EntityKey entityKey = (EntityKey) key;
+			if (FilaOutboxEntry.class.getName().equals(entityKey.getEntityName())
+			        && filaOutboxIds.contains(entityKey.getIdentifier())) {
+				session.refresh(session.get(FilaOutboxEntry.class, entityKey.getIdentifier()));
+			}
+		}
+		return claimed;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Integer> findIdsByStatusAndOwner(final FilaOutboxStatus status, final String owner) {
+		
+		return this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(FilaOutboxDAO.QUERY_NAME.findIdsByStatusAndOwner).setParameter("status", status)
+		        .setParameter("owner", owner).list();
+	}
+	
+	@Override
+	public FilaOutboxEntry findByIdAndStatusAndOwner(final Integer filaOutboxId, final FilaOutboxStatus status,
+	        final String owner) {
+		
+		return (FilaOutboxEntry) this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(FilaOutboxDAO.QUERY_NAME.findByIdAndStatusAndOwner)
+		        .setParameter("filaOutboxId", filaOutboxId).setParameter("status", status)
+		        .setParameter("owner", owner).uniqueResult();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<FilaOutboxEntry> findByStatus(final FilaOutboxStatus status, final int startIndex,
+	        final int limit) {
+		
+		return this.sessionFactory.getCurrentSession().getNamedQuery(FilaOutboxDAO.QUERY_NAME.findByStatus)
+		        .setParameter("status", status).setFirstResult(startIndex).setMaxResults(limit).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Object[]> countByStatus() {
+		
+		return this.sessionFactory.getCurrentSession().getNamedQuery(FilaOutboxDAO.QUERY_NAME.countByStatus).list();
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.filaoutbox.model;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.openmrs.Encounter;
+import org.openmrs.Patient;
+import org.openmrs.module.pharmacyapi.api.common.model.BaseOpenmrsObjectWrapper;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.dao.FilaOutboxDAO;
+
+/**
+ * A dispensation encounter whose FILA is still to be built, written in the same transaction as
+ * the dispensation and consumed by the FILA outbox task.
+ */
+@NamedQueries(value = {
+        @NamedQuery(name = FilaOutboxDAO.QUERY_NAME.findByUuid, query = FilaOutboxDAO.QUERY.findByUuid),
+        @NamedQuery(name = FilaOutboxDAO.QUERY_NAME.findByDispensation, query = FilaOutboxDAO.QUERY.findByDispensation),
+        @NamedQuery(name = FilaOutboxDAO.QUERY_NAME.findIdsByStatusesAndDueDate, query = FilaOutboxDAO.QUERY.findIdsByStatusesAndDueDate),
+        @NamedQuery(name = FilaOutboxDAO.QUERY_NAME.claim, query = FilaOutboxDAO.QUERY.claim),
+        @NamedQuery(name = FilaOutboxDAO.QUERY_NAME.findIdsByStatusAndOwner, query = FilaOutboxDAO.QUERY.findIdsByStatusAndOwner),
+        @NamedQuery(name = FilaOutboxDAO.QUERY_NAME.findByIdAndStatusAndOwner, query = FilaOutboxDAO.QUERY.findByIdAndStatusAndOwner),
+        @NamedQuery(name = FilaOutboxDAO.QUERY_NAME.findByStatus, query = FilaOutboxDAO.QUERY.findByStatus),
+        @NamedQuery(name = FilaOutboxDAO.QUERY_NAME.countByStatus, query = FilaOutboxDAO.QUERY.countByStatus) })
+@Entity
+@Table(name = "phm_fila_outbox")
+public class FilaOutboxEntry extends BaseOpenmrsObjectWrapper {
+	
+	private static final long serialVersionUID = -2816032590178349516L;
+	
+	public enum FilaOutboxStatus {
+		
+		PENDING,
+		
+		CLAIMED,
+		
+		PROCESSED,
+		
+		DEAD_LETTER;
+	}
+	
+	@Id
+	@GeneratedValue
+	@Column(name = "fila_outbox_id")
+	private Integer filaOutboxId;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "patient_id", nullable = false)
+	private Patient patient;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "dispensation_id", nullable = false, unique = true)
+	private Encounter dispensation;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "dispensation_date", nullable = false)
+	private Date dispensationDate;
+	
+	@Enumerated(EnumType.STRING)
+	@Column(name = "status", nullable = false, length = 20)
+	private FilaOutboxStatus status;
+	
+	@Column(name = "attempts", nullable = false)
+	private Integer attempts;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "next_attempt_date", nullable = false)
+	private Date nextAttemptDate;
+	
+	@Column(name = "last_error", length = 1024)
+	private String lastError;
+	
+	@Column(name = "claimed_by", length = 38)
+	private String claimedBy;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "fila_id")
+	private Encounter fila;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "date_created", nullable = false)
+	private Date dateCreated;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "date_processed")
+	private Date dateProcessed;
+	
+	public FilaOutboxEntry() {
+		
+	}
+	
+	public FilaOutboxEntry(final Encounter dispensation, final Date dispensationDate) {
+		
+		this.patient = dispensation.getPatient();
+		this.dispensation = dispensation;
+		this.dispensationDate = dispensationDate;
+		this.status = FilaOutboxStatus.PENDING;
+		this.attempts = 0;
+		this.dateCreated = new Date();
+		this.nextAttemptDate = this.dateCreated;
+	}
+	
+	@Override
+	public Integer getId() {
+		return this.filaOutboxId;
+	}
+	
+	@Override
+	public void setId(final Integer id) {
+		this.filaOutboxId = id;
+	}
+	
+	public Patient getPatient() {
+		return this.patient;
+	}
+	
+	public void setPatient(final Patient patient) {
+		this.patient = patient;
+	}
+	
+	public Encounter getDispensation() {
+		return this.dispensation;
+	}
+	
+	public void setDispensation(final Encounter dispensation) {
+		this.dispensation = dispensation;
+	}
+	
+	public Date getDispensationDate() {
+		return this.dispensationDate;
+	}
+	
+	public void setDispensationDate(final Date dispensationDate) {
+		this.dispensationDate = dispensationDate;
+	}
+	
+	public FilaOutboxStatus getStatus() {
+		return this.status;
+	}
+	
+	public void setStatus(final FilaOutboxStatus status) {
+		this.status = status;
+	}
+	
+	public Integer getAttempts() {
+		return this.attempts;
+	}
+	
+	public void setAttempts(final Integer attempts) {
+		this.attempts = attempts;
+	}
+	
+	public Date getNextAttemptDate() {
+		return this.nextAttemptDate;
+	}
+	
+	public void setNextAttemptDate(final Date nextAttemptDate) {
+		this.nextAttemptDate = nextAttemptDate;
+	}
+	
+	public String getLastError() {
+		return this.lastError;
+	}
+	
+	public void setLastError(final String lastError) {
+		this.lastError = lastError;
+	}
+	
+	public String getClaimedBy() {
+		return this.claimedBy;
+	}
+	
+	public void setClaimedBy(final String claimedBy) {
+		this.claimedBy = claimedBy;
+	}
+	
+	public Encounter getFila() {
+		return this.fila;
+	}
+	
+	public void setFila(final Encounter fila) {
+		this.fila = fila;
+	}
+	
+	public Date getDateCreated() {
+		return this.dateCreated;
+	}
+	
+	public void setDateCreated(final Date dateCreated) {
+		this.dateCreated = dateCreated;
+	}
+	
+	public Date getDateProcessed() {
+		return this.dateProcessed;
+	}
+	
+	public void setDateProcessed(final Date dateProcessed) {
+		this.dateProcessed = dateProcessed;
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.filaoutbox.service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Encounter;
+import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.dao.FilaOutboxDAO;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry.FilaOutboxStatus;
+
+/**
+ * Defers the FILA of the ARV dispensations to the FILA outbox task when the global property
+ * {@code pharmacyapi.fila.outbox.enabled} is true.
+ */
+public interface FilaOutboxService extends OpenmrsService {
+	
+	void setFilaOutboxDAO(FilaOutboxDAO filaOutboxDAO);
+	
+	/**
+	 * @return the value of the global property, kept from one call to the next until it changes
+	 */
+	boolean isFilaOutboxEnabled();
+	
+	/**
+	 * Records, in the current transaction, that the FILA of the dispensation is to be built.
+	 */
+	FilaOutboxEntry enqueueFila(Encounter dispensation, Date dispensationDate);
+	
+	/**
+	 * Claims for the owner the pending entries whose next attempt is due, and the entries whose
+	 * claim was left behind by an owner that stopped before building them, so that the tasks of two
+	 * instances of the application never build the same FILA. A claim lasts a while, after which
+	 * its entry may be claimed again.
+	 *
+	 * @return the ids of the entries claimed, the oldest first
+	 */
+	List<Integer> claimDueFilaOutboxEntryIds(String owner, int limit);
+	
+	/**
+	 * Builds the FILA of an entry claimed by the owner and marks it processed, an entry no longer
+	 * claimed by the owner is left as it is. Any error rolls the transaction back and is rethrown,
+	 * the caller then records it with {@link #recordFilaOutboxFailure(Integer, String, String)}.
+	 */
+	FilaOutboxEntry processFilaOutboxEntry(Integer filaOutboxId, String owner);
+	
+	/**
+	 * Counts a failed attempt of an entry claimed by the owner, releasing it with its next attempt
+	 * postponed a little more after each failure, and moves it to the dead letters once the
+	 * attempts are exhausted.
+	 */
+	FilaOutboxEntry recordFilaOutboxFailure(Integer filaOutboxId, String owner, String error);
+	
+	/**
+	 * Puts an entry back in the queue, with its attempts reset, to be built on the next run.
+	 */
+	FilaOutboxEntry retryFilaOutboxEntry(FilaOutboxEntry filaOutboxEntry);
+	
+	FilaOutboxEntry findFilaOutboxEntryByUuid(String uuid);
+	
+	FilaOutboxEntry findFilaOutboxEntryByDispensation(Encounter dispensation);
+	
+	List<FilaOutboxEntry> findFilaOutboxEntriesByStatus(FilaOutboxStatus status, int startIndex, int limit);
+	
+	/**
+	 * @return the number of entries of every status, zero included
+	 */
+	Map<FilaOutboxStatus, Long> countFilaOutboxEntriesByStatus();
+}
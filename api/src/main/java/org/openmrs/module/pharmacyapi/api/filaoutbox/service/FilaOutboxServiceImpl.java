@@ -0,0 +1,180 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.filaoutbox.service;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Encounter;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.dispensation.service.DispensationService;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.dao.FilaOutboxDAO;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry.FilaOutboxStatus;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.util.FilaOutboxSetting;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional
+public class FilaOutboxServiceImpl extends BaseOpenmrsService implements FilaOutboxService {
+	
+	static final int MAX_ATTEMPTS = 5;
+	
+	private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	
+	private static final long CLAIM_LEASE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	
+	private static final List<FilaOutboxStatus> CLAIMABLE_STATUSES = Arrays.asList(FilaOutboxStatus.PENDING,
+	    FilaOutboxStatus.CLAIMED);
+	
+	private static final int LAST_ERROR_LENGTH = 1024;
+	
+	private FilaOutboxDAO filaOutboxDAO;
+	
+	@Autowired
+	private FilaOutboxSetting filaOutboxSetting;
+	
+	@Override
+	public void setFilaOutboxDAO(final FilaOutboxDAO filaOutboxDAO) {
+		this.filaOutboxDAO = filaOutboxDAO;
+	}
+	
+	@Override
+	public boolean isFilaOutboxEnabled() {
+		
+		return this.filaOutboxSetting.isEnabled();
+	}
+	
+	@Override
+	public FilaOutboxEntry enqueueFila(final Encounter dispensation, final Date dispensationDate) {
+		
+		return this.filaOutboxDAO.save(new FilaOutboxEntry(dispensation, dispensationDate));
+	}
+	
+	@Override
+	public List<Integer> claimDueFilaOutboxEntryIds(final String owner, final int limit) {
+		
+		final Date now = new Date();
+		final List<Integer> dueIds = this.filaOutboxDAO.findIdsByStatusesAndDueDate(CLAIMABLE_STATUSES, now, limit);
+		if (dueIds.isEmpty()) {
+			return dueIds;
+		}
+		
+		// the update only takes the entries still claimable, the ones another owner claimed since
+		// they were read are left to it
+		this.filaOutboxDAO.claim(dueIds, CLAIMABLE_STATUSES, now, owner,
+		    new Date(now.getTime() + CLAIM_LEASE_MILLIS));
+		return this.filaOutboxDAO.findIdsByStatusAndOwner(FilaOutboxStatus.CLAIMED, owner);
+	}
+	
+	@Override
+	public FilaOutboxEntry processFilaOutboxEntry(final Integer filaOutboxId, final String owner) {
+		
+		final FilaOutboxEntry entry = this.filaOutboxDAO.findByIdAndStatusAndOwner(filaOutboxId,
+		    FilaOutboxStatus.CLAIMED, owner);
+		if (entry == null) {
+			return this.filaOutboxDAO.findById(filaOutboxId);
+		}
+		
+		try {
+			entry.setFila(Context.getService(DispensationService.class).generateFila(entry.getDispensation(),
+			    entry.getDispensationDate()));
+		}
+		catch (final PharmacyBusinessException e) {
+			
+			// unchecked, so that the half built FILA is rolled back
+			throw new APIException(e.getMessage(), e);
+		}
+		
+		entry.setAttempts(entry.getAttempts() + 1);
+		entry.setStatus(FilaOutboxStatus.PROCESSED);
+		entry.setClaimedBy(null);
+		entry.setDateProcessed(new Date());
+		entry.setLastError(null);
+		return this.filaOutboxDAO.save(entry);
+	}
+	
+	@Override
+	public FilaOutboxEntry recordFilaOutboxFailure(final Integer filaOutboxId, final String owner,
+	        final String error) {
+		
+		final FilaOutboxEntry entry = this.filaOutboxDAO.findByIdAndStatusAndOwner(filaOutboxId,
+		    FilaOutboxStatus.CLAIMED, owner);
+		if (entry == null) {
+			return this.filaOutboxDAO.findById(filaOutboxId);
+		}
+		
+		final int attempts = entry.getAttempts() + 1;
+		entry.setAttempts(attempts);
+		entry.setClaimedBy(null);
+		entry.setLastError(StringUtils.abbreviate(error, LAST_ERROR_LENGTH));
+		
+		if (attempts >= MAX_ATTEMPTS) {
+			entry.setStatus(FilaOutboxStatus.DEAD_LETTER);
+		} else {
+			entry.setStatus(FilaOutboxStatus.PENDING);
+			entry.setNextAttemptDate(new Date(System.currentTimeMillis() + (attempts * RETRY_DELAY_MILLIS)));
+		}
+		return this.filaOutboxDAO.save(entry);
+	}
+	
+	@Override
+	public FilaOutboxEntry retryFilaOutboxEntry(final FilaOutboxEntry filaOutboxEntry) {
+		
+		filaOutboxEntry.setStatus(FilaOutboxStatus.PENDING);
+		filaOutboxEntry.setClaimedBy(null);
+		filaOutboxEntry.setAttempts(0);
+		filaOutboxEntry.setNextAttemptDate(new Date());
+		return this.filaOutboxDAO.save(filaOutboxEntry);
+	}
+	
+	@Override
+	public FilaOutboxEntry findFilaOutboxEntryByUuid(final String uuid) {
+		
+		return this.filaOutboxDAO.findByUuid(uuid);
+	}
+	
+	@Override
+	public FilaOutboxEntry findFilaOutboxEntryByDispensation(final Encounter dispensation) {
+		
+		return this.filaOutboxDAO.findByDispensation(dispensation);
+	}
+	
+	@Override
+	public List<FilaOutboxEntry> findFilaOutboxEntriesByStatus(final FilaOutboxStatus status, final int startIndex,
+	        final int limit) {
+		
+		return this.filaOutboxDAO.findByStatus(status, startIndex, limit);
+	}
+	
+	@Override
+	public Map<FilaOutboxStatus, Long> countFilaOutboxEntriesByStatus() {
+		
+		final Map<FilaOutboxStatus, Long> counts = new EnumMap<>(FilaOutboxStatus.class);
+		for (final FilaOutboxStatus status : FilaOutboxStatus.values()) {
+			counts.put(status, 0L);
+		}
+		for (final Object[] row : this.filaOutboxDAO.countByStatus()) {
+			counts.put((FilaOutboxStatus) row[0], ((Number) row[1]).longValue());
+		}
+		return counts;
+	}
+}
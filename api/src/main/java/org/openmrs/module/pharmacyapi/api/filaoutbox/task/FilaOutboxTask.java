@@ -0,0 +1,66 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.filaoutbox.task;
+
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.service.FilaOutboxService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Builds the FILA of the dispensations queued in phm_fila_outbox. The due entries are first claimed
+ * by the run, so that the task of another instance of the application skips them. Each entry is
+ * then built in its own transaction, so that a failing one, usually a patient without a check-in
+ * on the dispensation day, is retried on a later run without holding back the others.
+ */
+public class FilaOutboxTask extends AbstractTask {
+	
+	public static final String NAME = "Pharmacy FILA Outbox";
+	
+	private static final int BATCH_SIZE = 200;
+	
+	private static final int SESSION_CLEAR_INTERVAL = 50;
+	
+	private static final Log log = LogFactory.getLog(FilaOutboxTask.class);
+	
+	@Override
+	public void execute() {
+		
+		final FilaOutboxService filaOutboxService = Context.getService(FilaOutboxService.class);
+		
+		// each run claims its entries under its own name
+		final String owner = UUID.randomUUID().toString();
+		
+		int count = 0;
+		for (final Integer filaOutboxId : filaOutboxService.claimDueFilaOutboxEntryIds(owner, BATCH_SIZE)) {
+			
+			try {
+				filaOutboxService.processFilaOutboxEntry(filaOutboxId, owner);
+			}
+			catch (final Exception e) {
+				
+				// the rolled back FILA is still attached to the session
+				Context.clearSession();
+				filaOutboxService.recordFilaOutboxFailure(filaOutboxId, owner, e.getMessage());
+				log.warn("Could not build the FILA of the outbox entry " + filaOutboxId, e);
+			}
+			
+			if ((++count % SESSION_CLEAR_INTERVAL) == 0) {
+				Context.clearSession();
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.filaoutbox.util;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.OpenMRSPharmacyModuleConfig;
+import org.springframework.stereotype.Component;
+
+/**
+ * The value of the global property {@code pharmacyapi.fila.outbox.enabled}, which every
+ * dispensation checks. It is read once and then kept up to date by listening to the changes of the
+ * property.
+ */
+@Component
+public class FilaOutboxSetting implements GlobalPropertyListener {
+	
+	private volatile Boolean enabled;
+	
+	private boolean listening;
+	
+	public boolean isEnabled() {
+		
+		final Boolean enabled = this.enabled;
+		return enabled != null ? enabled : this.load();
+	}
+	
+	/**
+	 * Drops the value read, for changes of the property made behind the administration service.
+	 */
+	public void invalidate() {
+		this.enabled = null;
+	}
+	
+	/**
+	 * Changes are only listened from the first read, the administration service is not available
+	 * while the application context is loaded.
+	 */
+	private synchronized boolean load() {
+		
+		if (!this.listening) {
+			Context.getAdministrationService().addGlobalPropertyListener(this);
+			this.listening = true;
+		}
+		if (this.enabled == null) {
+			this.enabled = Boolean.parseBoolean(Context.getAdministrationService()
+			        .getGlobalProperty(OpenMRSPharmacyModuleConfig.GP_FILA_OUTBOX_ENABLED, Boolean.FALSE.toString()));
+		}
+		return this.enabled;
+	}
+	
+	@Override
+	public boolean supportsPropertyName(final String propertyName) {
+		return OpenMRSPharmacyModuleConfig.GP_FILA_OUTBOX_ENABLED.equals(propertyName);
+	}
+	
+	@Override
+	public synchronized void globalPropertyChanged(final GlobalProperty newValue) {
+		this.enabled = Boolean.parseBoolean(newValue.getPropertyValue());
+	}
+	
+	@Override
+	public synchronized void globalPropertyDeleted(final String propertyName) {
+		this.enabled = Boolean.FALSE;
+	}
+}
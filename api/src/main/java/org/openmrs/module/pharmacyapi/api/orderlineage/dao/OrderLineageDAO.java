@@ -0,0 +1,67 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.orderlineage.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.openmrs.Order;
+import org.openmrs.module.pharmacyapi.api.orderlineage.model.OrderLineage;
+
+public interface OrderLineageDAO {
+	
+	public interface QUERY_NAME {
+		
+		String findByOrder = "OrderLineage.findByOrder";
+		
+		String findByOrders = "OrderLineage.findByOrders";
+		
+		String findByPreviousOrder = "OrderLineage.findByPreviousOrder";
+		
+		String findByRootOrder = "OrderLineage.findByRootOrder";
+		
+		String findByPatients = "OrderLineage.findByPatients";
+	}
+	
+	public interface QUERY {
+		
+		String findByOrder = "select lineage from OrderLineage lineage where lineage.order = :order";
+		
+		String findByOrders = "select lineage from OrderLineage lineage where lineage.order in (:orders)";
+		
+		String findByPreviousOrder = "select lineage from OrderLineage lineage join fetch lineage.order where lineage.previousOrder = :previousOrder";
+		
+		String findByRootOrder = "select lineage from OrderLineage lineage join fetch lineage.order where lineage.rootOrder = :rootOrder order by lineage.depth";
+		
+		String findByPatients = "select lineage from OrderLineage lineage where lineage.patient.patientId in (:patientIds)";
+	}
+	
+	void setSessionFactory(SessionFactory sessionFactory);
+	
+	OrderLineage save(OrderLineage orderLineage);
+	
+	OrderLineage findByOrder(Order order);
+	
+	List<OrderLineage> findByOrders(Collection<? extends Order> orders);
+	
+	OrderLineage findByPreviousOrder(Order previousOrder);
+	
+	List<OrderLineage> findByRootOrder(Order rootOrder);
+	
+	List<OrderLineage> findByPatients(Collection<Integer> patientIds);
+	
+	int insertMissingRootLineages();
+	
+	int insertMissingChildLineages();
+}
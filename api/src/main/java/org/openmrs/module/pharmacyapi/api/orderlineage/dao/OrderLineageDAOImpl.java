@@ -0,0 +1,115 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.orderlineage.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.openmrs.Order;
+import org.openmrs.module.pharmacyapi.api.orderlineage.model.OrderLineage;
+
+public class OrderLineageDAOImpl implements OrderLineageDAO {
+	
+	private static final String INSERT_MISSING_ROOTS = "insert into phm_order_lineage "
+	        + "(order_id, root_order_id, prescription_id, patient_id, depth) "
+	        + "select o.order_id, o.order_id, o.encounter_id, o.patient_id, 0 from orders o "
+	        + "join drug_order d on d.order_id = o.order_id "
+	        + "left join phm_order_lineage existing on existing.order_id = o.order_id "
+	        + "where o.order_action = 'NEW' and existing.order_id is null";
+	
+	// a voided order gave its previous order back, as releasePreviousOrder does, so that the previous
+	// order stays unique
+	private static final String INSERT_MISSING_CHILDREN = "insert into phm_order_lineage "
+	        + "(order_id, previous_order_id, root_order_id, prescription_id, patient_id, depth) "
+	        + "select o.order_id, case when o.voided = false then o.previous_order_id end, parent.root_order_id, "
+	        + "parent.prescription_id, o.patient_id, parent.depth + 1 "
+	        + "from orders o join phm_order_lineage parent on parent.order_id = o.previous_order_id "
+	        + "left join phm_order_lineage existing on existing.order_id = o.order_id "
+	        + "where o.order_action <> 'NEW' and existing.order_id is null";
+	
+	private SessionFactory sessionFactory;
+	
+	@Override
+	public void setSessionFactory(final SessionFactory sessionFactory) {
+		
+		this.sessionFactory = sessionFactory;
+	}
+	
+	@Override
+	public OrderLineage save(final OrderLineage orderLineage) {
+		
+		this.sessionFactory.getCurrentSession().save(orderLineage);
+		return orderLineage;
+	}
+	
+	@Override
+	public OrderLineage findByOrder(final Order order) {
+		
+		return (OrderLineage) this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(OrderLineageDAO.QUERY_NAME.findByOrder).setParameter("order", order).uniqueResult();
+	}
+	
+	@Override
+	public OrderLineage findByPreviousOrder(final Order previousOrder) {
+		
+		return (OrderLineage) this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(OrderLineageDAO.QUERY_NAME.findByPreviousOrder)
+		        .setParameter("previousOrder", previousOrder).uniqueResult();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<OrderLineage> findByOrders(final Collection<? extends Order> orders) {
+		
+		if (orders.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.sessionFactory.getCurrentSession().getNamedQuery(OrderLineageDAO.QUERY_NAME.findByOrders)
+		        .setParameterList("orders", orders).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<OrderLineage> findByRootOrder(final Order rootOrder) {
+		
+		return this.sessionFactory.getCurrentSession().getNamedQuery(OrderLineageDAO.QUERY_NAME.findByRootOrder)
+		        .setParameter("rootOrder", rootOrder).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<OrderLineage> findByPatients(final Collection<Integer> patientIds) {
+		
+		if (patientIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.sessionFactory.getCurrentSession().getNamedQuery(OrderLineageDAO.QUERY_NAME.findByPatients)
+		        .setParameterList("patientIds", patientIds).list();
+	}
+	
+	@Override
+	public int insertMissingRootLineages() {
+		
+		return this.sessionFactory.getCurrentSession().createSQLQuery(INSERT_MISSING_ROOTS).executeUpdate();
+	}
+	
+	@Override
+	public int insertMissingChildLineages() {
+		
+		return this.sessionFactory.getCurrentSession().createSQLQuery(INSERT_MISSING_CHILDREN).executeUpdate();
+	}
+}
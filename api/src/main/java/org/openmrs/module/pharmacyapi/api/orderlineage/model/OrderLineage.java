@@ -0,0 +1,147 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.orderlineage.model;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+import org.openmrs.Encounter;
+import org.openmrs.Order;
+import org.openmrs.Patient;
+import org.openmrs.module.pharmacyapi.api.orderlineage.dao.OrderLineageDAO;
+
+/**
+ * Links a drug order of a REVISE/DISCONTINUE chain to the NEW order the chain started from, the
+ * prescription encounter of that order and its distance to it. The previous order is unique, an
+ * order is revised or discontinued by a single dispensation.
+ */
+@NamedQueries(value = {
+        @NamedQuery(name = OrderLineageDAO.QUERY_NAME.findByOrder, query = OrderLineageDAO.QUERY.findByOrder),
+        @NamedQuery(name = OrderLineageDAO.QUERY_NAME.findByOrders, query = OrderLineageDAO.QUERY.findByOrders),
+        @NamedQuery(name = OrderLineageDAO.QUERY_NAME.findByPreviousOrder, query = OrderLineageDAO.QUERY.findByPreviousOrder),
+        @NamedQuery(name = OrderLineageDAO.QUERY_NAME.findByRootOrder, query = OrderLineageDAO.QUERY.findByRootOrder),
+        @NamedQuery(name = OrderLineageDAO.QUERY_NAME.findByPatients, query = OrderLineageDAO.QUERY.findByPatients) })
+@Entity
+@Table(name = "phm_order_lineage")
+public class OrderLineage implements Serializable {
+	
+	private static final long serialVersionUID = -1843316087410346377L;
+	
+	@Id
+	@GeneratedValue
+	@Column(name = "order_lineage_id")
+	private Integer orderLineageId;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "order_id", nullable = false, unique = true)
+	private Order order;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "previous_order_id", unique = true)
+	private Order previousOrder;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "root_order_id", nullable = false)
+	private Order rootOrder;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "prescription_id", nullable = false)
+	private Encounter prescription;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "patient_id", nullable = false)
+	private Patient patient;
+	
+	@Column(name = "depth", nullable = false)
+	private Integer depth;
+	
+	public OrderLineage() {
+		
+	}
+	
+	public OrderLineage(final Order order, final Order rootOrder, final Encounter prescription, final Integer depth) {
+		
+		this.order = order;
+		this.previousOrder = depth > 0 ? order.getPreviousOrder() : null;
+		this.rootOrder = rootOrder;
+		this.prescription = prescription;
+		this.patient = order.getPatient();
+		this.depth = depth;
+	}
+	
+	public Integer getOrderLineageId() {
+		return this.orderLineageId;
+	}
+	
+	public void setOrderLineageId(final Integer orderLineageId) {
+		this.orderLineageId = orderLineageId;
+	}
+	
+	public Order getOrder() {
+		return this.order;
+	}
+	
+	public void setOrder(final Order order) {
+		this.order = order;
+	}
+	
+	public Order getPreviousOrder() {
+		return this.previousOrder;
+	}
+	
+	public void setPreviousOrder(final Order previousOrder) {
+		this.previousOrder = previousOrder;
+	}
+	
+	public Order getRootOrder() {
+		return this.rootOrder;
+	}
+	
+	public void setRootOrder(final Order rootOrder) {
+		this.rootOrder = rootOrder;
+	}
+	
+	public Encounter getPrescription() {
+		return this.prescription;
+	}
+	
+	public void setPrescription(final Encounter prescription) {
+		this.prescription = prescription;
+	}
+	
+	public Patient getPatient() {
+		return this.patient;
+	}
+	
+	public void setPatient(final Patient patient) {
+		this.patient = patient;
+	}
+	
+	public Integer getDepth() {
+		return this.depth;
+	}
+	
+	public void setDepth(final Integer depth) {
+		this.depth = depth;
+	}
+}
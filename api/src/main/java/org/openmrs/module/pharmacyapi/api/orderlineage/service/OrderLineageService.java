@@ -0,0 +1,60 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.orderlineage.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.openmrs.Order;
+import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.pharmacyapi.api.orderlineage.dao.OrderLineageDAO;
+import org.openmrs.module.pharmacyapi.api.orderlineage.model.OrderLineage;
+
+public interface OrderLineageService extends OpenmrsService {
+	
+	void setOrderLineageDAO(OrderLineageDAO orderLineageDAO);
+	
+	/**
+	 * Registers the lineage of a newly saved order, registering first the lineage of the orders it
+	 * revises when they were created before the lineage table existed.
+	 */
+	OrderLineage saveOrderLineage(Order order);
+	
+	/**
+	 * Same as {@link #saveOrderLineage(Order)} for orders saved together, the lineages of the orders
+	 * and of the orders they revise are read with one query.
+	 */
+	List<OrderLineage> saveOrderLineages(Collection<? extends Order> orders);
+	
+	/**
+	 * Frees the previous order of the lineage of a voided order, which may then be revised again.
+	 */
+	OrderLineage releasePreviousOrder(Order voidedOrder);
+	
+	OrderLineage findOrderLineageByOrder(Order order);
+	
+	/**
+	 * @return the lineage of the order that revised or discontinued the given one, or null when it was
+	 *         not revised or its revision was voided
+	 */
+	OrderLineage findOrderLineageByPreviousOrder(Order previousOrder);
+	
+	List<OrderLineage> findOrderLineagesByRootOrder(Order rootOrder);
+	
+	/**
+	 * Fills the lineage of the existing drug orders, one chain level per statement.
+	 *
+	 * @return the number of lineages created
+	 */
+	int backfillOrderLineages();
+}
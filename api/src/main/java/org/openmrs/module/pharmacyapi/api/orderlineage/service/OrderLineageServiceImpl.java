@@ -0,0 +1,155 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.orderlineage.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.Order;
+import org.openmrs.Order.Action;
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.pharmacyapi.api.orderlineage.dao.OrderLineageDAO;
+import org.openmrs.module.pharmacyapi.api.orderlineage.model.OrderLineage;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional
+public class OrderLineageServiceImpl extends BaseOpenmrsService implements OrderLineageService {
+	
+	protected final Log log = LogFactory.getLog(this.getClass());
+	
+	private OrderLineageDAO orderLineageDAO;
+	
+	@Override
+	public void setOrderLineageDAO(final OrderLineageDAO orderLineageDAO) {
+		this.orderLineageDAO = orderLineageDAO;
+	}
+	
+	@Override
+	public OrderLineage saveOrderLineage(final Order order) {
+		
+		final OrderLineage existing = this.orderLineageDAO.findByOrder(order);
+		if (existing != null) {
+			return existing;
+		}
+		
+		final Order previousOrder = order.getPreviousOrder();
+		
+		if (Action.NEW.equals(order.getAction()) || (previousOrder == null)) {
+			return this.orderLineageDAO.save(new OrderLineage(order, order, order.getEncounter(), 0));
+		}
+		
+		final OrderLineage parent = this.saveOrderLineage(previousOrder);
+		
+		return this.orderLineageDAO.save(
+		    new OrderLineage(order, parent.getRootOrder(), parent.getPrescription(), parent.getDepth() + 1));
+	}
+	
+	@Override
+	public List<OrderLineage> saveOrderLineages(final Collection<? extends Order> orders) {
+		
+		// keyed by id, the previous orders and the orders of the lineages are lazy
+		final Map<Integer, Order> lineageOrders = new HashMap<>();
+		for (final Order order : orders) {
+			lineageOrders.put(order.getOrderId(), order);
+			if (order.getPreviousOrder() != null) {
+				lineageOrders.put(order.getPreviousOrder().getOrderId(), order.getPreviousOrder());
+			}
+		}
+		
+		final Map<Integer, OrderLineage> lineagesByOrderId = new HashMap<>();
+		for (final OrderLineage orderLineage : this.orderLineageDAO.findByOrders(lineageOrders.values())) {
+			lineagesByOrderId.put(orderLineage.getOrder().getOrderId(), orderLineage);
+		}
+		
+		final List<OrderLineage> orderLineages = new ArrayList<>();
+		for (final Order order : orders) {
+			
+			OrderLineage orderLineage = lineagesByOrderId.get(order.getOrderId());
+			if (orderLineage == null) {
+				orderLineage = this.saveOrderLineage(order, lineagesByOrderId);
+				lineagesByOrderId.put(order.getOrderId(), orderLineage);
+			}
+			orderLineages.add(orderLineage);
+		}
+		return orderLineages;
+	}
+	
+	@Override
+	public OrderLineage releasePreviousOrder(final Order voidedOrder) {
+		
+		final OrderLineage orderLineage = this.orderLineageDAO.findByOrder(voidedOrder);
+		if ((orderLineage == null) || (orderLineage.getPreviousOrder() == null)) {
+			return orderLineage;
+		}
+		
+		orderLineage.setPreviousOrder(null);
+		return this.orderLineageDAO.save(orderLineage);
+	}
+	
+	@Override
+	public OrderLineage findOrderLineageByOrder(final Order order) {
+		
+		return this.orderLineageDAO.findByOrder(order);
+	}
+	
+	@Override
+	public OrderLineage findOrderLineageByPreviousOrder(final Order previousOrder) {
+		
+		return this.orderLineageDAO.findByPreviousOrder(previousOrder);
+	}
+	
+	@Override
+	public List<OrderLineage> findOrderLineagesByRootOrder(final Order rootOrder) {
+		
+		return this.orderLineageDAO.findByRootOrder(rootOrder);
+	}
+	
+	@Override
+	public int backfillOrderLineages() {
+		
+		int created = this.orderLineageDAO.insertMissingRootLineages();
+		
+		int inserted;
+		do {
+			inserted = this.orderLineageDAO.insertMissingChildLineages();
+			created += inserted;
+		}
+		while (inserted > 0);
+		
+		this.log.info("Order lineage backfill created " + created + " lineages");
+		
+		return created;
+	}
+	
+	private OrderLineage saveOrderLineage(final Order order, final Map<Integer, OrderLineage> lineagesByOrderId) {
+		
+		final Order previousOrder = order.getPreviousOrder();
+		if (Action.NEW.equals(order.getAction()) || (previousOrder == null)) {
+			return this.orderLineageDAO.save(new OrderLineage(order, order, order.getEncounter(), 0));
+		}
+		
+		OrderLineage parent = lineagesByOrderId.get(previousOrder.getOrderId());
+		if (parent == null) {
+			
+			// an order revised before the lineage table existed
+			parent = this.saveOrderLineage(previousOrder);
+		}
+		return this.orderLineageDAO.save(
+		    new OrderLineage(order, parent.getRootOrder(), parent.getPrescription(), parent.getDepth() + 1));
+	}
+}
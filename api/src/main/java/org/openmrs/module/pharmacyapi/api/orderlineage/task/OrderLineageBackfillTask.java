@@ -0,0 +1,33 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.orderlineage.task;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.orderlineage.service.OrderLineageService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Creates the lineage of the drug orders saved before phm_order_lineage existed, or saved outside
+ * the pharmacy services. It runs once each time the module starts, without repeating. Orders that
+ * already have a lineage are left untouched, so the task can be run any number of times.
+ */
+public class OrderLineageBackfillTask extends AbstractTask {
+	
+	public static final String NAME = "Pharmacy Order Lineage Backfill";
+	
+	@Override
+	public void execute() {
+		
+		Context.getService(OrderLineageService.class).backfillOrderLineages();
+	}
+}
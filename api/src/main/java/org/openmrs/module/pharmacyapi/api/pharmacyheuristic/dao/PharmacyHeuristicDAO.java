@@ -9,6 +9,7 @@
  */
 package org.openmrs.module.pharmacyapi.api.pharmacyheuristic.dao;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -41,7 +42,32 @@ public interface PharmacyHeuristicDAO {
 	
 	List<Obs> findObservationsByOrder(final Order order, boolean voided);
 	
+	/**
+	 * @return the not voided obs of the orders, sorted by obs id
+	 */
+	List<Obs> findObservationsByOrders(Collection<Integer> orderIds);
+	
+	/**
+	 * Sets the reason of the order behind the session, the order is then evicted so that it is read
+	 * again with its reason.
+	 */
 	void updateOrder(Order order, Concept orderReason);
 	
+	/**
+	 * Sets the reason of all the orders with a single statement, the orders are then evicted so that
+	 * they are read again with their reason.
+	 */
+	void updateOrders(Collection<? extends Order> orders, Concept orderReason);
+	
 	Order findOrderByPreviousOrder(Order previousOrder);
+	
+	List<Patient> findPatientsByUuids(Collection<String> uuids);
+	
+	List<Order> findOrdersByUuids(Collection<String> uuids);
+	
+	/**
+	 * @return the not voided obs of the encounters answering the given concepts, sorted by obs id
+	 */
+	List<Obs> findObservationsByEncountersAndConcepts(Collection<Integer> encounterIds,
+	        Collection<Integer> conceptIds);
 }
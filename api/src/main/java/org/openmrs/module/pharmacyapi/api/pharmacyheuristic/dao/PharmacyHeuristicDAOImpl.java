@@ -9,8 +9,12 @@
  */
 package org.openmrs.module.pharmacyapi.api.pharmacyheuristic.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.hibernate.Criteria;
 import org.hibernate.Query;
@@ -116,6 +120,20 @@ public class PharmacyHeuristicDAOImpl implements PharmacyHeuristicDAO {
 		return searchCriteria.list();
 	}
 	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Obs> findObservationsByOrders(final Collection<Integer> orderIds) {
+		
+		if (orderIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select obs from Obs obs where obs.order.orderId in (:orderIds) and obs.voided is false "
+		        + " order by obs.obsId";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("orderIds", orderIds).list();
+	}
+	
 	@Override
 	public void updateOrder(final Order order, final Concept orderReason) {
 		
@@ -124,6 +142,33 @@ public class PharmacyHeuristicDAOImpl implements PharmacyHeuristicDAO {
 		sqlQuery.setParameter("orderReason", orderReason.getConceptId());
 		sqlQuery.setParameter("orderId", order.getOrderId());
 		sqlQuery.executeUpdate();
+		
+		// core does not let a saved order change through the session, the instance it holds is stale
+		this.sessionFactory.getCurrentSession().evict(order);
+	}
+	
+	@Override
+	public void updateOrders(final Collection<? extends Order> orders, final Concept orderReason) {
+		
+		if (orders.isEmpty()) {
+			return;
+		}
+		
+		final Set<Integer> orderIds = new HashSet<>();
+		for (final Order order : orders) {
+			orderIds.add(order.getOrderId());
+		}
+		
+		final SQLQuery sqlQuery = this.sessionFactory.getCurrentSession()
+		        .createSQLQuery("update orders set order_reason = :orderReason where order_id in (:orderIds)");
+		sqlQuery.setParameter("orderReason", orderReason.getConceptId());
+		sqlQuery.setParameterList("orderIds", orderIds);
+		sqlQuery.executeUpdate();
+		
+		// core does not let a saved order change through the session, the instances it holds are stale
+		for (final Order order : orders) {
+			this.sessionFactory.getCurrentSession().evict(order);
+		}
 	}
 	
 	@Override
@@ -133,4 +178,49 @@ public class PharmacyHeuristicDAOImpl implements PharmacyHeuristicDAO {
 		
 		return (Order) searchCriteria.uniqueResult();
 	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Patient> findPatientsByUuids(final Collection<String> uuids) {
+		
+		if (uuids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(Patient.class,
+		    "patient");
+		searchCriteria.add(Restrictions.in("patient.uuid", uuids));
+		
+		return searchCriteria.list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Order> findOrdersByUuids(final Collection<String> uuids) {
+		
+		if (uuids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(Order.class, "order");
+		searchCriteria.add(Restrictions.in("order.uuid", uuids));
+		
+		return searchCriteria.list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Obs> findObservationsByEncountersAndConcepts(final Collection<Integer> encounterIds,
+	        final Collection<Integer> conceptIds) {
+		
+		if (encounterIds.isEmpty() || conceptIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select obs from Obs obs where obs.encounter.encounterId in (:encounterIds) "
+		        + " and obs.concept.conceptId in (:conceptIds) and obs.voided is false order by obs.obsId";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("encounterIds", encounterIds)
+		        .setParameterList("conceptIds", conceptIds).list();
+	}
 }
@@ -9,6 +9,7 @@
  */
 package org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -24,6 +25,7 @@ import org.openmrs.Patient;
 import org.openmrs.Visit;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.util.EncounterObsDigest;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.dao.PharmacyHeuristicDAO;
 
 public interface PharmacyHeuristicService extends OpenmrsService {
@@ -46,7 +48,26 @@ public interface PharmacyHeuristicService extends OpenmrsService {
 	
 	List<Obs> findObservationsByOrder(Order order);
 	
+	/**
+	 * Loads with one query the not voided obs of the orders, of every encounter.
+	 */
+	List<Obs> findObservationsByOrders(Collection<? extends Order> orders);
+	
 	void updateOrder(Order order, Concept orderReason);
 	
+	/**
+	 * Sets the reason of all the orders with a single statement.
+	 */
+	void updateOrders(Collection<? extends Order> orders, Concept orderReason);
+	
 	Order findOrderByPreviousOrder(Order previousOrder);
+	
+	List<Patient> findPatientsByUuids(Collection<String> uuids);
+	
+	List<Order> findOrdersByUuids(Collection<String> uuids);
+	
+	/**
+	 * Loads with one query the obs of the encounters answering the given concepts.
+	 */
+	EncounterObsDigest loadEncounterObsDigest(Collection<Encounter> encounters, String... conceptUuids);
 }
@@ -9,8 +9,11 @@
  */
 package org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service;
 
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.openmrs.Concept;
 import org.openmrs.Drug;
@@ -23,12 +26,14 @@ import org.openmrs.Order;
 import org.openmrs.Patient;
 import org.openmrs.Visit;
 import org.openmrs.api.APIException;
-import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.util.EncounterObsDigest;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedEncounters;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedForms;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.dao.PharmacyHeuristicDAO;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
 @Transactional
@@ -36,6 +41,9 @@ public class PharmacyHeuristicServiceImpl extends BaseOpenmrsService implements
 	
 	private PharmacyHeuristicDAO pharmacyHeuristicDAO;
 	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
 	@Override
 	public void setPharmacyHeuristicDAO(final PharmacyHeuristicDAO pharmacyHeuristicDAO) {
 		this.pharmacyHeuristicDAO = pharmacyHeuristicDAO;
@@ -46,7 +54,7 @@ public class PharmacyHeuristicServiceImpl extends BaseOpenmrsService implements
 		
 		if (patient != null) {
 			
-			return Context.getEncounterService().getEncounterTypeByUuid(patient.getAge() < 15
+			return this.metadataRegistry.getEncounterType(patient.getAge() < 15
 			        ? MappedEncounters.ARV_FOLLOW_UP_CHILD : MappedEncounters.ARV_FOLLOW_UP_ADULT);
 		}
 		
@@ -76,7 +84,7 @@ public class PharmacyHeuristicServiceImpl extends BaseOpenmrsService implements
 	public Form getFormByPatientAge(final Patient patient) throws PharmacyBusinessException {
 		
 		if (patient != null) {
-			return Context.getFormService().getFormByUuid(
+			return this.metadataRegistry.getForm(
 			    patient.getAge() < 15 ? MappedForms.PEDIATRICS_FOLLOW_UP : MappedForms.ADULT_FOLLOW_UP);
 		}
 		throw new PharmacyBusinessException("Cannot find Form for non given patient");
@@ -94,13 +102,61 @@ public class PharmacyHeuristicServiceImpl extends BaseOpenmrsService implements
 		return this.pharmacyHeuristicDAO.findObservationsByOrder(order, false);
 	}
 	
+	@Override
+	public List<Obs> findObservationsByOrders(final Collection<? extends Order> orders) {
+		
+		final Set<Integer> orderIds = new HashSet<>();
+		for (final Order order : orders) {
+			orderIds.add(order.getOrderId());
+		}
+		return this.pharmacyHeuristicDAO.findObservationsByOrders(orderIds);
+	}
+	
 	@Override
 	public void updateOrder(final Order order, final Concept orderReason) {
 		this.pharmacyHeuristicDAO.updateOrder(order, orderReason);
 	}
 	
+	@Override
+	public void updateOrders(final Collection<? extends Order> orders, final Concept orderReason) {
+		this.pharmacyHeuristicDAO.updateOrders(orders, orderReason);
+	}
+	
 	@Override
 	public Order findOrderByPreviousOrder(final Order previousOrder) {
 		return this.pharmacyHeuristicDAO.findOrderByPreviousOrder(previousOrder);
 	}
+	
+	@Override
+	public List<Patient> findPatientsByUuids(final Collection<String> uuids) {
+		return this.pharmacyHeuristicDAO.findPatientsByUuids(uuids);
+	}
+	
+	@Override
+	public List<Order> findOrdersByUuids(final Collection<String> uuids) {
+		return this.pharmacyHeuristicDAO.findOrdersByUuids(uuids);
+	}
+	
+	@Override
+	public EncounterObsDigest loadEncounterObsDigest(final Collection<Encounter> encounters,
+	        final String... conceptUuids) {
+		
+		final Set<Integer> encounterIds = new HashSet<>();
+		for (final Encounter encounter : encounters) {
+			encounterIds.add(encounter.getEncounterId());
+		}
+		
+		final Set<Integer> conceptIds = new HashSet<>();
+		for (final String conceptUuid : conceptUuids) {
+			
+			final Integer conceptId = this.metadataRegistry.getConceptId(conceptUuid);
+			if (conceptId != null) {
+				conceptIds.add(conceptId);
+			}
+		}
+		
+		return new EncounterObsDigest(
+		        this.pharmacyHeuristicDAO.findObservationsByEncountersAndConcepts(encounterIds, conceptIds),
+		        this.metadataRegistry);
+	}
 }
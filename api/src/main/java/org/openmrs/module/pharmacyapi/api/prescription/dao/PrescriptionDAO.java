@@ -0,0 +1,52 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.prescription.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
+import org.openmrs.Obs;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
+
+/**
+ * Set based queries used to assemble the prescriptions of a group of patients without loading the
+ * related entities one by one.
+ */
+public interface PrescriptionDAO {
+	
+	void setSessionFactory(SessionFactory sessionFactory);
+	
+	List<DrugOrder> findDrugOrdersByPatients(Collection<Integer> patientIds);
+	
+	List<Obs> findDrugOrderObservationsByPatients(Collection<Integer> patientIds);
+	
+	List<PrescriptionDispensation> findPrescriptionDispensationsByPatients(Collection<Integer> patientIds);
+	
+	/**
+	 * Sums, for each not voided REVISE/DISCONTINUE order without an order reason, the quantity obs
+	 * of its encounter grouped by the drug of the order the obs refers to.
+	 *
+	 * @return rows of {order id, drug id, summed quantity}
+	 */
+	List<Object[]> findPickedUpQuantitiesByPatients(Collection<Integer> patientIds, Integer quantityConceptId);
+	
+	/**
+	 * Same as {@link #findPickedUpQuantitiesByPatients(Collection, Integer)}, for the given orders only.
+	 */
+	List<Object[]> findPickedUpQuantitiesByOrders(Collection<Integer> orderIds, Integer quantityConceptId);
+	
+	List<Concept> findConceptsByUuids(Collection<String> uuids);
+}
@@ -0,0 +1,133 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.prescription.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
+import org.openmrs.Obs;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
+
+public class PrescriptionDAOImpl implements PrescriptionDAO {
+	
+	private SessionFactory sessionFactory;
+	
+	@Override
+	public void setSessionFactory(final SessionFactory sessionFactory) {
+		
+		this.sessionFactory = sessionFactory;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugOrder> findDrugOrdersByPatients(final Collection<Integer> patientIds) {
+		
+		if (patientIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select distinct drugOrder from DrugOrder drugOrder left join fetch drugOrder.encounter "
+		        + " left join fetch drugOrder.drug where drugOrder.patient.id in (:patientIds) order by drugOrder.orderId";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("patientIds", patientIds)
+		        .list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Obs> findDrugOrderObservationsByPatients(final Collection<Integer> patientIds) {
+		
+		if (patientIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select obs from Obs obs where obs.person.id in (:patientIds) and obs.voided is false "
+		        + " and (obs.order is not null or obs.encounter.id in (select drugOrder.encounter.id from DrugOrder drugOrder "
+		        + " where drugOrder.patient.id in (:patientIds))) order by obs.obsId";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("patientIds", patientIds)
+		        .list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<PrescriptionDispensation> findPrescriptionDispensationsByPatients(final Collection<Integer> patientIds) {
+		
+		if (patientIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select pd from PrescriptionDispensation pd join fetch pd.prescription join fetch pd.dispensation "
+		        + " where pd.patient.id in (:patientIds)";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("patientIds", patientIds)
+		        .list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Object[]> findPickedUpQuantitiesByPatients(final Collection<Integer> patientIds,
+	        final Integer quantityConceptId) {
+		
+		if (patientIds.isEmpty() || (quantityConceptId == null)) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select chainOrder.orderId, obsOrder.drug.drugId, sum(obs.valueNumeric) "
+		        + " from DrugOrder chainOrder, Obs obs, DrugOrder obsOrder where chainOrder.patient.id in (:patientIds) "
+		        + " and chainOrder.previousOrder is not null and chainOrder.orderReason is null and chainOrder.voided is false "
+		        + " and obs.encounter.id = chainOrder.encounter.id and obs.voided is false "
+		        + " and obs.concept.conceptId = :quantityConceptId and obs.order.orderId = obsOrder.orderId "
+		        + " group by chainOrder.orderId, obsOrder.drug.drugId";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("patientIds", patientIds)
+		        .setParameter("quantityConceptId", quantityConceptId).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Object[]> findPickedUpQuantitiesByOrders(final Collection<Integer> orderIds,
+	        final Integer quantityConceptId) {
+		
+		if (orderIds.isEmpty() || (quantityConceptId == null)) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select chainOrder.orderId, obsOrder.drug.drugId, sum(obs.valueNumeric) "
+		        + " from DrugOrder chainOrder, Obs obs, DrugOrder obsOrder where chainOrder.orderId in (:orderIds) "
+		        + " and chainOrder.previousOrder is not null and chainOrder.orderReason is null and chainOrder.voided is false "
+		        + " and obs.encounter.id = chainOrder.encounter.id and obs.voided is false "
+		        + " and obs.concept.conceptId = :quantityConceptId and obs.order.orderId = obsOrder.orderId "
+		        + " group by chainOrder.orderId, obsOrder.drug.drugId";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("orderIds", orderIds)
+		        .setParameter("quantityConceptId", quantityConceptId).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Concept> findConceptsByUuids(final Collection<String> uuids) {
+		
+		if (uuids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final String hql = "select distinct concept from Concept concept left join fetch concept.names where concept.uuid in (:uuids)";
+		
+		return this.sessionFactory.getCurrentSession().createQuery(hql).setParameterList("uuids", uuids).list();
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.prescription.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmrs.BaseOpenmrsData;
+
+/**
+ * The orders of the prescription items cancelled together for the same reason, usually a regimen
+ * abandoned as a whole, along with the outcome of each of them once cancelled.
+ */
+public class PrescriptionItemCancellation extends BaseOpenmrsData implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private Integer prescriptionItemCancellationId;
+	
+	private List<String> orderUuids;
+	
+	private String cancelationReason;
+	
+	private List<PrescriptionItemCancellationResult> results;
+	
+	public PrescriptionItemCancellation() {
+		this.orderUuids = new ArrayList<>();
+		this.results = new ArrayList<>();
+	}
+	
+	@Override
+	public Integer getId() {
+		return this.prescriptionItemCancellationId;
+	}
+	
+	@Override
+	public void setId(final Integer prescriptionItemCancellationId) {
+		this.prescriptionItemCancellationId = prescriptionItemCancellationId;
+	}
+	
+	public List<String> getOrderUuids() {
+		return this.orderUuids;
+	}
+	
+	public void setOrderUuids(final List<String> orderUuids) {
+		this.orderUuids = orderUuids;
+	}
+	
+	public String getCancelationReason() {
+		return this.cancelationReason;
+	}
+	
+	public void setCancelationReason(final String cancelationReason) {
+		this.cancelationReason = cancelationReason;
+	}
+	
+	public List<PrescriptionItemCancellationResult> getResults() {
+		return this.results;
+	}
+	
+	public void setResults(final List<PrescriptionItemCancellationResult> results) {
+		this.results = results;
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.prescription.model;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of the cancellation of one prescription item of a list: either its order was
+ * cancelled or it was left untouched with the message of the reason.
+ */
+public class PrescriptionItemCancellationResult implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final String orderUuid;
+	
+	private final String errorMessage;
+	
+	private PrescriptionItemCancellationResult(final String orderUuid, final String errorMessage) {
+		this.orderUuid = orderUuid;
+		this.errorMessage = errorMessage;
+	}
+	
+	public static PrescriptionItemCancellationResult success(final String orderUuid) {
+		return new PrescriptionItemCancellationResult(orderUuid, null);
+	}
+	
+	public static PrescriptionItemCancellationResult failure(final String orderUuid, final String errorMessage) {
+		return new PrescriptionItemCancellationResult(orderUuid, errorMessage);
+	}
+	
+	public String getOrderUuid() {
+		return this.orderUuid;
+	}
+	
+	public String getErrorMessage() {
+		return this.errorMessage;
+	}
+	
+	public boolean isSuccessful() {
+		return this.errorMessage == null;
+	}
+}
@@ -12,17 +12,23 @@
  */
 package org.openmrs.module.pharmacyapi.api.prescription.service;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
+import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.api.EncounterService;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.dispensation.dao.DispensationDAO;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItemCancellationResult;
+import org.openmrs.module.pharmacyapi.db.DbSessionManager;
 
 /**
  * @author Stélio Moiane
@@ -35,6 +41,8 @@ public interface PrescriptionService extends OpenmrsService {
 	
 	void setPharmacyHeuristicService(PharmacyHeuristicService pharmacyHeuristicService);
 	
+	void setDbSessionManager(DbSessionManager dbSessionManager);
+	
 	Prescription createPrescription(Prescription prescription) throws PharmacyBusinessException;
 	
 	List<Prescription> findAllPrescriptionsByPatient(final Patient patient, Date actualDate)
@@ -43,9 +51,35 @@ public interface PrescriptionService extends OpenmrsService {
 	List<Prescription> findActivePrescriptionsByPatient(final Patient patient, Date actualDate)
 	        throws PharmacyBusinessException;
 	
+	/**
+	 * Finds the active prescriptions of several patients at once, loading their orders, obs and
+	 * dispensations with a fixed number of queries.
+	 *
+	 * @return the active prescriptions of each given patient, in the order of the patients
+	 */
+	Map<Patient, List<Prescription>> findActivePrescriptionsByPatients(Collection<Patient> patients, Date actualDate)
+	        throws PharmacyBusinessException;
+	
+	/**
+	 * Pharmacy worklist: the active prescriptions made at the location within the date window, sorted
+	 * by prescription date and paged in the database, the expired ones being left out by the query.
+	 */
+	PagedResult<Prescription> findActivePrescriptionsByLocation(Location location, Date startDate, Date endDate,
+	        int startIndex, int limit, boolean includeTotalCount) throws PharmacyBusinessException;
+	
 	void cancelPrescriptionItem(PrescriptionItem prescriptionItem, String cancelationReason)
 	        throws PharmacyBusinessException;
 	
+	/**
+	 * Cancels in one transaction the prescription items of the orders for the same reason. An order
+	 * that cannot be cancelled is reported in its result and left out, the others are cancelled with
+	 * their writes grouped in one write unit.
+	 *
+	 * @return the outcome of each distinct order uuid, in the given order
+	 */
+	List<PrescriptionItemCancellationResult> cancelPrescriptionItems(List<String> orderUuids,
+	        String cancelationReason);
+	
 	List<Prescription> findNotExpiredArvPrescriptions(Patient patient, Date actualDate)
 	        throws PharmacyBusinessException;
 }
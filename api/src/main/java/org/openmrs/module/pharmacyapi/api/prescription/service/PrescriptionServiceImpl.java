@@ -13,13 +13,22 @@
 package org.openmrs.module.pharmacyapi.api.prescription.service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.Encounter;
 import org.openmrs.EncounterType;
+import org.openmrs.Location;
 import org.openmrs.Order;
 import org.openmrs.Order.Action;
 import org.openmrs.Patient;
@@ -28,16 +37,24 @@ import org.openmrs.api.EncounterService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedEncounters;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
 import org.openmrs.module.pharmacyapi.api.dispensation.dao.DispensationDAO;
+import org.openmrs.module.pharmacyapi.api.orderlineage.service.OrderLineageService;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription.PrescriptionStatus;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem.PrescriptionItemStatus;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItemCancellationResult;
 import org.openmrs.module.pharmacyapi.api.prescription.util.PrescriptionGenerator;
 import org.openmrs.module.pharmacyapi.api.prescription.util.PrescriptionUtils;
 import org.openmrs.module.pharmacyapi.api.prescription.validation.PrescriptionValidator;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionEvaluation;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionState;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.service.PrescriptionStateService;
+import org.openmrs.module.pharmacyapi.db.DbSessionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -47,12 +64,17 @@ import org.springframework.transaction.annotation.Transactional;
 @Transactional
 public class PrescriptionServiceImpl extends BaseOpenmrsService implements PrescriptionService {
 	
+	private static final List<PrescriptionItemStatus> NOT_EXPIRED_ITEM_STATUS = Arrays
+	        .asList(PrescriptionItemStatus.NEW, PrescriptionItemStatus.ACTIVE, PrescriptionItemStatus.FINALIZED);
+	
 	private EncounterService encounterService;
 	
 	private DispensationDAO dispensationDAO;
 	
 	private PharmacyHeuristicService pharmacyHeuristicService;
 	
+	private DbSessionManager dbSessionManager;
+	
 	@Autowired
 	private PrescriptionValidator prescriptionValidator;
 	
@@ -62,6 +84,9 @@ public class PrescriptionServiceImpl extends BaseOpenmrsService implements Presc
 	@Autowired
 	private PrescriptionGenerator prescriptionGenerator;
 	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
 	@Override
 	public void setEncounterService(final EncounterService encounterService) {
 		
@@ -78,11 +103,16 @@ public class PrescriptionServiceImpl extends BaseOpenmrsService implements Presc
 		this.pharmacyHeuristicService = pharmacyHeuristicService;
 	}
 	
+	@Override
+	public void setDbSessionManager(final DbSessionManager dbSessionManager) {
+		this.dbSessionManager = dbSessionManager;
+	}
+	
 	@Override
 	public List<Prescription> findActivePrescriptionsByPatient(final Patient patient, final Date actualDate)
 	        throws PharmacyBusinessException {
 		
-		final List<Prescription> allPrescriptions = this.findAllPrescriptionsByPatient(patient, actualDate);
+		final List<Prescription> allPrescriptions = this.findCandidatePrescriptions(patient, actualDate, false);
 		final List<Prescription> result = new ArrayList<>();
 		
 		for (final Prescription prescription : allPrescriptions) {
@@ -110,7 +140,7 @@ public class PrescriptionServiceImpl extends BaseOpenmrsService implements Presc
 	@Override
 	public List<Prescription> findNotExpiredArvPrescriptions(final Patient patient, final Date actualDate)
 	        throws PharmacyBusinessException {
-		final List<Prescription> prescriptions = this.findAllPrescriptionsByPatient(patient, actualDate);
+		final List<Prescription> prescriptions = this.findCandidatePrescriptions(patient, actualDate, true);
 		final List<Prescription> result = new ArrayList<>();
 		for (final Prescription prescription : prescriptions) {
 			if (prescription.isArv() && this.hasActivePrescriptionItems(prescription)) {
@@ -120,6 +150,196 @@ public class PrescriptionServiceImpl extends BaseOpenmrsService implements Presc
 		return result;
 	}
 	
+	@Override
+	public Map<Patient, List<Prescription>> findActivePrescriptionsByPatients(final Collection<Patient> patients,
+	        final Date actualDate) throws PharmacyBusinessException {
+		
+		final PrescriptionStateService prescriptionStateService = Context.getService(PrescriptionStateService.class);
+		
+		final Map<Integer, List<PrescriptionState>> statesByPatientId = new HashMap<>();
+		for (final PrescriptionState prescriptionState : prescriptionStateService
+		        .findPrescriptionStatesByPatients(patients)) {
+			
+			final Integer patientId = prescriptionState.getPatient().getPatientId();
+			if (!statesByPatientId.containsKey(patientId)) {
+				statesByPatientId.put(patientId, new ArrayList<PrescriptionState>());
+			}
+			statesByPatientId.get(patientId).add(prescriptionState);
+		}
+		
+		final Set<Integer> evaluatedPatientIds = new HashSet<>();
+		for (final PrescriptionEvaluation prescriptionEvaluation : prescriptionStateService
+		        .findPrescriptionEvaluationsByPatients(patients)) {
+			
+			if (!prescriptionEvaluation.getEvaluationDate().after(actualDate)) {
+				evaluatedPatientIds.add(prescriptionEvaluation.getPatient().getPatientId());
+			}
+		}
+		
+		final List<PrescriptionState> candidateStates = new ArrayList<>();
+		final List<Patient> patientsWithoutState = new ArrayList<>();
+		for (final Patient patient : patients) {
+			
+			List<PrescriptionState> patientCandidateStates = null;
+			if (evaluatedPatientIds.contains(patient.getPatientId())) {
+				
+				final List<PrescriptionState> prescriptionStates = statesByPatientId.get(patient.getPatientId());
+				patientCandidateStates = prescriptionStates == null ? new ArrayList<PrescriptionState>()
+				        : this.selectCandidateStates(prescriptionStates, actualDate, false);
+			}
+			
+			if (patientCandidateStates == null) {
+				patientsWithoutState.add(patient);
+			} else {
+				candidateStates.addAll(patientCandidateStates);
+			}
+		}
+		
+		final List<DrugOrder> orders = prescriptionStateService.findDrugOrdersByStates(candidateStates);
+		orders.addAll(this.getOrdersNotDispensed(patientsWithoutState));
+		orders.addAll(this.dispensationDAO.findDispensedDrugOrdersByPatients(patientsWithoutState));
+		
+		final Map<Integer, List<Prescription>> prescriptionsByPatientId = new HashMap<>();
+		if (!orders.isEmpty()) {
+			
+			for (final Prescription prescription : this.prescriptionGenerator.generatePrescriptions(orders,
+			    actualDate)) {
+				
+				if (PrescriptionStatus.ACTIVE.equals(prescription.getPrescriptionStatus())) {
+					prescription.setPrescriptionItems(this.filterOnlyActiveItems(prescription.getPrescriptionItems()));
+					
+					final Integer patientId = prescription.getPatient().getPatientId();
+					if (!prescriptionsByPatientId.containsKey(patientId)) {
+						prescriptionsByPatientId.put(patientId, new ArrayList<Prescription>());
+					}
+					prescriptionsByPatientId.get(patientId).add(prescription);
+				}
+			}
+		}
+		
+		final Map<Patient, List<Prescription>> result = new LinkedHashMap<>();
+		for (final Patient patient : patients) {
+			
+			final List<Prescription> prescriptions = prescriptionsByPatientId.get(patient.getPatientId());
+			result.put(patient, prescriptions == null ? new ArrayList<Prescription>() : prescriptions);
+		}
+		return result;
+	}
+	
+	@Override
+	public PagedResult<Prescription> findActivePrescriptionsByLocation(final Location location, final Date startDate,
+	        final Date endDate, final int startIndex, final int limit, final boolean includeTotalCount)
+	        throws PharmacyBusinessException {
+		
+		final PrescriptionStateService prescriptionStateService = Context.getService(PrescriptionStateService.class);
+		final Date date = new Date();
+		
+		// expired states are filtered by the query, so one more than the page tells whether there is a next page
+		final PagedResult<Integer> prescriptionIds = PagedResult.fromFetched(
+		    prescriptionStateService.findActivePrescriptionIdsByLocation(location, startDate, endDate, date,
+		        startIndex, limit + 1),
+		    limit, includeTotalCount
+		            ? prescriptionStateService.countActivePrescriptionsByLocation(location, startDate, endDate, date)
+		            : null);
+		
+		final List<Prescription> result = new ArrayList<>();
+		if (prescriptionIds.getResults().isEmpty()) {
+			return new PagedResult<>(result, prescriptionIds.hasMoreResults(), prescriptionIds.getTotalCount());
+		}
+		
+		final List<PrescriptionState> prescriptionStates = prescriptionStateService
+		        .findPrescriptionStatesByPrescriptionIds(prescriptionIds.getResults());
+		final List<DrugOrder> orders = prescriptionStateService.findDrugOrdersByStates(prescriptionStates);
+		
+		// prescriptions made outside the module are in the page before their patient is evaluated
+		final Set<Integer> notEvaluatedIds = new HashSet<>(prescriptionIds.getResults());
+		for (final PrescriptionState prescriptionState : prescriptionStates) {
+			notEvaluatedIds.remove(prescriptionState.getPrescription().getEncounterId());
+		}
+		orders.addAll(prescriptionStateService.findNotEvaluatedDrugOrdersByPrescriptionIds(notEvaluatedIds));
+		
+		final Map<Integer, Prescription> prescriptionsById = new HashMap<>();
+		for (final Prescription prescription : this.prescriptionGenerator.generatePrescriptions(orders, date)) {
+			prescriptionsById.put(prescription.getPrescriptionEncounter().getEncounterId(), prescription);
+		}
+		
+		// keeps the page order, the queries already left out the prescriptions that are not ACTIVE
+		for (final Integer prescriptionId : prescriptionIds.getResults()) {
+			
+			final Prescription prescription = prescriptionsById.get(prescriptionId);
+			if (prescription != null) {
+				prescription.setPrescriptionItems(this.filterOnlyActiveItems(prescription.getPrescriptionItems()));
+				result.add(prescription);
+			}
+		}
+		return new PagedResult<>(result, prescriptionIds.hasMoreResults(), prescriptionIds.getTotalCount());
+	}
+	
+	/**
+	 * Generates only the prescriptions that the stored prescription state says may still be ACTIVE
+	 * (or, for ARV, still have a not expired item). When the patient was never evaluated, or was
+	 * evaluated after the given date, all the prescriptions are generated; nothing is written, the
+	 * states are only stored by the writes and the sweep.
+	 */
+	private List<Prescription> findCandidatePrescriptions(final Patient patient, final Date actualDate,
+	        final boolean arv) throws PharmacyBusinessException {
+		
+		final PrescriptionStateService prescriptionStateService = Context.getService(PrescriptionStateService.class);
+		final PrescriptionEvaluation prescriptionEvaluation = prescriptionStateService
+		        .findPrescriptionEvaluationByPatient(patient);
+		
+		if ((prescriptionEvaluation == null) || prescriptionEvaluation.getEvaluationDate().after(actualDate)) {
+			return this.findAllPrescriptionsByPatient(patient, actualDate);
+		}
+		
+		final List<PrescriptionState> candidateStates = this.selectCandidateStates(
+		    prescriptionStateService.findPrescriptionStatesByPatient(patient), actualDate, arv);
+		
+		if (candidateStates == null) {
+			return this.findAllPrescriptionsByPatient(patient, actualDate);
+		}
+		
+		if (candidateStates.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.prescriptionGenerator.generatePrescriptions(
+		    prescriptionStateService.findDrugOrdersByStates(candidateStates), actualDate);
+	}
+	
+	/**
+	 * Item statuses only move towards EXPIRED as time passes, so the stored state is a safe superset
+	 * of the candidates for any date after its evaluation.
+	 *
+	 * @return the states of all the items of the prescriptions that may still match on the given
+	 *         date, or null when the states were evaluated after it
+	 */
+	private List<PrescriptionState> selectCandidateStates(final List<PrescriptionState> prescriptionStates,
+	        final Date actualDate, final boolean arv) {
+		
+		final Set<Integer> candidates = new HashSet<>();
+		for (final PrescriptionState prescriptionState : prescriptionStates) {
+			
+			if (prescriptionState.getEvaluationDate().after(actualDate)) {
+				return null;
+			}
+			final boolean candidate = arv
+			        ? prescriptionState.getArv() && NOT_EXPIRED_ITEM_STATUS.contains(prescriptionState.getItemStatus())
+			        : PrescriptionStatus.ACTIVE.equals(prescriptionState.getPrescriptionStatus());
+			if (candidate) {
+				candidates.add(prescriptionState.getPrescription().getEncounterId());
+			}
+		}
+		
+		final List<PrescriptionState> candidateStates = new ArrayList<>();
+		for (final PrescriptionState prescriptionState : prescriptionStates) {
+			if (candidates.contains(prescriptionState.getPrescription().getEncounterId())) {
+				candidateStates.add(prescriptionState);
+			}
+		}
+		return candidateStates;
+	}
+	
 	private List<PrescriptionItem> filterOnlyActiveItems(final List<PrescriptionItem> items) {
 		
 		final List<PrescriptionItem> result = new ArrayList<>();
@@ -164,6 +384,14 @@ public class PrescriptionServiceImpl extends BaseOpenmrsService implements Presc
 		this.encounterService.saveEncounter(encounter);
 		prescription.setPrescriptionEncounter(encounter);
 		
+		final OrderLineageService orderLineageService = Context.getService(OrderLineageService.class);
+		for (final PrescriptionItem item : prescription.getPrescriptionItems()) {
+			orderLineageService.saveOrderLineage(item.getDrugOrder());
+		}
+		
+		Context.getService(PrescriptionStateService.class).updatePrescriptionStates(encounter.getPatient(),
+		    new Date());
+		
 		return prescription;
 	}
 	
@@ -172,6 +400,7 @@ public class PrescriptionServiceImpl extends BaseOpenmrsService implements Presc
 	        throws PharmacyBusinessException {
 		
 		final Order order = Context.getOrderService().getOrderByUuid(prescriptionItem.getDrugOrder().getUuid());
+		final Patient patient = order.getPatient();
 		if (Action.NEW.equals(order.getAction())) {
 			Context.getOrderService().voidOrder(order, cancelationReason);
 			
@@ -180,8 +409,9 @@ public class PrescriptionServiceImpl extends BaseOpenmrsService implements Presc
 			final Concept discountinueReason = Context.getConceptService().getConceptByUuid(cancelationReason);
 			if (Action.REVISE.equals(order.getAction())) {
 				try {
-					Context.getOrderService().discontinueOrder(order, discountinueReason, new Date(),
-					    order.getOrderer(), order.getEncounter());
+					final Order discontinuationOrder = Context.getOrderService().discontinueOrder(order,
+					    discountinueReason, new Date(), order.getOrderer(), order.getEncounter());
+					Context.getService(OrderLineageService.class).saveOrderLineage(discontinuationOrder);
 				}
 				catch (final Exception e) {
 					throw new APIException(e.getMessage());
@@ -190,15 +420,149 @@ public class PrescriptionServiceImpl extends BaseOpenmrsService implements Presc
 				this.pharmacyHeuristicService.updateOrder(order, discountinueReason);
 			}
 		}
+		
+		Context.getService(PrescriptionStateService.class).updatePrescriptionStates(patient, new Date());
+	}
+	
+	@Override
+	public List<PrescriptionItemCancellationResult> cancelPrescriptionItems(final List<String> orderUuids,
+	        final String cancelationReason) {
+		
+		final Set<String> distinctOrderUuids = new LinkedHashSet<>(orderUuids);
+		final Map<String, Order> ordersByUuid = new HashMap<>();
+		for (final Order order : this.pharmacyHeuristicService.findOrdersByUuids(distinctOrderUuids)) {
+			ordersByUuid.put(order.getUuid(), order);
+		}
+		final Concept discountinueReason = Context.getConceptService().getConceptByUuid(cancelationReason);
+		
+		final List<PrescriptionItemCancellationResult> results = new ArrayList<>();
+		final List<Order> newOrders = new ArrayList<>();
+		final List<Order> revisedOrders = new ArrayList<>();
+		final List<Order> discontinuedOrders = new ArrayList<>();
+		
+		// nothing is written until every order is checked, the rejected ones are left untouched
+		for (final String orderUuid : distinctOrderUuids) {
+			
+			final Order order = ordersByUuid.get(orderUuid);
+			try {
+				this.validateCancellation(orderUuid, order, discountinueReason);
+			}
+			catch (final PharmacyBusinessException e) {
+				results.add(PrescriptionItemCancellationResult.failure(orderUuid, e.getMessage()));
+				continue;
+			}
+			
+			if (Action.NEW.equals(order.getAction())) {
+				newOrders.add(order);
+			} else if (Action.REVISE.equals(order.getAction())) {
+				revisedOrders.add(order);
+			} else if (Action.DISCONTINUE.equals(order.getAction())) {
+				discontinuedOrders.add(order);
+			}
+			results.add(PrescriptionItemCancellationResult.success(orderUuid));
+		}
+		
+		final Set<Patient> patients = new LinkedHashSet<>();
+		final Date discontinuationDate = new Date();
+		
+		boolean completed = false;
+		this.dbSessionManager.beginWriteUnit();
+		try {
+			
+			for (final Order order : newOrders) {
+				Context.getOrderService().voidOrder(order, cancelationReason);
+				patients.add(order.getPatient());
+			}
+			
+			// core numbers and checks each discontinuation, their lineages are then saved together
+			final List<Order> discontinuationOrders = new ArrayList<>();
+			for (final Order order : revisedOrders) {
+				
+				discontinuationOrders.add(Context.getOrderService().discontinueOrder(order, discountinueReason,
+				    discontinuationDate, order.getOrderer(), order.getEncounter()));
+				patients.add(order.getPatient());
+			}
+			Context.getService(OrderLineageService.class).saveOrderLineages(discontinuationOrders);
+			
+			for (final Order order : discontinuedOrders) {
+				patients.add(order.getPatient());
+			}
+			this.pharmacyHeuristicService.updateOrders(discontinuedOrders, discountinueReason);
+			completed = true;
+		}
+		catch (final Exception e) {
+			
+			// the orders already cancelled cannot be undone one by one, the whole list is rolled back
+			throw new APIException(e.getMessage(), e);
+		}
+		finally {
+			if (completed) {
+				this.dbSessionManager.endWriteUnit();
+			} else {
+				this.dbSessionManager.abandonWriteUnit();
+			}
+		}
+		
+		// the states are read from the cancelled orders, so only once the unit is flushed
+		try {
+			for (final Patient patient : patients) {
+				Context.getService(PrescriptionStateService.class).updatePrescriptionStates(patient,
+				    discontinuationDate);
+			}
+		}
+		catch (final PharmacyBusinessException e) {
+			throw new APIException(e.getMessage(), e);
+		}
+		
+		return results;
+	}
+	
+	private void validateCancellation(final String orderUuid, final Order order, final Concept discountinueReason)
+	        throws PharmacyBusinessException {
+		
+		if (order == null) {
+			throw new PharmacyBusinessException("pharmacyapi.error.prescription.item.order.not.found", orderUuid);
+		}
+		
+		if (order.isVoided() || (Action.REVISE.equals(order.getAction()) && (order.getDateStopped() != null))) {
+			throw new PharmacyBusinessException("pharmacyapi.error.prescription.item.already.cancelled", orderUuid);
+		}
+		
+		if (Action.DISCONTINUE.equals(order.getAction()) && (discountinueReason == null)) {
+			throw new PharmacyBusinessException("pharmacyapi.error.prescription.item.reason.not.found", orderUuid);
+		}
 	}
 	
 	private List<DrugOrder> getOrdersNotDispensed(final Patient patient) {
 		
 		final EncounterType arvEncounterType = this.pharmacyHeuristicService.getEncounterTypeByPatientAge(patient);
-		final EncounterType generalPrescriptionEncType = Context.getEncounterService()
-		        .getEncounterTypeByUuid(MappedEncounters.GENERAL_PRESCRIPTION);
+		final EncounterType generalPrescriptionEncType = this.metadataRegistry
+		        .getEncounterType(MappedEncounters.GENERAL_PRESCRIPTION);
 		
 		return this.dispensationDAO.findNotDispensedDrugOrdersByPatient(patient, arvEncounterType,
 		    generalPrescriptionEncType);
 	}
+	
+	private List<DrugOrder> getOrdersNotDispensed(final Collection<Patient> patients) {
+		
+		final EncounterType arvAdultEncounterType = this.metadataRegistry
+		        .getEncounterType(MappedEncounters.ARV_FOLLOW_UP_ADULT);
+		final EncounterType arvChildEncounterType = this.metadataRegistry
+		        .getEncounterType(MappedEncounters.ARV_FOLLOW_UP_CHILD);
+		final EncounterType generalPrescriptionEncType = this.metadataRegistry
+		        .getEncounterType(MappedEncounters.GENERAL_PRESCRIPTION);
+		
+		final List<DrugOrder> result = new ArrayList<>();
+		for (final DrugOrder drugOrder : this.dispensationDAO.findNotDispensedDrugOrdersByPatients(patients,
+		    arvAdultEncounterType, arvChildEncounterType, generalPrescriptionEncType)) {
+			
+			// the ARV follow up type of each patient depends on its age, as in the single patient search
+			final EncounterType encounterType = drugOrder.getEncounter().getEncounterType();
+			if (generalPrescriptionEncType.equals(encounterType) || this.pharmacyHeuristicService
+			        .getEncounterTypeByPatientAge(drugOrder.getPatient()).equals(encounterType)) {
+				result.add(drugOrder);
+			}
+		}
+		return result;
+	}
 }
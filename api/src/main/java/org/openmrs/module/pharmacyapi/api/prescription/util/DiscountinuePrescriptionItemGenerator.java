@@ -24,36 +24,32 @@ public class DiscountinuePrescriptionItemGenerator extends AbstractPrescriptionI
 	
 	@Override
 	public PrescriptionItem generate(final Prescription prescription, final DrugOrder drugOrder,
-	        final Date creationDate) throws PharmacyBusinessException {
+	        final Date creationDate, final PrescriptionContext context) throws PharmacyBusinessException {
 		
-		final DrugOrder fetchDO = this.fetchDrugOrder(drugOrder);
-		final PrescriptionItem prescriptionItem = new PrescriptionItem(this.cloneDrugOrder(fetchDO));
-		final Double quantity = this.calculateDrugPikckedUp(fetchDO);
+		final DrugOrder fetchDO = context.fetchDrugOrder(drugOrder);
+		final PrescriptionItem prescriptionItem = new PrescriptionItem(this.cloneDrugOrder(fetchDO, context));
+		final Double quantity = this.calculateDrugPikckedUp(fetchDO, context);
 		
 		prescriptionItem.setDrugPickedUp(quantity);
 		prescriptionItem
 		        .setDrugToPickUp(prescriptionItem.getDrugOrder().getQuantity() - prescriptionItem.getDrugPickedUp());
-		prescriptionItem.setExpectedNextPickUpDate(this.getNextPickUpDate(prescriptionItem.getDrugOrder()));
-		this.setPrescriptionInstructions(prescriptionItem, prescriptionItem.getDrugOrder());
+		prescriptionItem.setExpectedNextPickUpDate(this.getNextPickUpDate(prescriptionItem.getDrugOrder(), context));
+		this.setPrescriptionInstructions(prescriptionItem, prescriptionItem.getDrugOrder(), context);
 		
-		prescriptionItem.setStatus(this.calculatePrescriptionItemStatus(prescriptionItem, creationDate));
-		this.setArvFlag(prescriptionItem);
+		prescriptionItem.setStatus(this.calculatePrescriptionItemStatus(prescriptionItem, creationDate, context));
+		this.setArvFlag(prescriptionItem, context);
 		
 		return prescriptionItem;
 	}
 	
-	private DrugOrder cloneDrugOrder(final DrugOrder drugOrder) {
+	private DrugOrder cloneDrugOrder(final DrugOrder drugOrder, final PrescriptionContext context) {
 		
 		final DrugOrder clone = new DrugOrder();
 		clone.setId(drugOrder.getId());
 		clone.setPreviousOrder(drugOrder.getPreviousOrder());
 		clone.setOrderReason(drugOrder.getOrderReason());
 		
-		DrugOrder tempDrugOrder = drugOrder;
-		while (!Action.NEW.equals(tempDrugOrder.getAction())) {
-			
-			tempDrugOrder = (DrugOrder) tempDrugOrder.getPreviousOrder();
-		}
+		final DrugOrder tempDrugOrder = context.getRootOrder(drugOrder);
 		
 		clone.setDose(tempDrugOrder.getDose());
 		clone.setQuantity(tempDrugOrder.getQuantity());
@@ -82,10 +78,9 @@ public class DiscountinuePrescriptionItemGenerator extends AbstractPrescriptionI
 	
 	@Override
 	protected PrescriptionItemStatus calculatePrescriptionItemStatus(final PrescriptionItem item,
-	        final Date consultationDate) {
+	        final Date consultationDate, final PrescriptionContext context) {
 		
-		return item.getDrugOrder().getOrderReason() != null ? PrescriptionItemStatus.INTERRUPTED
-		        : this.isOrderExpired(item, consultationDate) ? PrescriptionItemStatus.EXPIRED
-		                : PrescriptionItemStatus.FINALIZED;
+		return this.orderStatusEvaluator.evaluateDiscontinuedOrder(item.getDrugOrder(),
+		    this.getNextPickUpDate(item.getDrugOrder(), context), item.getDrugToPickUp(), consultationDate);
 	}
 }
@@ -9,7 +9,6 @@
  */
 package org.openmrs.module.pharmacyapi.api.prescription.util;
 
-import java.util.Calendar;
 import java.util.Date;
 
 import org.openmrs.DrugOrder;
@@ -24,9 +23,9 @@ public class NewPrescriptionItemGenerator extends AbstractPrescriptionItemGenera
 	
 	@Override
 	public PrescriptionItem generate(final Prescription prescription, final DrugOrder drugOrder,
-	        final Date creationDate) throws PharmacyBusinessException {
+	        final Date creationDate, final PrescriptionContext context) throws PharmacyBusinessException {
 		
-		final PrescriptionItem prescriptionItem = super.generate(prescription, drugOrder, creationDate);
+		final PrescriptionItem prescriptionItem = super.generate(prescription, drugOrder, creationDate, context);
 		
 		prescriptionItem.setDrugPickedUp(0d);
 		prescriptionItem.setDrugToPickUp(prescriptionItem.getDrugOrder().getQuantity());
@@ -37,34 +36,8 @@ public class NewPrescriptionItemGenerator extends AbstractPrescriptionItemGenera
 	
 	@Override
 	protected PrescriptionItemStatus calculatePrescriptionItemStatus(final PrescriptionItem item,
-	        final Date consultationDate) {
+	        final Date consultationDate, final PrescriptionContext context) {
 		
-		return this.isOrderExpired(item, consultationDate) ? PrescriptionItemStatus.EXPIRED
-		        : PrescriptionItemStatus.NEW;
-	}
-	
-	@Override
-	public boolean isOrderExpired(final PrescriptionItem item, final Date consultationDate) {
-		
-		return consultationDate.after(this.getExpirationDateMinus2Days(item));
-	}
-	
-	private Date getExpirationDateMinus2Days(final PrescriptionItem item) {
-		
-		final Calendar calendar = Calendar.getInstance();
-		calendar.setTime(item.getDrugOrder().getEncounter().getDateCreated());
-		calendar.set(Calendar.HOUR_OF_DAY, 0);
-		calendar.set(Calendar.MINUTE, 0);
-		calendar.set(Calendar.SECOND, 0);
-		calendar.set(Calendar.MILLISECOND, 0);
-		calendar.add(Calendar.DAY_OF_MONTH, 10);
-		
-		while ((calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY)
-		        || (calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY)) {
-			
-			calendar.add(Calendar.DAY_OF_MONTH, 1);
-		}
-		
-		return calendar.getTime();
+		return this.orderStatusEvaluator.evaluateNewOrder(item.getDrugOrder(), consultationDate);
 	}
 }
@@ -0,0 +1,242 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.prescription.util;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.openmrs.DrugOrder;
+import org.openmrs.Obs;
+import org.openmrs.Order.Action;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
+import org.openmrs.module.pharmacyapi.api.orderlineage.model.OrderLineage;
+import org.openmrs.module.pharmacyapi.api.orderlineage.service.OrderLineageService;
+import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
+import org.openmrs.module.pharmacyapi.api.prescription.dao.PrescriptionDAO;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem.PrescriptionItemStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Computes the {@link PrescriptionItemStatus} of a drug order. The item generators feed it with
+ * what the {@link PrescriptionContext} of the whole prescription already holds, while
+ * {@link #evaluate(DrugOrder, Date)} loads only what the single order needs, so that checking one
+ * order, as the cancellation of a dispensation does, costs a few queries instead of a prescription
+ * rebuild.
+ */
+@Component
+public class OrderStatusEvaluator {
+	
+	private static final int NEW_ORDER_VALIDITY_DAYS = 10;
+	
+	@Autowired
+	private PrescriptionDAO prescriptionDAO;
+	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
+	public PrescriptionItemStatus evaluate(final DrugOrder drugOrder, final Date date) {
+		
+		if (Action.NEW.equals(drugOrder.getAction())) {
+			return this.evaluateNewOrder(drugOrder, date);
+		}
+		
+		if (Action.REVISE.equals(drugOrder.getAction())) {
+			return this.evaluateRevisedOrder(drugOrder, this.findNextPickUpDate(drugOrder), date);
+		}
+		
+		if (drugOrder.getOrderReason() != null) {
+			return PrescriptionItemStatus.INTERRUPTED;
+		}
+		
+		final List<DrugOrder> chain = this.getOrderChain(drugOrder);
+		final DrugOrder rootOrder = chain.get(chain.size() - 1);
+		final Double drugToPickUp = rootOrder.getQuantity() - this.getDrugPickedUp(drugOrder, chain);
+		
+		return this.evaluateDiscontinuedOrder(drugOrder, this.findNextPickUpDate(drugOrder), drugToPickUp, date);
+	}
+	
+	/**
+	 * A not yet dispensed order expires ten days after its prescription, moved forward to a week day.
+	 */
+	public PrescriptionItemStatus evaluateNewOrder(final DrugOrder drugOrder, final Date date) {
+		
+		return date.after(this.getNewOrderExpirationDate(drugOrder)) ? PrescriptionItemStatus.EXPIRED
+		        : PrescriptionItemStatus.NEW;
+	}
+	
+	/**
+	 * @return the instant after which the not yet dispensed order is EXPIRED
+	 */
+	public Date getNewOrderExpirationDate(final DrugOrder drugOrder) {
+		
+		return this.getNewOrderExpirationDate(drugOrder.getEncounter().getDateCreated());
+	}
+	
+	/**
+	 * @return the start of the first day a not yet dispensed order may have been prescribed on to be
+	 *         still NEW on the date, so that the query of the active prescriptions can tell it
+	 */
+	public Date getNewOrderPrescribedSince(final Date date) {
+		
+		// the expiration is moved forward by two days at most, an order prescribed before is expired
+		final Calendar calendar = this.startOfDay(date);
+		calendar.add(Calendar.DAY_OF_MONTH, -(NEW_ORDER_VALIDITY_DAYS + 2));
+		
+		while (date.after(this.getNewOrderExpirationDate(calendar.getTime()))) {
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		return calendar.getTime();
+	}
+	
+	private Date getNewOrderExpirationDate(final Date prescriptionDateCreated) {
+		
+		final Calendar calendar = this.startOfDay(prescriptionDateCreated);
+		calendar.add(Calendar.DAY_OF_MONTH, NEW_ORDER_VALIDITY_DAYS);
+		
+		while ((calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY)
+		        || (calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY)) {
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		return calendar.getTime();
+	}
+	
+	/**
+	 * A revised order expires once its next pick-up date is past, the quantity still to pick up is
+	 * not counted.
+	 */
+	public PrescriptionItemStatus evaluateRevisedOrder(final DrugOrder drugOrder, final Date nextPickUpDate,
+	        final Date date) {
+		
+		final PrescriptionItemStatus status = Action.DISCONTINUE.equals(drugOrder.getAction())
+		        ? PrescriptionItemStatus.FINALIZED : PrescriptionItemStatus.ACTIVE;
+		
+		return this.isExpired(nextPickUpDate, 0d, date) ? PrescriptionItemStatus.EXPIRED : status;
+	}
+	
+	public PrescriptionItemStatus evaluateDiscontinuedOrder(final DrugOrder drugOrder, final Date nextPickUpDate,
+	        final Double drugToPickUp, final Date date) {
+		
+		return drugOrder.getOrderReason() != null ? PrescriptionItemStatus.INTERRUPTED
+		        : this.isExpired(nextPickUpDate, drugToPickUp, date) ? PrescriptionItemStatus.EXPIRED
+		                : PrescriptionItemStatus.FINALIZED;
+	}
+	
+	/**
+	 * @return whether the date is after the next pick-up date moved by a day per unit of drug still
+	 *         to pick up, back to a week day
+	 */
+	public boolean isExpired(final Date nextPickUpDate, final Double drugToPickUp, final Date date) {
+		
+		return date.after(this.getExpirationDate(nextPickUpDate, drugToPickUp));
+	}
+	
+	/**
+	 * @return the instant after which an item with the given next pick-up date and quantity still to
+	 *         pick up is EXPIRED
+	 */
+	public Date getExpirationDate(final Date nextPickUpDate, final Double drugToPickUp) {
+		
+		final Calendar calendar = this.startOfDay(nextPickUpDate);
+		calendar.add(Calendar.DAY_OF_MONTH, drugToPickUp.intValue());
+		
+		while ((calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY)
+		        || (calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY)) {
+			calendar.add(Calendar.DAY_OF_MONTH, -1);
+		}
+		return calendar.getTime();
+	}
+	
+	/**
+	 * @return whether the order was interrupted, itself or, for a revised order, by the order that
+	 *         discontinued it
+	 */
+	public boolean isInterrupted(final DrugOrder drugOrder) {
+		
+		if (drugOrder.getOrderReason() != null) {
+			return true;
+		}
+		
+		// only a stopped order has an order revising or discontinuing it
+		if (!Action.REVISE.equals(drugOrder.getAction()) || (drugOrder.getDateStopped() == null)) {
+			return false;
+		}
+		
+		final OrderLineage childLineage = Context.getService(OrderLineageService.class)
+		        .findOrderLineageByPreviousOrder(drugOrder);
+		return (childLineage != null) && (childLineage.getOrder().getOrderReason() != null);
+	}
+	
+	private Date findNextPickUpDate(final DrugOrder drugOrder) {
+		
+		final Integer nextPickUpConceptId = this.metadataRegistry.getConceptId(MappedConcepts.DATE_OF_NEXT_PICK_UP);
+		
+		for (final Obs obs : Context.getService(PharmacyHeuristicService.class).findObservationsByOrder(drugOrder)) {
+			
+			if (obs.getConcept().getConceptId().equals(nextPickUpConceptId)) {
+				return obs.getValueDate();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @return the given order followed by the orders it revised, the root NEW order being the last
+	 */
+	private List<DrugOrder> getOrderChain(final DrugOrder drugOrder) {
+		
+		final List<DrugOrder> chain = new ArrayList<>();
+		
+		DrugOrder tempDrugOrder = drugOrder;
+		while (tempDrugOrder != null) {
+			chain.add(tempDrugOrder);
+			tempDrugOrder = (DrugOrder) tempDrugOrder.getPreviousOrder();
+		}
+		return chain;
+	}
+	
+	private Double getDrugPickedUp(final DrugOrder drugOrder, final List<DrugOrder> chain) {
+		
+		final List<Integer> orderIds = new ArrayList<>();
+		for (final DrugOrder chainOrder : chain) {
+			orderIds.add(chainOrder.getOrderId());
+		}
+		
+		final Integer drugId = drugOrder.getDrug().getDrugId();
+		
+		Double quantity = 0.0;
+		for (final Object[] row : this.prescriptionDAO.findPickedUpQuantitiesByOrders(orderIds,
+		    this.metadataRegistry.getConceptId(MappedConcepts.MEDICATION_QUANTITY))) {
+			
+			if (drugId.equals(row[1])) {
+				quantity += (Double) row[2];
+			}
+		}
+		return quantity;
+	}
+	
+	private Calendar startOfDay(final Date date) {
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar;
+	}
+}
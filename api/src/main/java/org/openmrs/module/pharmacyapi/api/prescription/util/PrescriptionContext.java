@@ -0,0 +1,270 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.prescription.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openmrs.Concept;
+import org.openmrs.Drug;
+import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.Order.Action;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.util.EncounterObsDigest;
+import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
+import org.openmrs.module.pharmacyapi.api.drugregime.util.DrugRegimeIndex;
+import org.openmrs.module.pharmacyapi.api.orderlineage.model.OrderLineage;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
+
+/**
+ * Holds everything needed to assemble the prescriptions of a group of patients, loaded upfront by
+ * {@link PrescriptionGenerator#loadPrescriptionContext(java.util.Collection)} so that the
+ * generators work in memory instead of querying entity by entity.
+ */
+public class PrescriptionContext {
+	
+	private final Map<Integer, DrugOrder> drugOrdersById = new HashMap<>();
+	
+	private final Map<Integer, List<DrugOrder>> drugOrdersByEncounterId = new HashMap<>();
+	
+	private final Map<Integer, List<Obs>> observationsByOrderId = new HashMap<>();
+	
+	private final Map<Integer, PrescriptionDispensation> prescriptionDispensationsByDispensationId = new HashMap<>();
+	
+	private final Map<Integer, OrderLineage> orderLineagesByOrderId = new HashMap<>();
+	
+	private final Map<Integer, Map<Integer, Double>> pickedUpQuantitiesByOrderId = new HashMap<>();
+	
+	private final Map<String, Concept> conceptsByUuid = new HashMap<>();
+	
+	private final EncounterObsDigest encounterObsDigest;
+	
+	private final MetadataRegistry metadataRegistry;
+	
+	private final DrugRegimeIndex drugRegimeIndex;
+	
+	public PrescriptionContext(final List<DrugOrder> drugOrders, final List<Obs> observations,
+	        final List<PrescriptionDispensation> prescriptionDispensations, final List<OrderLineage> orderLineages,
+	        final List<Object[]> pickedUpQuantities, final List<Concept> concepts,
+	        final MetadataRegistry metadataRegistry, final DrugRegimeIndex drugRegimeIndex) {
+		
+		this.metadataRegistry = metadataRegistry;
+		this.drugRegimeIndex = drugRegimeIndex;
+		
+		for (final DrugOrder drugOrder : drugOrders) {
+			
+			this.drugOrdersById.put(drugOrder.getOrderId(), drugOrder);
+			
+			if (drugOrder.getEncounter() != null) {
+				this.addValue(this.drugOrdersByEncounterId, drugOrder.getEncounter().getEncounterId(), drugOrder);
+			}
+		}
+		
+		this.encounterObsDigest = new EncounterObsDigest(observations, metadataRegistry);
+		
+		for (final Obs obs : observations) {
+			
+			if (obs.getOrder() != null) {
+				this.addValue(this.observationsByOrderId, obs.getOrder().getOrderId(), obs);
+			}
+		}
+		
+		for (final PrescriptionDispensation prescriptionDispensation : prescriptionDispensations) {
+			this.prescriptionDispensationsByDispensationId
+			        .put(prescriptionDispensation.getDispensation().getEncounterId(), prescriptionDispensation);
+		}
+		
+		for (final OrderLineage orderLineage : orderLineages) {
+			this.orderLineagesByOrderId.put(orderLineage.getOrder().getOrderId(), orderLineage);
+		}
+		
+		for (final Object[] row : pickedUpQuantities) {
+			
+			Map<Integer, Double> quantitiesByDrugId = this.pickedUpQuantitiesByOrderId.get(row[0]);
+			if (quantitiesByDrugId == null) {
+				this.pickedUpQuantitiesByOrderId.put((Integer) row[0], quantitiesByDrugId = new HashMap<>());
+			}
+			quantitiesByDrugId.put((Integer) row[1], (Double) row[2]);
+		}
+		
+		for (final Concept concept : concepts) {
+			this.conceptsByUuid.put(concept.getUuid(), concept);
+		}
+	}
+	
+	public DrugOrder fetchDrugOrder(final DrugOrder drugOrder) {
+		
+		final DrugOrder found = this.drugOrdersById.get(drugOrder.getOrderId());
+		
+		if (found != null) {
+			return found;
+		}
+		return (DrugOrder) Context.getOrderService().getOrderByUuid(drugOrder.getUuid());
+	}
+	
+	/**
+	 * @return the NEW order the REVISE/DISCONTINUE chain of the given order started from, resolved
+	 *         through its lineage; orders without one yet are followed back order by order
+	 */
+	public DrugOrder getRootOrder(final DrugOrder drugOrder) {
+		
+		final OrderLineage orderLineage = this.orderLineagesByOrderId.get(drugOrder.getOrderId());
+		
+		if (orderLineage != null) {
+			
+			final DrugOrder rootOrder = this.drugOrdersById.get(orderLineage.getRootOrder().getOrderId());
+			if (rootOrder != null) {
+				return rootOrder;
+			}
+		}
+		
+		DrugOrder tempDrugOrder = drugOrder;
+		while (!Action.NEW.equals(tempDrugOrder.getAction())) {
+			tempDrugOrder = this.getPreviousOrder(tempDrugOrder);
+		}
+		return tempDrugOrder;
+	}
+	
+	/**
+	 * @return the given order followed by the orders it revised, the root NEW order being the last
+	 */
+	public List<DrugOrder> getOrderChain(final DrugOrder drugOrder) {
+		
+		final OrderLineage orderLineage = this.orderLineagesByOrderId.get(drugOrder.getOrderId());
+		final List<DrugOrder> chain = new ArrayList<>(orderLineage == null ? 10 : orderLineage.getDepth() + 1);
+		
+		DrugOrder tempDrugOrder = drugOrder;
+		while (tempDrugOrder != null) {
+			chain.add(tempDrugOrder);
+			tempDrugOrder = this.getPreviousOrder(tempDrugOrder);
+		}
+		return chain;
+	}
+	
+	/**
+	 * @return the quantity of the drug of the given order picked up along its chain, as recorded by
+	 *         the quantity obs of the encounters of the REVISE/DISCONTINUE orders in it
+	 */
+	public Double getDrugPickedUp(final DrugOrder drugOrder) {
+		
+		final Integer drugId = drugOrder.getDrug().getDrugId();
+		
+		Double quantity = 0.0;
+		for (final DrugOrder chainOrder : this.getOrderChain(drugOrder)) {
+			
+			final Map<Integer, Double> quantitiesByDrugId = this.pickedUpQuantitiesByOrderId
+			        .get(chainOrder.getOrderId());
+			
+			if ((quantitiesByDrugId != null) && quantitiesByDrugId.containsKey(drugId)) {
+				quantity += quantitiesByDrugId.get(drugId);
+			}
+		}
+		return quantity;
+	}
+	
+	public List<DrugOrder> getDrugOrdersByEncounter(final Encounter encounter) {
+		
+		return this.getValues(this.drugOrdersByEncounterId, encounter.getEncounterId());
+	}
+	
+	public EncounterObsDigest getEncounterObsDigest() {
+		
+		return this.encounterObsDigest;
+	}
+	
+	public List<Obs> getObservationsByOrder(final Order order) {
+		
+		return this.getValues(this.observationsByOrderId, order.getOrderId());
+	}
+	
+	public Encounter getPrescriptionEncounter(final Encounter dispensation) throws PharmacyBusinessException {
+		
+		final PrescriptionDispensation prescriptionDispensation = this.prescriptionDispensationsByDispensationId
+		        .get(dispensation.getEncounterId());
+		
+		if (prescriptionDispensation == null) {
+			throw new PharmacyBusinessException(
+			        "Entity PrescriptionDispensation not Found for dispensation " + dispensation);
+		}
+		return prescriptionDispensation.getPrescription();
+	}
+	
+	public boolean hasDrugRegimes(final Drug drug) {
+		
+		return this.drugRegimeIndex.hasRegimes(drug);
+	}
+	
+	public boolean isArvDrug(final DrugOrder drugOrder) {
+		
+		final Concept regime = this.findValueCoded(drugOrder.getEncounter(),
+		    MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+		
+		return (regime != null)
+		        && this.drugRegimeIndex.isMember(regime.getConceptId(), drugOrder.getDrug().getDrugId());
+	}
+	
+	public Concept findValueCoded(final Encounter encounter, final String conceptUuid) {
+		
+		return this.encounterObsDigest.findValueCoded(encounter, conceptUuid);
+	}
+	
+	public boolean isConcept(final Obs obs, final String conceptUuid) {
+		
+		final Integer conceptId = this.metadataRegistry.getConceptId(conceptUuid);
+		return (conceptId != null) && conceptId.equals(obs.getConcept().getConceptId());
+	}
+	
+	public Concept getConcept(final String uuid) {
+		
+		if (!this.conceptsByUuid.containsKey(uuid)) {
+			this.conceptsByUuid.put(uuid, Context.getConceptService().getConceptByUuid(uuid));
+		}
+		return this.conceptsByUuid.get(uuid);
+	}
+	
+	private DrugOrder getPreviousOrder(final DrugOrder drugOrder) {
+		
+		final Order previousOrder = drugOrder.getPreviousOrder();
+		
+		if (previousOrder == null) {
+			return null;
+		}
+		
+		// the id of a proxy is read without loading it
+		final DrugOrder found = this.drugOrdersById.get(previousOrder.getOrderId());
+		return found != null ? found : (DrugOrder) previousOrder;
+	}
+	
+	private <T> void addValue(final Map<Integer, List<T>> map, final Integer key, final T value) {
+		
+		List<T> values = map.get(key);
+		if (values == null) {
+			map.put(key, values = new ArrayList<>());
+		}
+		values.add(value);
+	}
+	
+	private <T> List<T> getValues(final Map<Integer, List<T>> map, final Integer key) {
+		
+		final List<T> values = map.get(key);
+		return values == null ? Collections.<T> emptyList() : values;
+	}
+}
@@ -10,8 +10,10 @@
 package org.openmrs.module.pharmacyapi.api.prescription.util;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -20,20 +22,20 @@ import java.util.Set;
 import org.openmrs.Concept;
 import org.openmrs.DrugOrder;
 import org.openmrs.Encounter;
-import org.openmrs.Obs;
 import org.openmrs.Order;
 import org.openmrs.Order.Action;
 import org.openmrs.api.APIException;
-import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedEncounters;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
+import org.openmrs.module.pharmacyapi.api.drugregime.util.DrugRegimeIndex;
+import org.openmrs.module.pharmacyapi.api.orderlineage.dao.OrderLineageDAO;
+import org.openmrs.module.pharmacyapi.api.prescription.dao.PrescriptionDAO;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription.PrescriptionStatus;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem.PrescriptionItemStatus;
-import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
-import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service.PrescriptionDispensationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -43,121 +45,117 @@ public class PrescriptionGenerator {
 	@Autowired
 	private PrescriptionItemFactory prescriptionItemFactory;
 	
-	private Concept precriptionDateConcept = null;
+	@Autowired
+	private PrescriptionDAO prescriptionDAO;
+	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
+	@Autowired
+	private DrugRegimeIndex drugRegimeIndex;
+	
+	@Autowired
+	private OrderLineageDAO orderLineageDAO;
 	
 	public List<Prescription> generatePrescriptions(final List<DrugOrder> drugOrders, final Date creationDate)
 	        throws PharmacyBusinessException {
 		
+		return this.generatePrescriptions(drugOrders, creationDate, this.loadPrescriptionContext(drugOrders));
+	}
+	
+	public List<Prescription> generatePrescriptions(final List<DrugOrder> drugOrders, final Date creationDate,
+	        final PrescriptionContext context) throws PharmacyBusinessException {
+		
 		final List<Prescription> result = new ArrayList<>();
 		
-		final Map<Encounter, List<DrugOrder>> drugOrdersByEncounter = this.groupDrugOrdersByEncounter(drugOrders);
+		final Map<Encounter, List<DrugOrder>> drugOrdersByEncounter = this.groupDrugOrdersByEncounter(drugOrders,
+		    context);
 		
 		for (final Entry<Encounter, List<DrugOrder>> ordersByEncounter : drugOrdersByEncounter.entrySet()) {
 			final Encounter encounter = ordersByEncounter.getKey();
-			final Prescription prescription = this.preparePrescription(encounter);
+			final Prescription prescription = this.preparePrescription(encounter, context);
 			final List<DrugOrder> orders = ordersByEncounter.getValue();
 			final List<PrescriptionItem> prescriptionItems = this.prescriptionItemFactory
-			        .generatePrescriptionItems(prescription, creationDate, orders);
+			        .generatePrescriptionItems(prescription, creationDate, orders, context);
 			prescription.setPrescriptionItems(prescriptionItems);
 			prescription.setPrescriptionStatus(this.calculatePrescriptioStatus(prescriptionItems));
-			this.setArvDataFields(prescription);
-			prescription.setChangeReason(this.getChangeReason(encounter));
+			this.setArvDataFields(prescription, context);
+			prescription.setChangeReason(context.findValueCoded(encounter,
+			    MappedConcepts.JUSTIFICATION_TO_CHANGE_ARV_TREATMENT));
 			result.add(prescription);
 		}
 		
 		return result;
 	}
 	
-	protected void setArvDataFields(final Prescription prescription) throws PharmacyBusinessException {
-		
-		final PrescriptionDispensationService prescriptionDispensationService = Context
-		        .getService(PrescriptionDispensationService.class);
+	/**
+	 * Loads, with a fixed number of queries, all drug orders, observations, prescription
+	 * dispensations, order lineages and picked up quantities needed to generate the prescriptions of
+	 * the patients owning the given drug orders.
+	 */
+	public PrescriptionContext loadPrescriptionContext(final Collection<DrugOrder> drugOrders) {
 		
-		for (final PrescriptionItem prescriptionItem : prescription.getPrescriptionItems()) {
-			
-			if (prescription.getRegime() != null) {
-				break;
-			}
-			final DrugOrder drugOrder = prescriptionItem.getDrugOrder();
-			if (prescriptionDispensationService.isArvDrug(drugOrder)) {
-				prescription.setRegime(this.findRegime(drugOrder));
-				prescription.setArvPlan(this.findArvPlan(drugOrder));
-				prescription.setTherapeuticLine(this.findArvTherapeuticPlan(drugOrder));
-				prescription.setInterruptionReason(drugOrder.getOrderReason());
-			}
-		}
-	}
-	
-	private Concept findArvPlan(final DrugOrder drugOrder) {
-		DrugOrder tempDrugOrder = drugOrder;
-		while (!Action.NEW.equals(tempDrugOrder.getAction())) {
-			tempDrugOrder = (DrugOrder) tempDrugOrder.getPreviousOrder();
+		final Set<Integer> patientIds = new HashSet<>();
+		for (final DrugOrder drugOrder : drugOrders) {
+			patientIds.add(drugOrder.getPatient().getPatientId());
 		}
 		
-		final Set<Obs> allObs = tempDrugOrder.getEncounter().getAllObs();
-		final Concept arvPlan = Context.getConceptService().getConceptByUuid(MappedConcepts.ARV_PLAN);
+		final List<DrugOrder> patientDrugOrders = this.prescriptionDAO.findDrugOrdersByPatients(patientIds);
 		
-		for (final Obs obs : allObs) {
-			if (arvPlan.equals(obs.getConcept())) {
-				return obs.getValueCoded();
+		final Set<String> conceptUuids = new HashSet<>();
+		for (final DrugOrder drugOrder : patientDrugOrders) {
+			if (drugOrder.getDosingInstructions() != null) {
+				conceptUuids.add(drugOrder.getDosingInstructions());
 			}
 		}
-		throw new IllegalArgumentException("No ARV plan found for drugOrder with uuid " + drugOrder.getUuid());
+		
+		return new PrescriptionContext(patientDrugOrders,
+		        this.prescriptionDAO.findDrugOrderObservationsByPatients(patientIds),
+		        this.prescriptionDAO.findPrescriptionDispensationsByPatients(patientIds),
+		        this.orderLineageDAO.findByPatients(patientIds),
+		        this.prescriptionDAO.findPickedUpQuantitiesByPatients(patientIds,
+		            this.metadataRegistry.getConceptId(MappedConcepts.MEDICATION_QUANTITY)),
+		        this.prescriptionDAO.findConceptsByUuids(conceptUuids), this.metadataRegistry, this.drugRegimeIndex);
 	}
 	
-	private Concept findArvTherapeuticPlan(final DrugOrder drugOrder) {
-		DrugOrder tempDrugOrder = drugOrder;
-		while (!Action.NEW.equals(tempDrugOrder.getAction())) {
-			tempDrugOrder = (DrugOrder) tempDrugOrder.getPreviousOrder();
-		}
-		
-		final Set<Obs> allObs = tempDrugOrder.getEncounter().getAllObs();
-		final Concept arvPlan = Context.getConceptService().getConceptByUuid(MappedConcepts.ARV_THERAPEUTIC_LINE);
+	protected void setArvDataFields(final Prescription prescription, final PrescriptionContext context)
+	        throws PharmacyBusinessException {
 		
-		for (final Obs obs : allObs) {
-			if (arvPlan.equals(obs.getConcept())) {
-				return obs.getValueCoded();
+		for (final PrescriptionItem prescriptionItem : prescription.getPrescriptionItems()) {
+			
+			if (prescription.getRegime() != null) {
+				break;
+			}
+			final DrugOrder drugOrder = prescriptionItem.getDrugOrder();
+			if (context.isArvDrug(drugOrder)) {
+				final Encounter prescriptionEncounter = context.getRootOrder(drugOrder).getEncounter();
+				prescription.setRegime(this.findValueCoded(prescriptionEncounter,
+				    MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS, "No Regime found for drugOrder with uuid ", drugOrder,
+				    context));
+				prescription.setArvPlan(this.findValueCoded(prescriptionEncounter, MappedConcepts.ARV_PLAN,
+				    "No ARV plan found for drugOrder with uuid ", drugOrder, context));
+				prescription.setTherapeuticLine(this.findValueCoded(prescriptionEncounter,
+				    MappedConcepts.ARV_THERAPEUTIC_LINE, "No ARV Therapeutic Line found for drugOrder with uuid ",
+				    drugOrder, context));
+				prescription.setInterruptionReason(drugOrder.getOrderReason());
 			}
 		}
-		throw new IllegalArgumentException(
-		        "No ARV Therapeutic Line found for drugOrder with uuid " + drugOrder.getUuid());
 	}
 	
-	private Concept findRegime(final DrugOrder drugOrder) {
-		DrugOrder tempDrugOrder = drugOrder;
-		while (!Action.NEW.equals(tempDrugOrder.getAction())) {
-			tempDrugOrder = (DrugOrder) tempDrugOrder.getPreviousOrder();
-		}
+	private Concept findValueCoded(final Encounter encounter, final String conceptUuid, final String errorMessage,
+	        final DrugOrder drugOrder, final PrescriptionContext context) {
 		
-		final Set<Obs> allObs = tempDrugOrder.getEncounter().getAllObs(false);
-		final Concept regime = Context.getConceptService()
-		        .getConceptByUuid(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+		final Concept valueCoded = context.findValueCoded(encounter, conceptUuid);
 		
-		for (final Obs obs : allObs) {
-			if (regime.equals(obs.getConcept())) {
-				return obs.getValueCoded();
-			}
-		}
-		throw new IllegalArgumentException("No Regime found for drugOrder with uuid " + drugOrder.getUuid());
-	}
-	
-	private Concept getChangeReason(final Encounter encounter) {
-		Concept changeReason = null;
-		for (final Obs obs : encounter.getObs()) {
-			final Concept concept = obs.getConcept();
-			if (concept.getUuid().equals(MappedConcepts.JUSTIFICATION_TO_CHANGE_ARV_TREATMENT)) {
-				changeReason = obs.getValueCoded();
-				break;
-			}
+		if (valueCoded == null) {
+			throw new IllegalArgumentException(errorMessage + drugOrder.getUuid());
 		}
-		return changeReason;
+		return valueCoded;
 	}
 	
-	private Map<Encounter, List<DrugOrder>> groupDrugOrdersByEncounter(final List<DrugOrder> drugOrders)
-	        throws PharmacyBusinessException {
+	private Map<Encounter, List<DrugOrder>> groupDrugOrdersByEncounter(final List<DrugOrder> drugOrders,
+	        final PrescriptionContext context) throws PharmacyBusinessException {
 		
-		final PrescriptionDispensationService prescriptionDispensationService = Context
-		        .getService(PrescriptionDispensationService.class);
 		final Map<Encounter, List<DrugOrder>> mapped = new HashMap<>();
 		
 		for (final DrugOrder drugOrder : drugOrders) {
@@ -165,9 +163,7 @@ public class PrescriptionGenerator {
 			Encounter encounter = drugOrder.getEncounter();
 			if (!Action.NEW.equals(drugOrder.getAction())) {
 				
-				final PrescriptionDispensation prescriptionDispensation = prescriptionDispensationService
-				        .findPrescriptionDispensationByDispensation(encounter);
-				encounter = prescriptionDispensation.getPrescription();
+				encounter = context.getPrescriptionEncounter(encounter);
 			}
 			List<DrugOrder> list = mapped.get(encounter);
 			if (list == null) {
@@ -178,46 +174,36 @@ public class PrescriptionGenerator {
 		return mapped;
 	}
 	
-	private Prescription preparePrescription(final Encounter encounter) {
+	private Prescription preparePrescription(final Encounter encounter, final PrescriptionContext context) {
 		
-		final Order anyOrder = encounter.getOrders().iterator().next();
+		final List<DrugOrder> encounterOrders = context.getDrugOrdersByEncounter(encounter);
+		final Order anyOrder = encounterOrders.isEmpty() ? encounter.getOrders().iterator().next()
+		        : encounterOrders.get(0);
 		final Prescription prescription = new Prescription();
 		prescription.setProvider(anyOrder.getOrderer());
 		prescription.setPrescriptionEncounter(encounter);
 		prescription.setPatient(encounter.getPatient());
 		prescription.setLocation(encounter.getLocation());
-		prescription.setPrescriptionDate(this.getPrescriptionDate(encounter));
+		prescription.setPrescriptionDate(this.getPrescriptionDate(encounter, context));
 		
 		return prescription;
 	}
 	
-	private Date getPrescriptionDate(final Encounter encounter) {
-		
-		final Encounter prescriptionEncounter = this.getPrescriptionEncounter(encounter);
+	private Date getPrescriptionDate(final Encounter encounter, final PrescriptionContext context) {
 		
-		final Set<Obs> allObs = prescriptionEncounter.getAllObs();
-		if (this.precriptionDateConcept == null) {
-			this.precriptionDateConcept = Context.getConceptService()
-			        .getConceptByUuid(MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE);
-		}
+		final Encounter prescriptionEncounter = this.getPrescriptionEncounter(encounter, context);
 		
-		for (final Obs obs : allObs) {
-			
-			if (obs.getConcept().equals(this.precriptionDateConcept)) {
-				return obs.getValueDatetime();
-			}
-		}
-		return null;
+		return context.getEncounterObsDigest().findValueDatetime(prescriptionEncounter,
+		    MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE);
 	}
 	
-	private Encounter getPrescriptionEncounter(final Encounter encounter) {
+	private Encounter getPrescriptionEncounter(final Encounter encounter, final PrescriptionContext context) {
 		
 		if (MappedEncounters.DISPENSATION_ENCOUNTER_TYPE.equals(encounter.getEncounterType().getUuid())) {
 			
 			try {
 				
-				return Context.getService(PrescriptionDispensationService.class)
-				        .findPrescriptionDispensationByDispensation(encounter).getPrescription();
+				return context.getPrescriptionEncounter(encounter);
 			}
 			catch (final PharmacyBusinessException e) {
 				throw new APIException(e);
@@ -34,12 +34,12 @@ public class PrescriptionItemFactory {
 	private DiscountinuePrescriptionItemGenerator dIscountinuePrescriptionItemGenerator;
 	
 	public List<PrescriptionItem> generatePrescriptionItems(final Prescription prescription, final Date creationDate,
-	        final List<DrugOrder> drugOrders) throws PharmacyBusinessException {
+	        final List<DrugOrder> drugOrders, final PrescriptionContext context) throws PharmacyBusinessException {
 		
 		final List<PrescriptionItem> items = new ArrayList<>();
 		
 		for (final DrugOrder drugOrder : drugOrders) {
-			final PrescriptionItem item = this.generatePrescriptionItem(prescription, drugOrder, creationDate);
+			final PrescriptionItem item = this.generatePrescriptionItem(prescription, drugOrder, creationDate, context);
 			item.setPrescription(prescription);
 			items.add(item);
 		}
@@ -47,19 +47,18 @@ public class PrescriptionItemFactory {
 	}
 	
 	private PrescriptionItem generatePrescriptionItem(final Prescription prescription, final DrugOrder drugOrder,
-	        final Date creationDate)
-	        throws PharmacyBusinessException {
+	        final Date creationDate, final PrescriptionContext context) throws PharmacyBusinessException {
 		
 		if (Action.NEW.equals(drugOrder.getAction())) {
-			return this.newPrescriptionItemGenerator.generate(prescription, drugOrder, creationDate);
+			return this.newPrescriptionItemGenerator.generate(prescription, drugOrder, creationDate, context);
 		}
 		
 		if (Action.REVISE.equals(drugOrder.getAction())) {
-			return this.revisePrescriptionItemGenerator.generate(prescription, drugOrder, creationDate);
+			return this.revisePrescriptionItemGenerator.generate(prescription, drugOrder, creationDate, context);
 		}
 		
 		if (Action.DISCONTINUE.equals(drugOrder.getAction())) {
-			return this.dIscountinuePrescriptionItemGenerator.generate(prescription, drugOrder, creationDate);
+			return this.dIscountinuePrescriptionItemGenerator.generate(prescription, drugOrder, creationDate, context);
 		}
 		throw new IllegalArgumentException("failed to parse drugOrder with order action " + drugOrder.getAction()
 		        + " and uuid " + drugOrder.getUuid());
@@ -18,7 +18,7 @@ import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
 
 public interface PrescriptionItemGenerator {
 	
-	PrescriptionItem generate(Prescription prescription, DrugOrder drugOrder, Date creationDate)
-	        throws PharmacyBusinessException;
+	PrescriptionItem generate(Prescription prescription, DrugOrder drugOrder, Date creationDate,
+	        PrescriptionContext context) throws PharmacyBusinessException;
 	
 }
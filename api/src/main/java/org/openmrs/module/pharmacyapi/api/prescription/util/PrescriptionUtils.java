@@ -33,22 +33,30 @@ import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessExcep
 import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedDurationUnits;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedEncounters;
-import org.openmrs.module.pharmacyapi.api.drugregime.service.DrugRegimeService;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
+import org.openmrs.module.pharmacyapi.api.drugregime.util.DrugRegimeIndex;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service.PrescriptionDispensationService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 public class PrescriptionUtils {
 	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
+	@Autowired
+	private DrugRegimeIndex drugRegimeIndex;
+	
 	public void prepareObservations(final Prescription prescription, final Encounter encounter)
 	        throws PharmacyBusinessException {
 		
 		final Obs obsPrescriptionDate = new Obs();
 		obsPrescriptionDate
-		        .setConcept(Context.getConceptService().getConceptByUuid(MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE));
+		        .setConcept(this.metadataRegistry.getConcept(MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE));
 		obsPrescriptionDate.setValueDatetime(prescription.getPrescriptionDate());
 		encounter.addObs(obsPrescriptionDate);
 		
@@ -56,27 +64,27 @@ public class PrescriptionUtils {
 			
 			final Obs obsRegime = new Obs();
 			obsRegime.setConcept(
-			        Context.getConceptService().getConceptByUuid(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS));
+			        this.metadataRegistry.getConcept(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS));
 			obsRegime.setValueCoded(this.getArvRegimeByPrescriptionRegimeUuid(prescription));
 			encounter.addObs(obsRegime);
 			
 			final Obs obsPlan = new Obs();
-			obsPlan.setConcept(Context.getConceptService().getConceptByUuid(MappedConcepts.ARV_PLAN));
+			obsPlan.setConcept(this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN));
 			obsPlan.setValueCoded(this.getArvPlanByPrescriptionArvPlanUuid(prescription));
 			encounter.addObs(obsPlan);
 			
 			final Obs obsTherapeuticLine = new Obs();
 			obsTherapeuticLine
-			        .setConcept(Context.getConceptService().getConceptByUuid(MappedConcepts.ARV_THERAPEUTIC_LINE));
+			        .setConcept(this.metadataRegistry.getConcept(MappedConcepts.ARV_THERAPEUTIC_LINE));
 			obsTherapeuticLine.setValueCoded(this.getArvTherapeuticLineByPrescriptionTherapeuticLineUuid(prescription));
 			encounter.addObs(obsTherapeuticLine);
 			
 			if (prescription.getChangeReason() != null) {
 				final Obs obsChangeReason = new Obs();
-				obsChangeReason.setConcept(Context.getConceptService()
-				        .getConceptByUuid(MappedConcepts.JUSTIFICATION_TO_CHANGE_ARV_TREATMENT));
-				obsChangeReason.setValueCoded(
-				        Context.getConceptService().getConceptByUuid(prescription.getChangeReason().getUuid()));
+				obsChangeReason.setConcept(this.metadataRegistry
+				        .getConcept(MappedConcepts.JUSTIFICATION_TO_CHANGE_ARV_TREATMENT));
+				obsChangeReason.setValueCoded(this.metadataRegistry.getAnswer(
+				    MappedConcepts.JUSTIFICATION_TO_CHANGE_ARV_TREATMENT, prescription.getChangeReason().getUuid()));
 				encounter.addObs(obsChangeReason);
 			}
 			
@@ -91,7 +99,7 @@ public class PrescriptionUtils {
 				
 				final Obs obsTreatmentPrescribe = new Obs();
 				obsTreatmentPrescribe
-				        .setConcept(Context.getConceptService().getConceptByUuid(MappedConcepts.TREATMENT_PRESCRIBED));
+				        .setConcept(this.metadataRegistry.getConcept(MappedConcepts.TREATMENT_PRESCRIBED));
 				obsTreatmentPrescribe.setValueCoded(conceptDrug);
 				encounter.addObs(obsTreatmentPrescribe);
 			}
@@ -100,13 +108,12 @@ public class PrescriptionUtils {
 	
 	private void addOtherMedications(final Encounter encounter, final Prescription prescription) {
 		
-		final Concept conceptTreatmentPrescribed = Context.getConceptService()
-		        .getConceptByUuid(MappedConcepts.TREATMENT_PRESCRIBED);
-		final List<Drug> allArvDrugs = Context.getService(DrugRegimeService.class).findArvDrugs();
+		final Concept conceptTreatmentPrescribed = this.metadataRegistry
+		        .getConcept(MappedConcepts.TREATMENT_PRESCRIBED);
 		
 		for (final PrescriptionItem item : prescription.getPrescriptionItems()) {
 			
-			if (!allArvDrugs.contains(item.getDrugOrder().getDrug())) {
+			if (!this.drugRegimeIndex.isArvDrug(item.getDrugOrder().getDrug())) {
 				
 				final Concept conceptDrug = Context.getConceptService()
 				        .getDrugByUuid(item.getDrugOrder().getDrug().getUuid()).getConcept();
@@ -185,11 +192,11 @@ public class PrescriptionUtils {
 			}
 			catch (final PharmacyBusinessException e) {}
 		} else {
-			encounterType = Context.getEncounterService().getEncounterTypeByUuid(MappedEncounters.GENERAL_PRESCRIPTION);
+			encounterType = this.metadataRegistry.getEncounterType(MappedEncounters.GENERAL_PRESCRIPTION);
 		}
 		
-		final EncounterRole encounterRole = Context.getEncounterService()
-		        .getEncounterRoleByUuid(MappedEncounters.DEFAULT_ENCONTER_ROLE);
+		final EncounterRole encounterRole = this.metadataRegistry
+		        .getEncounterRole(MappedEncounters.DEFAULT_ENCONTER_ROLE);
 		
 		final Encounter encounter = new Encounter();
 		encounter.setEncounterType(encounterType);
@@ -213,7 +220,8 @@ public class PrescriptionUtils {
 		
 		if (prescription.getRegime() != null) {
 			
-			regime = Context.getConceptService().getConceptByUuid(prescription.getRegime().getUuid());
+			regime = this.metadataRegistry.getAnswer(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS,
+			    prescription.getRegime().getUuid());
 			
 			if (regime != null) {
 				
@@ -238,7 +246,7 @@ public class PrescriptionUtils {
 		
 		if (prescription.getArvPlan() != null) {
 			
-			arvPlan = Context.getConceptService().getConceptByUuid(prescription.getArvPlan().getUuid());
+			arvPlan = this.metadataRegistry.getAnswer(MappedConcepts.ARV_PLAN, prescription.getArvPlan().getUuid());
 			
 			if (arvPlan != null) {
 				return arvPlan;
@@ -256,7 +264,8 @@ public class PrescriptionUtils {
 		
 		if (prescription.getTherapeuticLine() != null) {
 			
-			therapeuticLine = Context.getConceptService().getConceptByUuid(prescription.getTherapeuticLine().getUuid());
+			therapeuticLine = this.metadataRegistry.getAnswer(MappedConcepts.ARV_THERAPEUTIC_LINE,
+			    prescription.getTherapeuticLine().getUuid());
 			
 			if (therapeuticLine != null) {
 				return therapeuticLine;
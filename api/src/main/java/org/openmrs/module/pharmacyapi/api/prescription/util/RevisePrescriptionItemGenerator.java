@@ -12,7 +12,6 @@ package org.openmrs.module.pharmacyapi.api.prescription.util;
 import java.util.Date;
 
 import org.openmrs.DrugOrder;
-import org.openmrs.Order.Action;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
@@ -24,10 +23,10 @@ public class RevisePrescriptionItemGenerator extends AbstractPrescriptionItemGen
 	
 	@Override
 	public PrescriptionItem generate(final Prescription prescription, final DrugOrder drugOrder,
-	        final Date creationDate) throws PharmacyBusinessException {
+	        final Date creationDate, final PrescriptionContext context) throws PharmacyBusinessException {
 		
-		final PrescriptionItem prescriptionItem = super.generate(prescription, drugOrder, creationDate);
-		final Double quantity = this.calculateDrugPikckedUp(prescriptionItem.getDrugOrder());
+		final PrescriptionItem prescriptionItem = super.generate(prescription, drugOrder, creationDate, context);
+		final Double quantity = this.calculateDrugPikckedUp(prescriptionItem.getDrugOrder(), context);
 		prescriptionItem.setDrugPickedUp(quantity);
 		prescriptionItem
 		        .setDrugToPickUp(prescriptionItem.getDrugOrder().getQuantity() - prescriptionItem.getDrugPickedUp());
@@ -37,11 +36,9 @@ public class RevisePrescriptionItemGenerator extends AbstractPrescriptionItemGen
 	
 	@Override
 	protected PrescriptionItemStatus calculatePrescriptionItemStatus(final PrescriptionItem item,
-	        final Date consultationDate) {
+	        final Date consultationDate, final PrescriptionContext context) {
 		
-		final PrescriptionItemStatus status = Action.DISCONTINUE.equals(item.getDrugOrder().getAction())
-		        ? PrescriptionItemStatus.FINALIZED : PrescriptionItemStatus.ACTIVE;
-		
-		return this.isOrderExpired(item, consultationDate) ? PrescriptionItemStatus.EXPIRED : status;
+		return this.orderStatusEvaluator.evaluateRevisedOrder(item.getDrugOrder(),
+		    this.getNextPickUpDate(item.getDrugOrder(), context), consultationDate);
 	}
 }
@@ -16,19 +16,19 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections.TransformerUtils;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.openmrs.Concept;
-import org.openmrs.Drug;
 import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
-import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
-import org.openmrs.module.pharmacyapi.api.drugregime.service.DrugRegimeService;
+import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
+import org.openmrs.module.pharmacyapi.api.drugregime.util.DrugRegimeIndex;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
 import org.openmrs.module.pharmacyapi.api.prescription.service.PrescriptionService;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
@@ -37,6 +37,12 @@ import org.springframework.stereotype.Component;
 @Component
 public class PrescriptionItemRule implements IPrescriptionValidationRule {
 	
+	@Autowired
+	private DrugRegimeIndex drugRegimeIndex;
+	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
 	@Override
 	public void validate(final Prescription prescription) throws PharmacyBusinessException {
 		
@@ -153,7 +159,8 @@ public class PrescriptionItemRule implements IPrescriptionValidationRule {
 		
 		if (regimUuid != null) {
 			
-			final Concept regime = Context.getConceptService().getConceptByUuid(regimUuid);
+			final Concept regime = this.metadataRegistry.getAnswer(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS,
+			    regimUuid);
 			
 			if (regime == null) {
 				throw new PharmacyBusinessException("Nao foi encontrado regime para a referencia " + regimUuid);
@@ -168,7 +175,7 @@ public class PrescriptionItemRule implements IPrescriptionValidationRule {
 	        throws PharmacyBusinessException {
 		
 		final String arvPlanUuid = arvPlan != null ? arvPlan.getUuid() : null;
-		final Concept arvPlanFound = Context.getConceptService().getConceptByUuid(arvPlanUuid);
+		final Concept arvPlanFound = this.metadataRegistry.getAnswer(MappedConcepts.ARV_PLAN, arvPlanUuid);
 		if (arvPlan == null) {
 			throw new PharmacyBusinessException("Nao foi encontrado plano terapeutico para o regime "
 			        + regime.getDisplayString() + " e referencia " + arvPlanUuid);
@@ -180,7 +187,8 @@ public class PrescriptionItemRule implements IPrescriptionValidationRule {
 	        final Concept regime) throws PharmacyBusinessException {
 		
 		final String therapeuticLineUuid = therapeuticLine != null ? therapeuticLine.getUuid() : null;
-		final Concept therapeutiLineFound = Context.getConceptService().getConceptByUuid(therapeuticLineUuid);
+		final Concept therapeutiLineFound = this.metadataRegistry.getAnswer(MappedConcepts.ARV_THERAPEUTIC_LINE,
+		    therapeuticLineUuid);
 		if (therapeutiLineFound == null) {
 			throw new PharmacyBusinessException("Nao foi encontrada linha terapeutica para o regime "
 			        + regime.getDisplayString() + " e referencia " + therapeuticLineUuid);
@@ -188,38 +196,35 @@ public class PrescriptionItemRule implements IPrescriptionValidationRule {
 		prescription.setTherapeuticLine(therapeutiLineFound);
 	}
 	
-	@SuppressWarnings("unchecked")
 	private void checkAllArvItemHaveUniqueRegimen(final Prescription prescription,
 	        final List<PrescriptionItem> prescriptionItems) throws PharmacyBusinessException {
 		
-		final DrugRegimeService drugRegimeService = Context.getService(DrugRegimeService.class);
-		
 		final Concept regimen = prescription.getRegime();
 		
 		if (regimen != null) {
 			
-			final Collection<Concept> itemsRegimens = new ArrayList<>();
+			boolean hasArvItems = false;
 			
 			for (final PrescriptionItem prescriptionItem : prescriptionItems) {
 				
-				final Drug drug = Context.getConceptService()
-				        .getDrugByUuid(prescriptionItem.getDrugOrder().getDrug().getUuid());
-				final List<DrugRegime> drugRegimens = drugRegimeService.findDrugRegimeByDrugUuid(drug.getUuid());
-				
-				final Collection<Concept> regimens = CollectionUtils.collect(drugRegimens,
-				    TransformerUtils.invokerTransformer("getRegime"));
+				final String drugUuid = prescriptionItem.getDrugOrder().getDrug().getUuid();
+				final int[] regimenIds = this.drugRegimeIndex.getRegimeIds(drugUuid);
 				
-				if (!regimens.isEmpty() && !regimens.contains(regimen)) {
-					final Collection<String> regimeNames = CollectionUtils.collect(regimens,
-					    TransformerUtils.invokerTransformer("getDisplayString"));
+				if ((regimenIds.length > 0) && !ArrayUtils.contains(regimenIds, regimen.getConceptId())) {
+					final Collection<String> regimeNames = new ArrayList<>();
+					for (final int regimenId : regimenIds) {
+						regimeNames.add(this.metadataRegistry
+						        .getAnswer(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS, regimenId).getDisplayString());
+					}
 					throw new PharmacyBusinessException("Nao foi encontrada correspondencia entre os regimes "
-					        + StringUtils.join(regimeNames, "|") + " do medicamento " + drug.getDisplayName()
-					        + " e o regime " + regimen.getDisplayString() + " informado");
+					        + StringUtils.join(regimeNames, "|") + " do medicamento "
+					        + Context.getConceptService().getDrugByUuid(drugUuid).getDisplayName() + " e o regime "
+					        + regimen.getDisplayString() + " informado");
 				}
-				itemsRegimens.addAll(regimens);
+				hasArvItems = hasArvItems || (regimenIds.length > 0);
 			}
 			
-			if (itemsRegimens.isEmpty()) {
+			if (!hasArvItems) {
 				throw new PharmacyBusinessException("Nao pode ser criada Prescricao ARV para medicamentos nao ARV");
 			}
 		}
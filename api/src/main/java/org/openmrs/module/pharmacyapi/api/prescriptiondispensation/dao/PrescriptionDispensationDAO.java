@@ -12,6 +12,7 @@
  */
 package org.openmrs.module.pharmacyapi.api.prescriptiondispensation.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.hibernate.SessionFactory;
@@ -37,6 +38,8 @@ public interface PrescriptionDispensationDAO {
 		String findLastByPrescription = "PrescriptionDispensation.findLastByPrescription";
 		
 		String findByFila = "PrescriptionDispensation.findByFila";
+		
+		String findByFilas = "PrescriptionDispensation.findByFilas";
 	}
 	
 	public interface QUERY {
@@ -52,6 +55,8 @@ public interface PrescriptionDispensationDAO {
 		String findLastByPrescription = "select pd from PrescriptionDispensation pd where pd.prescription = :prescription and pd.retired is false and pd.prescriptionDispensationId = (select max(pdSub.prescriptionDispensationId) from PrescriptionDispensation pdSub where pd.prescription = pdSub.prescription and pdSub.retired is false) ";
 		
 		String findByFila = "select pd from PrescriptionDispensation pd where pd.fila = :fila";
+		
+		String findByFilas = "select pd from PrescriptionDispensation pd join fetch pd.prescription join fetch pd.dispensation where pd.fila in (:filas)";
 	}
 	
 	void setSessionFactory(SessionFactory sessionFactory);
@@ -68,6 +73,12 @@ public interface PrescriptionDispensationDAO {
 	
 	PrescriptionDispensation findByFila(Encounter fila) throws PharmacyBusinessException;
 	
+	/**
+	 * @return the prescription dispensations of the filas, with their prescription and dispensation
+	 *         encounters fetched
+	 */
+	List<PrescriptionDispensation> findByFilas(Collection<Encounter> filas);
+	
 	List<PrescriptionDispensation> findByPrescription(Encounter prescription, boolean retired);
 	
 }
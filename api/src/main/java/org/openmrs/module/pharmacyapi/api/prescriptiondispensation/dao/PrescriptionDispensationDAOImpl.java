@@ -12,6 +12,8 @@
  */
 package org.openmrs.module.pharmacyapi.api.prescriptiondispensation.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.hibernate.Query;
@@ -100,4 +102,16 @@ public class PrescriptionDispensationDAOImpl implements PrescriptionDispensation
 		        .getNamedQuery(PrescriptionDispensationDAO.QUERY_NAME.findByPrescription)
 		        .setParameter("prescription", prescription).setParameter("retired", retired).list();
 	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<PrescriptionDispensation> findByFilas(final Collection<Encounter> filas) {
+		
+		if (filas.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.sessionFactory.getCurrentSession().getNamedQuery(PrescriptionDispensationDAO.QUERY_NAME.findByFilas)
+		        .setParameterList("filas", filas).list();
+	}
 }
@@ -20,24 +20,37 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.QueryHints;
 import org.openmrs.Encounter;
 import org.openmrs.Patient;
 import org.openmrs.module.pharmacyapi.api.common.model.BaseOpenmrsMetadataWrapper;
+import org.openmrs.module.pharmacyapi.api.common.util.CatalogCache;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.dao.PrescriptionDispensationDAO;
 
 /**
  *
  */
 @NamedQueries(value = {
-        @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findByUuid, query = PrescriptionDispensationDAO.QUERY.findByUuid),
+        @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findByUuid, query = PrescriptionDispensationDAO.QUERY.findByUuid, hints = {
+                @QueryHint(name = QueryHints.CACHEABLE, value = "true"),
+                @QueryHint(name = QueryHints.CACHE_REGION, value = CatalogCache.DISPENSATION_QUERY_REGION) }),
         @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findByPrescription, query = PrescriptionDispensationDAO.QUERY.findByPrescription),
         @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findByPatientUuid, query = PrescriptionDispensationDAO.QUERY.findByPatientUuid),
-        @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findByDispensationEncounter, query = PrescriptionDispensationDAO.QUERY.findByDispensationEncounter),
-        @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findByFila, query = PrescriptionDispensationDAO.QUERY.findByFila),
+        @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findByDispensationEncounter, query = PrescriptionDispensationDAO.QUERY.findByDispensationEncounter, hints = {
+                @QueryHint(name = QueryHints.CACHEABLE, value = "true"),
+                @QueryHint(name = QueryHints.CACHE_REGION, value = CatalogCache.DISPENSATION_QUERY_REGION) }),
+        @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findByFila, query = PrescriptionDispensationDAO.QUERY.findByFila, hints = {
+                @QueryHint(name = QueryHints.CACHEABLE, value = "true"),
+                @QueryHint(name = QueryHints.CACHE_REGION, value = CatalogCache.DISPENSATION_QUERY_REGION) }),
+        @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findByFilas, query = PrescriptionDispensationDAO.QUERY.findByFilas),
         @NamedQuery(name = PrescriptionDispensationDAO.QUERY_NAME.findLastByPrescription, query = PrescriptionDispensationDAO.QUERY.findLastByPrescription) })
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(name = "phm_prescription_dispensation")
 public class PrescriptionDispensation extends BaseOpenmrsMetadataWrapper {
 	
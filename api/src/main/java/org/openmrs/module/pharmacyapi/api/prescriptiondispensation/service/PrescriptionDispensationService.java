@@ -12,6 +12,7 @@
  */
 package org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.openmrs.DrugOrder;
@@ -20,6 +21,7 @@ import org.openmrs.Patient;
 import org.openmrs.User;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.util.EncounterObsDigest;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.dao.PrescriptionDispensationDAO;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
@@ -43,6 +45,11 @@ public interface PrescriptionDispensationService extends OpenmrsService {
 	
 	public boolean isArvDrug(final DrugOrder drugOrder) throws PharmacyBusinessException;
 	
+	/**
+	 * @param obsDigest the obs of the request, holding the regime of the encounter of the order
+	 */
+	public boolean isArvDrug(final DrugOrder drugOrder, final EncounterObsDigest obsDigest);
+	
 	PrescriptionDispensation findPrescriptionDispensationByDispensation(Encounter dispensation)
 	        throws PharmacyBusinessException;
 	
@@ -51,4 +58,6 @@ public interface PrescriptionDispensationService extends OpenmrsService {
 	
 	PrescriptionDispensation findPrescriptionDispensationByFila(Encounter fila) throws PharmacyBusinessException;
 	
+	List<PrescriptionDispensation> findPrescriptionDispensationsByFilas(Collection<Encounter> filas);
+	
 }
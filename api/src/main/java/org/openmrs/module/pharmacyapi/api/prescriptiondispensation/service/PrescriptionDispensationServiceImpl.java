@@ -12,9 +12,10 @@
  */
 package org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
 
 import org.openmrs.Concept;
 import org.openmrs.Drug;
@@ -23,17 +24,15 @@ import org.openmrs.Encounter;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.User;
-import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
-import org.openmrs.module.pharmacyapi.api.common.exception.EntityNotFoundException;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.util.EncounterObsDigest;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
-import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
-import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugItemService;
-import org.openmrs.module.pharmacyapi.api.drugregime.service.DrugRegimeService;
+import org.openmrs.module.pharmacyapi.api.drugregime.util.DrugRegimeIndex;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.dao.PrescriptionDispensationDAO;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -46,6 +45,9 @@ public class PrescriptionDispensationServiceImpl extends BaseOpenmrsService impl
 	
 	private PharmacyHeuristicService pharmacyHeuristicService;
 	
+	@Autowired
+	private DrugRegimeIndex drugRegimeIndex;
+	
 	@Override
 	public void setPrescriptionDispensationDAO(final PrescriptionDispensationDAO prescriptionDispensationDAO) {
 		
@@ -85,40 +87,18 @@ public class PrescriptionDispensationServiceImpl extends BaseOpenmrsService impl
 	@Override
 	public boolean isArvDrug(final DrugOrder drugOrder) throws PharmacyBusinessException {
 		
-		final Concept regime = this.getArvRegimeByEncounterDrugOrder(drugOrder);
-		
-		if (regime != null) {
-			
-			final DrugItem drugItem = Context.getService(DrugItemService.class)
-			        .findDrugItemByDrugId(drugOrder.getDrug().getDrugId());
-			try {
-				Context.getService(DrugRegimeService.class).findDrugRegimeByRegimeAndDrugItem(regime, drugItem);
-				return Boolean.TRUE;
-			}
-			catch (final EntityNotFoundException e) {}
-		}
-		return Boolean.FALSE;
+		return this.isArvDrug(drugOrder, this.pharmacyHeuristicService.loadEncounterObsDigest(
+		    Collections.singleton(drugOrder.getEncounter()), MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS));
 	}
 	
-	private Concept getArvRegimeByEncounterDrugOrder(final DrugOrder drugOrder) {
-		
-		final Concept arvConceptQuestion = Context.getConceptService()
-		        .getConceptByUuid(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
-		
-		final Encounter encounter = Context.getEncounterService()
-		        .getEncounter(drugOrder.getEncounter().getEncounterId());
+	@Override
+	public boolean isArvDrug(final DrugOrder drugOrder, final EncounterObsDigest obsDigest) {
 		
-		final Set<Obs> allObs = encounter.getAllObs();
+		final Concept regime = obsDigest.findValueCoded(drugOrder.getEncounter(),
+		    MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
 		
-		for (final Obs obs : allObs) {
-			
-			if (arvConceptQuestion.equals(obs.getConcept())) {
-				
-				return obs.getValueCoded();
-			}
-		}
-		
-		return null;
+		return (regime != null)
+		        && this.drugRegimeIndex.isMember(regime.getConceptId(), drugOrder.getDrug().getDrugId());
 	}
 	
 	@Override
@@ -163,6 +143,12 @@ public class PrescriptionDispensationServiceImpl extends BaseOpenmrsService impl
 		return this.prescriptionDispensationDAO.findByFila(fila);
 	}
 	
+	@Override
+	public List<PrescriptionDispensation> findPrescriptionDispensationsByFilas(final Collection<Encounter> filas) {
+		
+		return this.prescriptionDispensationDAO.findByFilas(filas);
+	}
+	
 	@Override
 	public List<PrescriptionDispensation> findPrescriptionDispensationByPrescription(final Encounter prescription)
 	        throws PharmacyBusinessException {
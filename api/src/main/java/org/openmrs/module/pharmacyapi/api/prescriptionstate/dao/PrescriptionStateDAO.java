@@ -0,0 +1,120 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.prescriptionstate.dao;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.openmrs.DrugOrder;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem.PrescriptionItemStatus;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionEvaluation;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionState;
+
+public interface PrescriptionStateDAO {
+	
+	public interface QUERY_NAME {
+		
+		String findByPatient = "PrescriptionState.findByPatient";
+		
+		String findByPatients = "PrescriptionState.findByPatients";
+		
+		String findPatientIdsByItemStatus = "PrescriptionState.findPatientIdsByItemStatus";
+		
+		String findByPrescriptionIds = "PrescriptionState.findByPrescriptionIds";
+		
+		String findActivePrescriptionIdsByLocation = "PrescriptionState.findActivePrescriptionIdsByLocation";
+		
+		String countActivePrescriptionsByLocation = "PrescriptionState.countActivePrescriptionsByLocation";
+		
+		String findOpenNewDrugOrdersByPrescriptionIds = "PrescriptionState.findOpenNewDrugOrdersByPrescriptionIds";
+		
+		String findPatientIdsNotEvaluated = "PrescriptionState.findPatientIdsNotEvaluated";
+		
+		String findEvaluationByPatient = "PrescriptionEvaluation.findByPatient";
+		
+		String findEvaluationsByPatients = "PrescriptionEvaluation.findByPatients";
+	}
+	
+	public interface QUERY {
+		
+		String findByPatient = "select state from PrescriptionState state where state.patient = :patient order by state.prescriptionStateId";
+		
+		String findByPatients = "select state from PrescriptionState state where state.patient in (:patients) order by state.prescriptionStateId";
+		
+		String findPatientIdsByItemStatus = "select distinct state.patient.patientId from PrescriptionState state where state.itemStatus in (:itemStatus)";
+		
+		String findByPrescriptionIds = "select state from PrescriptionState state where state.prescription.encounterId in (:prescriptionIds) order by state.prescriptionStateId";
+		
+		String findActivePrescriptionIdsByLocation = "select prescription.encounterId from Encounter prescription where prescription.location = :location and prescription.voided is false and prescription.encounterDatetime between :startDate and :endDate and (exists (select state.prescriptionStateId from PrescriptionState state where state.prescription = prescription and state.itemStatus in (:itemStatus) and (state.expirationDate is null or state.expirationDate >= :date)) or (not exists (select state.prescriptionStateId from PrescriptionState state where state.prescription = prescription) and prescription.dateCreated >= :newOrderPrescribedSince and exists (select drugOrder.orderId from DrugOrder drugOrder where drugOrder.encounter = prescription and drugOrder.voided is false and drugOrder.dateStopped is null and drugOrder.action = :action))) order by prescription.encounterDatetime, prescription.encounterId";
+		
+		String countActivePrescriptionsByLocation = "select count(prescription.encounterId) from Encounter prescription where prescription.location = :location and prescription.voided is false and prescription.encounterDatetime between :startDate and :endDate and (exists (select state.prescriptionStateId from PrescriptionState state where state.prescription = prescription and state.itemStatus in (:itemStatus) and (state.expirationDate is null or state.expirationDate >= :date)) or (not exists (select state.prescriptionStateId from PrescriptionState state where state.prescription = prescription) and prescription.dateCreated >= :newOrderPrescribedSince and exists (select drugOrder.orderId from DrugOrder drugOrder where drugOrder.encounter = prescription and drugOrder.voided is false and drugOrder.dateStopped is null and drugOrder.action = :action)))";
+		
+		String findOpenNewDrugOrdersByPrescriptionIds = "select drugOrder from DrugOrder drugOrder where drugOrder.encounter.encounterId in (:prescriptionIds) and drugOrder.voided is false and drugOrder.dateStopped is null and drugOrder.action = :action order by drugOrder.orderId";
+		
+		String findPatientIdsNotEvaluated = "select distinct drugOrder.patient.patientId from DrugOrder drugOrder where drugOrder.voided is false and drugOrder.dateStopped is null and (not exists (select evaluation.prescriptionEvaluationId from PrescriptionEvaluation evaluation where evaluation.patient = drugOrder.patient) or (drugOrder.action = :action and not exists (select state.prescriptionStateId from PrescriptionState state where state.orderId = drugOrder.orderId)))";
+		
+		String findEvaluationByPatient = "select evaluation from PrescriptionEvaluation evaluation where evaluation.patient = :patient";
+		
+		String findEvaluationsByPatients = "select evaluation from PrescriptionEvaluation evaluation where evaluation.patient in (:patients)";
+	}
+	
+	void setSessionFactory(SessionFactory sessionFactory);
+	
+	PrescriptionState save(PrescriptionState prescriptionState);
+	
+	void delete(PrescriptionState prescriptionState);
+	
+	List<PrescriptionState> findByPatient(Patient patient);
+	
+	List<PrescriptionState> findByPatients(Collection<Patient> patients);
+	
+	List<Integer> findPatientIdsByItemStatus(Collection<PrescriptionItemStatus> itemStatus);
+	
+	List<DrugOrder> findDrugOrdersByIds(Collection<Integer> orderIds);
+	
+	List<PrescriptionState> findByPrescriptionIds(Collection<Integer> prescriptionIds);
+	
+	/**
+	 * @return the ids of the prescription encounters of the location in the given window that have
+	 *         an item of the given statuses not expired on the date, or that were never evaluated and
+	 *         have a not dispensed order prescribed since the given instant, sorted by encounter date
+	 *         and id and paged in the database
+	 */
+	List<Integer> findActivePrescriptionIdsByLocation(Location location, Date startDate, Date endDate,
+	        Collection<PrescriptionItemStatus> itemStatus, Date date, Date newOrderPrescribedSince, int startIndex,
+	        int limit);
+	
+	long countActivePrescriptionsByLocation(Location location, Date startDate, Date endDate,
+	        Collection<PrescriptionItemStatus> itemStatus, Date date, Date newOrderPrescribedSince);
+	
+	/**
+	 * @return the not dispensed orders of the given prescription encounters
+	 */
+	List<DrugOrder> findOpenNewDrugOrdersByPrescriptionIds(Collection<Integer> prescriptionIds);
+	
+	/**
+	 * @return the patients with open drug orders that were never evaluated, or with a not dispensed
+	 *         order without state, as a prescription created outside the module
+	 */
+	List<Integer> findPatientIdsNotEvaluated();
+	
+	PrescriptionEvaluation save(PrescriptionEvaluation prescriptionEvaluation);
+	
+	PrescriptionEvaluation findEvaluationByPatient(Patient patient);
+	
+	List<PrescriptionEvaluation> findEvaluationsByPatients(Collection<Patient> patients);
+}
@@ -0,0 +1,191 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.prescriptionstate.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Criteria;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import org.openmrs.DrugOrder;
+import org.openmrs.Location;
+import org.openmrs.Order.Action;
+import org.openmrs.Patient;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem.PrescriptionItemStatus;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionEvaluation;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionState;
+import org.openmrs.module.pharmacyapi.db.PrescriptionGraph;
+
+public class PrescriptionStateDAOImpl implements PrescriptionStateDAO {
+	
+	private SessionFactory sessionFactory;
+	
+	@Override
+	public void setSessionFactory(final SessionFactory sessionFactory) {
+		
+		this.sessionFactory = sessionFactory;
+	}
+	
+	@Override
+	public PrescriptionState save(final PrescriptionState prescriptionState) {
+		
+		this.sessionFactory.getCurrentSession().save(prescriptionState);
+		return prescriptionState;
+	}
+	
+	@Override
+	public void delete(final PrescriptionState prescriptionState) {
+		
+		this.sessionFactory.getCurrentSession().delete(prescriptionState);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<PrescriptionState> findByPatient(final Patient patient) {
+		
+		return this.sessionFactory.getCurrentSession().getNamedQuery(PrescriptionStateDAO.QUERY_NAME.findByPatient)
+		        .setParameter("patient", patient).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<PrescriptionState> findByPatients(final Collection<Patient> patients) {
+		
+		if (patients.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.sessionFactory.getCurrentSession().getNamedQuery(PrescriptionStateDAO.QUERY_NAME.findByPatients)
+		        .setParameterList("patients", patients).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Integer> findPatientIdsByItemStatus(final Collection<PrescriptionItemStatus> itemStatus) {
+		
+		return this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(PrescriptionStateDAO.QUERY_NAME.findPatientIdsByItemStatus)
+		        .setParameterList("itemStatus", itemStatus).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugOrder> findDrugOrdersByIds(final Collection<Integer> orderIds) {
+		
+		if (orderIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		final Criteria searchCriteria = this.sessionFactory.getCurrentSession().createCriteria(DrugOrder.class,
+		    "drugOrder");
+		searchCriteria.add(Restrictions.in("drugOrder.orderId", orderIds));
+		searchCriteria.addOrder(Order.asc("drugOrder.orderId"));
+		PrescriptionGraph.fetch(searchCriteria);
+		
+		return searchCriteria.list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<PrescriptionState> findByPrescriptionIds(final Collection<Integer> prescriptionIds) {
+		
+		if (prescriptionIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(PrescriptionStateDAO.QUERY_NAME.findByPrescriptionIds)
+		        .setParameterList("prescriptionIds", prescriptionIds).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Integer> findActivePrescriptionIdsByLocation(final Location location, final Date startDate,
+	        final Date endDate, final Collection<PrescriptionItemStatus> itemStatus, final Date date,
+	        final Date newOrderPrescribedSince, final int startIndex, final int limit) {
+		
+		return this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(PrescriptionStateDAO.QUERY_NAME.findActivePrescriptionIdsByLocation)
+		        .setParameter("location", location).setParameter("startDate", startDate)
+		        .setParameter("endDate", endDate).setParameterList("itemStatus", itemStatus)
+		        .setParameter("date", date).setParameter("newOrderPrescribedSince", newOrderPrescribedSince)
+		        .setParameter("action", Action.NEW).setFirstResult(startIndex).setMaxResults(limit).list();
+	}
+	
+	@Override
+	public long countActivePrescriptionsByLocation(final Location location, final Date startDate,
+	        final Date endDate, final Collection<PrescriptionItemStatus> itemStatus, final Date date,
+	        final Date newOrderPrescribedSince) {
+		
+		return ((Number) this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(PrescriptionStateDAO.QUERY_NAME.countActivePrescriptionsByLocation)
+		        .setParameter("location", location).setParameter("startDate", startDate)
+		        .setParameter("endDate", endDate).setParameterList("itemStatus", itemStatus)
+		        .setParameter("date", date).setParameter("newOrderPrescribedSince", newOrderPrescribedSince)
+		        .setParameter("action", Action.NEW).uniqueResult()).longValue();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<DrugOrder> findOpenNewDrugOrdersByPrescriptionIds(final Collection<Integer> prescriptionIds) {
+		
+		if (prescriptionIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(PrescriptionStateDAO.QUERY_NAME.findOpenNewDrugOrdersByPrescriptionIds)
+		        .setParameterList("prescriptionIds", prescriptionIds).setParameter("action", Action.NEW).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Integer> findPatientIdsNotEvaluated() {
+		
+		return this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(PrescriptionStateDAO.QUERY_NAME.findPatientIdsNotEvaluated)
+		        .setParameter("action", Action.NEW).list();
+	}
+	
+	@Override
+	public PrescriptionEvaluation save(final PrescriptionEvaluation prescriptionEvaluation) {
+		
+		this.sessionFactory.getCurrentSession().saveOrUpdate(prescriptionEvaluation);
+		return prescriptionEvaluation;
+	}
+	
+	@Override
+	public PrescriptionEvaluation findEvaluationByPatient(final Patient patient) {
+		
+		return (PrescriptionEvaluation) this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(PrescriptionStateDAO.QUERY_NAME.findEvaluationByPatient)
+		        .setParameter("patient", patient).uniqueResult();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<PrescriptionEvaluation> findEvaluationsByPatients(final Collection<Patient> patients) {
+		
+		if (patients.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return this.sessionFactory.getCurrentSession()
+		        .getNamedQuery(PrescriptionStateDAO.QUERY_NAME.findEvaluationsByPatients)
+		        .setParameterList("patients", patients).list();
+	}
+}
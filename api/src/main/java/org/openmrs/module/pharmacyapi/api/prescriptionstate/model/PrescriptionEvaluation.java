@@ -0,0 +1,92 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.prescriptionstate.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.openmrs.Patient;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.dao.PrescriptionStateDAO;
+
+/**
+ * Marks a patient whose prescription states were written, so that a patient evaluated without any
+ * prescription is told apart from one never evaluated.
+ */
+@NamedQueries(value = {
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.findEvaluationByPatient, query = PrescriptionStateDAO.QUERY.findEvaluationByPatient),
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.findEvaluationsByPatients, query = PrescriptionStateDAO.QUERY.findEvaluationsByPatients) })
+@Entity
+@Table(name = "phm_prescription_evaluation")
+public class PrescriptionEvaluation implements Serializable {
+	
+	private static final long serialVersionUID = -3021478765396187652L;
+	
+	@Id
+	@GeneratedValue
+	@Column(name = "prescription_evaluation_id")
+	private Integer prescriptionEvaluationId;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "patient_id", nullable = false, unique = true)
+	private Patient patient;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "evaluation_date", nullable = false)
+	private Date evaluationDate;
+	
+	public PrescriptionEvaluation() {
+		
+	}
+	
+	public PrescriptionEvaluation(final Patient patient, final Date evaluationDate) {
+		this.patient = patient;
+		this.evaluationDate = evaluationDate;
+	}
+	
+	public Integer getPrescriptionEvaluationId() {
+		return this.prescriptionEvaluationId;
+	}
+	
+	public void setPrescriptionEvaluationId(final Integer prescriptionEvaluationId) {
+		this.prescriptionEvaluationId = prescriptionEvaluationId;
+	}
+	
+	public Patient getPatient() {
+		return this.patient;
+	}
+	
+	public void setPatient(final Patient patient) {
+		this.patient = patient;
+	}
+	
+	public Date getEvaluationDate() {
+		return this.evaluationDate;
+	}
+	
+	public void setEvaluationDate(final Date evaluationDate) {
+		this.evaluationDate = evaluationDate;
+	}
+}
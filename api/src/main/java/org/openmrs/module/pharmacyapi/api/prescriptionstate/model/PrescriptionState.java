@@ -0,0 +1,258 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.prescriptionstate.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.openmrs.Encounter;
+import org.openmrs.Patient;
+import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
+import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription.PrescriptionStatus;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem.PrescriptionItemStatus;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.dao.PrescriptionStateDAO;
+
+/**
+ * The computed state of a prescription item, together with the status of the prescription it
+ * belongs to, as it was on the evaluation date.
+ */
+@NamedQueries(value = {
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.findByPatient, query = PrescriptionStateDAO.QUERY.findByPatient),
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.findByPatients, query = PrescriptionStateDAO.QUERY.findByPatients),
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.findPatientIdsByItemStatus, query = PrescriptionStateDAO.QUERY.findPatientIdsByItemStatus),
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.findByPrescriptionIds, query = PrescriptionStateDAO.QUERY.findByPrescriptionIds),
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.findActivePrescriptionIdsByLocation, query = PrescriptionStateDAO.QUERY.findActivePrescriptionIdsByLocation),
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.countActivePrescriptionsByLocation, query = PrescriptionStateDAO.QUERY.countActivePrescriptionsByLocation),
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.findOpenNewDrugOrdersByPrescriptionIds, query = PrescriptionStateDAO.QUERY.findOpenNewDrugOrdersByPrescriptionIds),
+        @NamedQuery(name = PrescriptionStateDAO.QUERY_NAME.findPatientIdsNotEvaluated, query = PrescriptionStateDAO.QUERY.findPatientIdsNotEvaluated) })
+@Entity
+@Table(name = "phm_prescription_state")
+public class PrescriptionState implements Serializable {
+	
+	private static final long serialVersionUID = 7290135489620637141L;
+	
+	@Id
+	@GeneratedValue
+	@Column(name = "prescription_state_id")
+	private Integer prescriptionStateId;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "patient_id", nullable = false)
+	private Patient patient;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "prescription_id", nullable = false)
+	private Encounter prescription;
+	
+	@Column(name = "order_id", nullable = false)
+	private Integer orderId;
+	
+	@Enumerated(EnumType.STRING)
+	@Column(name = "prescription_status", nullable = false, length = 20)
+	private PrescriptionStatus prescriptionStatus;
+	
+	@Enumerated(EnumType.STRING)
+	@Column(name = "item_status", nullable = false, length = 20)
+	private PrescriptionItemStatus itemStatus;
+	
+	@Column(name = "arv", nullable = false)
+	private Boolean arv;
+	
+	@Column(name = "drug_picked_up")
+	private Double drugPickedUp;
+	
+	@Column(name = "drug_to_pick_up")
+	private Double drugToPickUp;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "expected_next_pick_up_date")
+	private Date expectedNextPickUpDate;
+	
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "evaluation_date", nullable = false)
+	private Date evaluationDate;
+	
+	/**
+	 * When the item is NEW or ACTIVE, the instant after which it turns EXPIRED unless written again.
+	 */
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "expiration_date")
+	private Date expirationDate;
+	
+	public PrescriptionState() {
+		
+	}
+	
+	public PrescriptionState(final PrescriptionItem prescriptionItem, final Date evaluationDate,
+	        final Date expirationDate) {
+		
+		this.patient = prescriptionItem.getPrescription().getPatient();
+		this.orderId = prescriptionItem.getDrugOrder().getOrderId();
+		this.update(prescriptionItem, evaluationDate, expirationDate);
+	}
+	
+	/**
+	 * Takes the state of the item as computed on the evaluation date.
+	 */
+	public void update(final PrescriptionItem prescriptionItem, final Date evaluationDate, final Date expirationDate) {
+		
+		final Prescription prescription = prescriptionItem.getPrescription();
+		
+		this.prescription = prescription.getPrescriptionEncounter();
+		this.prescriptionStatus = prescription.getPrescriptionStatus();
+		this.itemStatus = prescriptionItem.getStatus();
+		this.arv = prescription.isArv();
+		this.drugPickedUp = prescriptionItem.getDrugPickedUp();
+		this.drugToPickUp = prescriptionItem.getDrugToPickUp();
+		this.expectedNextPickUpDate = prescriptionItem.getExpectedNextPickUpDate();
+		this.evaluationDate = evaluationDate;
+		this.expirationDate = expirationDate;
+	}
+	
+	/**
+	 * @return true when the stored state is the one of the item, whatever the date it was evaluated
+	 */
+	public boolean matches(final PrescriptionItem prescriptionItem, final Date expirationDate) {
+		
+		final Prescription prescription = prescriptionItem.getPrescription();
+		
+		return this.prescription.getEncounterId().equals(prescription.getPrescriptionEncounter().getEncounterId())
+		        && (this.prescriptionStatus == prescription.getPrescriptionStatus())
+		        && (this.itemStatus == prescriptionItem.getStatus()) && (this.arv.booleanValue() == prescription.isArv())
+		        && equal(this.drugPickedUp, prescriptionItem.getDrugPickedUp())
+		        && equal(this.drugToPickUp, prescriptionItem.getDrugToPickUp())
+		        && equal(this.expectedNextPickUpDate, prescriptionItem.getExpectedNextPickUpDate())
+		        && equal(this.expirationDate, expirationDate);
+	}
+	
+	private static boolean equal(final Double stored, final Double computed) {
+		return stored == null ? computed == null : stored.equals(computed);
+	}
+	
+	// a date read back from the database is a Timestamp, which never equals a plain Date
+	private static boolean equal(final Date stored, final Date computed) {
+		return stored == null ? computed == null : (computed != null) && (stored.getTime() == computed.getTime());
+	}
+	
+	public Integer getPrescriptionStateId() {
+		return this.prescriptionStateId;
+	}
+	
+	public void setPrescriptionStateId(final Integer prescriptionStateId) {
+		this.prescriptionStateId = prescriptionStateId;
+	}
+	
+	public Patient getPatient() {
+		return this.patient;
+	}
+	
+	public void setPatient(final Patient patient) {
+		this.patient = patient;
+	}
+	
+	public Encounter getPrescription() {
+		return this.prescription;
+	}
+	
+	public void setPrescription(final Encounter prescription) {
+		this.prescription = prescription;
+	}
+	
+	public Integer getOrderId() {
+		return this.orderId;
+	}
+	
+	public void setOrderId(final Integer orderId) {
+		this.orderId = orderId;
+	}
+	
+	public PrescriptionStatus getPrescriptionStatus() {
+		return this.prescriptionStatus;
+	}
+	
+	public void setPrescriptionStatus(final PrescriptionStatus prescriptionStatus) {
+		this.prescriptionStatus = prescriptionStatus;
+	}
+	
+	public PrescriptionItemStatus getItemStatus() {
+		return this.itemStatus;
+	}
+	
+	public void setItemStatus(final PrescriptionItemStatus itemStatus) {
+		this.itemStatus = itemStatus;
+	}
+	
+	public Boolean getArv() {
+		return this.arv;
+	}
+	
+	public void setArv(final Boolean arv) {
+		this.arv = arv;
+	}
+	
+	public Double getDrugPickedUp() {
+		return this.drugPickedUp;
+	}
+	
+	public void setDrugPickedUp(final Double drugPickedUp) {
+		this.drugPickedUp = drugPickedUp;
+	}
+	
+	public Double getDrugToPickUp() {
+		return this.drugToPickUp;
+	}
+	
+	public void setDrugToPickUp(final Double drugToPickUp) {
+		this.drugToPickUp = drugToPickUp;
+	}
+	
+	public Date getExpectedNextPickUpDate() {
+		return this.expectedNextPickUpDate;
+	}
+	
+	public void setExpectedNextPickUpDate(final Date expectedNextPickUpDate) {
+		this.expectedNextPickUpDate = expectedNextPickUpDate;
+	}
+	
+	public Date getEvaluationDate() {
+		return this.evaluationDate;
+	}
+	
+	public void setEvaluationDate(final Date evaluationDate) {
+		this.evaluationDate = evaluationDate;
+	}
+	
+	public Date getExpirationDate() {
+		return this.expirationDate;
+	}
+	
+	public void setExpirationDate(final Date expirationDate) {
+		this.expirationDate = expirationDate;
+	}
+}
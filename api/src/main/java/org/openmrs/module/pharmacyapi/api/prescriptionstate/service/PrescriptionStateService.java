@@ -0,0 +1,77 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.prescriptionstate.service;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.openmrs.DrugOrder;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.api.OpenmrsService;
+import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.dao.PrescriptionStateDAO;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionEvaluation;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionState;
+
+public interface PrescriptionStateService extends OpenmrsService {
+	
+	void setPrescriptionStateDAO(PrescriptionStateDAO prescriptionStateDAO);
+	
+	/**
+	 * Recomputes the prescriptions of the patient and writes only the states that changed, marking
+	 * the patient as evaluated. The pending writes of the session are read through Hibernate's auto
+	 * flush, so within a write unit it must only be called once the unit is flushed.
+	 */
+	void updatePrescriptionStates(Patient patient, Date evaluationDate) throws PharmacyBusinessException;
+	
+	/**
+	 * @return the evaluation of the patient, or null when its states were never written
+	 */
+	PrescriptionEvaluation findPrescriptionEvaluationByPatient(Patient patient);
+	
+	List<PrescriptionEvaluation> findPrescriptionEvaluationsByPatients(Collection<Patient> patients);
+	
+	List<PrescriptionState> findPrescriptionStatesByPatient(Patient patient);
+	
+	List<PrescriptionState> findPrescriptionStatesByPatients(Collection<Patient> patients);
+	
+	/**
+	 * @return the drug orders of the given states, in the order of the states
+	 */
+	List<DrugOrder> findDrugOrdersByStates(List<PrescriptionState> prescriptionStates);
+	
+	List<PrescriptionState> findPrescriptionStatesByPrescriptionIds(Collection<Integer> prescriptionIds);
+	
+	/**
+	 * @return one page of the ids of the prescriptions of the location having an item NEW or ACTIVE
+	 *         not expired on the date, or never evaluated with a not dispensed order still NEW on the
+	 *         date, sorted by prescription date and id
+	 */
+	List<Integer> findActivePrescriptionIdsByLocation(Location location, Date startDate, Date endDate, Date date,
+	        int startIndex, int limit);
+	
+	long countActivePrescriptionsByLocation(Location location, Date startDate, Date endDate, Date date);
+	
+	/**
+	 * @return the not dispensed orders of the prescriptions, for those not evaluated yet
+	 */
+	List<DrugOrder> findNotEvaluatedDrugOrdersByPrescriptionIds(Collection<Integer> prescriptionIds);
+	
+	/**
+	 * @return the patients having items that may have expired since their last evaluation, and the
+	 *         patients with open drug orders that were never evaluated
+	 */
+	List<Integer> findPatientIdsToSweep();
+}
@@ -0,0 +1,207 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.prescriptionstate.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openmrs.DrugOrder;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.util.DateUtils;
+import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem.PrescriptionItemStatus;
+import org.openmrs.module.pharmacyapi.api.prescription.service.PrescriptionService;
+import org.openmrs.module.pharmacyapi.api.prescription.util.OrderStatusEvaluator;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.dao.PrescriptionStateDAO;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionEvaluation;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+
+@Transactional
+public class PrescriptionStateServiceImpl extends BaseOpenmrsService implements PrescriptionStateService {
+	
+	private static final List<PrescriptionItemStatus> TIME_DEPENDENT_ITEM_STATUS = Arrays
+	        .asList(PrescriptionItemStatus.NEW, PrescriptionItemStatus.ACTIVE, PrescriptionItemStatus.FINALIZED);
+	
+	private static final List<PrescriptionItemStatus> ACTIVE_ITEM_STATUS = Arrays.asList(PrescriptionItemStatus.NEW,
+	    PrescriptionItemStatus.ACTIVE);
+	
+	private PrescriptionStateDAO prescriptionStateDAO;
+	
+	@Autowired
+	private OrderStatusEvaluator orderStatusEvaluator;
+	
+	@Override
+	public void setPrescriptionStateDAO(final PrescriptionStateDAO prescriptionStateDAO) {
+		this.prescriptionStateDAO = prescriptionStateDAO;
+	}
+	
+	@Override
+	public void updatePrescriptionStates(final Patient patient, final Date evaluationDate)
+	        throws PharmacyBusinessException {
+		
+		final List<Prescription> prescriptions = Context.getService(PrescriptionService.class)
+		        .findAllPrescriptionsByPatient(patient, evaluationDate);
+		
+		final Map<Integer, PrescriptionState> statesByOrderId = new HashMap<>();
+		for (final PrescriptionState prescriptionState : this.prescriptionStateDAO.findByPatient(patient)) {
+			statesByOrderId.put(prescriptionState.getOrderId(), prescriptionState);
+		}
+		
+		// the rows of the items the write left as they were are not touched
+		for (final Prescription prescription : prescriptions) {
+			for (final PrescriptionItem prescriptionItem : prescription.getPrescriptionItems()) {
+				
+				final PrescriptionState prescriptionState = statesByOrderId
+				        .remove(prescriptionItem.getDrugOrder().getOrderId());
+				final Date expirationDate = this.getExpirationDate(prescriptionItem);
+				if (prescriptionState == null) {
+					this.prescriptionStateDAO
+					        .save(new PrescriptionState(prescriptionItem, evaluationDate, expirationDate));
+				} else if (!prescriptionState.matches(prescriptionItem, expirationDate)) {
+					prescriptionState.update(prescriptionItem, evaluationDate, expirationDate);
+				}
+			}
+		}
+		
+		for (final PrescriptionState prescriptionState : statesByOrderId.values()) {
+			this.prescriptionStateDAO.delete(prescriptionState);
+		}
+		
+		PrescriptionEvaluation prescriptionEvaluation = this.prescriptionStateDAO.findEvaluationByPatient(patient);
+		if (prescriptionEvaluation == null) {
+			prescriptionEvaluation = new PrescriptionEvaluation(patient, evaluationDate);
+		} else {
+			prescriptionEvaluation.setEvaluationDate(evaluationDate);
+		}
+		this.prescriptionStateDAO.save(prescriptionEvaluation);
+	}
+	
+	@Override
+	public PrescriptionEvaluation findPrescriptionEvaluationByPatient(final Patient patient) {
+		
+		return this.prescriptionStateDAO.findEvaluationByPatient(patient);
+	}
+	
+	@Override
+	public List<PrescriptionEvaluation> findPrescriptionEvaluationsByPatients(final Collection<Patient> patients) {
+		
+		return this.prescriptionStateDAO.findEvaluationsByPatients(patients);
+	}
+	
+	@Override
+	public List<PrescriptionState> findPrescriptionStatesByPatient(final Patient patient) {
+		
+		return this.prescriptionStateDAO.findByPatient(patient);
+	}
+	
+	@Override
+	public List<PrescriptionState> findPrescriptionStatesByPatients(final Collection<Patient> patients) {
+		
+		return this.prescriptionStateDAO.findByPatients(patients);
+	}
+	
+	@Override
+	public List<DrugOrder> findDrugOrdersByStates(final List<PrescriptionState> prescriptionStates) {
+		
+		final Set<Integer> orderIds = new LinkedHashSet<>();
+		for (final PrescriptionState prescriptionState : prescriptionStates) {
+			orderIds.add(prescriptionState.getOrderId());
+		}
+		
+		final Map<Integer, DrugOrder> drugOrdersById = new HashMap<>();
+		for (final DrugOrder drugOrder : this.prescriptionStateDAO.findDrugOrdersByIds(orderIds)) {
+			drugOrdersById.put(drugOrder.getOrderId(), drugOrder);
+		}
+		
+		final List<DrugOrder> drugOrders = new ArrayList<>();
+		for (final Integer orderId : orderIds) {
+			
+			final DrugOrder drugOrder = drugOrdersById.get(orderId);
+			if (drugOrder != null) {
+				drugOrders.add(drugOrder);
+			}
+		}
+		return drugOrders;
+	}
+	
+	@Override
+	public List<PrescriptionState> findPrescriptionStatesByPrescriptionIds(final Collection<Integer> prescriptionIds) {
+		
+		return this.prescriptionStateDAO.findByPrescriptionIds(prescriptionIds);
+	}
+	
+	@Override
+	public List<Integer> findActivePrescriptionIdsByLocation(final Location location, final Date startDate,
+	        final Date endDate, final Date date, final int startIndex, final int limit) {
+		
+		return this.prescriptionStateDAO.findActivePrescriptionIdsByLocation(location,
+		    DateUtils.lowDateTime(startDate), DateUtils.highDateTime(endDate), ACTIVE_ITEM_STATUS, date,
+		    this.orderStatusEvaluator.getNewOrderPrescribedSince(date), startIndex, limit);
+	}
+	
+	@Override
+	public long countActivePrescriptionsByLocation(final Location location, final Date startDate, final Date endDate,
+	        final Date date) {
+		
+		return this.prescriptionStateDAO.countActivePrescriptionsByLocation(location,
+		    DateUtils.lowDateTime(startDate), DateUtils.highDateTime(endDate), ACTIVE_ITEM_STATUS, date,
+		    this.orderStatusEvaluator.getNewOrderPrescribedSince(date));
+	}
+	
+	@Override
+	public List<DrugOrder> findNotEvaluatedDrugOrdersByPrescriptionIds(final Collection<Integer> prescriptionIds) {
+		
+		return this.prescriptionStateDAO.findOpenNewDrugOrdersByPrescriptionIds(prescriptionIds);
+	}
+	
+	@Override
+	public List<Integer> findPatientIdsToSweep() {
+		
+		final Set<Integer> patientIds = new LinkedHashSet<>(
+		        this.prescriptionStateDAO.findPatientIdsByItemStatus(TIME_DEPENDENT_ITEM_STATUS));
+		patientIds.addAll(this.prescriptionStateDAO.findPatientIdsNotEvaluated());
+		
+		return new ArrayList<>(patientIds);
+	}
+	
+	/**
+	 * @return when the NEW or ACTIVE item turns EXPIRED if nothing is written in between, null for
+	 *         the other statuses, which no longer make the prescription ACTIVE
+	 */
+	private Date getExpirationDate(final PrescriptionItem prescriptionItem) {
+		
+		if (PrescriptionItemStatus.NEW.equals(prescriptionItem.getStatus())) {
+			return this.orderStatusEvaluator.getNewOrderExpirationDate(prescriptionItem.getDrugOrder());
+		}
+		
+		if (PrescriptionItemStatus.ACTIVE.equals(prescriptionItem.getStatus())
+		        && (prescriptionItem.getExpectedNextPickUpDate() != null)) {
+			return this.orderStatusEvaluator.getExpirationDate(prescriptionItem.getExpectedNextPickUpDate(), 0d);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2016
+ */
+package org.openmrs.module.pharmacyapi.api.prescriptionstate.task;
+
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.service.PrescriptionStateService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Re-evaluates, once a day, the prescription states whose items may have expired since they were
+ * last written, so that reads served from phm_prescription_state do not fall behind the calendar.
+ * Patients with open drug orders that were never evaluated get their first state here. Each patient
+ * is evaluated in its own transaction, so that a failing one is left for the next run without
+ * holding back the others.
+ */
+public class PrescriptionStateSweepTask extends AbstractTask {
+	
+	public static final String NAME = "Pharmacy Prescription State Sweep";
+	
+	private static final int SESSION_CLEAR_INTERVAL = 50;
+	
+	private static final Log log = LogFactory.getLog(PrescriptionStateSweepTask.class);
+	
+	@Override
+	public void execute() {
+		
+		final PrescriptionStateService prescriptionStateService = Context.getService(PrescriptionStateService.class);
+		final Date evaluationDate = new Date();
+		
+		int count = 0;
+		int failures = 0;
+		for (final Integer patientId : prescriptionStateService.findPatientIdsToSweep()) {
+			
+			try {
+				prescriptionStateService.updatePrescriptionStates(Context.getPatientService().getPatient(patientId),
+				    evaluationDate);
+			}
+			catch (final Exception e) {
+				
+				// the rolled back states are still attached to the session
+				Context.clearSession();
+				failures++;
+				log.warn("Could not evaluate the prescription states of the patient " + patientId, e);
+			}
+			
+			if ((++count % SESSION_CLEAR_INTERVAL) == 0) {
+				Context.clearSession();
+			}
+		}
+		
+		log.info("Prescription state sweep evaluated " + (count - failures) + " patients, " + failures + " failed");
+	}
+}
@@ -12,6 +12,8 @@
  */
 package org.openmrs.module.pharmacyapi.db;
 
+import java.sql.Savepoint;
+
 import org.hibernate.FlushMode;
 
 /**
@@ -26,4 +28,37 @@ public interface DbSessionManager {
 	void setFlushMode(FlushMode flushMode);
 	
 	void setAutoFlushMode();
+	
+	/**
+	 * Starts a write unit of work on the current session. Its writes are held in the session until
+	 * {@link #endWriteUnit()} sends them in one flush, where Hibernate orders and groups the statements
+	 * of each table so that they can be batched when JDBC batching is configured. Units may be nested,
+	 * only the outermost one flushes. The writes made after the unit, such as the prescription states
+	 * read from what the unit wrote, are flushed apart by the transaction.
+	 */
+	void beginWriteUnit();
+	
+	/**
+	 * Flushes the writes of the unit and gives the session back the flush mode it had before it. The
+	 * statements sent by the unit are logged at debug level when the Hibernate statistics are on. Only
+	 * called once the work of the unit completed, see {@link #abandonWriteUnit()}.
+	 */
+	void endWriteUnit();
+	
+	/**
+	 * Ends the unit whose work failed without flushing it, the writes are left to the rollback of the
+	 * transaction. The session gets back the flush mode it had before the unit.
+	 */
+	void abandonWriteUnit();
+	
+	/**
+	 * Sets a savepoint on the connection of the current transaction. Rolling back to it undoes the
+	 * statements sent since, not the changes still pending in the session, which must be flushed
+	 * before the savepoint is released or cleared after the rollback.
+	 */
+	Savepoint setSavepoint();
+	
+	void rollbackToSavepoint(Savepoint savepoint);
+	
+	void releaseSavepoint(Savepoint savepoint);
 }
@@ -12,7 +12,15 @@
  */
 package org.openmrs.module.pharmacyapi.db;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.hibernate.FlushMode;
+import org.hibernate.jdbc.Work;
+import org.hibernate.stat.Statistics;
 import org.openmrs.api.db.hibernate.DbSessionFactory;
 
 /**
@@ -20,6 +28,10 @@ import org.openmrs.api.db.hibernate.DbSessionFactory;
  */
 public class DbSessionManagerImpl implements DbSessionManager {
 	
+	private final Log log = LogFactory.getLog(this.getClass());
+	
+	private final ThreadLocal<WriteUnit> writeUnit = new ThreadLocal<>();
+	
 	private DbSessionFactory sessionFactory;
 	
 	private FlushMode currentFlushMode;
@@ -48,4 +60,138 @@ public class DbSessionManagerImpl implements DbSessionManager {
 	public void setAutoFlushMode() {
 		this.setFlushMode(this.currentFlushMode);
 	}
+	
+	@Override
+	public void beginWriteUnit() {
+		
+		final WriteUnit current = this.writeUnit.get();
+		if (current != null) {
+			current.depth++;
+			return;
+		}
+		
+		final Statistics statistics = this.sessionFactory.getHibernateSessionFactory().getStatistics();
+		this.writeUnit.set(new WriteUnit(this.getCurrentFlushMode(), statistics));
+		this.setFlushMode(FlushMode.MANUAL);
+	}
+	
+	@Override
+	public void endWriteUnit() {
+		
+		final WriteUnit current = this.leaveWriteUnit();
+		if (current == null) {
+			return;
+		}
+		
+		try {
+			this.sessionFactory.getCurrentSession().flush();
+			this.logStatements(current);
+		}
+		finally {
+			this.setFlushMode(current.previousFlushMode);
+		}
+	}
+	
+	@Override
+	public void abandonWriteUnit() {
+		
+		final WriteUnit current = this.leaveWriteUnit();
+		if (current != null) {
+			this.setFlushMode(current.previousFlushMode);
+		}
+	}
+	
+	/**
+	 * @return the unit when the outermost one is left, null when a nested one is
+	 */
+	private WriteUnit leaveWriteUnit() {
+		
+		final WriteUnit current = this.writeUnit.get();
+		if (current == null) {
+			return null;
+		}
+		if (current.depth > 0) {
+			current.depth--;
+			return null;
+		}
+		this.writeUnit.remove();
+		return current;
+	}
+	
+	@Override
+	public Savepoint setSavepoint() {
+		
+		final Savepoint[] savepoint = new Savepoint[1];
+		this.doWork(new Work() {
+			
+			@Override
+			public void execute(final Connection connection) throws SQLException {
+				savepoint[0] = connection.setSavepoint();
+			}
+		});
+		return savepoint[0];
+	}
+	
+	@Override
+	public void rollbackToSavepoint(final Savepoint savepoint) {
+		
+		this.doWork(new Work() {
+			
+			@Override
+			public void execute(final Connection connection) throws SQLException {
+				connection.rollback(savepoint);
+			}
+		});
+	}
+	
+	@Override
+	public void releaseSavepoint(final Savepoint savepoint) {
+		
+		this.doWork(new Work() {
+			
+			@Override
+			public void execute(final Connection connection) throws SQLException {
+				connection.releaseSavepoint(savepoint);
+			}
+		});
+	}
+	
+	private void doWork(final Work work) {
+		
+		this.sessionFactory.getHibernateSessionFactory().getCurrentSession().doWork(work);
+	}
+	
+	private void logStatements(final WriteUnit unit) {
+		
+		final Statistics statistics = this.sessionFactory.getHibernateSessionFactory().getStatistics();
+		if (!this.log.isDebugEnabled() || !statistics.isStatisticsEnabled()) {
+			return;
+		}
+		
+		// the statistics are global to the session factory, concurrent units are counted too
+		this.log.debug("Write unit sent " + (statistics.getPrepareStatementCount() - unit.prepareStatementCount)
+		        + " statements: " + (statistics.getEntityInsertCount() - unit.entityInsertCount) + " inserts, "
+		        + (statistics.getEntityUpdateCount() - unit.entityUpdateCount) + " updates");
+	}
+	
+	private static final class WriteUnit {
+		
+		private final FlushMode previousFlushMode;
+		
+		private final long prepareStatementCount;
+		
+		private final long entityInsertCount;
+		
+		private final long entityUpdateCount;
+		
+		private int depth;
+		
+		private WriteUnit(final FlushMode previousFlushMode, final Statistics statistics) {
+			
+			this.previousFlushMode = previousFlushMode;
+			this.prepareStatementCount = statistics.getPrepareStatementCount();
+			this.entityInsertCount = statistics.getEntityInsertCount();
+			this.entityUpdateCount = statistics.getEntityUpdateCount();
+		}
+	}
 }
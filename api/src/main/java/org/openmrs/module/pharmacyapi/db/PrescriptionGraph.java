@@ -0,0 +1,41 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.db;
+
+import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+
+/**
+ * The associations of a drug order read while its prescription is generated and serialized,
+ * fetched with the order instead of being loaded one proxy at a time. Every query loading the
+ * orders of a prescription fetches the same graph.
+ */
+public final class PrescriptionGraph {
+	
+	private static final String[] ASSOCIATIONS = { "encounter", "encounter.encounterType", "drug", "concept",
+	        "doseUnits", "quantityUnits", "durationUnits", "route", "frequency", "orderer", "previousOrder",
+	        "orderReason", "careSetting" };
+	
+	private PrescriptionGraph() {
+	}
+	
+	/**
+	 * @param searchCriteria a criteria on {@link org.openmrs.DrugOrder}
+	 */
+	public static void fetch(final Criteria searchCriteria) {
+		
+		for (final String association : ASSOCIATIONS) {
+			searchCriteria.setFetchMode(association, FetchMode.JOIN);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.common.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.CacheRegionStatistics;
+import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
+import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugItemService;
+import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class CatalogCacheTest extends BaseTest {
+	
+	private static final String DATASET = "prescriptionservice/shouldCreateArvPrescription-dataset.xml";
+	
+	@Autowired
+	private CatalogCache catalogCache;
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	@Test
+	public void shouldReadTheDrugItemSavedAndRetiredThroughTheSession() throws Exception {
+		
+		this.executeDataSet(CatalogCacheTest.DATASET);
+		final DrugItemService drugItemService = Context.getService(DrugItemService.class);
+		
+		DrugItem drugItem = drugItemService.findDrugItemByDrugId(13);
+		Assert.assertEquals("15F04", drugItem.getFnmCode());
+		
+		drugItem.setFnmCode("15F05");
+		this.sessionFactory.getCurrentSession().update(drugItem);
+		Context.flushSession();
+		Context.clearSession();
+		
+		drugItem = drugItemService.findDrugItemByDrugId(13);
+		Assert.assertEquals("15F05", drugItem.getFnmCode());
+		
+		drugItem.setRetired(true);
+		drugItem.setRetireReason("test");
+		this.sessionFactory.getCurrentSession().update(drugItem);
+		Context.flushSession();
+		Context.clearSession();
+		
+		drugItem = drugItemService.findDrugItemByUuid("97740a66-c9fa-4aaa-8dea-6e2f0264c2fe");
+		Assert.assertTrue(drugItem.getRetired());
+	}
+	
+	@Test
+	public void shouldEvictTheEntitiesOfTheModule() throws Exception {
+		
+		this.executeDataSet(CatalogCacheTest.DATASET);
+		
+		Context.getService(DrugItemService.class).findDrugItemByDrugId(13);
+		Context.clearSession();
+		
+		this.catalogCache.evictAll();
+		
+		Assert.assertFalse(this.sessionFactory.getCache().containsEntity(DrugItem.class, 13));
+	}
+	
+	@Test
+	public void shouldOnlyReportTheRegionsOfTheModule() throws Exception {
+		
+		this.executeDataSet(CatalogCacheTest.DATASET);
+		final CacheRegionStatistics before = this.catalogCache.getStatistics(CatalogCache.CATALOG_QUERY_REGION);
+		
+		Context.getService(DrugItemService.class).findDrugItemByDrugId(13);
+		Context.clearSession();
+		Context.getService(DrugItemService.class).findDrugItemByDrugId(13);
+		
+		final CacheRegionStatistics after = this.catalogCache.getStatistics(CatalogCache.CATALOG_QUERY_REGION);
+		Assert.assertNotNull(after);
+		Assert.assertTrue(after.getMissCount() > (before == null ? 0 : before.getMissCount()));
+		Assert.assertTrue(after.getHitCount() > (before == null ? 0 : before.getHitCount()));
+		
+		final List<String> moduleRegions = Arrays.asList(DrugItem.class.getName(), DrugRegime.class.getName(),
+		    PrescriptionDispensation.class.getName(), CatalogCache.CATALOG_QUERY_REGION,
+		    CatalogCache.DISPENSATION_QUERY_REGION);
+		
+		for (final CacheRegionStatistics region : this.catalogCache.getStatistics()) {
+			Assert.assertTrue(region.getRegionName(), moduleRegions.contains(region.getRegionName()));
+		}
+		Assert.assertFalse(this.catalogCache.evictRegion("org.openmrs.Drug"));
+		Assert.assertTrue(this.catalogCache.evictRegion(CatalogCache.CATALOG_QUERY_REGION));
+	}
+}
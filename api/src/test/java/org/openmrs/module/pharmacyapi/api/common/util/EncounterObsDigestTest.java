@@ -0,0 +1,93 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.api.common.util;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class EncounterObsDigestTest extends BaseTest {
+	
+	private static final Integer PREVIOUS_ANTIRETROVIRAL_DRUGS_ID = 999;
+	
+	private static final Integer POC_MAPPING_PRESCRIPTION_DATE_ID = 1001;
+	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
+	@Test
+	public void shouldReadTheValuesOfEachEncounter() throws Exception {
+		
+		final Date prescriptionDate = new Date();
+		final Obs firstRegime = this.createObs(1000, PREVIOUS_ANTIRETROVIRAL_DRUGS_ID);
+		firstRegime.setValueCoded(new Concept(1100));
+		final Obs prescriptionDateObs = this.createObs(1000, POC_MAPPING_PRESCRIPTION_DATE_ID);
+		prescriptionDateObs.setValueDatetime(prescriptionDate);
+		final Obs secondRegime = this.createObs(1001, PREVIOUS_ANTIRETROVIRAL_DRUGS_ID);
+		secondRegime.setValueCoded(new Concept(1101));
+		
+		final EncounterObsDigest obsDigest = new EncounterObsDigest(
+		        Arrays.asList(firstRegime, prescriptionDateObs, secondRegime), this.metadataRegistry);
+		
+		Assert.assertEquals(Integer.valueOf(1100), obsDigest
+		        .findValueCoded(new Encounter(1000), MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS).getConceptId());
+		Assert.assertEquals(Integer.valueOf(1101), obsDigest
+		        .findValueCoded(new Encounter(1001), MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS).getConceptId());
+		Assert.assertEquals(prescriptionDate,
+		    obsDigest.findValueDatetime(new Encounter(1000), MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE));
+		Assert.assertNull(
+		    obsDigest.findValueDatetime(new Encounter(1001), MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE));
+		Assert.assertEquals(Arrays.asList(firstRegime, prescriptionDateObs), obsDigest.getObs(new Encounter(1000)));
+	}
+	
+	@Test
+	public void shouldKeepTheOrderOfTheObsOfAConcept() throws Exception {
+		
+		final Obs firstRegime = this.createObs(1000, PREVIOUS_ANTIRETROVIRAL_DRUGS_ID);
+		final Obs secondRegime = this.createObs(1000, PREVIOUS_ANTIRETROVIRAL_DRUGS_ID);
+		
+		final EncounterObsDigest obsDigest = new EncounterObsDigest(Arrays.asList(firstRegime, secondRegime),
+		        this.metadataRegistry);
+		
+		Assert.assertEquals(Arrays.asList(firstRegime, secondRegime),
+		    obsDigest.getObs(new Encounter(1000), MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS));
+		Assert.assertSame(firstRegime,
+		    obsDigest.findObs(new Encounter(1000), MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS));
+	}
+	
+	@Test
+	public void shouldNotFindTheObsOfAnEncounterNotDigested() throws Exception {
+		
+		final Obs withoutEncounter = this.createObs(null, PREVIOUS_ANTIRETROVIRAL_DRUGS_ID);
+		
+		final EncounterObsDigest obsDigest = new EncounterObsDigest(Arrays.asList(withoutEncounter),
+		        this.metadataRegistry);
+		
+		Assert.assertTrue(obsDigest.getObs(new Encounter(1000)).isEmpty());
+		Assert.assertTrue(obsDigest.getObs(new Encounter(1000), MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS).isEmpty());
+		Assert.assertNull(obsDigest.findObs(new Encounter(1000), MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS));
+		Assert.assertNull(obsDigest.findValueCoded(new Encounter(1000), MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS));
+	}
+	
+	private Obs createObs(final Integer encounterId, final Integer conceptId) {
+		
+		final Obs obs = new Obs();
+		obs.setEncounter(encounterId == null ? null : new Encounter(encounterId));
+		obs.setConcept(new Concept(conceptId));
+		return obs;
+	}
+}
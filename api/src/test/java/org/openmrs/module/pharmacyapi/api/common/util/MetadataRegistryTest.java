@@ -0,0 +1,110 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.api.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.advice.MetadataRegistryAdvice;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * The concepts are read through a cleared session each time, a concept resolved by the registry is
+ * the same instance until it is evicted.
+ */
+public class MetadataRegistryTest extends BaseTest {
+	
+	private static final String NOT_MAPPED_CONCEPT = "0cbe2ed3-cd5f-4f46-9459-26127c9265ab";
+	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
+	@Test
+	public void shouldResolveTheMappedConceptsOnce() throws Exception {
+		
+		final Concept concept = this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN);
+		Context.clearSession();
+		
+		Assert.assertSame(concept, this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN));
+		Assert.assertEquals(concept.getConceptId(), this.metadataRegistry.getConceptId(MappedConcepts.ARV_PLAN));
+	}
+	
+	@Test
+	public void shouldNotHoldTheConceptsThatAreNotMapped() throws Exception {
+		
+		final Concept concept = this.metadataRegistry.getConcept(MetadataRegistryTest.NOT_MAPPED_CONCEPT);
+		Context.clearSession();
+		
+		Assert.assertNotNull(concept);
+		Assert.assertNotSame(concept, this.metadataRegistry.getConcept(MetadataRegistryTest.NOT_MAPPED_CONCEPT));
+	}
+	
+	@Test
+	public void shouldEvictTheConceptSavedOnceTheSaveCommits() throws Exception {
+		
+		final Concept concept = this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN);
+		Context.clearSession();
+		
+		final List<TransactionSynchronization> synchronizations = this.saveConcept(concept);
+		Assert.assertSame(concept, this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN));
+		
+		for (final TransactionSynchronization synchronization : synchronizations) {
+			synchronization.afterCommit();
+		}
+		Assert.assertNotSame(concept, this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN));
+	}
+	
+	@Test
+	public void shouldKeepTheConceptWhenTheSaveRollsBack() throws Exception {
+		
+		final Concept concept = this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN);
+		Context.clearSession();
+		
+		for (final TransactionSynchronization synchronization : this.saveConcept(concept)) {
+			synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+		}
+		Assert.assertSame(concept, this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN));
+	}
+	
+	@Test
+	public void shouldResolveTheConceptsAgainWhenTheDatasetIsExecuted() throws Exception {
+		
+		final Concept concept = this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN);
+		Context.clearSession();
+		
+		this.executeDataSet("prescriptionservice/shouldCreateArvPrescription-dataset.xml");
+		
+		Assert.assertNotSame(concept, this.metadataRegistry.getConcept(MappedConcepts.ARV_PLAN));
+	}
+	
+	/**
+	 * @return the synchronizations registered by the advice of the save, the ones of the test
+	 *         transaction are left out
+	 */
+	private List<TransactionSynchronization> saveConcept(final Concept concept) throws Exception {
+		
+		final List<TransactionSynchronization> before = TransactionSynchronizationManager.getSynchronizations();
+		new MetadataRegistryAdvice().afterReturning(concept,
+		    ConceptService.class.getMethod("saveConcept", Concept.class), new Object[] { concept }, null);
+		
+		final List<TransactionSynchronization> registered = new ArrayList<>(
+		        TransactionSynchronizationManager.getSynchronizations());
+		registered.removeAll(before);
+		return registered;
+	}
+}
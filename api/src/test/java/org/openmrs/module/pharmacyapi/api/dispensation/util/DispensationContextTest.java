@@ -0,0 +1,119 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.util;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.DrugOrder;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationItem;
+import org.openmrs.module.pharmacyapi.api.dispensation.service.DispensationService;
+import org.openmrs.module.pharmacyapi.api.dispensation.validation.LocationDispensationRule;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class DispensationContextTest extends BaseTest {
+	
+	private static final String DATASET = "dispensationservice/shouldDispenseOrdersForArvPrescription-dataset.xml";
+	
+	private static final String ORDER_UUID = "921de0a3-05c4-444a-be03-0001";
+	
+	private static final String PRESCRIPTION_UUID = "eec646cb-c847-4ss-enc-who-adult";
+	
+	private static final String REGIME_UUID = "9dc17c1b-7b6d-488e-a38d-505a7b6xxx1";
+	
+	private static final String UNKNOWN_UUID = "00000000-0000-0000-0000-000000000000";
+	
+	@Autowired
+	private LocationDispensationRule locationDispensationRule;
+	
+	@Test
+	public void shouldLoadTheEntitiesReferencedByTheDispensation() throws Exception {
+		this.executeDataSet(DispensationContextTest.DATASET);
+		
+		final DispensationContext context = Context.getService(DispensationService.class)
+		        .loadDispensationContext(this.createDispensation("8d6c993e-c2cc-11de-8d13-0010c6dffd0f"));
+		
+		Assert.assertEquals(Integer.valueOf(7), context.getPatient().getPatientId());
+		Assert.assertEquals(Integer.valueOf(1), context.getLocation().getLocationId());
+		Assert.assertNotNull(context.getProvider());
+		
+		final DrugOrder drugOrder = context.getDrugOrder(DispensationContextTest.ORDER_UUID);
+		Assert.assertEquals(Integer.valueOf(100), drugOrder.getOrderId());
+		Assert.assertEquals(Integer.valueOf(13), drugOrder.getDrug().getDrugId());
+		Assert.assertEquals(Integer.valueOf(1000),
+		    context.getPrescription(DispensationContextTest.PRESCRIPTION_UUID).getEncounterId());
+		Assert.assertEquals(Integer.valueOf(1100),
+		    context.getRegime(DispensationContextTest.REGIME_UUID).getConceptId());
+		
+		Assert.assertNull(context.getDrugOrder(DispensationContextTest.UNKNOWN_UUID));
+		Assert.assertNull(context.getPrescription(DispensationContextTest.UNKNOWN_UUID));
+		Assert.assertNull(context.getRegime(DispensationContextTest.UNKNOWN_UUID));
+	}
+	
+	@Test
+	public void shouldLoadAnOrderWithoutDrug() throws Exception {
+		this.executeDataSet(DispensationContextTest.DATASET);
+		Context.getAdministrationService()
+		        .executeSQL("update drug_order set drug_inventory_id = null where order_id = 100", false);
+		Context.clearSession();
+		
+		final DispensationContext context = Context.getService(DispensationService.class)
+		        .loadDispensationContext(this.createDispensation("8d6c993e-c2cc-11de-8d13-0010c6dffd0f"));
+		
+		final DrugOrder drugOrder = context.getDrugOrder(DispensationContextTest.ORDER_UUID);
+		Assert.assertNotNull(drugOrder);
+		Assert.assertNull(drugOrder.getDrug());
+	}
+	
+	@Test
+	public void shouldLoadAnEmptyContextForANullDispensation() throws Exception {
+		
+		final DispensationContext context = Context.getService(DispensationService.class)
+		        .loadDispensationContext(null);
+		
+		Assert.assertNull(context.getPatient());
+		Assert.assertNull(context.getLocation());
+		Assert.assertNull(context.getProvider());
+		Assert.assertNull(context.getDrugOrder(DispensationContextTest.ORDER_UUID));
+	}
+	
+	@Test(expected = PharmacyBusinessException.class)
+	public void shouldLoadTheContextOfARuleValidatedOnItsOwn() throws Exception {
+		this.executeDataSet(DispensationContextTest.DATASET);
+		
+		this.locationDispensationRule.validate(this.createDispensation(DispensationContextTest.UNKNOWN_UUID));
+	}
+	
+	private Dispensation createDispensation(final String locationUuid) {
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid("5946f880-b197-400b-9caa-a3c661d23041");
+		dispensation.setLocationUuid(locationUuid);
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setOrderUuid(DispensationContextTest.ORDER_UUID);
+		dispensationItem.setPrescriptionUuid(DispensationContextTest.PRESCRIPTION_UUID);
+		dispensationItem.setRegimeUuid(DispensationContextTest.REGIME_UUID);
+		
+		final DispensationItem unknownItem = new DispensationItem();
+		unknownItem.setOrderUuid(DispensationContextTest.UNKNOWN_UUID);
+		unknownItem.setPrescriptionUuid(DispensationContextTest.UNKNOWN_UUID);
+		unknownItem.setRegimeUuid(DispensationContextTest.UNKNOWN_UUID);
+		
+		dispensation.setDispensationItems(Arrays.asList(dispensationItem, unknownItem));
+		return dispensation;
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DispensationOrderLocksTest {
+	
+	private static final int THREADS = 8;
+	
+	private DispensationOrderLocks dispensationOrderLocks;
+	
+	private ExecutorService executorService;
+	
+	@Before
+	public void setUp() {
+		
+		// a single stripe, so that the parallel dispensations of different orders all share it
+		this.dispensationOrderLocks = new DispensationOrderLocks(1);
+		this.executorService = Executors.newFixedThreadPool(THREADS);
+	}
+	
+	@After
+	public void tearDown() {
+		this.executorService.shutdownNow();
+	}
+	
+	@Test
+	public void shouldLetASingleOfConcurrentDispensationsOfTheSameOrderClaimIt() throws Exception {
+		
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch claimed = new CountDownLatch(THREADS);
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		final List<Future<String>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			
+			futures.add(this.executorService.submit(new Callable<String>() {
+				
+				@Override
+				public String call() throws Exception {
+					
+					start.await();
+					final String lockedOrderUuid = DispensationOrderLocksTest.this.dispensationOrderLocks
+					        .tryClaim(Arrays.asList("order-1", "order-2"));
+					claimed.countDown();
+					
+					// the claim is held as if the dispensation was still writing
+					release.await();
+					DispensationOrderLocksTest.this.dispensationOrderLocks
+					        .release(Arrays.asList("order-1", "order-2"));
+					return lockedOrderUuid;
+				}
+			}));
+		}
+		
+		start.countDown();
+		Assert.assertTrue(claimed.await(10, TimeUnit.SECONDS));
+		release.countDown();
+		
+		int successes = 0;
+		for (final Future<String> future : futures) {
+			
+			final String lockedOrderUuid = future.get(10, TimeUnit.SECONDS);
+			if (lockedOrderUuid == null) {
+				successes++;
+			} else {
+				Assert.assertEquals("order-1", lockedOrderUuid);
+			}
+		}
+		Assert.assertEquals(1, successes);
+		Assert.assertNull(this.dispensationOrderLocks.tryClaim(Arrays.asList("order-1", "order-2")));
+	}
+	
+	@Test
+	public void shouldClaimTheOrdersOfUnrelatedPatientsInParallel() throws Exception {
+		
+		// every thread holds its claim until all of them claimed, none may fail or wait for another
+		final CyclicBarrier allClaimed = new CyclicBarrier(THREADS);
+		
+		final List<Future<String>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			
+			final List<String> orderUuids = Arrays.asList("patient-" + i + "-order-1", "patient-" + i + "-order-2");
+			futures.add(this.executorService.submit(new Callable<String>() {
+				
+				@Override
+				public String call() throws Exception {
+					
+					final String lockedOrderUuid = DispensationOrderLocksTest.this.dispensationOrderLocks
+					        .tryClaim(orderUuids);
+					allClaimed.await(10, TimeUnit.SECONDS);
+					DispensationOrderLocksTest.this.dispensationOrderLocks.release(orderUuids);
+					return lockedOrderUuid;
+				}
+			}));
+		}
+		
+		for (final Future<String> future : futures) {
+			Assert.assertNull(future.get(10, TimeUnit.SECONDS));
+		}
+	}
+	
+	@Test
+	public void shouldReleaseTheOrdersOfARejectedClaim() throws Exception {
+		
+		Assert.assertNull(this.dispensationOrderLocks.tryClaim(Collections.singletonList("order-2")));
+		
+		final Future<String> rejected = this.executorService.submit(new Callable<String>() {
+			
+			@Override
+			public String call() {
+				return DispensationOrderLocksTest.this.dispensationOrderLocks
+				        .tryClaim(Arrays.asList("order-1", "order-2"));
+			}
+		});
+		Assert.assertEquals("order-2", rejected.get(10, TimeUnit.SECONDS));
+		
+		// order-1 was claimed before order-2 was found locked, the rejected claim gave it back
+		Assert.assertNull(this.dispensationOrderLocks.tryClaim(Collections.singletonList("order-1")));
+	}
+	
+	@Test
+	public void shouldLetTheOwnerClaimItsOrdersAgain() throws Exception {
+		
+		Assert.assertNull(this.dispensationOrderLocks.tryClaim(Collections.singletonList("order-1")));
+		Assert.assertNull(this.dispensationOrderLocks.tryClaim(Arrays.asList("order-1", "order-2")));
+		
+		this.dispensationOrderLocks.release(Arrays.asList("order-1", "order-2"));
+		
+		final Future<String> claim = this.executorService.submit(new Callable<String>() {
+			
+			@Override
+			public String call() {
+				return DispensationOrderLocksTest.this.dispensationOrderLocks
+				        .tryClaim(Arrays.asList("order-1", "order-2"));
+			}
+		});
+		Assert.assertNull(claim.get(10, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.api.dispensation.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Drug;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Changes the batches behind the cache with plain SQL, the cached stock of a drug is only read again
+ * once the change of that drug commits.
+ */
+public class StockAvailabilityCacheTest extends BaseTest {
+	
+	private static final String DATASET = "dispensationservice/shouldDispenseOrdersForArvPrescription-dataset.xml";
+	
+	private static final Date DATE = new GregorianCalendar(2005, Calendar.JANUARY, 1).getTime();
+	
+	@Autowired
+	private StockAvailabilityCache stockAvailabilityCache;
+	
+	private Location location;
+	
+	private Drug arvDrug;
+	
+	private Drug otherDrug;
+	
+	@Test
+	public void shouldOnlyReadAgainTheDrugsChangedOnceTheChangeCommits() throws Exception {
+		
+		this.loadStock();
+		Assert.assertEquals(Arrays.asList(this.otherDrug), this.findDrugsWithoutStock());
+		
+		this.expireTheBatchOfTheArvDrug();
+		this.addABatchOfTheOtherDrug();
+		Assert.assertEquals(Arrays.asList(this.otherDrug), this.findDrugsWithoutStock());
+		
+		final List<TransactionSynchronization> synchronizations = this.invalidateOnCommit(this.otherDrug);
+		Assert.assertEquals(Arrays.asList(this.otherDrug), this.findDrugsWithoutStock());
+		
+		for (final TransactionSynchronization synchronization : synchronizations) {
+			synchronization.afterCommit();
+		}
+		Assert.assertEquals(Collections.emptyList(), this.findDrugsWithoutStock());
+		
+		for (final TransactionSynchronization synchronization : this.invalidateOnCommit(this.arvDrug)) {
+			synchronization.afterCommit();
+		}
+		Assert.assertEquals(Arrays.asList(this.arvDrug), this.findDrugsWithoutStock());
+	}
+	
+	@Test
+	public void shouldKeepTheStockOfTheDrugsWhenTheChangeRollsBack() throws Exception {
+		
+		this.loadStock();
+		Assert.assertEquals(Arrays.asList(this.otherDrug), this.findDrugsWithoutStock());
+		
+		this.expireTheBatchOfTheArvDrug();
+		for (final TransactionSynchronization synchronization : this.invalidateOnCommit(this.arvDrug)) {
+			synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+		}
+		
+		Assert.assertEquals(Arrays.asList(this.otherDrug), this.findDrugsWithoutStock());
+	}
+	
+	private void loadStock() throws Exception {
+		
+		this.executeDataSet(StockAvailabilityCacheTest.DATASET);
+		
+		this.location = Context.getLocationService().getLocation(1);
+		this.arvDrug = Context.getConceptService().getDrug(13);
+		this.otherDrug = Context.getConceptService().getDrug(3);
+	}
+	
+	private List<Drug> findDrugsWithoutStock() {
+		
+		return this.stockAvailabilityCache.findDrugsWithoutStock(this.location,
+		    Arrays.asList(this.arvDrug, this.otherDrug), StockAvailabilityCacheTest.DATE);
+	}
+	
+	/**
+	 * @return the synchronizations registered by the invalidation, the ones of the test transaction
+	 *         are left out
+	 */
+	private List<TransactionSynchronization> invalidateOnCommit(final Drug drug) {
+		
+		final List<TransactionSynchronization> before = TransactionSynchronizationManager.getSynchronizations();
+		this.stockAvailabilityCache.invalidateOnCommit(this.location, Arrays.asList(drug));
+		
+		final List<TransactionSynchronization> registered = new ArrayList<>(
+		        TransactionSynchronizationManager.getSynchronizations());
+		registered.removeAll(before);
+		return registered;
+	}
+	
+	private void expireTheBatchOfTheArvDrug() {
+		
+		Context.getAdministrationService()
+		        .executeSQL("update pocinv_batch set expire_date = '2004-06-01 00:00:00' where batch_id = 1", false);
+	}
+	
+	private void addABatchOfTheOtherDrug() {
+		
+		Context.getAdministrationService().executeSQL(
+		    "insert into pocinv_drug_package (drug_package_id, barcode, drug_id, uuid, creator, date_created, retired) "
+		            + "values (2, '15F05', 3, '6041ccfd-b871-4fda-847b-97f5d6445002', 1, '2005-01-01 00:00:00', false)",
+		    false);
+		Context.getAdministrationService()
+		        .executeSQL("insert into pocinv_batch (batch_id, drug_package_id, location_id, expire_date, "
+		                + "package_quantity, package_quantity_units, remain_package_quantity_units, "
+		                + "unbalanced_units_quantity, uuid, creator, date_created, retired) values (2, 2, 1, "
+		                + "'2005-02-01 00:00:00', 1, 10, 10, 0, '6041ccfd-b871-4fda-847b-97f5d6445003', 1, "
+		                + "'2004-01-01 00:00:00', false)", false);
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.api.drugitem.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import javax.transaction.Synchronization;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.hibernate.Transaction;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptName;
+import org.openmrs.Drug;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugItemService;
+import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugWrapperService;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Changes a drug, the FNM code of a drug item and the names of a concept through Hibernate, the
+ * index only reads them again once the transaction reported to the interceptor commits.
+ */
+public class DrugSearchIndexInterceptorTest extends BaseTest {
+	
+	private static final String DATASET = "dispensationservice/shouldDispenseOrdersForArvPrescription-dataset.xml";
+	
+	@Autowired
+	private DrugSearchIndexInterceptor drugSearchIndexInterceptor;
+	
+	@Test
+	public void shouldReloadTheChangedDrugsOnceTheTransactionCommits() throws Exception {
+		
+		this.executeDataSet(DrugSearchIndexInterceptorTest.DATASET);
+		this.assertNotFound("pediatrico", "15f99", "acetilsalicilico");
+		
+		final Drug drug = this.changeDrugs();
+		this.assertNotFound("pediatrico", "15f99", "acetilsalicilico");
+		
+		this.drugSearchIndexInterceptor.afterTransactionCompletion(new CompletedTransaction(true));
+		
+		final DrugWrapperService drugWrapperService = Context.getService(DrugWrapperService.class);
+		MatcherAssert.assertThat(drugWrapperService.findDrugsByNameLike("pediatrico"), Matchers.contains(drug));
+		MatcherAssert.assertThat(drugWrapperService.findDrugsByNameLike("15f99"),
+		    Matchers.contains(Context.getConceptService().getDrug(13)));
+		MatcherAssert.assertThat(drugWrapperService.findDrugsByNameLike("acetilsalicilico"),
+		    Matchers.contains(Context.getConceptService().getDrug(3)));
+	}
+	
+	@Test
+	public void shouldDropTheChangesOfATransactionRolledBack() throws Exception {
+		
+		this.executeDataSet(DrugSearchIndexInterceptorTest.DATASET);
+		this.assertNotFound("pediatrico", "15f99", "acetilsalicilico");
+		
+		this.changeDrugs();
+		this.drugSearchIndexInterceptor.afterTransactionCompletion(new CompletedTransaction(false));
+		this.drugSearchIndexInterceptor.afterTransactionCompletion(new CompletedTransaction(true));
+		
+		this.assertNotFound("pediatrico", "15f99", "acetilsalicilico");
+	}
+	
+	/**
+	 * @return the drug inserted
+	 */
+	private Drug changeDrugs() throws Exception {
+		
+		final Drug drug = new Drug();
+		drug.setName("Cotrimoxazol Pediátrico");
+		drug.setConcept(Context.getConceptService().getConcept(792));
+		Context.getConceptService().saveDrug(drug);
+		
+		Context.getService(DrugItemService.class).findDrugItemByDrugId(13).setFnmCode("15F99");
+		
+		final Concept concept = Context.getConceptService().getConcept(88);
+		concept.addName(new ConceptName("Ácido Acetilsalicílico", Locale.ENGLISH));
+		Context.getConceptService().saveConcept(concept);
+		
+		Context.flushSession();
+		return drug;
+	}
+	
+	private void assertNotFound(final String... phrases) {
+		
+		final DrugWrapperService drugWrapperService = Context.getService(DrugWrapperService.class);
+		for (final String phrase : Arrays.asList(phrases)) {
+			Assert.assertTrue(phrase, drugWrapperService.findDrugsByNameLike(phrase).isEmpty());
+		}
+	}
+	
+	/**
+	 * A transaction already completed, as the interceptor is told of it
+	 */
+	private static final class CompletedTransaction implements Transaction {
+		
+		private final boolean committed;
+		
+		private CompletedTransaction(final boolean committed) {
+			this.committed = committed;
+		}
+		
+		@Override
+		public void begin() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public void commit() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public void rollback() {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public boolean wasRolledBack() {
+			return !this.committed;
+		}
+		
+		@Override
+		public boolean wasCommitted() {
+			return this.committed;
+		}
+		
+		@Override
+		public boolean isActive() {
+			return false;
+		}
+		
+		@Override
+		public void registerSynchronization(final Synchronization synchronization) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public void setTimeout(final int seconds) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
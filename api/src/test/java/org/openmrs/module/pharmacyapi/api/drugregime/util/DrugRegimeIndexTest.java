@@ -0,0 +1,148 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.api.drugregime.util;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Drug;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
+import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugItemService;
+import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Adds the drug 13 to the regime 1002 through Hibernate, the index only reads it once the
+ * interceptor reports the change.
+ */
+public class DrugRegimeIndexTest extends BaseTest {
+	
+	private static final String DATASET = "drugregimeservice/shouldPageTheDrugCatalog-dataset.xml";
+	
+	@Autowired
+	private DrugRegimeIndex drugRegimeIndex;
+	
+	@Autowired
+	private DrugRegimeIndexInterceptor drugRegimeIndexInterceptor;
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	@Test
+	public void shouldTellTheDrugsOfTheRegimes() throws Exception {
+		
+		this.executeDataSet(DrugRegimeIndexTest.DATASET);
+		
+		Assert.assertTrue(this.drugRegimeIndex.isMember(1100, 13));
+		Assert.assertTrue(this.drugRegimeIndex.isMember(1100, 2));
+		Assert.assertTrue(this.drugRegimeIndex.isMember(1100, 3));
+		Assert.assertFalse(this.drugRegimeIndex.isMember(1100, 11));
+		Assert.assertFalse(this.drugRegimeIndex.isMember(1002, 13));
+		
+		Assert.assertTrue(this.drugRegimeIndex.isArvDrug(Context.getConceptService().getDrug(13)));
+		Assert.assertFalse(this.drugRegimeIndex.isArvDrug(Context.getConceptService().getDrug(3)));
+	}
+	
+	@Test
+	public void shouldReadTheRegimesAgainOnceTheInterceptorSeesTheChange() throws Exception {
+		
+		this.executeDataSet(DrugRegimeIndexTest.DATASET);
+		Assert.assertFalse(this.drugRegimeIndex.isMember(1002, 13));
+		
+		this.addDrugToRegime();
+		Assert.assertFalse(this.drugRegimeIndex.isMember(1002, 13));
+		
+		this.drugRegimeIndexInterceptor.afterTransactionCompletion(null);
+		Assert.assertTrue(this.drugRegimeIndex.isMember(1002, 13));
+	}
+	
+	@Test
+	public void shouldKeepReadingThePreviousRegimesWhileAnotherThreadReadsThem() throws Exception {
+		
+		this.executeDataSet(DrugRegimeIndexTest.DATASET);
+		Assert.assertFalse(this.drugRegimeIndex.isMember(1002, 13));
+		
+		this.addDrugToRegime();
+		this.drugRegimeIndex.invalidate();
+		
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Thread rebuilding = new Thread() {
+			
+			@Override
+			public void run() {
+				
+				DrugRegimeIndexTest.this.drugRegimeIndex.rebuildLock.lock();
+				try {
+					locked.countDown();
+					release.await();
+				}
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				finally {
+					DrugRegimeIndexTest.this.drugRegimeIndex.rebuildLock.unlock();
+				}
+			}
+		};
+		rebuilding.start();
+		locked.await();
+		
+		try {
+			Assert.assertFalse(this.drugRegimeIndex.isMember(1002, 13));
+		}
+		finally {
+			release.countDown();
+			rebuilding.join();
+		}
+		Assert.assertTrue(this.drugRegimeIndex.isMember(1002, 13));
+	}
+	
+	@Test
+	public void shouldLoadTheDrugsWithTheRegimes() throws Exception {
+		
+		this.executeDataSet(DrugRegimeIndexTest.DATASET);
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		final boolean statisticsEnabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		
+		try {
+			Context.clearSession();
+			this.sessionFactory.getCache().evictEntityRegions();
+			statistics.clear();
+			
+			this.drugRegimeIndex.rebuild();
+			
+			Assert.assertEquals(1, statistics.getQueryExecutionCount());
+			Assert.assertEquals(0, statistics.getEntityStatistics(DrugItem.class.getName()).getFetchCount());
+			Assert.assertEquals(0, statistics.getEntityStatistics(Drug.class.getName()).getFetchCount());
+			Assert.assertEquals(3, statistics.getEntityStatistics(DrugRegime.class.getName()).getLoadCount());
+		}
+		finally {
+			statistics.setStatisticsEnabled(statisticsEnabled);
+		}
+	}
+	
+	private void addDrugToRegime() {
+		
+		final DrugRegime drugRegime = new DrugRegime();
+		drugRegime.setRegime(Context.getConceptService().getConcept(1002));
+		drugRegime.setDrugItem(Context.getService(DrugItemService.class).findDrugItemByDrugId(13));
+		
+		this.sessionFactory.getCurrentSession().save(drugRegime);
+		Context.flushSession();
+	}
+}
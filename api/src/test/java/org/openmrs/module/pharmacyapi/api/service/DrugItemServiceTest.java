@@ -9,6 +9,57 @@
  */
 package org.openmrs.module.pharmacyapi.api.service;
 
-public class DrugItemServiceTest {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
+import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugItemService;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+
+public class DrugItemServiceTest extends BaseTest {
+	
+	private static final String DATASET = "drugregimeservice/shouldPageTheDrugCatalog-dataset.xml";
+	
+	@Test
+	public void shouldPageTheDrugItemsNotRetired() throws Exception {
+		this.executeDataSet(DrugItemServiceTest.DATASET);
+		
+		final DrugItemService drugItemService = Context.getService(DrugItemService.class);
+		
+		final PagedResult<DrugItem> firstPage = drugItemService.findAllDrugItem(false, 0, 1, true);
+		Assert.assertEquals(Arrays.asList(2), this.getDrugIds(firstPage.getResults()));
+		Assert.assertTrue(firstPage.hasMoreResults());
+		Assert.assertEquals(Long.valueOf(2), firstPage.getTotalCount());
+		
+		final PagedResult<DrugItem> lastPage = drugItemService.findAllDrugItem(false, 1, 1, false);
+		Assert.assertEquals(Arrays.asList(13), this.getDrugIds(lastPage.getResults()));
+		Assert.assertFalse(lastPage.hasMoreResults());
+		Assert.assertNull(lastPage.getTotalCount());
+	}
+	
+	@Test
+	public void shouldPageTheRetiredDrugItemsWhenAsked() throws Exception {
+		this.executeDataSet(DrugItemServiceTest.DATASET);
+		
+		final PagedResult<DrugItem> drugItems = Context.getService(DrugItemService.class).findAllDrugItem(true, 0, 5,
+		    true);
+		
+		Assert.assertEquals(Arrays.asList(2, 3, 13), this.getDrugIds(drugItems.getResults()));
+		Assert.assertFalse(drugItems.hasMoreResults());
+		Assert.assertEquals(Long.valueOf(3), drugItems.getTotalCount());
+	}
 	
+	private List<Integer> getDrugIds(final List<DrugItem> drugItems) {
+		
+		final List<Integer> drugIds = new ArrayList<>();
+		for (final DrugItem drugItem : drugItems) {
+			drugIds.add(drugItem.getDrug().getDrugId());
+		}
+		return drugIds;
+	}
 }
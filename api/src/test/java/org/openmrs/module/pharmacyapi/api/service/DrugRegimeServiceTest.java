@@ -9,15 +9,24 @@
  */
 package org.openmrs.module.pharmacyapi.api.service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Drug;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
 import org.openmrs.module.pharmacyapi.api.drugregime.service.DrugRegimeService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 
 public class DrugRegimeServiceTest extends BaseModuleContextSensitiveTest {
 	
+	private static final String DATASET = "drugregimeservice/shouldPageTheDrugCatalog-dataset.xml";
+	
 	private DrugRegimeService drugRegimeService;
 	
 	@Before
@@ -31,4 +40,54 @@ public class DrugRegimeServiceTest extends BaseModuleContextSensitiveTest {
 		
 		Assert.assertNotNull(this.drugRegimeService);
 	}
+	
+	@Test
+	public void shouldPageTheDrugRegimesNotRetired() throws Exception {
+		this.executeDataSet(DrugRegimeServiceTest.DATASET);
+		
+		final PagedResult<DrugRegime> firstPage = this.drugRegimeService.findAllDrugRegimes(false, 0, 1, true);
+		Assert.assertEquals(Arrays.asList(1), this.getIds(firstPage.getResults()));
+		Assert.assertTrue(firstPage.hasMoreResults());
+		Assert.assertEquals(Long.valueOf(2), firstPage.getTotalCount());
+		
+		final PagedResult<DrugRegime> lastPage = this.drugRegimeService.findAllDrugRegimes(false, 1, 1, false);
+		Assert.assertEquals(Arrays.asList(3), this.getIds(lastPage.getResults()));
+		Assert.assertFalse(lastPage.hasMoreResults());
+		Assert.assertNull(lastPage.getTotalCount());
+	}
+	
+	@Test
+	public void shouldPageTheRetiredDrugRegimesWhenAsked() throws Exception {
+		this.executeDataSet(DrugRegimeServiceTest.DATASET);
+		
+		final PagedResult<DrugRegime> drugRegimes = this.drugRegimeService.findAllDrugRegimes(true, 1, 5, true);
+		
+		Assert.assertEquals(Arrays.asList(2, 3), this.getIds(drugRegimes.getResults()));
+		Assert.assertFalse(drugRegimes.hasMoreResults());
+		Assert.assertEquals(Long.valueOf(3), drugRegimes.getTotalCount());
+	}
+	
+	@Test
+	public void shouldPageTheArvDrugsOfTheRegimesNotRetired() throws Exception {
+		this.executeDataSet(DrugRegimeServiceTest.DATASET);
+		
+		final PagedResult<Drug> firstPage = this.drugRegimeService.findArvDrugs(0, 1, true);
+		Assert.assertEquals(Arrays.asList(Context.getConceptService().getDrug(13)), firstPage.getResults());
+		Assert.assertTrue(firstPage.hasMoreResults());
+		Assert.assertEquals(Long.valueOf(2), firstPage.getTotalCount());
+		
+		final PagedResult<Drug> lastPage = this.drugRegimeService.findArvDrugs(1, 1, false);
+		Assert.assertEquals(Arrays.asList(Context.getConceptService().getDrug(2)), lastPage.getResults());
+		Assert.assertFalse(lastPage.hasMoreResults());
+		Assert.assertNull(lastPage.getTotalCount());
+	}
+	
+	private List<Integer> getIds(final List<DrugRegime> drugRegimes) {
+		
+		final List<Integer> ids = new ArrayList<>();
+		for (final DrugRegime drugRegime : drugRegimes) {
+			ids.add(drugRegime.getId());
+		}
+		return ids;
+	}
 }
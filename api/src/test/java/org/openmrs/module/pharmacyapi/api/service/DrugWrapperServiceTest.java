@@ -0,0 +1,142 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Drug;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugWrapperService;
+import org.openmrs.module.pharmacyapi.api.drugitem.util.DrugSearchIndex;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class DrugWrapperServiceTest extends BaseTest {
+	
+	@Autowired
+	private DrugSearchIndex drugSearchIndex;
+	
+	@Test
+	public void shouldFindDrugsByThePrefixOfTheirName() {
+		
+		final List<Drug> drugs = Context.getService(DrugWrapperService.class).findDrugsByNameLike("trio");
+		
+		Assert.assertFalse(drugs.isEmpty());
+		Assert.assertEquals("Triomune-30", drugs.get(0).getName());
+	}
+	
+	@Test
+	public void shouldFindDrugsByAPartOfAWordOfTheirName() {
+		
+		final List<Drug> drugs = Context.getService(DrugWrapperService.class).findDrugsByNameLike("mune");
+		
+		MatcherAssert.assertThat(drugs, Matchers.contains(Context.getConceptService().getDrug(2)));
+	}
+	
+	@Test
+	public void shouldFindDrugsByTheNamesOfTheirConcept() {
+		
+		final List<Drug> drugs = Context.getService(DrugWrapperService.class).findDrugsByNameLike("stavudine");
+		
+		MatcherAssert.assertThat(drugs, Matchers.contains(Context.getConceptService().getDrug(2)));
+	}
+	
+	@Test
+	public void shouldFindDrugsByTheFnmCodeOfTheirItem() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseOrdersForArvPrescription-dataset.xml");
+		
+		final List<Drug> drugs = Context.getService(DrugWrapperService.class).findDrugsByNameLike("15f04");
+		
+		MatcherAssert.assertThat(drugs, Matchers.contains(Context.getConceptService().getDrug(13)));
+	}
+	
+	@Test
+	public void shouldFindChangedDrugsIgnoringAccentsAndCase() {
+		
+		final DrugWrapperService drugWrapperService = Context.getService(DrugWrapperService.class);
+		Assert.assertTrue(drugWrapperService.findDrugsByNameLike("pediatrico").isEmpty());
+		
+		final Drug drug = this.saveDrug("Cotrimoxazol Pediátrico", 88);
+		
+		MatcherAssert.assertThat(drugWrapperService.findDrugsByNameLike("PEDIATRICO"), Matchers.contains(drug));
+		MatcherAssert.assertThat(drugWrapperService.findDrugsByNameLike("cotrimoxazol pediátr"),
+		    Matchers.contains(drug));
+	}
+	
+	@Test
+	public void shouldRankTheDrugsNamedAsThePhraseFirst() {
+		
+		final Drug drug = this.saveDrug("Baby Aspirin", 792);
+		
+		final List<Drug> drugs = Context.getService(DrugWrapperService.class).findDrugsByNameLike("aspirin");
+		
+		Assert.assertEquals(Arrays.asList(Context.getConceptService().getDrug(3), drug), drugs);
+	}
+	
+	@Test
+	public void shouldNotFindRetiredDrugs() {
+		
+		Assert.assertTrue(Context.getService(DrugWrapperService.class).findDrugsByNameLike("nyquil").isEmpty());
+	}
+	
+	@Test
+	public void shouldPageTheRankedDrugs() {
+		
+		final Drug drug = this.saveDrug("Baby Aspirin", 792);
+		
+		final PagedResult<Drug> drugs = Context.getService(DrugWrapperService.class).findDrugsByNameLike("aspirin",
+		    1, 1, true);
+		
+		Assert.assertEquals(Arrays.asList(drug), drugs.getResults());
+		Assert.assertFalse(drugs.hasMoreResults());
+		Assert.assertEquals(Long.valueOf(2), drugs.getTotalCount());
+		
+		final PagedResult<Drug> firstPage = Context.getService(DrugWrapperService.class)
+		        .findDrugsByNameLike("aspirin", 0, 1, false);
+		
+		Assert.assertEquals(Arrays.asList(Context.getConceptService().getDrug(3)), firstPage.getResults());
+		Assert.assertTrue(firstPage.hasMoreResults());
+		Assert.assertNull(firstPage.getTotalCount());
+	}
+	
+	@Test
+	public void shouldNotPageTheDrugsOfAPhraseTooShort() {
+		
+		final PagedResult<Drug> drugs = Context.getService(DrugWrapperService.class).findDrugsByNameLike("as", 0, 10,
+		    true);
+		
+		Assert.assertTrue(drugs.getResults().isEmpty());
+		Assert.assertFalse(drugs.hasMoreResults());
+		Assert.assertEquals(Long.valueOf(0), drugs.getTotalCount());
+	}
+	
+	private Drug saveDrug(final String name, final int conceptId) {
+		
+		final Drug drug = new Drug();
+		drug.setName(name);
+		drug.setConcept(Context.getConceptService().getConcept(conceptId));
+		Context.getConceptService().saveDrug(drug);
+		Context.flushSession();
+		
+		// the test transaction is never completed, so the change is reported by hand
+		this.drugSearchIndex.markChanged(Arrays.asList(drug.getDrugId()), Collections.<Integer> emptyList());
+		return drug;
+	}
+}
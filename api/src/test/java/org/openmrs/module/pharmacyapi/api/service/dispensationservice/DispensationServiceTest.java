@@ -12,36 +12,68 @@
  */
 package org.openmrs.module.pharmacyapi.api.service.dispensationservice;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.TransformerUtils;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.hamcrest.collection.IsCollectionWithSize;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Assert;
 import org.junit.Test;
 import org.openmrs.Concept;
+import org.openmrs.DrugOrder;
 import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.Patient;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.OpenMRSPharmacyModuleConfig;
+import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.common.util.CatalogCache;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedEncounters;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationItem;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationResult;
 import org.openmrs.module.pharmacyapi.api.dispensation.service.DispensationService;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.DispensationOrderLocks;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry.FilaOutboxStatus;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.service.FilaOutboxService;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
 import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service.PrescriptionDispensationService;
 import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * @author Stélio Moiane
  */
 public class DispensationServiceTest extends BaseTest {
 	
+	private static final String PATIENT_7 = "5946f880-b197-400b-9caa-a3c661d23041";
+	
+	private static final String PATIENT_2 = "da7f524f-27ce-4bb2-86d6-6d1d05312bd5";
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	@Autowired
+	private CatalogCache catalogCache;
+	
+	@Autowired
+	private DispensationOrderLocks dispensationOrderLocks;
+	
 	@SuppressWarnings("unchecked")
 	@Test
 	public void shouldDispenseOrdersForNonArvPrescription() throws Exception {
@@ -99,6 +131,226 @@ public class DispensationServiceTest extends BaseTest {
 		    MappedConcepts.MEDICATION_QUANTITY, MappedConcepts.DATE_OF_NEXT_PICK_UP));
 	}
 	
+	@Test
+	public void shouldInsertTheDispensationEncounterWithItsOrderAndObsWithoutUpdatingThem() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseOrdersForNonArvPrescription-dataset.xml");
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(2005, Calendar.JANUARY, 1);
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid(DispensationServiceTest.PATIENT_7);
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(calendar.getTime());
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setQuantityDispensed(0d);
+		dispensationItem.setQuantityToDispense(3d);
+		dispensationItem.setOrderUuid("921de0a3-05c4-444a-be03-0001");
+		dispensationItem.setPrescriptionUuid("eec646cb-c847-4ss-enc-who-adult");
+		dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		final boolean statisticsEnabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		
+		try {
+			Context.flushSession();
+			statistics.clear();
+			
+			Context.getService(DispensationService.class).dispense(dispensation);
+			
+			// the encounter used to be saved a second time to save its obs, which updated it
+			Assert.assertEquals(1, statistics.getEntityStatistics(Encounter.class.getName()).getInsertCount());
+			Assert.assertEquals(0, statistics.getEntityStatistics(Encounter.class.getName()).getUpdateCount());
+			Assert.assertEquals(1, statistics.getEntityStatistics(DrugOrder.class.getName()).getInsertCount());
+			Assert.assertEquals(3, statistics.getEntityStatistics(Obs.class.getName()).getInsertCount());
+			Assert.assertEquals(0, statistics.getEntityStatistics(Obs.class.getName()).getUpdateCount());
+		}
+		finally {
+			statistics.setStatisticsEnabled(statisticsEnabled);
+		}
+	}
+	
+	@Test
+	public void shouldDispenseAllReportingADispensationOfAnOrderAlreadyInTheBatch() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseOrdersForNonArvPrescription-dataset.xml");
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.YEAR, 2005);
+		calendar.set(Calendar.MONTH, 0);
+		calendar.set(Calendar.DAY_OF_MONTH, 1);
+		
+		final List<Dispensation> dispensations = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			
+			final Dispensation dispensation = new Dispensation();
+			dispensation.setPatientUuid("5946f880-b197-400b-9caa-a3c661d23041");
+			dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+			dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+			dispensation.setDispensationDate(calendar.getTime());
+			final DispensationItem dispensationItem = new DispensationItem();
+			dispensationItem.setQuantityDispensed(0d);
+			dispensationItem.setQuantityToDispense(3d);
+			dispensationItem.setOrderUuid("921de0a3-05c4-444a-be03-0001");
+			dispensationItem.setPrescriptionUuid("eec646cb-c847-4ss-enc-who-adult");
+			dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+			dispensations.add(dispensation);
+		}
+		
+		final List<DispensationResult> results = Context.getService(DispensationService.class)
+		        .dispenseAll(dispensations);
+		
+		MatcherAssert.assertThat(results, IsCollectionWithSize.hasSize(2));
+		Assert.assertTrue(results.get(0).isSuccessful());
+		Assert.assertFalse(results.get(1).isSuccessful());
+		Assert.assertNotNull(results.get(1).getErrorMessage());
+		
+		final List<PrescriptionDispensation> prescriptionDispensations = Context
+		        .getService(PrescriptionDispensationService.class)
+		        .findPrescriptionDispensationByPrescription(new Encounter(1000));
+		
+		Assert.assertEquals(1, prescriptionDispensations.size());
+	}
+	
+	@Test
+	public void shouldDispenseAllTheValidDispensationsOfAMixedBatch() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseAllOrdersSharingTheStock-dataset.xml");
+		
+		final List<Dispensation> dispensations = Arrays.asList(
+		    this.createDispensation(DispensationServiceTest.PATIENT_7, "921de0a3-05c4-444a-be03-0001",
+		        "eec646cb-c847-4ss-enc-who-adult", 3d),
+		    this.createDispensation(DispensationServiceTest.PATIENT_7, "921de0a3-05c4-444a-be03-9999",
+		        "eec646cb-c847-4ss-enc-who-adult", 3d),
+		    this.createDispensation(DispensationServiceTest.PATIENT_2, "921de0a3-05c4-444a-be03-0002",
+		        "eec646cb-c847-4ss-enc-who-adult-2", 3d));
+		
+		final List<DispensationResult> results = Context.getService(DispensationService.class)
+		        .dispenseAll(dispensations);
+		
+		Assert.assertTrue(results.get(0).isSuccessful());
+		Assert.assertFalse(results.get(1).isSuccessful());
+		Assert.assertTrue(results.get(2).isSuccessful());
+		
+		final PrescriptionDispensationService prescriptionDispensationService = Context
+		        .getService(PrescriptionDispensationService.class);
+		Assert.assertEquals(1,
+		    prescriptionDispensationService.findPrescriptionDispensationByPrescription(new Encounter(1000)).size());
+		Assert.assertEquals(1,
+		    prescriptionDispensationService.findPrescriptionDispensationByPrescription(new Encounter(1001)).size());
+	}
+	
+	@Test
+	public void shouldNotDispenseAllTheUnitsOfTheStockTwice() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseAllOrdersSharingTheStock-dataset.xml");
+		
+		// the batch of the location has 10 units, the two dispensations take 6 each
+		final List<Dispensation> dispensations = Arrays.asList(
+		    this.createDispensation(DispensationServiceTest.PATIENT_7, "921de0a3-05c4-444a-be03-0001",
+		        "eec646cb-c847-4ss-enc-who-adult", 6d),
+		    this.createDispensation(DispensationServiceTest.PATIENT_2, "921de0a3-05c4-444a-be03-0002",
+		        "eec646cb-c847-4ss-enc-who-adult-2", 6d));
+		
+		final List<DispensationResult> results = Context.getService(DispensationService.class)
+		        .dispenseAll(dispensations);
+		
+		Assert.assertTrue(results.get(0).isSuccessful());
+		Assert.assertFalse(results.get(1).isSuccessful());
+		Assert.assertNotNull(results.get(1).getErrorMessage());
+		
+		Assert.assertTrue(Context.getService(PrescriptionDispensationService.class)
+		        .findPrescriptionDispensationByPrescription(new Encounter(1001)).isEmpty());
+	}
+	
+	@Test
+	public void shouldDispenseAllClaimingTheOrdersBeforeValidatingThem() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseAllOrdersSharingTheStock-dataset.xml");
+		
+		final String orderUuid = "921de0a3-05c4-444a-be03-0001";
+		final Thread pharmacist = this.claimInAnotherThread(orderUuid);
+		try {
+			
+			// more units than the stock has, the claim is the first to fail
+			final List<DispensationResult> results = Context.getService(DispensationService.class).dispenseAll(
+			    Arrays.asList(this.createDispensation(DispensationServiceTest.PATIENT_7, orderUuid,
+			        "eec646cb-c847-4ss-enc-who-adult", 60d)));
+			
+			Assert.assertFalse(results.get(0).isSuccessful());
+			Assert.assertEquals(Context.getMessageSourceService().getMessage(
+			    "pharmacyapi.error.dispensation.order.being.dispensed", new Object[] { orderUuid }, Context.getLocale()),
+			    results.get(0).getErrorMessage());
+		}
+		finally {
+			pharmacist.interrupt();
+			pharmacist.join();
+		}
+	}
+	
+	@Test(expected = PharmacyBusinessException.class)
+	public void shouldNotDispenseAnOrderAlreadyDispensed() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseOrdersForNonArvPrescription-dataset.xml");
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.YEAR, 2005);
+		calendar.set(Calendar.MONTH, 0);
+		calendar.set(Calendar.DAY_OF_MONTH, 1);
+		
+		for (int i = 0; i < 2; i++) {
+			
+			final Dispensation dispensation = new Dispensation();
+			dispensation.setPatientUuid("5946f880-b197-400b-9caa-a3c661d23041");
+			dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+			dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+			dispensation.setDispensationDate(calendar.getTime());
+			final DispensationItem dispensationItem = new DispensationItem();
+			dispensationItem.setQuantityDispensed(0d);
+			dispensationItem.setQuantityToDispense(3d);
+			dispensationItem.setOrderUuid("921de0a3-05c4-444a-be03-0001");
+			dispensationItem.setPrescriptionUuid("eec646cb-c847-4ss-enc-who-adult");
+			dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+			
+			Context.getService(DispensationService.class).dispense(dispensation);
+		}
+	}
+	
+	@Test(expected = PharmacyBusinessException.class)
+	public void shouldRejectANullDispensation() throws Exception {
+		
+		Context.getService(DispensationService.class).dispense(null);
+	}
+	
+	@Test(expected = PharmacyBusinessException.class)
+	public void shouldNotCancelAnOrderOfAnotherPatient() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseOrdersForNonArvPrescription-dataset.xml");
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid("da7f524f-27ce-4bb2-86d6-6d1d05312bd5");
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(new Date());
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setOrderUuid("921de0a3-05c4-444a-be03-0001");
+		dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+		
+		Context.getService(DispensationService.class).cancelDispensationItems(dispensation, "wrong patient");
+	}
+	
+	@Test(expected = PharmacyBusinessException.class)
+	public void shouldNotCancelTheOrdersOfAPatientNotFound() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseOrdersForNonArvPrescription-dataset.xml");
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid("not-existing-patient");
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(new Date());
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setOrderUuid("921de0a3-05c4-444a-be03-0001");
+		dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+		
+		Context.getService(DispensationService.class).cancelDispensationItems(dispensation, "patient not found");
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Test
 	public void shouldDispenseOrdersForArvPrescription() throws Exception {
@@ -158,4 +410,389 @@ public class DispensationServiceTest extends BaseTest {
 		        MappedConcepts.DATE_OF_NEXT_PICK_UP, MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS));
 		
 	}
+	
+	@Test
+	public void shouldFindTheFilaDispensationsOfAPatientInADateInterval() throws Exception {
+		this.executeDataSet("dispensationservice/shouldFindTheFilaDispensationsOfAPatientInADateInterval-dataset.xml");
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.YEAR, 2005);
+		calendar.set(Calendar.MONTH, 0);
+		calendar.set(Calendar.DAY_OF_MONTH, 1);
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid("5946f880-b197-400b-9caa-a3c661d23041");
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(calendar.getTime());
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setQuantityDispensed(0d);
+		dispensationItem.setQuantityToDispense(3d);
+		dispensationItem.setOrderUuid("921de0a3-05c4-444a-be03-0001");
+		dispensationItem.setRegimeUuid("9dc17c1b-7b6d-488e-a38d-505a7b6xxx1");
+		dispensationItem.setPrescriptionUuid("eec646cb-c847-4ss-enc-who-adult");
+		dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+		
+		final DispensationService dispensationService = Context.getService(DispensationService.class);
+		dispensationService.dispense(dispensation);
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		final Calendar startDate = Calendar.getInstance();
+		startDate.set(2004, 0, 1);
+		final Calendar endDate = Calendar.getInstance();
+		endDate.set(2006, 0, 1);
+		
+		final List<Dispensation> filaDispensations = dispensationService.findFilaDispensationByPatientAndDateInterval(
+		    Context.getPatientService().getPatientByUuid("5946f880-b197-400b-9caa-a3c661d23041"), startDate.getTime(),
+		    endDate.getTime());
+		
+		MatcherAssert.assertThat(filaDispensations, IsCollectionWithSize.hasSize(1));
+		Assert.assertNotNull(filaDispensations.get(0).getProviderUuid());
+		
+		final List<DispensationItem> items = filaDispensations.get(0).getDispensationItems();
+		MatcherAssert.assertThat(items, IsCollectionWithSize.hasSize(1));
+		Assert.assertNotNull(items.get(0).getDrugOrder());
+		Assert.assertEquals("eec646cb-c847-4ss-enc-who-adult",
+		    items.get(0).getPrescription().getPrescriptionEncounter().getUuid());
+		Assert.assertNotNull(items.get(0).getPrescriptionExpirationDate());
+	}
+	
+	@Test
+	public void shouldFindTheFilaDispensationsWithTheSameStatementsWhateverTheirNumber() throws Exception {
+		this.executeDataSet("dispensationservice/shouldCancelTheItemsOfAnArvDispensation-dataset.xml");
+		
+		this.dispenseArvItem("921de0a3-05c4-444a-be03-0001", 3d);
+		final long statements = this.countFilaDispensationStatements(1);
+		Assert.assertTrue(statements > 0);
+		
+		this.dispenseArvItem("921de0a3-05c4-444a-be03-0002", 4d);
+		Assert.assertEquals(statements, this.countFilaDispensationStatements(2));
+	}
+	
+	@Test
+	public void shouldNeitherPageNorCountTheFilasWithoutArvItems() throws Exception {
+		this.executeDataSet("dispensationservice/shouldFindTheFilaDispensationsOfAPatientInADateInterval-dataset.xml");
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(2005, 0, 1);
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid(DispensationServiceTest.PATIENT_7);
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(calendar.getTime());
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setQuantityDispensed(0d);
+		dispensationItem.setQuantityToDispense(3d);
+		dispensationItem.setOrderUuid("921de0a3-05c4-444a-be03-0001");
+		dispensationItem.setRegimeUuid("9dc17c1b-7b6d-488e-a38d-505a7b6xxx1");
+		dispensationItem.setPrescriptionUuid("eec646cb-c847-4ss-enc-who-adult");
+		dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+		
+		final DispensationService dispensationService = Context.getService(DispensationService.class);
+		dispensationService.dispense(dispensation);
+		
+		// a FILA of the interval holding no ARV item
+		final Integer filaEncounterTypeId = Context.getEncounterService()
+		        .getEncounterTypeByUuid(MappedEncounters.FILA_ENCOUNTER_TYPE).getEncounterTypeId();
+		Context.getAdministrationService()
+		        .executeSQL("insert into encounter (encounter_id, encounter_type, patient_id, location_id, "
+		                + "encounter_datetime, creator, date_created, voided, uuid) values (2000, "
+		                + filaEncounterTypeId + ", 7, 1, '2005-06-01 00:00:00', 1, '2005-06-01 00:00:00', false, "
+		                + "'eec646cb-c847-4ss-fila-no-arv')", false);
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		final Calendar startDate = Calendar.getInstance();
+		startDate.set(2004, 0, 1);
+		final Calendar endDate = Calendar.getInstance();
+		endDate.set(2006, 0, 1);
+		
+		final PagedResult<Dispensation> filaDispensations = dispensationService
+		        .findFilaDispensationByPatientAndDateInterval(
+		            Context.getPatientService().getPatientByUuid(DispensationServiceTest.PATIENT_7),
+		            startDate.getTime(), endDate.getTime(), 0, 10, true);
+		
+		MatcherAssert.assertThat(filaDispensations.getResults(), IsCollectionWithSize.hasSize(1));
+		Assert.assertFalse(filaDispensations.hasMoreResults());
+		Assert.assertEquals(Long.valueOf(1), filaDispensations.getTotalCount());
+		Assert.assertEquals("921de0a3-05c4-444a-be03-0001",
+		    filaDispensations.getResults().get(0).getDispensationItems().get(0).getDrugOrder().getUuid());
+	}
+	
+	@Test
+	public void shouldDeferTheFilaOfAnArvDispensationToTheOutbox() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseOrdersForArvPrescription-dataset.xml");
+		
+		Context.getAdministrationService()
+		        .saveGlobalProperty(new GlobalProperty(OpenMRSPharmacyModuleConfig.GP_FILA_OUTBOX_ENABLED, "true"));
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.YEAR, 2005);
+		calendar.set(Calendar.MONTH, 0);
+		calendar.set(Calendar.DAY_OF_MONTH, 1);
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid("5946f880-b197-400b-9caa-a3c661d23041");
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(calendar.getTime());
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setQuantityDispensed(0d);
+		dispensationItem.setQuantityToDispense(3d);
+		dispensationItem.setOrderUuid("921de0a3-05c4-444a-be03-0001");
+		dispensationItem.setRegimeUuid("9dc17c1b-7b6d-488e-a38d-505a7b6xxx1");
+		dispensationItem.setPrescriptionUuid("eec646cb-c847-4ss-enc-who-adult");
+		dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+		
+		Context.getService(DispensationService.class).dispense(dispensation);
+		
+		final PrescriptionDispensation prescriptionDispensation = Context
+		        .getService(PrescriptionDispensationService.class)
+		        .findPrescriptionDispensationByPrescription(new Encounter(1000)).iterator().next();
+		Assert.assertNull(prescriptionDispensation.getFila());
+		
+		final FilaOutboxService filaOutboxService = Context.getService(FilaOutboxService.class);
+		final FilaOutboxEntry entry = filaOutboxService
+		        .findFilaOutboxEntryByDispensation(prescriptionDispensation.getDispensation());
+		
+		Assert.assertNotNull(entry);
+		Assert.assertEquals(FilaOutboxStatus.PENDING, entry.getStatus());
+		Assert.assertEquals(Arrays.asList(entry.getId()), filaOutboxService.claimDueFilaOutboxEntryIds("task", 10));
+		
+		final FilaOutboxEntry processed = filaOutboxService.processFilaOutboxEntry(entry.getId(), "task");
+		
+		Assert.assertEquals(FilaOutboxStatus.PROCESSED, processed.getStatus());
+		Assert.assertNotNull(processed.getFila());
+		Assert.assertEquals(processed.getFila(), prescriptionDispensation.getFila());
+	}
+	
+	@Test
+	public void shouldCancelAllTheItemsOfADispensationInOneCall() throws Exception {
+		
+		final PrescriptionDispensation prescriptionDispensation = this.dispenseTheArvItems();
+		final Encounter dispensationEncounter = prescriptionDispensation.getDispensation();
+		
+		final List<Integer> orderIds = new ArrayList<>();
+		for (final Order order : dispensationEncounter.getOrders()) {
+			orderIds.add(order.getOrderId());
+		}
+		MatcherAssert.assertThat(orderIds, IsCollectionWithSize.hasSize(2));
+		
+		Context.getService(DispensationService.class)
+		        .cancelDispensationItems(this.createCancellation(dispensationEncounter, 13, 2), "cancelled");
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		for (final Integer orderId : orderIds) {
+			Assert.assertTrue(Context.getOrderService().getOrder(orderId).isVoided());
+		}
+		for (final Obs obs : Context.getObsService().getObservations(null, Arrays.asList(dispensationEncounter), null,
+		    null, null, null, null, null, null, null, null, true)) {
+			Assert.assertTrue(obs.isVoided());
+		}
+	}
+	
+	@Test
+	public void shouldRecomputeOnceTheFilaQuantityOfAllTheCancelledItems() throws Exception {
+		
+		final PrescriptionDispensation prescriptionDispensation = this.dispenseTheArvItems();
+		final Integer filaId = prescriptionDispensation.getFila().getEncounterId();
+		Assert.assertEquals(Double.valueOf(7), this.findFilaQuantity(filaId).getValueNumeric());
+		
+		Context.getService(DispensationService.class).cancelDispensationItems(
+		    this.createCancellation(prescriptionDispensation.getDispensation(), 13, 2), "cancelled");
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		// the quantities of both items are taken from the FILA together, leaving nothing to pick up
+		Assert.assertEquals(Double.valueOf(0), this.findFilaQuantity(filaId).getValueNumeric());
+		Assert.assertTrue(Context.getEncounterService().getEncounter(filaId).isVoided());
+		Assert.assertTrue(Context.getService(PrescriptionDispensationService.class)
+		        .findPrescriptionDispensationByDispensation(prescriptionDispensation.getDispensation()).isRetired());
+	}
+	
+	@Test
+	public void shouldKeepTheFilaOfTheItemsNotCancelled() throws Exception {
+		
+		final PrescriptionDispensation prescriptionDispensation = this.dispenseTheArvItems();
+		final Integer filaId = prescriptionDispensation.getFila().getEncounterId();
+		
+		Context.getService(DispensationService.class).cancelDispensationItems(
+		    this.createCancellation(prescriptionDispensation.getDispensation(), 2), "cancelled");
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		Assert.assertEquals(Double.valueOf(3), this.findFilaQuantity(filaId).getValueNumeric());
+		Assert.assertFalse(Context.getEncounterService().getEncounter(filaId).isVoided());
+		Assert.assertFalse(Context.getService(PrescriptionDispensationService.class)
+		        .findPrescriptionDispensationByDispensation(prescriptionDispensation.getDispensation()).isRetired());
+	}
+	
+	/**
+	 * Dispenses in one dispensation the two ARV items of the prescription, 3 units of drug 13 and 4
+	 * of drug 2, so that one FILA holds both.
+	 */
+	private PrescriptionDispensation dispenseTheArvItems() throws Exception {
+		this.executeDataSet("dispensationservice/shouldCancelTheItemsOfAnArvDispensation-dataset.xml");
+		
+		final Calendar nextPickUp = Calendar.getInstance();
+		nextPickUp.set(2005, Calendar.FEBRUARY, 1);
+		
+		final Dispensation dispensation = this.createDispensation(DispensationServiceTest.PATIENT_7,
+		    "921de0a3-05c4-444a-be03-0001", "eec646cb-c847-4ss-enc-who-adult", 3d);
+		final Dispensation otherItem = this.createDispensation(DispensationServiceTest.PATIENT_7,
+		    "921de0a3-05c4-444a-be03-0002", "eec646cb-c847-4ss-enc-who-adult", 4d);
+		
+		final List<DispensationItem> dispensationItems = new ArrayList<>(dispensation.getDispensationItems());
+		dispensationItems.addAll(otherItem.getDispensationItems());
+		for (final DispensationItem dispensationItem : dispensationItems) {
+			dispensationItem.setRegimeUuid("9dc17c1b-7b6d-488e-a38d-505a7b6xxx1");
+			dispensationItem.setDateOfNextPickUp(nextPickUp.getTime());
+		}
+		dispensation.setDispensationItems(dispensationItems);
+		
+		Context.getService(DispensationService.class).dispense(dispensation);
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		return Context.getService(PrescriptionDispensationService.class)
+		        .findPrescriptionDispensationByPrescription(new Encounter(1000)).iterator().next();
+	}
+	
+	/**
+	 * Dispenses the order alone, so that it gets a FILA of its own
+	 */
+	private void dispenseArvItem(final String orderUuid, final Double quantity) throws Exception {
+		
+		final Dispensation dispensation = this.createDispensation(DispensationServiceTest.PATIENT_7, orderUuid,
+		    "eec646cb-c847-4ss-enc-who-adult", quantity);
+		dispensation.getDispensationItems().get(0).setRegimeUuid("9dc17c1b-7b6d-488e-a38d-505a7b6xxx1");
+		
+		Context.getService(DispensationService.class).dispense(dispensation);
+	}
+	
+	/**
+	 * @return the statements sent to find the FILA dispensations of 2005, the cached entities are
+	 *         evicted before so that none is spared by the earlier reads
+	 */
+	private long countFilaDispensationStatements(final int filas) throws Exception {
+		
+		Context.flushSession();
+		Context.clearSession();
+		this.catalogCache.evictAll();
+		
+		final Calendar startDate = Calendar.getInstance();
+		startDate.set(2004, Calendar.JANUARY, 1);
+		final Calendar endDate = Calendar.getInstance();
+		endDate.set(2006, Calendar.JANUARY, 1);
+		final Patient patient = Context.getPatientService().getPatientByUuid(DispensationServiceTest.PATIENT_7);
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		statistics.clear();
+		
+		final List<Dispensation> filaDispensations = Context.getService(DispensationService.class)
+		        .findFilaDispensationByPatientAndDateInterval(patient, startDate.getTime(), endDate.getTime());
+		
+		MatcherAssert.assertThat(filaDispensations, IsCollectionWithSize.hasSize(filas));
+		return statistics.getPrepareStatementCount();
+	}
+	
+	/**
+	 * @return the cancellation of the dispensed orders of the given drugs
+	 */
+	private Dispensation createCancellation(final Encounter dispensationEncounter, final Integer... drugIds) {
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(2005, Calendar.JANUARY, 2);
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid(DispensationServiceTest.PATIENT_7);
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(calendar.getTime());
+		
+		final List<DispensationItem> dispensationItems = new ArrayList<>();
+		for (final Order order : dispensationEncounter.getOrders()) {
+			
+			if (Arrays.asList(drugIds).contains(((DrugOrder) order).getDrug().getDrugId())) {
+				
+				final DispensationItem dispensationItem = new DispensationItem();
+				dispensationItem.setOrderUuid(order.getUuid());
+				dispensationItem.setRegimeUuid("9dc17c1b-7b6d-488e-a38d-505a7b6xxx1");
+				dispensationItems.add(dispensationItem);
+			}
+		}
+		Assert.assertEquals(drugIds.length, dispensationItems.size());
+		dispensation.setDispensationItems(dispensationItems);
+		
+		return dispensation;
+	}
+	
+	private Obs findFilaQuantity(final Integer filaId) {
+		
+		for (final Obs obs : Context.getEncounterService().getEncounter(filaId).getAllObs(true)) {
+			
+			if (MappedConcepts.MEDICATION_QUANTITY.equals(obs.getConcept().getUuid())) {
+				return obs;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @return a thread holding the claim of the order until it is interrupted
+	 */
+	private Thread claimInAnotherThread(final String orderUuid) throws InterruptedException {
+		
+		final CountDownLatch claimed = new CountDownLatch(1);
+		final Thread pharmacist = new Thread() {
+			
+			@Override
+			public void run() {
+				
+				final List<String> orderUuids = Arrays.asList(orderUuid);
+				DispensationServiceTest.this.dispensationOrderLocks.tryClaim(orderUuids);
+				claimed.countDown();
+				try {
+					Thread.sleep(Long.MAX_VALUE);
+				}
+				catch (final InterruptedException e) {
+					DispensationServiceTest.this.dispensationOrderLocks.release(orderUuids);
+				}
+			}
+		};
+		pharmacist.start();
+		claimed.await();
+		return pharmacist;
+	}
+	
+	private Dispensation createDispensation(final String patientUuid, final String orderUuid,
+	        final String prescriptionUuid, final Double quantity) {
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(2005, Calendar.JANUARY, 1);
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid(patientUuid);
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(calendar.getTime());
+		
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setQuantityDispensed(0d);
+		dispensationItem.setQuantityToDispense(quantity);
+		dispensationItem.setOrderUuid(orderUuid);
+		dispensationItem.setPrescriptionUuid(prescriptionUuid);
+		dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+		
+		return dispensation;
+	}
 }
@@ -0,0 +1,312 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.service.dispensedorders;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.SessionFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.DrugOrder;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.dispensation.dao.DispensationDAO;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Checks the grouped lookup of the latest dispensed order of each drug against the correlated
+ * query it replaced, on randomized histories of prescriptions, dispensations, voided orders and
+ * retired dispensations, and logs the time both of them take as the history grows.
+ */
+public class DispensedDrugOrdersQueryTest extends BaseTest {
+	
+	private static final String CORRELATED_HQL =
+	        "select distinct o from DrugOrder o where o.patient = :patient and o.voided is false "
+	        + " and o.orderId = ( select max(dispensationDrugOrder.orderId) "
+	        + "	from PrescriptionDispensation pd "
+	        + " join pd.dispensation dispensation, DrugOrder dispensationDrugOrder where dispensationDrugOrder.encounter = dispensation and dispensationDrugOrder.drug = o.drug and pd.retired is false and dispensationDrugOrder.voided is false  and pd.patient = :patient) ";
+	
+	private static final String CORRELATED_PATIENTS_HQL =
+	        "select distinct o from DrugOrder o where o.patient in (:patients) and o.voided is false "
+	        + " and o.orderId = ( select max(dispensationDrugOrder.orderId) "
+	        + "	from PrescriptionDispensation pd "
+	        + " join pd.dispensation dispensation, DrugOrder dispensationDrugOrder where dispensationDrugOrder.encounter = dispensation and dispensationDrugOrder.drug = o.drug and pd.retired is false and dispensationDrugOrder.voided is false  and pd.patient = o.patient) ";
+	
+	private static final int FIRST_ID = 20000;
+	
+	private static final int[] PATIENT_IDS = { 7, 8 };
+	
+	/**
+	 * Pairs of drug and concept ids, the last one is an order without drug
+	 */
+	private static final Integer[][] DRUGS = { { 2, 792 }, { 3, 88 }, { 13, 1006 }, { null, 5497 } };
+	
+	private static final int[] HISTORY_LENGTHS = { 10, 100, 500 };
+	
+	private static final int TIMED_RUNS = 5;
+	
+	private static final String ENCOUNTER_INSERT = "insert into encounter (encounter_id, encounter_type, patient_id, "
+	        + "location_id, form_id, encounter_datetime, creator, date_created, voided, uuid) "
+	        + "values (?, 2, ?, 1, 1, ?, 1, ?, false, ?)";
+	
+	private static final String ORDER_INSERT = "insert into orders (order_id, order_type_id, order_number, urgency, "
+	        + "order_action, concept_id, orderer, date_activated, creator, date_created, voided, patient_id, uuid, "
+	        + "care_setting, encounter_id) values (?, 1, ?, 'ROUTINE', ?, ?, 1, ?, 1, ?, ?, ?, ?, 1, ?)";
+	
+	private static final String DRUG_ORDER_INSERT = "insert into drug_order (order_id, drug_inventory_id, dose_units, "
+	        + "as_needed, frequency, dosing_type, quantity, quantity_units, num_refills, dispense_as_written) "
+	        + "values (?, ?, 50, false, 2, 'org.openmrs.SimpleDosingInstructions', 5.0, 51, 0, false)";
+	
+	private static final String PRESCRIPTION_DISPENSATION_INSERT = "insert into phm_prescription_dispensation "
+	        + "(prescription_dispensation_id, patient_id, prescription_id, dispensation_id, uuid, creator, "
+	        + "date_created, retired) values (?, ?, ?, ?, ?, 1, ?, ?)";
+	
+	private final Log log = LogFactory.getLog(this.getClass());
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	@Autowired
+	private DispensationDAO dispensationDAO;
+	
+	private int nextId;
+	
+	@Test
+	public void shouldFindTheSameOrdersAsTheCorrelatedQueryOnRandomHistories() throws Exception {
+		
+		for (int seed = 0; seed < 20; seed++) {
+			
+			final Random random = new Random(seed);
+			this.loadHistory(random, 1 + random.nextInt(30));
+			
+			this.assertSameOrdersAsTheCorrelatedQuery("seed " + seed);
+		}
+	}
+	
+	@Test
+	public void shouldFindTheSameOrdersAsTheCorrelatedQueryAcrossHistoryLengths() throws Exception {
+		
+		for (final int historyLength : HISTORY_LENGTHS) {
+			
+			this.loadHistory(new Random(historyLength), historyLength);
+			this.assertSameOrdersAsTheCorrelatedQuery("history of " + historyLength);
+			
+			final Patient patient = Context.getPatientService().getPatient(PATIENT_IDS[0]);
+			
+			final long correlated = this.time(new Lookup() {
+				
+				@Override
+				public List<DrugOrder> run() {
+					return DispensedDrugOrdersQueryTest.this.findWithTheCorrelatedQuery(patient);
+				}
+			});
+			final long grouped = this.time(new Lookup() {
+				
+				@Override
+				public List<DrugOrder> run() {
+					return DispensedDrugOrdersQueryTest.this.dispensationDAO.findDispensedDrugOrdersByPatient(patient);
+				}
+			});
+			
+			this.log.info("Dispensed orders of a history of " + historyLength + " dispensations: correlated "
+			        + (correlated / 1000) + " us, grouped " + (grouped / 1000) + " us");
+		}
+	}
+	
+	private void assertSameOrdersAsTheCorrelatedQuery(final String history) {
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		final List<Patient> patients = new ArrayList<>();
+		for (final int patientId : PATIENT_IDS) {
+			
+			final Patient patient = Context.getPatientService().getPatient(patientId);
+			patients.add(patient);
+			
+			Assert.assertEquals(history + ", patient " + patientId,
+			    this.getOrderIds(this.findWithTheCorrelatedQuery(patient)),
+			    this.getOrderIds(this.dispensationDAO.findDispensedDrugOrdersByPatient(patient)));
+		}
+		
+		@SuppressWarnings("unchecked")
+		final List<DrugOrder> expected = this.sessionFactory.getCurrentSession().createQuery(CORRELATED_PATIENTS_HQL)
+		        .setParameterList("patients", patients).list();
+		
+		Assert.assertEquals(history + ", patients " + Arrays.toString(PATIENT_IDS), this.getOrderIds(expected),
+		    this.getOrderIds(this.dispensationDAO.findDispensedDrugOrdersByPatients(patients)));
+	}
+	
+	@SuppressWarnings("unchecked")
+	private List<DrugOrder> findWithTheCorrelatedQuery(final Patient patient) {
+		
+		return this.sessionFactory.getCurrentSession().createQuery(CORRELATED_HQL).setParameter("patient", patient)
+		        .list();
+	}
+	
+	/**
+	 * @return the mean nanoseconds of a lookup, run once beforehand to warm up
+	 */
+	private long time(final Lookup lookup) {
+		
+		lookup.run();
+		
+		long elapsed = 0;
+		for (int i = 0; i < TIMED_RUNS; i++) {
+			
+			Context.clearSession();
+			
+			final long start = System.nanoTime();
+			lookup.run();
+			elapsed += System.nanoTime() - start;
+		}
+		return elapsed / TIMED_RUNS;
+	}
+	
+	private Set<Integer> getOrderIds(final Collection<DrugOrder> drugOrders) {
+		
+		final Set<Integer> orderIds = new TreeSet<>();
+		for (final DrugOrder drugOrder : drugOrders) {
+			Assert.assertTrue("Repeated order " + drugOrder.getOrderId(), orderIds.add(drugOrder.getOrderId()));
+		}
+		return orderIds;
+	}
+	
+	/**
+	 * Replaces the history of the patients: each pickup is a prescription of some of the drugs and
+	 * its dispensation, which may have voided orders, a retired prescription dispensation or none at
+	 * all.
+	 */
+	private void loadHistory(final Random random, final int pickups) throws SQLException {
+		
+		final Connection connection = this.getConnection();
+		this.deleteHistory(connection);
+		
+		final Timestamp date = new Timestamp(System.currentTimeMillis());
+		this.nextId = FIRST_ID;
+		
+		try (PreparedStatement encounterInsert = connection.prepareStatement(ENCOUNTER_INSERT);
+		        PreparedStatement orderInsert = connection.prepareStatement(ORDER_INSERT);
+		        PreparedStatement drugOrderInsert = connection.prepareStatement(DRUG_ORDER_INSERT);
+		        PreparedStatement prescriptionDispensationInsert = connection
+		                .prepareStatement(PRESCRIPTION_DISPENSATION_INSERT)) {
+			
+			for (int i = 0; i < pickups; i++) {
+				
+				final int patientId = PATIENT_IDS[random.nextInt(PATIENT_IDS.length)];
+				final int prescriptionId = this.addEncounter(encounterInsert, patientId, date);
+				final int dispensationId = this.addEncounter(encounterInsert, patientId, date);
+				
+				for (final Integer[] drug : DRUGS) {
+					
+					if (random.nextBoolean()) {
+						continue;
+					}
+					this.addOrder(orderInsert, drugOrderInsert, "NEW", drug, patientId, prescriptionId, false, date);
+					this.addOrder(orderInsert, drugOrderInsert, "REVISE", drug, patientId, dispensationId,
+					    random.nextInt(5) == 0, date);
+				}
+				
+				if (random.nextInt(8) == 0) {
+					continue;
+				}
+				prescriptionDispensationInsert.setInt(1, this.nextId++);
+				prescriptionDispensationInsert.setInt(2, patientId);
+				prescriptionDispensationInsert.setInt(3, prescriptionId);
+				prescriptionDispensationInsert.setInt(4, dispensationId);
+				prescriptionDispensationInsert.setString(5, "syn-pd-" + dispensationId);
+				prescriptionDispensationInsert.setTimestamp(6, date);
+				prescriptionDispensationInsert.setBoolean(7, random.nextInt(6) == 0);
+				prescriptionDispensationInsert.addBatch();
+			}
+			
+			encounterInsert.executeBatch();
+			orderInsert.executeBatch();
+			drugOrderInsert.executeBatch();
+			prescriptionDispensationInsert.executeBatch();
+		}
+	}
+	
+	private void deleteHistory(final Connection connection) throws SQLException {
+		
+		try (Statement statement = connection.createStatement()) {
+			
+			statement.executeUpdate("delete from phm_prescription_dispensation where prescription_dispensation_id >= "
+			        + FIRST_ID);
+			statement.executeUpdate("delete from drug_order where order_id >= " + FIRST_ID);
+			statement.executeUpdate("delete from orders where order_id >= " + FIRST_ID);
+			statement.executeUpdate("delete from encounter where encounter_id >= " + FIRST_ID);
+		}
+	}
+	
+	private int addEncounter(final PreparedStatement encounterInsert, final int patientId, final Timestamp date)
+	        throws SQLException {
+		
+		final int encounterId = this.nextId++;
+		
+		encounterInsert.setInt(1, encounterId);
+		encounterInsert.setInt(2, patientId);
+		encounterInsert.setTimestamp(3, date);
+		encounterInsert.setTimestamp(4, date);
+		encounterInsert.setString(5, "syn-encounter-" + encounterId);
+		encounterInsert.addBatch();
+		return encounterId;
+	}
+	
+	private void addOrder(final PreparedStatement orderInsert, final PreparedStatement drugOrderInsert,
+	        final String action, final Integer[] drug, final int patientId, final int encounterId,
+	        final boolean voided, final Timestamp date) throws SQLException {
+		
+		final int orderId = this.nextId++;
+		
+		orderInsert.setInt(1, orderId);
+		orderInsert.setString(2, "SYN-" + orderId);
+		orderInsert.setString(3, action);
+		orderInsert.setInt(4, drug[1]);
+		orderInsert.setTimestamp(5, date);
+		orderInsert.setTimestamp(6, date);
+		orderInsert.setBoolean(7, voided);
+		orderInsert.setInt(8, patientId);
+		orderInsert.setString(9, "syn-order-" + orderId);
+		orderInsert.setInt(10, encounterId);
+		orderInsert.addBatch();
+		
+		drugOrderInsert.setInt(1, orderId);
+		if (drug[0] == null) {
+			drugOrderInsert.setNull(2, Types.INTEGER);
+		} else {
+			drugOrderInsert.setInt(2, drug[0]);
+		}
+		drugOrderInsert.addBatch();
+	}
+	
+	private interface Lookup {
+		
+		List<DrugOrder> run();
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.api.service.filaoutboxservice;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.OpenMRSPharmacyModuleConfig;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationItem;
+import org.openmrs.module.pharmacyapi.api.dispensation.service.DispensationService;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry.FilaOutboxStatus;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.service.FilaOutboxService;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service.PrescriptionDispensationService;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+
+public class FilaOutboxServiceTest extends BaseTest {
+	
+	private static final int MAX_ATTEMPTS = 5;
+	
+	@Test
+	public void shouldNotClaimAnEntryClaimedByAnotherOwner() throws Exception {
+		
+		final FilaOutboxEntry entry = this.enqueueFila();
+		final FilaOutboxService filaOutboxService = Context.getService(FilaOutboxService.class);
+		
+		Assert.assertEquals(Arrays.asList(entry.getId()), filaOutboxService.claimDueFilaOutboxEntryIds("first", 10));
+		Assert.assertEquals(Collections.emptyList(), filaOutboxService.claimDueFilaOutboxEntryIds("second", 10));
+		
+		final FilaOutboxEntry skipped = filaOutboxService.processFilaOutboxEntry(entry.getId(), "second");
+		Assert.assertEquals(FilaOutboxStatus.CLAIMED, skipped.getStatus());
+		Assert.assertEquals("first", skipped.getClaimedBy());
+		Assert.assertNull(skipped.getFila());
+	}
+	
+	@Test
+	public void shouldClaimAgainAnEntryWhoseClaimWasLeftBehind() throws Exception {
+		
+		final FilaOutboxEntry entry = this.enqueueFila();
+		final FilaOutboxService filaOutboxService = Context.getService(FilaOutboxService.class);
+		
+		filaOutboxService.claimDueFilaOutboxEntryIds("stopped", 10);
+		this.makeDue(entry);
+		
+		Assert.assertEquals(Arrays.asList(entry.getId()), filaOutboxService.claimDueFilaOutboxEntryIds("next", 10));
+		Assert.assertEquals(FilaOutboxStatus.PROCESSED,
+		    filaOutboxService.processFilaOutboxEntry(entry.getId(), "next").getStatus());
+	}
+	
+	@Test
+	public void shouldPostponeTheNextAttemptOfAFailedEntry() throws Exception {
+		
+		final FilaOutboxEntry entry = this.enqueueFila();
+		final FilaOutboxService filaOutboxService = Context.getService(FilaOutboxService.class);
+		
+		filaOutboxService.claimDueFilaOutboxEntryIds("task", 10);
+		final Date failureDate = new Date();
+		final FilaOutboxEntry failed = filaOutboxService.recordFilaOutboxFailure(entry.getId(), "task", "no visit");
+		
+		Assert.assertEquals(FilaOutboxStatus.PENDING, failed.getStatus());
+		Assert.assertEquals(Integer.valueOf(1), failed.getAttempts());
+		Assert.assertEquals("no visit", failed.getLastError());
+		Assert.assertNull(failed.getClaimedBy());
+		Assert.assertTrue(failed.getNextAttemptDate().after(failureDate));
+		Assert.assertEquals(Collections.emptyList(), filaOutboxService.claimDueFilaOutboxEntryIds("task", 10));
+		
+		this.makeDue(entry);
+		Assert.assertEquals(Arrays.asList(entry.getId()), filaOutboxService.claimDueFilaOutboxEntryIds("task", 10));
+	}
+	
+	@Test
+	public void shouldMoveTheEntryToTheDeadLettersOnceItsAttemptsAreExhausted() throws Exception {
+		
+		final FilaOutboxEntry entry = this.enqueueFila();
+		final FilaOutboxService filaOutboxService = Context.getService(FilaOutboxService.class);
+		
+		FilaOutboxEntry failed = entry;
+		for (int attempt = 1; attempt <= FilaOutboxServiceTest.MAX_ATTEMPTS; attempt++) {
+			
+			this.makeDue(entry);
+			Assert.assertEquals(Arrays.asList(entry.getId()),
+			    filaOutboxService.claimDueFilaOutboxEntryIds("task", 10));
+			failed = filaOutboxService.recordFilaOutboxFailure(entry.getId(), "task", "no visit");
+		}
+		
+		Assert.assertEquals(FilaOutboxStatus.DEAD_LETTER, failed.getStatus());
+		Assert.assertEquals(Integer.valueOf(FilaOutboxServiceTest.MAX_ATTEMPTS), failed.getAttempts());
+		
+		this.makeDue(entry);
+		Assert.assertEquals(Collections.emptyList(), filaOutboxService.claimDueFilaOutboxEntryIds("task", 10));
+		
+		final FilaOutboxEntry retried = filaOutboxService.retryFilaOutboxEntry(failed);
+		Assert.assertEquals(FilaOutboxStatus.PENDING, retried.getStatus());
+		Assert.assertEquals(Integer.valueOf(0), retried.getAttempts());
+		Assert.assertEquals(Arrays.asList(entry.getId()), filaOutboxService.claimDueFilaOutboxEntryIds("task", 10));
+	}
+	
+	/**
+	 * Dispenses the ARV item of the prescription with the FILA deferred to the outbox
+	 */
+	private FilaOutboxEntry enqueueFila() throws Exception {
+		this.executeDataSet("dispensationservice/shouldDispenseOrdersForArvPrescription-dataset.xml");
+		
+		Context.getAdministrationService()
+		        .saveGlobalProperty(new GlobalProperty(OpenMRSPharmacyModuleConfig.GP_FILA_OUTBOX_ENABLED, "true"));
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(2005, Calendar.JANUARY, 1);
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid("5946f880-b197-400b-9caa-a3c661d23041");
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(calendar.getTime());
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setQuantityDispensed(0d);
+		dispensationItem.setQuantityToDispense(3d);
+		dispensationItem.setOrderUuid("921de0a3-05c4-444a-be03-0001");
+		dispensationItem.setRegimeUuid("9dc17c1b-7b6d-488e-a38d-505a7b6xxx1");
+		dispensationItem.setPrescriptionUuid("eec646cb-c847-4ss-enc-who-adult");
+		dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+		
+		Context.getService(DispensationService.class).dispense(dispensation);
+		
+		final Encounter dispensationEncounter = Context.getService(PrescriptionDispensationService.class)
+		        .findPrescriptionDispensationByPrescription(new Encounter(1000)).iterator().next().getDispensation();
+		return Context.getService(FilaOutboxService.class).findFilaOutboxEntryByDispensation(dispensationEncounter);
+	}
+	
+	/**
+	 * Moves the next attempt of the entry, or the end of its claim, to the past
+	 */
+	private void makeDue(final FilaOutboxEntry entry) {
+		
+		Context.flushSession();
+		Context.getAdministrationService().executeSQL(
+		    "update phm_fila_outbox set next_attempt_date = '2000-01-01 00:00:00' where fila_outbox_id = "
+		            + entry.getId(), false);
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.api.service.orderlineageservice;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.DrugOrder;
+import org.openmrs.Order;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.orderlineage.model.OrderLineage;
+import org.openmrs.module.pharmacyapi.api.orderlineage.service.OrderLineageService;
+import org.openmrs.module.pharmacyapi.api.prescription.util.OrderStatusEvaluator;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class OrderLineageServiceTest extends BaseTest {
+	
+	@Autowired
+	private OrderStatusEvaluator orderStatusEvaluator;
+	
+	@Before
+	public void loadOrders() throws Exception {
+		this.executeDataSet("orderlineageservice/shouldBackfillTheOrderLineages-dataset.xml");
+	}
+	
+	@Test
+	public void shouldSaveTheLineagesOfTheOrdersADiscontinuationRevises() throws Exception {
+		
+		final OrderLineageService orderLineageService = Context.getService(OrderLineageService.class);
+		
+		final OrderLineage orderLineage = orderLineageService.saveOrderLineage(this.getOrder(103));
+		
+		this.assertLineage(orderLineage, 102, 2);
+		this.assertLineage(orderLineageService.findOrderLineageByOrder(this.getOrder(102)), 100, 1);
+		this.assertLineage(orderLineageService.findOrderLineageByOrder(this.getOrder(100)), null, 0);
+		Assert.assertSame(orderLineage, orderLineageService.saveOrderLineage(this.getOrder(103)));
+	}
+	
+	@Test
+	public void shouldBackfillTheLineagesOfTheExistingOrdersOnce() throws Exception {
+		
+		final OrderLineageService orderLineageService = Context.getService(OrderLineageService.class);
+		
+		Assert.assertTrue(orderLineageService.backfillOrderLineages() >= 4);
+		Context.flushSession();
+		Context.clearSession();
+		
+		this.assertLineage(orderLineageService.findOrderLineageByOrder(this.getOrder(100)), null, 0);
+		this.assertLineage(orderLineageService.findOrderLineageByOrder(this.getOrder(102)), 100, 1);
+		this.assertLineage(orderLineageService.findOrderLineageByOrder(this.getOrder(103)), 102, 2);
+		
+		// the voided revision gave its previous order back
+		this.assertLineage(orderLineageService.findOrderLineageByOrder(this.getOrder(101)), null, 1);
+		Assert.assertEquals(Integer.valueOf(102),
+		    orderLineageService.findOrderLineageByPreviousOrder(this.getOrder(100)).getOrder().getOrderId());
+		
+		Assert.assertEquals(0, orderLineageService.backfillOrderLineages());
+	}
+	
+	@Test
+	public void shouldTellARevisedOrderInterruptedByTheOrderOfItsLineage() throws Exception {
+		
+		Context.getService(OrderLineageService.class).backfillOrderLineages();
+		
+		Assert.assertTrue(this.orderStatusEvaluator.isInterrupted((DrugOrder) this.getOrder(102)));
+	}
+	
+	private Order getOrder(final Integer orderId) {
+		
+		return Context.getOrderService().getOrder(orderId);
+	}
+	
+	private void assertLineage(final OrderLineage orderLineage, final Integer previousOrderId, final int depth) {
+		
+		Assert.assertNotNull(orderLineage);
+		Assert.assertEquals(Integer.valueOf(100), orderLineage.getRootOrder().getOrderId());
+		Assert.assertEquals(Integer.valueOf(3), orderLineage.getPrescription().getEncounterId());
+		Assert.assertEquals(Integer.valueOf(depth), orderLineage.getDepth());
+		Assert.assertEquals(previousOrderId,
+		    orderLineage.getPreviousOrder() == null ? null : orderLineage.getPreviousOrder().getOrderId());
+	}
+}
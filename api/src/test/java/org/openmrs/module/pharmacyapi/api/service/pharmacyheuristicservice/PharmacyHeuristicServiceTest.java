@@ -9,7 +9,9 @@
  */
 package org.openmrs.module.pharmacyapi.api.service.pharmacyheuristicservice;
 
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -27,16 +29,25 @@ import org.openmrs.Patient;
 import org.openmrs.Visit;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.util.EncounterObsDigest;
+import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedForms;
+import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.dao.PharmacyHeuristicDAO;
 import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.pharmacyapi.api.templates.DrugTemplate;
 import org.openmrs.module.pharmacyapi.api.templates.EncounterTypeTemplate;
 import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import br.com.six2six.fixturefactory.Fixture;
 
 public class PharmacyHeuristicServiceTest extends BaseTest {
 	
+	private static final String ARV_DATASET = "dispensationservice/shouldDispenseOrdersForArvPrescription-dataset.xml";
+	
+	@Autowired
+	private PharmacyHeuristicDAO pharmacyHeuristicDAO;
+	
 	@Test
 	@Ignore
 	public void shouldFindEncounterByChildPatient() throws Exception {
@@ -198,4 +209,60 @@ public class PharmacyHeuristicServiceTest extends BaseTest {
 		Assert.assertNotNull(encounter);
 		Assert.assertEquals(Integer.valueOf(1005), encounter.getEncounterId());
 	}
+	
+	@Test
+	public void shouldFindTheObservationsOfTheEncountersAnsweringTheConcepts() throws Exception {
+		this.executeDataSet(PharmacyHeuristicServiceTest.ARV_DATASET);
+		
+		List<Obs> observations = this.pharmacyHeuristicDAO
+		        .findObservationsByEncountersAndConcepts(Arrays.asList(1000, 1001), Arrays.asList(999, 1001));
+		
+		Assert.assertEquals(2, observations.size());
+		Assert.assertEquals(Integer.valueOf(1001), observations.get(0).getObsId());
+		Assert.assertEquals(Integer.valueOf(1004), observations.get(1).getObsId());
+		
+		observations = this.pharmacyHeuristicDAO.findObservationsByEncountersAndConcepts(Arrays.asList(1000),
+		    Arrays.asList(999));
+		
+		Assert.assertEquals(1, observations.size());
+		Assert.assertEquals(Integer.valueOf(1004), observations.get(0).getObsId());
+	}
+	
+	@Test
+	public void shouldNotFindTheVoidedObservationsOfTheEncounters() throws Exception {
+		this.executeDataSet(PharmacyHeuristicServiceTest.ARV_DATASET);
+		
+		Context.getObsService().voidObs(Context.getObsService().getObs(1004), "test");
+		
+		final List<Obs> observations = this.pharmacyHeuristicDAO
+		        .findObservationsByEncountersAndConcepts(Arrays.asList(1000), Arrays.asList(999, 1001));
+		
+		Assert.assertEquals(1, observations.size());
+		Assert.assertEquals(Integer.valueOf(1001), observations.get(0).getObsId());
+	}
+	
+	@Test
+	public void shouldNotQueryTheObservationsOfNoEncounterOrNoConcept() throws Exception {
+		
+		Assert.assertTrue(this.pharmacyHeuristicDAO
+		        .findObservationsByEncountersAndConcepts(Collections.<Integer> emptyList(), Arrays.asList(999))
+		        .isEmpty());
+		Assert.assertTrue(this.pharmacyHeuristicDAO
+		        .findObservationsByEncountersAndConcepts(Arrays.asList(1000), Collections.<Integer> emptyList())
+		        .isEmpty());
+	}
+	
+	@Test
+	public void shouldLoadTheRegimeOfTheEncounterIntoTheDigest() throws Exception {
+		this.executeDataSet(PharmacyHeuristicServiceTest.ARV_DATASET);
+		
+		final Encounter encounter = Context.getEncounterService().getEncounter(1000);
+		
+		final EncounterObsDigest obsDigest = Context.getService(PharmacyHeuristicService.class)
+		        .loadEncounterObsDigest(Arrays.asList(encounter), MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+		
+		Assert.assertEquals(Integer.valueOf(1100),
+		    obsDigest.findValueCoded(encounter, MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS).getConceptId());
+		Assert.assertNull(obsDigest.findObs(encounter, MappedConcepts.POC_MAPPING_PRESCRIPTION_DATE));
+	}
 }
@@ -10,16 +10,30 @@
 package org.openmrs.module.pharmacyapi.api.service.prescriptionservice;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Assert;
 import org.junit.Test;
 import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Order;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
+import org.openmrs.module.pharmacyapi.api.prescription.dao.PrescriptionDAO;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription.PrescriptionStatus;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
+import org.openmrs.module.pharmacyapi.api.prescription.util.OrderStatusEvaluator;
+import org.openmrs.module.pharmacyapi.api.prescription.util.PrescriptionContext;
 import org.openmrs.module.pharmacyapi.api.prescription.util.PrescriptionGenerator;
 import org.openmrs.module.pharmacyapi.api.util.BaseTest;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,6 +43,18 @@ public class PrescriptionGeneratorTest extends BaseTest {
 	@Autowired
 	private PrescriptionGenerator prescriptionGenerator;
 	
+	@Autowired
+	private OrderStatusEvaluator orderStatusEvaluator;
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	@Autowired
+	private PrescriptionDAO prescriptionDAO;
+	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
 	@Test
 	public void shouldGenerateNonArvPrescriptionWithActiveStatus() throws Exception {
 		this.executeDataSet("prescriptionservice/shouldGenerateNonArvPrescriptionWithActiveStatus-dataset.xml");
@@ -141,4 +167,210 @@ public class PrescriptionGeneratorTest extends BaseTest {
 		Assert.assertTrue(prescription.isArv());
 		Assert.assertEquals(2, prescription.getPrescriptionItems().size());
 	}
+	
+	@Test
+	public void shouldEvaluateTheStatusOfASingleOrderAsTheGenerator() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGenerateArvPrescriptionWithFinalizedStatus-dataset.xml");
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.YEAR, 2017);
+		calendar.set(Calendar.MONTH, 10);
+		
+		for (final int day : new int[] { 9, 11 }) {
+			
+			calendar.set(Calendar.DAY_OF_MONTH, day);
+			this.assertEvaluatedAsGenerated(Arrays.asList((DrugOrder) Context.getOrderService().getOrder(101)),
+			    calendar.getTime());
+		}
+	}
+	
+	@Test
+	public void shouldEvaluateTheStatusOfActiveOrdersAsTheGenerator() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGenerateArvPrescriptionWithActiveStatus-dataset.xml");
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.YEAR, 2008);
+		calendar.set(Calendar.MONTH, 7);
+		calendar.set(Calendar.DAY_OF_MONTH, 18);
+		
+		this.assertEvaluatedAsGenerated(Arrays.asList((DrugOrder) Context.getOrderService().getOrder(100),
+		    (DrugOrder) Context.getOrderService().getOrder(101)), calendar.getTime());
+	}
+	
+	@Test
+	public void shouldGenerateThePrescriptionsOfSeveralPatientsAsOneByOne() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGeneratePrescriptionsOfSeveralPatientsFromOneContext-dataset.xml");
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.YEAR, 2017);
+		calendar.set(Calendar.MONTH, 10);
+		calendar.set(Calendar.DAY_OF_MONTH, 9);
+		final Date date = calendar.getTime();
+		
+		final List<Prescription> oneByOne = new ArrayList<>();
+		oneByOne.addAll(this.prescriptionGenerator.generatePrescriptions(this.getDrugOrders(101), date));
+		oneByOne.addAll(this.prescriptionGenerator.generatePrescriptions(this.getDrugOrders(102, 103), date));
+		
+		final List<Prescription> together = this.prescriptionGenerator
+		        .generatePrescriptions(this.getDrugOrders(101, 102, 103), date);
+		
+		Assert.assertEquals(2, together.size());
+		final Map<Integer, Prescription> togetherByEncounterId = new HashMap<>();
+		for (final Prescription prescription : together) {
+			togetherByEncounterId.put(prescription.getPrescriptionEncounter().getEncounterId(), prescription);
+		}
+		
+		for (final Prescription expected : oneByOne) {
+			
+			final Prescription actual = togetherByEncounterId.get(expected.getPrescriptionEncounter().getEncounterId());
+			Assert.assertNotNull(actual);
+			Assert.assertEquals(expected.getPatient(), actual.getPatient());
+			Assert.assertEquals(expected.getPrescriptionStatus(), actual.getPrescriptionStatus());
+			Assert.assertEquals(expected.isArv(), actual.isArv());
+			Assert.assertEquals(expected.getRegime(), actual.getRegime());
+			Assert.assertEquals(this.getItemStatuses(expected), this.getItemStatuses(actual));
+		}
+		Assert.assertTrue(togetherByEncounterId.get(1000).isArv());
+		Assert.assertFalse(togetherByEncounterId.get(1002).isArv());
+	}
+	
+	@Test
+	public void shouldLoadTheContextOfSeveralPatientsWithTheQueriesOfOne() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGeneratePrescriptionsOfSeveralPatientsFromOneContext-dataset.xml");
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		final boolean statisticsEnabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		
+		try {
+			final List<DrugOrder> onePatient = this.getDrugOrders(101);
+			final List<DrugOrder> twoPatients = this.getDrugOrders(101, 102, 103);
+			
+			Context.clearSession();
+			statistics.clear();
+			this.prescriptionGenerator.loadPrescriptionContext(onePatient);
+			final long onePatientStatements = statistics.getPrepareStatementCount();
+			
+			Context.clearSession();
+			statistics.clear();
+			final PrescriptionContext context = this.prescriptionGenerator.loadPrescriptionContext(twoPatients);
+			
+			Assert.assertEquals(onePatientStatements, statistics.getPrepareStatementCount());
+			
+			Assert.assertEquals(2, context.getDrugOrdersByEncounter(new Encounter(1002)).size());
+			Assert.assertEquals(Integer.valueOf(1000),
+			    context.getPrescriptionEncounter(new Encounter(1001)).getEncounterId());
+			Assert.assertEquals(Integer.valueOf(100),
+			    context.getRootOrder(context.fetchDrugOrder(twoPatients.get(0))).getOrderId());
+		}
+		finally {
+			statistics.setStatisticsEnabled(statisticsEnabled);
+		}
+	}
+	
+	@Test
+	public void shouldSumThePickedUpQuantitiesAsThePerOrderCalculation() throws Exception {
+		this.executeDataSet(
+		    "prescriptionservice/shouldSumThePickedUpQuantitiesAsThePerOrderCalculation-dataset.xml");
+		
+		final List<DrugOrder> drugOrders = this.getDrugOrders(100, 101, 104, 105, 106, 107, 108);
+		final PrescriptionContext context = this.prescriptionGenerator.loadPrescriptionContext(drugOrders);
+		
+		final Map<Integer, Double> pickedUpByOrderId = new HashMap<>();
+		for (final DrugOrder drugOrder : drugOrders) {
+			
+			final Double expected = this.calculateDrugPickedUpOrderByOrder(drugOrder, context);
+			Assert.assertEquals(expected, context.getDrugPickedUp(drugOrder));
+			Assert.assertEquals(expected, this.sumPickedUpQuantitiesByOrders(drugOrder, context));
+			pickedUpByOrderId.put(drugOrder.getOrderId(), expected);
+		}
+		
+		// the voided obs, the voided REVISE and the DISCONTINUE with a reason are left out
+		Assert.assertEquals(Double.valueOf(0), pickedUpByOrderId.get(100));
+		Assert.assertEquals(Double.valueOf(5), pickedUpByOrderId.get(101));
+		Assert.assertEquals(Double.valueOf(3), pickedUpByOrderId.get(105));
+		Assert.assertEquals(Double.valueOf(9), pickedUpByOrderId.get(106));
+		Assert.assertEquals(Double.valueOf(9), pickedUpByOrderId.get(107));
+		Assert.assertEquals(Double.valueOf(9), pickedUpByOrderId.get(108));
+	}
+	
+	/**
+	 * The calculation the item generators made before the quantities were summed by the database: the
+	 * quantity obs of the drug in the encounters of the chain, one order at a time
+	 */
+	private Double calculateDrugPickedUpOrderByOrder(final DrugOrder drugOrder, final PrescriptionContext context) {
+		
+		final Integer quantityConceptId = this.metadataRegistry.getConceptId(MappedConcepts.MEDICATION_QUANTITY);
+		
+		Double quantity = 0.0;
+		for (final DrugOrder chainOrder : context.getOrderChain(drugOrder)) {
+			
+			if ((chainOrder.getPreviousOrder() == null) || (chainOrder.getOrderReason() != null)
+			        || chainOrder.getVoided()) {
+				continue;
+			}
+			
+			for (final Obs obs : chainOrder.getEncounter().getAllObs(false)) {
+				
+				final Order obsOrder = obs.getOrder();
+				if (!quantityConceptId.equals(obs.getConcept().getConceptId()) || (obsOrder == null)) {
+					continue;
+				}
+				
+				final DrugOrder obsDrugOrder = context.fetchDrugOrder(new DrugOrder(obsOrder.getOrderId()));
+				if (drugOrder.getDrug().equals(obsDrugOrder.getDrug())) {
+					quantity += obs.getValueNumeric();
+				}
+			}
+		}
+		return quantity;
+	}
+	
+	private Double sumPickedUpQuantitiesByOrders(final DrugOrder drugOrder, final PrescriptionContext context) {
+		
+		final List<Integer> orderIds = new ArrayList<>();
+		for (final DrugOrder chainOrder : context.getOrderChain(drugOrder)) {
+			orderIds.add(chainOrder.getOrderId());
+		}
+		
+		Double quantity = 0.0;
+		for (final Object[] row : this.prescriptionDAO.findPickedUpQuantitiesByOrders(orderIds,
+		    this.metadataRegistry.getConceptId(MappedConcepts.MEDICATION_QUANTITY))) {
+			
+			if (drugOrder.getDrug().getDrugId().equals(row[1])) {
+				quantity += (Double) row[2];
+			}
+		}
+		return quantity;
+	}
+	
+	private List<DrugOrder> getDrugOrders(final Integer... orderIds) {
+		
+		final List<DrugOrder> drugOrders = new ArrayList<>();
+		for (final Integer orderId : orderIds) {
+			drugOrders.add((DrugOrder) Context.getOrderService().getOrder(orderId));
+		}
+		return drugOrders;
+	}
+	
+	private Map<String, Object> getItemStatuses(final Prescription prescription) {
+		
+		final Map<String, Object> statuses = new HashMap<>();
+		for (final PrescriptionItem prescriptionItem : prescription.getPrescriptionItems()) {
+			statuses.put(prescriptionItem.getDrugOrder().getUuid(), prescriptionItem.getStatus());
+		}
+		return statuses;
+	}
+	
+	private void assertEvaluatedAsGenerated(final List<DrugOrder> drugOrders, final Date date) throws Exception {
+		
+		for (final Prescription prescription : this.prescriptionGenerator.generatePrescriptions(drugOrders, date)) {
+			for (final PrescriptionItem prescriptionItem : prescription.getPrescriptionItems()) {
+				
+				final DrugOrder drugOrder = (DrugOrder) Context.getOrderService()
+				        .getOrderByUuid(prescriptionItem.getDrugOrder().getUuid());
+				Assert.assertEquals(prescriptionItem.getStatus(), this.orderStatusEvaluator.evaluate(drugOrder, date));
+			}
+		}
+	}
 }
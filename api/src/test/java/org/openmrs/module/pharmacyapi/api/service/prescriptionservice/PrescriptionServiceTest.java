@@ -9,11 +9,22 @@
  */
 package org.openmrs.module.pharmacyapi.api.service.prescriptionservice;
 
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
 import org.junit.Assert;
 import org.junit.Test;
 import org.openmrs.Concept;
@@ -25,12 +36,21 @@ import org.openmrs.Order.Action;
 import org.openmrs.OrderFrequency;
 import org.openmrs.Patient;
 import org.openmrs.Provider;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedEncounters;
+import org.openmrs.module.pharmacyapi.api.orderlineage.model.OrderLineage;
+import org.openmrs.module.pharmacyapi.api.orderlineage.service.OrderLineageService;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem.PrescriptionItemStatus;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItemCancellationResult;
 import org.openmrs.module.pharmacyapi.api.prescription.service.PrescriptionService;
 import org.openmrs.module.pharmacyapi.api.prescription.util.PrescriptionUtils;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionState;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.service.PrescriptionStateService;
+import org.openmrs.module.pharmacyapi.api.templates.ConceptTemplate;
 import org.openmrs.module.pharmacyapi.api.templates.LocationTemplate;
 import org.openmrs.module.pharmacyapi.api.templates.PatientTemplate;
 import org.openmrs.module.pharmacyapi.api.templates.PrescriptionItemTemplate;
@@ -157,6 +177,24 @@ public class PrescriptionServiceTest extends BaseTest {
 		Assert.assertEquals(true, vodedOrder.isVoided());
 	}
 	
+	@Test
+	public void shouldCancelPrescriptionItemsReportingTheOrdersNotFound() throws Exception {
+		
+		final PrescriptionService prescriptionService = Context.getService(PrescriptionService.class);
+		final String orderUuid = "921de0a3-05c4-444a-be03-e01b4c4b9142";
+		
+		final List<PrescriptionItemCancellationResult> results = prescriptionService.cancelPrescriptionItems(
+		    Arrays.asList(orderUuid, "not-existing-order", orderUuid), "cancelation reason");
+		
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(orderUuid, results.get(0).getOrderUuid());
+		Assert.assertTrue(results.get(0).isSuccessful());
+		Assert.assertEquals("not-existing-order", results.get(1).getOrderUuid());
+		Assert.assertFalse(results.get(1).isSuccessful());
+		
+		Assert.assertTrue(Context.getOrderService().getOrderByUuid(orderUuid).isVoided());
+	}
+	
 	@Test
 	public void shouldDiscontinueRevisedPrescriptionItem() throws Exception {
 		this.executeDataSet("prescriptionservice/shouldCancelNotDispensedPrescriptionItem.xml");
@@ -178,6 +216,142 @@ public class PrescriptionServiceTest extends BaseTest {
 		Assert.assertEquals(drugOrder.getUuid(), discontinueOrder.getPreviousOrder().getUuid());
 	}
 	
+	@Test
+	public void shouldDiscontinueRevisedPrescriptionItemsSavingTheirLineage() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldCancelNotDispensedPrescriptionItem.xml");
+		
+		final String orderUuid = "e1f95924-697a-11e3-bd76-revised";
+		
+		final List<PrescriptionItemCancellationResult> results = Context.getService(PrescriptionService.class)
+		        .cancelPrescriptionItems(Arrays.asList(orderUuid), "Discontinuation reason");
+		
+		Assert.assertEquals(1, results.size());
+		Assert.assertTrue(results.get(0).isSuccessful());
+		
+		final Order revisedOrder = Context.getOrderService().getOrderByUuid(orderUuid);
+		final Order discontinueOrder = Context.getOrderService().getDiscontinuationOrder(revisedOrder);
+		Assert.assertEquals(Action.DISCONTINUE, discontinueOrder.getAction());
+		
+		final OrderLineage orderLineage = Context.getService(OrderLineageService.class)
+		        .findOrderLineageByOrder(discontinueOrder);
+		Assert.assertNotNull(orderLineage);
+		Assert.assertEquals(revisedOrder, orderLineage.getPreviousOrder());
+		Assert.assertEquals(Integer.valueOf(100), orderLineage.getRootOrder().getOrderId());
+		Assert.assertEquals(Integer.valueOf(2), orderLineage.getDepth());
+	}
+	
+	@Test
+	public void shouldSetTheReasonOfTheDiscontinuedOrdersWithOneStatement() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldCancelPrescriptionItemsOfSeveralOrders-dataset.xml");
+		
+		final StatementCapture statementCapture = new StatementCapture();
+		final Logger sqlLogger = Logger.getLogger("org.hibernate.SQL");
+		final Level level = sqlLogger.getLevel();
+		sqlLogger.addAppender(statementCapture);
+		sqlLogger.setLevel(Level.DEBUG);
+		
+		final List<PrescriptionItemCancellationResult> results;
+		try {
+			results = Context.getService(PrescriptionService.class).cancelPrescriptionItems(
+			    Arrays.asList("921de0a3-05c4-444a-be03-cancel-301", "921de0a3-05c4-444a-be03-cancel-303"),
+			    ConceptTemplate.ASPIRIN);
+		}
+		finally {
+			sqlLogger.setLevel(level);
+			sqlLogger.removeAppender(statementCapture);
+		}
+		
+		Assert.assertTrue(results.get(0).isSuccessful());
+		Assert.assertTrue(results.get(1).isSuccessful());
+		Assert.assertEquals(1, statementCapture.count("update orders set order_reason"));
+		
+		Context.clearSession();
+		Assert.assertEquals(Integer.valueOf(88),
+		    Context.getOrderService().getOrder(301).getOrderReason().getConceptId());
+		Assert.assertEquals(Integer.valueOf(88),
+		    Context.getOrderService().getOrder(303).getOrderReason().getConceptId());
+	}
+	
+	@Test
+	public void shouldStoreTheInterruptedStateOfTheDiscontinuedOrdersCancelled() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGenerateArvPrescriptionWithFinalizedStatus-dataset.xml");
+		
+		final List<PrescriptionItemCancellationResult> results = Context.getService(PrescriptionService.class)
+		        .cancelPrescriptionItems(Arrays.asList("921de0a3-05c4-444a-be03-discnt1"), ConceptTemplate.ASPIRIN);
+		Assert.assertTrue(results.get(0).isSuccessful());
+		
+		Assert.assertEquals(PrescriptionItemStatus.INTERRUPTED, this.findPrescriptionState(101).getItemStatus());
+	}
+	
+	@Test
+	public void shouldStoreTheInterruptedStateOfTheDiscontinuedOrderCancelled() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGenerateArvPrescriptionWithFinalizedStatus-dataset.xml");
+		
+		final DrugOrder drugOrder = new DrugOrder();
+		drugOrder.setUuid("921de0a3-05c4-444a-be03-discnt1");
+		
+		Context.getService(PrescriptionService.class).cancelPrescriptionItem(new PrescriptionItem(drugOrder),
+		    ConceptTemplate.ASPIRIN);
+		
+		Assert.assertEquals(PrescriptionItemStatus.INTERRUPTED, this.findPrescriptionState(101).getItemStatus());
+	}
+	
+	@Test
+	public void shouldRejectThePrescriptionItemsAlreadyCancelled() throws Exception {
+		
+		final PrescriptionService prescriptionService = Context.getService(PrescriptionService.class);
+		final List<String> orderUuids = Arrays.asList("921de0a3-05c4-444a-be03-e01b4c4b9142",
+		    "e1f95924-697a-11e3-bd76-0800271c1b75");
+		
+		for (final PrescriptionItemCancellationResult result : prescriptionService.cancelPrescriptionItems(orderUuids,
+		    "cancelation reason")) {
+			Assert.assertTrue(result.isSuccessful());
+		}
+		Context.flushSession();
+		Context.clearSession();
+		
+		final List<PrescriptionItemCancellationResult> results = prescriptionService.cancelPrescriptionItems(orderUuids,
+		    "cancelation reason");
+		
+		Assert.assertEquals(2, results.size());
+		for (int i = 0; i < orderUuids.size(); i++) {
+			
+			Assert.assertEquals(orderUuids.get(i), results.get(i).getOrderUuid());
+			Assert.assertEquals(Context.getMessageSourceService().getMessage(
+			    "pharmacyapi.error.prescription.item.already.cancelled", new Object[] { orderUuids.get(i) },
+			    Context.getLocale()), results.get(i).getErrorMessage());
+		}
+		
+		final Order revisedOrder = Context.getOrderService().getOrderByUuid("e1f95924-697a-11e3-bd76-0800271c1b75");
+		Assert.assertNotNull(Context.getOrderService().getDiscontinuationOrder(revisedOrder));
+	}
+	
+	@Test
+	public void shouldWriteNoneOfThePrescriptionItemsWhenOneOfTheirWritesFails() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldCancelPrescriptionItemsOfSeveralOrders-dataset.xml");
+		
+		// the revised order expired, so discontinuing it fails once the new order is already voided
+		try {
+			Context.getService(PrescriptionService.class).cancelPrescriptionItems(
+			    Arrays.asList("921de0a3-05c4-444a-be03-e01b4c4b9142", "921de0a3-05c4-444a-be03-cancel-305"),
+			    "cancelation reason");
+			Assert.fail("The discontinuation of an expired order must fail");
+		}
+		catch (final APIException e) {
+			// expected
+		}
+		
+		// the writes of the unit were held in the session, none of them reached the database
+		final List<List<Object>> rows = Context.getAdministrationService().executeSQL(
+		    "select voided, date_stopped from orders where order_id in (1, 305) order by order_id", true);
+		Assert.assertEquals(Boolean.FALSE, rows.get(0).get(0));
+		Assert.assertNull(rows.get(1).get(1));
+		Assert.assertTrue(Context.getAdministrationService()
+		        .executeSQL("select order_id from orders where previous_order_id = 305", true).isEmpty());
+		
+		Context.clearSession();
+	}
+	
 	@Test
 	public void shouldCancelNonArvActivePrescriptionItem() throws Exception {
 		this.executeDataSet("prescriptionservice/shouldCancelNonArvActivePrescriptionItem-dataset.xml");
@@ -201,6 +375,89 @@ public class PrescriptionServiceTest extends BaseTest {
 		Assert.assertTrue(order.isVoided());
 	}
 	
+	@Test
+	public void shouldFindActivePrescriptionsOfSeveralPatients() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGenerateNonArvPrescriptionWithActiveStatus-dataset.xml");
+		
+		final PrescriptionService prescriptionService = Context.getService(PrescriptionService.class);
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.YEAR, 2017);
+		calendar.set(Calendar.MONTH, 10);
+		calendar.set(Calendar.DAY_OF_MONTH, 8);
+		final Date date = calendar.getTime();
+		
+		final List<Patient> patients = Arrays.asList(Context.getPatientService().getPatient(7),
+		    Context.getPatientService().getPatient(2));
+		
+		final Map<Patient, List<Prescription>> prescriptionsByPatient = prescriptionService
+		        .findActivePrescriptionsByPatients(patients, date);
+		
+		Assert.assertEquals(patients, new ArrayList<>(prescriptionsByPatient.keySet()));
+		
+		final Map<Integer, Set<Integer>> expectedOfPatient7 = new TreeMap<>();
+		expectedOfPatient7.put(1000, new TreeSet<>(Arrays.asList(100, 101)));
+		Assert.assertEquals(expectedOfPatient7,
+		    this.getOrderIdsByPrescription(prescriptionsByPatient.get(patients.get(0))));
+		
+		for (final Patient patient : patients) {
+			
+			final List<Prescription> expected = prescriptionService.findActivePrescriptionsByPatient(patient, date);
+			final List<Prescription> found = prescriptionsByPatient.get(patient);
+			
+			Assert.assertEquals("patient " + patient.getPatientId(), this.getOrderIdsByPrescription(expected),
+			    this.getOrderIdsByPrescription(found));
+			for (final Prescription prescription : found) {
+				
+				Assert.assertEquals(patient, prescription.getPatient());
+				for (final PrescriptionItem prescriptionItem : prescription.getPrescriptionItems()) {
+					Assert.assertEquals(patient, prescriptionItem.getDrugOrder().getPatient());
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void shouldPageTheActivePrescriptionsOfALocation() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldPageTheActivePrescriptionsOfALocation-dataset.xml");
+		
+		// the prescriptions made today are NEW; 1005 keeps its date of 2017 and expired since its evaluation,
+		// 1006 too and was never evaluated: neither is paged nor counted
+		try (PreparedStatement statement = this.getConnection()
+		        .prepareStatement("update encounter set date_created = ? where encounter_id between 1000 and 1004")) {
+			statement.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+			statement.executeUpdate();
+		}
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(2017, Calendar.NOVEMBER, 9);
+		
+		// patient 8 is left for the sweep, as a prescription made outside the module
+		final PrescriptionStateService prescriptionStateService = Context.getService(PrescriptionStateService.class);
+		prescriptionStateService.updatePrescriptionStates(Context.getPatientService().getPatient(7), new Date());
+		prescriptionStateService.updatePrescriptionStates(Context.getPatientService().getPatient(2),
+		    calendar.getTime());
+		
+		final PrescriptionService prescriptionService = Context.getService(PrescriptionService.class);
+		final Location location = Context.getLocationService().getLocation(1);
+		calendar.set(2017, Calendar.NOVEMBER, 8);
+		final Date date = calendar.getTime();
+		
+		final PagedResult<Prescription> firstPage = prescriptionService.findActivePrescriptionsByLocation(location,
+		    date, date, 0, 2, true);
+		
+		Assert.assertEquals(Arrays.asList(1001, 1000), this.getPrescriptionIds(firstPage.getResults()));
+		Assert.assertTrue(firstPage.hasMoreResults());
+		Assert.assertEquals(Long.valueOf(3), firstPage.getTotalCount());
+		
+		final PagedResult<Prescription> secondPage = prescriptionService.findActivePrescriptionsByLocation(location,
+		    date, date, 2, 2, false);
+		
+		Assert.assertEquals(Arrays.asList(1002), this.getPrescriptionIds(secondPage.getResults()));
+		Assert.assertFalse(secondPage.hasMoreResults());
+		Assert.assertNull(secondPage.getTotalCount());
+	}
+	
 	@Test
 	public void testCalculateDrugQuantityShouldRound() throws Exception {
 		Concept monthDurationUnits = new Concept();
@@ -215,4 +472,82 @@ public class PrescriptionServiceTest extends BaseTest {
 		Double quantity = new PrescriptionUtils().calculateDrugQuantity(drugOrder);
 		Assert.assertEquals(Double.valueOf(9.0), quantity);
 	}
+	
+	/**
+	 * Collects the SQL statements logged by hibernate
+	 */
+	private static final class StatementCapture extends AppenderSkeleton {
+		
+		private final List<String> statements = new ArrayList<>();
+		
+		@Override
+		protected void append(final LoggingEvent event) {
+			this.statements.add(event.getRenderedMessage());
+		}
+		
+		@Override
+		public boolean requiresLayout() {
+			return false;
+		}
+		
+		@Override
+		public void close() {
+		}
+		
+		private int count(final String prefix) {
+			
+			int count = 0;
+			for (final String statement : this.statements) {
+				if (statement.trim().replaceAll("\\s+", " ").toLowerCase().startsWith(prefix)) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+	
+	/**
+	 * @return the state stored for the order of patient 7
+	 */
+	private PrescriptionState findPrescriptionState(final Integer orderId) {
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		for (final PrescriptionState prescriptionState : Context.getService(PrescriptionStateService.class)
+		        .findPrescriptionStatesByPatient(Context.getPatientService().getPatient(7))) {
+			
+			if (orderId.equals(prescriptionState.getOrderId())) {
+				return prescriptionState;
+			}
+		}
+		Assert.fail("No state stored for the order " + orderId);
+		return null;
+	}
+	
+	/**
+	 * @return the ids of the orders of each prescription, by the id of its encounter
+	 */
+	private Map<Integer, Set<Integer>> getOrderIdsByPrescription(final List<Prescription> prescriptions) {
+		
+		final Map<Integer, Set<Integer>> orderIdsByPrescription = new TreeMap<>();
+		for (final Prescription prescription : prescriptions) {
+			
+			final Set<Integer> orderIds = new TreeSet<>();
+			for (final PrescriptionItem prescriptionItem : prescription.getPrescriptionItems()) {
+				orderIds.add(prescriptionItem.getDrugOrder().getOrderId());
+			}
+			orderIdsByPrescription.put(prescription.getPrescriptionEncounter().getEncounterId(), orderIds);
+		}
+		return orderIdsByPrescription;
+	}
+	
+	private List<Integer> getPrescriptionIds(final List<Prescription> prescriptions) {
+		
+		final List<Integer> prescriptionIds = new ArrayList<>();
+		for (final Prescription prescription : prescriptions) {
+			prescriptionIds.add(prescription.getPrescriptionEncounter().getEncounterId());
+		}
+		return prescriptionIds;
+	}
 }
@@ -0,0 +1,134 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.api.service.prescriptionstateservice;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
+import org.openmrs.module.pharmacyapi.api.prescription.service.PrescriptionService;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionEvaluation;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.model.PrescriptionState;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.service.PrescriptionStateService;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.task.PrescriptionStateSweepTask;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+
+public class PrescriptionStateServiceTest extends BaseTest {
+	
+	@Test
+	public void shouldNotWriteTheStatesWhenReadingThePrescriptions() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGenerateNonArvPrescriptionWithActiveStatus-dataset.xml");
+		
+		final PrescriptionStateService prescriptionStateService = Context.getService(PrescriptionStateService.class);
+		final Patient patient = Context.getPatientService().getPatient(7);
+		
+		final List<Prescription> prescriptions = Context.getService(PrescriptionService.class)
+		        .findActivePrescriptionsByPatient(patient, this.getDate(8, 10));
+		
+		Assert.assertFalse(prescriptions.isEmpty());
+		Assert.assertNull(prescriptionStateService.findPrescriptionEvaluationByPatient(patient));
+		Assert.assertTrue(prescriptionStateService.findPrescriptionStatesByPatient(patient).isEmpty());
+	}
+	
+	@Test
+	public void shouldAnswerTheSamePrescriptionsOnceEvaluated() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGenerateNonArvPrescriptionWithActiveStatus-dataset.xml");
+		
+		final PrescriptionService prescriptionService = Context.getService(PrescriptionService.class);
+		final Patient patient = Context.getPatientService().getPatient(7);
+		final Date date = this.getDate(8, 10);
+		
+		final List<Prescription> computed = prescriptionService.findActivePrescriptionsByPatient(patient, date);
+		
+		Context.getService(PrescriptionStateService.class).updatePrescriptionStates(patient, this.getDate(8, 0));
+		final List<Prescription> fromStates = prescriptionService.findActivePrescriptionsByPatient(patient, date);
+		
+		Assert.assertFalse(computed.isEmpty());
+		Assert.assertEquals(this.countItemsByPrescription(computed), this.countItemsByPrescription(fromStates));
+	}
+	
+	@Test
+	public void shouldOnlyRewriteTheStatesThatChanged() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGenerateNonArvPrescriptionWithActiveStatus-dataset.xml");
+		
+		final PrescriptionStateService prescriptionStateService = Context.getService(PrescriptionStateService.class);
+		final Patient patient = Context.getPatientService().getPatient(7);
+		final Date firstEvaluation = this.getDate(8, 10);
+		final Date secondEvaluation = this.getDate(8, 11);
+		
+		prescriptionStateService.updatePrescriptionStates(patient, firstEvaluation);
+		Context.flushSession();
+		
+		final Map<Integer, Integer> stateIdsByOrderId = new HashMap<>();
+		for (final PrescriptionState prescriptionState : prescriptionStateService
+		        .findPrescriptionStatesByPatient(patient)) {
+			stateIdsByOrderId.put(prescriptionState.getOrderId(), prescriptionState.getPrescriptionStateId());
+		}
+		Assert.assertTrue(stateIdsByOrderId.containsKey(100));
+		Assert.assertTrue(stateIdsByOrderId.containsKey(101));
+		
+		prescriptionStateService.updatePrescriptionStates(patient, secondEvaluation);
+		Context.flushSession();
+		Context.clearSession();
+		
+		final List<PrescriptionState> prescriptionStates = prescriptionStateService
+		        .findPrescriptionStatesByPatient(Context.getPatientService().getPatient(7));
+		Assert.assertEquals(stateIdsByOrderId.size(), prescriptionStates.size());
+		for (final PrescriptionState prescriptionState : prescriptionStates) {
+			
+			Assert.assertEquals(stateIdsByOrderId.get(prescriptionState.getOrderId()),
+			    prescriptionState.getPrescriptionStateId());
+			Assert.assertEquals(firstEvaluation.getTime(), prescriptionState.getEvaluationDate().getTime());
+		}
+		
+		final PrescriptionEvaluation prescriptionEvaluation = prescriptionStateService
+		        .findPrescriptionEvaluationByPatient(Context.getPatientService().getPatient(7));
+		Assert.assertEquals(secondEvaluation.getTime(), prescriptionEvaluation.getEvaluationDate().getTime());
+	}
+	
+	@Test
+	public void shouldSweepThePatientsNeverEvaluated() throws Exception {
+		this.executeDataSet("prescriptionservice/shouldGenerateNonArvPrescriptionWithActiveStatus-dataset.xml");
+		
+		final PrescriptionStateService prescriptionStateService = Context.getService(PrescriptionStateService.class);
+		Assert.assertTrue(prescriptionStateService.findPatientIdsToSweep().contains(7));
+		
+		new PrescriptionStateSweepTask().execute();
+		
+		final Patient patient = Context.getPatientService().getPatient(7);
+		Assert.assertNotNull(prescriptionStateService.findPrescriptionEvaluationByPatient(patient));
+		Assert.assertFalse(prescriptionStateService.findPrescriptionStatesByPatient(patient).isEmpty());
+	}
+	
+	private Map<Integer, Integer> countItemsByPrescription(final List<Prescription> prescriptions) {
+		
+		final Map<Integer, Integer> itemsByPrescription = new HashMap<>();
+		for (final Prescription prescription : prescriptions) {
+			itemsByPrescription.put(prescription.getPrescriptionEncounter().getEncounterId(),
+			    prescription.getPrescriptionItems().size());
+		}
+		return itemsByPrescription;
+	}
+	
+	private Date getDate(final int dayOfMonth, final int hourOfDay) {
+		
+		final Calendar calendar = Calendar.getInstance();
+		calendar.set(2017, Calendar.NOVEMBER, dayOfMonth, hourOfDay, 0, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTime();
+	}
+}
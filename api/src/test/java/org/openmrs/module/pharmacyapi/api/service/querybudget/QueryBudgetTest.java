@@ -0,0 +1,523 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+/*
+ * Friends in Global Health - FGH © 2017
+ */
+package org.openmrs.module.pharmacyapi.api.service.querybudget;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.DrugOrder;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.Order;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.dispensation.dao.DispensationDAO;
+import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service.PrescriptionDispensationService;
+import org.openmrs.module.pharmacyapi.api.prescriptionstate.dao.PrescriptionStateDAO;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Runs each module query on the data of one patient, then again once the other patients have a
+ * large synthetic history of prescriptions, dispensations and obs. A query within its budget sends
+ * no more statements and reads no more rows into the session on the second run: its cost depends
+ * on the data of the patient only, not on the size of the tables.
+ * <p>
+ * The schema of the tests is built from the mappings, so the indexes that liquibase.xml creates on
+ * orders, obs and phm_prescription_dispensation are created here as well. Each statement of the
+ * second run is then explained by H2, whose plan must not scan any of those tables.
+ */
+public class QueryBudgetTest extends BaseTest {
+	
+	private static final String DATASET = "prescriptionservice/shouldGenerateArvPrescriptionWithFinalizedStatus-dataset.xml";
+	
+	private static final String PRESCRIPTION_GRAPH_DATASET = "prescriptionservice/shouldGenerateNonArvPrescriptionWithActiveStatus-dataset.xml";
+	
+	private static final List<String> INDEXED_TABLES = Arrays.asList("orders", "obs", "phm_prescription_dispensation");
+	
+	private static final int SYNTHETIC_PRESCRIPTIONS = 300;
+	
+	private static final int SYNTHETIC_FIRST_ID = 10000;
+	
+	private static final int[] SYNTHETIC_PATIENT_IDS = { 2, 6, 8 };
+	
+	private static final String ENCOUNTER_INSERT = "insert into encounter (encounter_id, encounter_type, patient_id, "
+	        + "location_id, form_id, encounter_datetime, creator, date_created, voided, uuid) "
+	        + "values (?, 2, ?, 1, 1, ?, 1, ?, false, ?)";
+	
+	private static final String ORDER_INSERT = "insert into orders (order_id, order_type_id, order_number, urgency, "
+	        + "order_action, previous_order_id, concept_id, orderer, date_activated, date_stopped, creator, "
+	        + "date_created, voided, patient_id, uuid, care_setting, encounter_id) "
+	        + "values (?, 1, ?, 'ROUTINE', ?, ?, 88, 1, ?, ?, 1, ?, false, ?, ?, 1, ?)";
+	
+	private static final String DRUG_ORDER_INSERT = "insert into drug_order (order_id, drug_inventory_id, dose_units, "
+	        + "as_needed, frequency, dosing_type, quantity, quantity_units, num_refills, dispense_as_written) "
+	        + "values (?, 2, 50, false, 2, 'org.openmrs.SimpleDosingInstructions', 5.0, 51, 0, false)";
+	
+	private static final String PRESCRIPTION_DISPENSATION_INSERT = "insert into phm_prescription_dispensation "
+	        + "(prescription_dispensation_id, patient_id, prescription_id, dispensation_id, uuid, creator, "
+	        + "date_created, retired) values (?, ?, ?, ?, ?, 1, ?, false)";
+	
+	private static final String OBS_INSERT = "insert into obs (obs_id, person_id, concept_id, encounter_id, order_id, "
+	        + "obs_datetime, location_id, value_numeric, creator, date_created, voided, uuid) "
+	        + "values (?, ?, 981, ?, ?, ?, 1, 5, 1, ?, false, ?)";
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	@Autowired
+	private DispensationDAO dispensationDAO;
+	
+	@Autowired
+	private PrescriptionStateDAO prescriptionStateDAO;
+	
+	private boolean statisticsEnabled;
+	
+	@Override
+	public void setUp() {
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		this.statisticsEnabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		
+		// the index creations commit, which is done before any data of the test is written
+		for (final String indexCreation : QueryBudgetTest.getIndexCreations()) {
+			Context.getAdministrationService().executeSQL(indexCreation, false);
+		}
+	}
+	
+	@After
+	public void tearDown() {
+		
+		this.sessionFactory.getStatistics().setStatisticsEnabled(this.statisticsEnabled);
+	}
+	
+	@Test
+	public void shouldFindNotDispensedOrdersOfAPatientWithinBudget() throws Exception {
+		this.executeDataSet(DATASET);
+		
+		final Patient patient = Context.getPatientService().getPatient(7);
+		final EncounterType encounterType = Context.getEncounterService().getEncounterType(2);
+		
+		this.assertWithinBudget(new Lookup() {
+			
+			@Override
+			public Object run() {
+				return QueryBudgetTest.this.dispensationDAO.findNotDispensedDrugOrdersByPatient(patient,
+				    encounterType);
+			}
+		});
+	}
+	
+	@Test
+	public void shouldLoadTheNotDispensedOrdersWithTheirPrescriptionGraph() throws Exception {
+		this.executeDataSet(PRESCRIPTION_GRAPH_DATASET);
+		
+		final Patient patient = Context.getPatientService().getPatient(7);
+		final EncounterType encounterType = Context.getEncounterService().getEncounterType(2);
+		
+		this.assertPrescriptionGraphFetched(new Lookup() {
+			
+			@Override
+			public Object run() {
+				return QueryBudgetTest.this.dispensationDAO.findNotDispensedDrugOrdersByPatient(patient,
+				    encounterType);
+			}
+		});
+	}
+	
+	@Test
+	public void shouldLoadTheOrdersOfThePrescriptionStatesWithTheirPrescriptionGraph() throws Exception {
+		this.executeDataSet(PRESCRIPTION_GRAPH_DATASET);
+		
+		this.assertPrescriptionGraphFetched(new Lookup() {
+			
+			@Override
+			public Object run() {
+				return QueryBudgetTest.this.prescriptionStateDAO.findDrugOrdersByIds(Arrays.asList(100, 101));
+			}
+		});
+	}
+	
+	@Test
+	public void shouldFindDispensedOrdersOfAPatientWithinBudget() throws Exception {
+		this.executeDataSet(DATASET);
+		
+		final Patient patient = Context.getPatientService().getPatient(7);
+		
+		this.assertWithinBudget(new Lookup() {
+			
+			@Override
+			public Object run() {
+				return QueryBudgetTest.this.dispensationDAO.findDispensedDrugOrdersByPatient(patient);
+			}
+		});
+	}
+	
+	@Test
+	public void shouldFindPrescriptionDispensationsOfAPrescriptionWithinBudget() throws Exception {
+		this.executeDataSet(DATASET);
+		
+		this.assertWithinBudget(new Lookup() {
+			
+			@Override
+			public Object run() throws Exception {
+				return Context.getService(PrescriptionDispensationService.class)
+				        .findPrescriptionDispensationByPrescription(new Encounter(1000));
+			}
+		});
+	}
+	
+	@Test
+	public void shouldFindThePrescriptionDispensationOfADispensationWithinBudget() throws Exception {
+		this.executeDataSet(DATASET);
+		
+		this.assertWithinBudget(new Lookup() {
+			
+			@Override
+			public Object run() throws Exception {
+				return Context.getService(PrescriptionDispensationService.class)
+				        .findPrescriptionDispensationByDispensation(new Encounter(1001));
+			}
+		});
+	}
+	
+	@Test
+	public void shouldFindObservationsOfOrdersWithinBudget() throws Exception {
+		this.executeDataSet(DATASET);
+		
+		final Collection<Order> orders = Arrays.asList(Context.getOrderService().getOrder(100),
+		    Context.getOrderService().getOrder(101));
+		
+		this.assertWithinBudget(new Lookup() {
+			
+			@Override
+			public Object run() {
+				return Context.getService(PharmacyHeuristicService.class).findObservationsByOrders(orders);
+			}
+		});
+	}
+	
+	/**
+	 * Reads the associations of the prescription graph of the orders found, which must not send any
+	 * statement after the one of the lookup
+	 */
+	private void assertPrescriptionGraphFetched(final Lookup lookup) throws Exception {
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		statistics.clear();
+		
+		@SuppressWarnings("unchecked")
+		final List<DrugOrder> drugOrders = (List<DrugOrder>) lookup.run();
+		final long statements = statistics.getPrepareStatementCount();
+		
+		Assert.assertFalse(drugOrders.isEmpty());
+		for (final DrugOrder drugOrder : drugOrders) {
+			
+			Assert.assertNotNull(drugOrder.getEncounter().getEncounterType().getName());
+			Assert.assertNotNull(drugOrder.getDrug().getName());
+			Assert.assertNotNull(drugOrder.getConcept().getUuid());
+			Assert.assertNotNull(drugOrder.getDoseUnits().getUuid());
+			Assert.assertNotNull(drugOrder.getQuantityUnits().getUuid());
+			Assert.assertNotNull(drugOrder.getDurationUnits().getUuid());
+			Assert.assertNotNull(drugOrder.getRoute().getUuid());
+			Assert.assertNotNull(drugOrder.getFrequency().getFrequencyPerDay());
+			Assert.assertNotNull(drugOrder.getOrderer().getUuid());
+			Assert.assertNotNull(drugOrder.getCareSetting().getName());
+		}
+		
+		Assert.assertEquals(1, statements);
+		Assert.assertEquals("Lazy loads of the prescription graph", statements, statistics.getPrepareStatementCount());
+	}
+	
+	private void assertWithinBudget(final Lookup lookup) throws Exception {
+		
+		final Cost budget = this.measure(lookup, new ArrayList<String>());
+		this.loadSyntheticDataset();
+		final List<String> statements = new ArrayList<>();
+		final Cost spent = this.measure(lookup, statements);
+		
+		Assert.assertEquals(budget.resultSize, spent.resultSize);
+		Assert.assertTrue("Statements: " + spent.statements + " over the budget of " + budget.statements,
+		    spent.statements <= budget.statements);
+		Assert.assertTrue("Rows read: " + spent.rows + " over the budget of " + budget.rows, spent.rows <= budget.rows);
+		
+		this.assertIndexed(statements);
+	}
+	
+	/**
+	 * Explains each query sent, the parameters are left null since H2 plans the query before binding
+	 * them
+	 */
+	private void assertIndexed(final List<String> statements) throws SQLException {
+		
+		int plansOfIndexedTables = 0;
+		for (final String statement : statements) {
+			
+			final String query = statement.trim().replaceFirst("^/\\*.*?\\*/", "").trim();
+			if (!query.toLowerCase().startsWith("select")) {
+				continue;
+			}
+			
+			final String plan;
+			try (PreparedStatement explain = this.getConnection().prepareStatement("explain " + query)) {
+				
+				for (int i = 1; i <= explain.getParameterMetaData().getParameterCount(); i++) {
+					explain.setNull(i, Types.NULL);
+				}
+				try (ResultSet resultSet = explain.executeQuery()) {
+					resultSet.next();
+					plan = resultSet.getString(1);
+				}
+			}
+			
+			for (final String table : INDEXED_TABLES) {
+				
+				final String qualifiedTable = "PUBLIC." + table.toUpperCase();
+				if (plan.contains(qualifiedTable + " ")) {
+					plansOfIndexedTables++;
+				}
+				Assert.assertFalse("Scan of " + table + ": " + plan, plan.contains(qualifiedTable + ".tableScan"));
+			}
+		}
+		Assert.assertTrue("No query on the indexed tables", plansOfIndexedTables > 0);
+	}
+	
+	/**
+	 * @param statements collects the SQL sent by the lookup, as logged by hibernate
+	 */
+	private Cost measure(final Lookup lookup, final List<String> statements) throws Exception {
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		statistics.clear();
+		
+		final Logger sqlLogger = Logger.getLogger("org.hibernate.SQL");
+		final Level level = sqlLogger.getLevel();
+		final AppenderSkeleton appender = new AppenderSkeleton() {
+			
+			@Override
+			protected void append(final LoggingEvent event) {
+				statements.add(event.getRenderedMessage());
+			}
+			
+			@Override
+			public boolean requiresLayout() {
+				return false;
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+		
+		final Object result;
+		sqlLogger.addAppender(appender);
+		sqlLogger.setLevel(Level.DEBUG);
+		try {
+			result = lookup.run();
+		}
+		finally {
+			sqlLogger.setLevel(level);
+			sqlLogger.removeAppender(appender);
+		}
+		
+		final int resultSize = result instanceof Collection ? ((Collection<?>) result).size() : 1;
+		return new Cost(statistics.getPrepareStatementCount(), statistics.getEntityLoadCount(), resultSize);
+	}
+	
+	/**
+	 * Gives the other patients of the standard dataset prescriptions of one order, each one dispensed
+	 * with a revision of the order and its obs. The ids start after the ones of the datasets.
+	 */
+	private void loadSyntheticDataset() throws SQLException {
+		
+		final Connection connection = this.getConnection();
+		final Timestamp date = new Timestamp(System.currentTimeMillis());
+		
+		try (PreparedStatement encounterInsert = connection.prepareStatement(ENCOUNTER_INSERT);
+		        PreparedStatement orderInsert = connection.prepareStatement(ORDER_INSERT);
+		        PreparedStatement drugOrderInsert = connection.prepareStatement(DRUG_ORDER_INSERT);
+		        PreparedStatement prescriptionDispensationInsert = connection
+		                .prepareStatement(PRESCRIPTION_DISPENSATION_INSERT);
+		        PreparedStatement obsInsert = connection.prepareStatement(OBS_INSERT)) {
+			
+			for (int i = 0; i < SYNTHETIC_PRESCRIPTIONS; i++) {
+				
+				final int patientId = SYNTHETIC_PATIENT_IDS[i % SYNTHETIC_PATIENT_IDS.length];
+				final int prescriptionId = SYNTHETIC_FIRST_ID + (2 * i);
+				final int dispensationId = prescriptionId + 1;
+				
+				this.addEncounter(encounterInsert, prescriptionId, patientId, date);
+				this.addEncounter(encounterInsert, dispensationId, patientId, date);
+				
+				this.addOrder(orderInsert, prescriptionId, "NEW", null, patientId, prescriptionId, date);
+				this.addOrder(orderInsert, dispensationId, "REVISE", prescriptionId, patientId, dispensationId, date);
+				
+				drugOrderInsert.setInt(1, prescriptionId);
+				drugOrderInsert.addBatch();
+				drugOrderInsert.setInt(1, dispensationId);
+				drugOrderInsert.addBatch();
+				
+				prescriptionDispensationInsert.setInt(1, SYNTHETIC_FIRST_ID + i);
+				prescriptionDispensationInsert.setInt(2, patientId);
+				prescriptionDispensationInsert.setInt(3, prescriptionId);
+				prescriptionDispensationInsert.setInt(4, dispensationId);
+				prescriptionDispensationInsert.setString(5, "syn-pd-" + i);
+				prescriptionDispensationInsert.setTimestamp(6, date);
+				prescriptionDispensationInsert.addBatch();
+				
+				for (int j = 0; j < 3; j++) {
+					
+					obsInsert.setInt(1, SYNTHETIC_FIRST_ID + (3 * i) + j);
+					obsInsert.setInt(2, patientId);
+					obsInsert.setInt(3, dispensationId);
+					obsInsert.setInt(4, dispensationId);
+					obsInsert.setTimestamp(5, date);
+					obsInsert.setTimestamp(6, date);
+					obsInsert.setString(7, "syn-obs-" + i + "-" + j);
+					obsInsert.addBatch();
+				}
+			}
+			
+			encounterInsert.executeBatch();
+			orderInsert.executeBatch();
+			drugOrderInsert.executeBatch();
+			prescriptionDispensationInsert.executeBatch();
+			obsInsert.executeBatch();
+		}
+	}
+	
+	/**
+	 * @return the statements creating the indexes that liquibase.xml defines on the indexed tables
+	 */
+	private static List<String> getIndexCreations() {
+		
+		try (InputStream changeLog = QueryBudgetTest.class.getClassLoader().getResourceAsStream("liquibase.xml")) {
+			
+			final Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(changeLog);
+			final NodeList createIndexes = document.getElementsByTagName("createIndex");
+			
+			final List<String> indexCreations = new ArrayList<>();
+			for (int i = 0; i < createIndexes.getLength(); i++) {
+				
+				final Element createIndex = (Element) createIndexes.item(i);
+				final String tableName = createIndex.getAttribute("tableName");
+				if (!INDEXED_TABLES.contains(tableName)) {
+					continue;
+				}
+				
+				final List<String> columnNames = new ArrayList<>();
+				final NodeList columns = createIndex.getElementsByTagName("column");
+				for (int j = 0; j < columns.getLength(); j++) {
+					columnNames.add(((Element) columns.item(j)).getAttribute("name"));
+				}
+				indexCreations.add("create index if not exists " + createIndex.getAttribute("indexName") + " on "
+				        + tableName + " (" + StringUtils.join(columnNames, ", ") + ")");
+			}
+			return indexCreations;
+		}
+		catch (final IOException | ParserConfigurationException | SAXException e) {
+			throw new IllegalStateException("Could not read the indexes of liquibase.xml", e);
+		}
+	}
+	
+	private void addEncounter(final PreparedStatement encounterInsert, final int encounterId, final int patientId,
+	        final Timestamp date) throws SQLException {
+		
+		encounterInsert.setInt(1, encounterId);
+		encounterInsert.setInt(2, patientId);
+		encounterInsert.setTimestamp(3, date);
+		encounterInsert.setTimestamp(4, date);
+		encounterInsert.setString(5, "syn-encounter-" + encounterId);
+		encounterInsert.addBatch();
+	}
+	
+	/**
+	 * The revised order of a dispensation is stopped, the revision stays active
+	 */
+	private void addOrder(final PreparedStatement orderInsert, final int orderId, final String action,
+	        final Integer previousOrderId, final int patientId, final int encounterId, final Timestamp date)
+	        throws SQLException {
+		
+		orderInsert.setInt(1, orderId);
+		orderInsert.setString(2, "SYN-" + orderId);
+		orderInsert.setString(3, action);
+		if (previousOrderId == null) {
+			orderInsert.setNull(4, Types.INTEGER);
+			orderInsert.setTimestamp(6, date);
+		} else {
+			orderInsert.setInt(4, previousOrderId);
+			orderInsert.setNull(6, Types.TIMESTAMP);
+		}
+		orderInsert.setTimestamp(5, date);
+		orderInsert.setTimestamp(7, date);
+		orderInsert.setInt(8, patientId);
+		orderInsert.setString(9, "syn-order-" + orderId);
+		orderInsert.setInt(10, encounterId);
+		orderInsert.addBatch();
+	}
+	
+	private interface Lookup {
+		
+		Object run() throws Exception;
+	}
+	
+	private static final class Cost {
+		
+		private final long statements;
+		
+		private final long rows;
+		
+		private final int resultSize;
+		
+		private Cost(final long statements, final long rows, final int resultSize) {
+			this.statements = statements;
+			this.rows = rows;
+			this.resultSize = resultSize;
+		}
+	}
+}
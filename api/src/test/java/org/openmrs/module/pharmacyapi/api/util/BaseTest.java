@@ -12,11 +12,20 @@
  */
 package org.openmrs.module.pharmacyapi.api.util;
 
+import java.util.Properties;
+
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.util.CatalogCache;
+import org.openmrs.module.pharmacyapi.api.common.util.MetadataRegistry;
+import org.openmrs.module.pharmacyapi.api.dispensation.util.StockAvailabilityCache;
+import org.openmrs.module.pharmacyapi.api.drugitem.util.DrugSearchIndex;
+import org.openmrs.module.pharmacyapi.api.drugregime.util.DrugRegimeIndex;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.util.FilaOutboxSetting;
 import org.openmrs.test.BaseContextSensitiveTest;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import br.com.six2six.fixturefactory.loader.FixtureFactoryLoader;
 
@@ -27,6 +36,24 @@ public abstract class BaseTest extends BaseModuleContextSensitiveTest {
 	
 	private static final String EXAMPLE_XML_DATASET_PACKAGE_PATH = "standardTestDataset.xml";
 	
+	@Autowired
+	private DrugRegimeIndex drugRegimeIndex;
+	
+	@Autowired
+	private StockAvailabilityCache stockAvailabilityCache;
+	
+	@Autowired
+	private DrugSearchIndex drugSearchIndex;
+	
+	@Autowired
+	private CatalogCache catalogCache;
+	
+	@Autowired
+	private FilaOutboxSetting filaOutboxSetting;
+	
+	@Autowired
+	private MetadataRegistry metadataRegistry;
+	
 	@BeforeClass
 	public static void setupClass() {
 		
@@ -67,4 +94,31 @@ public abstract class BaseTest extends BaseModuleContextSensitiveTest {
 	public void setUp() {
 		
 	}
+	
+	/**
+	 * Adds the runtime properties an install sets to cache the lookups of the module
+	 */
+	@Override
+	public Properties getRuntimeProperties() {
+		
+		final Properties runtimeProperties = super.getRuntimeProperties();
+		runtimeProperties.setProperty("hibernate.cache.use_second_level_cache", "true");
+		runtimeProperties.setProperty("hibernate.cache.use_query_cache", "true");
+		runtimeProperties.setProperty("hibernate.generate_statistics", "true");
+		return runtimeProperties;
+	}
+	
+	@Override
+	public void executeDataSet(final String datasetFilename) throws Exception {
+		
+		super.executeDataSet(datasetFilename);
+		
+		// datasets are inserted behind hibernate's back
+		this.drugRegimeIndex.invalidate();
+		this.stockAvailabilityCache.invalidateAll();
+		this.drugSearchIndex.invalidate();
+		this.catalogCache.evictAll();
+		this.filaOutboxSetting.invalidate();
+		this.metadataRegistry.evictAll();
+	}
 }
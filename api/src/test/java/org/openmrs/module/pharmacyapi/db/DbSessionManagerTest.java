@@ -0,0 +1,124 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.db;
+
+import org.hibernate.FlushMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Counts the flushes and the updates sent to the database while a write unit runs: its writes only
+ * reach the database at the end of the unit, in one flush.
+ */
+public class DbSessionManagerTest extends BaseTest {
+	
+	@Autowired
+	private DbSessionManager dbSessionManager;
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	private boolean statisticsEnabled;
+	
+	@Override
+	public void setUp() {
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		this.statisticsEnabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+	}
+	
+	@After
+	public void tearDown() {
+		
+		this.sessionFactory.getStatistics().setStatisticsEnabled(this.statisticsEnabled);
+	}
+	
+	@Test
+	public void shouldSendTheWritesOfTheUnitInOneFlushAtItsEnd() throws Exception {
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		statistics.clear();
+		
+		this.dbSessionManager.beginWriteUnit();
+		this.renameLocations();
+		
+		// a query on the written table would flush them in the AUTO flush mode
+		Context.getLocationService().getAllLocations();
+		
+		Assert.assertEquals(0, statistics.getFlushCount());
+		Assert.assertEquals(0, statistics.getEntityUpdateCount());
+		
+		this.dbSessionManager.endWriteUnit();
+		
+		Assert.assertEquals(1, statistics.getFlushCount());
+		Assert.assertEquals(2, statistics.getEntityUpdateCount());
+		Assert.assertEquals(FlushMode.AUTO, this.dbSessionManager.getCurrentFlushMode());
+	}
+	
+	@Test
+	public void shouldOnlyFlushWhenTheOutermostUnitEnds() throws Exception {
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		statistics.clear();
+		
+		this.dbSessionManager.beginWriteUnit();
+		this.dbSessionManager.beginWriteUnit();
+		this.renameLocations();
+		this.dbSessionManager.endWriteUnit();
+		
+		Assert.assertEquals(0, statistics.getFlushCount());
+		Assert.assertEquals(FlushMode.MANUAL, this.dbSessionManager.getCurrentFlushMode());
+		
+		this.dbSessionManager.endWriteUnit();
+		
+		Assert.assertEquals(1, statistics.getFlushCount());
+		Assert.assertEquals(2, statistics.getEntityUpdateCount());
+	}
+	
+	@Test
+	public void shouldNotFlushAnAbandonedUnit() throws Exception {
+		
+		final Statistics statistics = this.sessionFactory.getStatistics();
+		statistics.clear();
+		
+		this.dbSessionManager.beginWriteUnit();
+		this.renameLocations();
+		this.dbSessionManager.abandonWriteUnit();
+		
+		Assert.assertEquals(0, statistics.getFlushCount());
+		Assert.assertEquals(0, statistics.getEntityUpdateCount());
+		Assert.assertEquals(FlushMode.AUTO, this.dbSessionManager.getCurrentFlushMode());
+		
+		// the next unit of the thread starts afresh
+		Context.clearSession();
+		this.dbSessionManager.beginWriteUnit();
+		this.dbSessionManager.endWriteUnit();
+		
+		Assert.assertEquals(1, statistics.getFlushCount());
+		Assert.assertEquals(0, statistics.getEntityUpdateCount());
+	}
+	
+	private void renameLocations() {
+		
+		for (final Integer locationId : new Integer[] { 1, 2 }) {
+			
+			final Location location = Context.getLocationService().getLocation(locationId);
+			location.setDescription("Renamed within the write unit");
+		}
+	}
+}
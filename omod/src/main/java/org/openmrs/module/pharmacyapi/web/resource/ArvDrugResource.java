@@ -16,12 +16,15 @@ import java.util.List;
 
 import org.openmrs.Drug;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
 import org.openmrs.module.pharmacyapi.api.drugregime.service.DrugRegimeService;
 import org.openmrs.module.webservices.rest.web.RequestContext;
 import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.SimpleObject;
 import org.openmrs.module.webservices.rest.web.annotation.Resource;
-import org.openmrs.module.webservices.rest.web.resource.impl.NeedsPaging;
+import org.openmrs.module.webservices.rest.web.resource.impl.AlreadyPaged;
+import org.openmrs.module.webservices.rest.web.response.ResponseException;
 import org.openmrs.module.webservices.rest.web.v1_0.resource.openmrs1_11.DrugResource1_11;
 
 /**
@@ -38,9 +41,17 @@ public class ArvDrugResource extends DrugResource1_11 {
 		return drugRegime.isEmpty() ? null : drugRegime.get(0).getDrugItem().getDrug();
 	}
 	
+	/**
+	 * The inherited doGetAll is bound to NeedsPaging, so the ARV drugs are paged in the database here
+	 * instead.
+	 */
 	@Override
-	protected NeedsPaging<Drug> doGetAll(final RequestContext context) {
+	public SimpleObject getAll(final RequestContext context) throws ResponseException {
 		
-		return new NeedsPaging<>(Context.getService(DrugRegimeService.class).findArvDrugs(), context);
+		final PagedResult<Drug> drugs = Context.getService(DrugRegimeService.class).findArvDrugs(
+		    context.getStartIndex(), context.getLimit(), Boolean.TRUE.equals(context.getIncludeTotalCount()));
+		
+		return new AlreadyPaged<>(context, drugs.getResults(), drugs.hasMoreResults(), drugs.getTotalCount())
+		        .toSimpleObject(this);
 	}
 }
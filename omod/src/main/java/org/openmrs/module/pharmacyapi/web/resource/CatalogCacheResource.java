@@ -0,0 +1,92 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.web.resource;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.CacheRegionStatistics;
+import org.openmrs.module.pharmacyapi.api.common.util.CatalogCache;
+import org.openmrs.module.webservices.rest.web.RequestContext;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.SimpleObject;
+import org.openmrs.module.webservices.rest.web.annotation.Resource;
+import org.openmrs.module.webservices.rest.web.representation.Representation;
+import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingCrudResource;
+import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
+import org.openmrs.module.webservices.rest.web.response.ResourceDoesNotSupportOperationException;
+import org.openmrs.module.webservices.rest.web.response.ResponseException;
+
+/**
+ * Hits, misses and puts of the second-level cache regions of the module, by region name. Purging a
+ * region evicts it, which is needed after the catalog is changed directly in the database.
+ */
+@Resource(name = RestConstants.VERSION_1
+        + "/catalogcache", order = 1, supportedClass = CacheRegionStatistics.class, supportedOpenmrsVersions = {
+        "1.8.*", "1.9.*", "1.10.*", "1.11.*", "1.12.*" })
+public class CatalogCacheResource extends DelegatingCrudResource<CacheRegionStatistics> {
+	
+	@Override
+	public DelegatingResourceDescription getRepresentationDescription(final Representation rep) {
+		
+		final DelegatingResourceDescription description = new DelegatingResourceDescription();
+		description.addProperty("regionName");
+		description.addProperty("hitCount");
+		description.addProperty("missCount");
+		description.addProperty("putCount");
+		description.addProperty("elementCountInMemory");
+		return description;
+	}
+	
+	@Override
+	public CacheRegionStatistics newDelegate() {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@Override
+	public CacheRegionStatistics save(final CacheRegionStatistics regionStatistics) {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@Override
+	public CacheRegionStatistics getByUniqueId(final String regionName) {
+		return this.getCatalogCache().getStatistics(regionName);
+	}
+	
+	/**
+	 * @return the statistics of each region, zero while the statistics are not enabled
+	 */
+	@Override
+	public SimpleObject getAll(final RequestContext context) throws ResponseException {
+		
+		final CatalogCache catalogCache = this.getCatalogCache();
+		
+		final SimpleObject simpleObject = new SimpleObject();
+		simpleObject.add("statisticsEnabled", catalogCache.isStatisticsEnabled());
+		for (final CacheRegionStatistics region : catalogCache.getStatistics()) {
+			simpleObject.add(region.getRegionName(), this.asRepresentation(region, Representation.DEFAULT));
+		}
+		return simpleObject;
+	}
+	
+	@Override
+	protected void delete(final CacheRegionStatistics regionStatistics, final String reason,
+	        final RequestContext context) throws ResponseException {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@Override
+	public void purge(final CacheRegionStatistics regionStatistics, final RequestContext context)
+	        throws ResponseException {
+		this.getCatalogCache().evictRegion(regionStatistics.getRegionName());
+	}
+	
+	private CatalogCache getCatalogCache() {
+		return Context.getRegisteredComponents(CatalogCache.class).get(0);
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.web.resource;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationBatch;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationResult;
+import org.openmrs.module.pharmacyapi.api.dispensation.service.DispensationService;
+import org.openmrs.module.webservices.rest.web.RequestContext;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.SimpleObject;
+import org.openmrs.module.webservices.rest.web.annotation.PropertyGetter;
+import org.openmrs.module.webservices.rest.web.annotation.PropertySetter;
+import org.openmrs.module.webservices.rest.web.annotation.Resource;
+import org.openmrs.module.webservices.rest.web.representation.Representation;
+import org.openmrs.module.webservices.rest.web.resource.impl.DataDelegatingCrudResource;
+import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
+import org.openmrs.module.webservices.rest.web.response.ResourceDoesNotSupportOperationException;
+import org.openmrs.module.webservices.rest.web.response.ResponseException;
+
+/**
+ * Dispenses in one request the dispensations of a list of patients, answering with the outcome of
+ * each of them so that the rejected ones can be fixed and submitted again.
+ */
+@Resource(name = RestConstants.VERSION_1
+        + "/dispensationbatch", order = 1, supportedClass = DispensationBatch.class, supportedOpenmrsVersions = {
+        "1.8.*", "1.9.*", "1.10.*", "1.11.*", "1.12.*" })
+public class DispensationBatchResource extends DataDelegatingCrudResource<DispensationBatch> {
+	
+	@Override
+	public DelegatingResourceDescription getRepresentationDescription(final Representation rep) {
+		
+		final DelegatingResourceDescription description = new DelegatingResourceDescription();
+		description.addProperty("uuid");
+		description.addProperty("results");
+		return description;
+	}
+	
+	@Override
+	public DispensationBatch newDelegate() {
+		return new DispensationBatch();
+	}
+	
+	@Override
+	public DispensationBatch save(final DispensationBatch dispensationBatch) {
+		
+		final Date dispensationDate = new Date();
+		for (final Dispensation dispensation : dispensationBatch.getDispensations()) {
+			dispensation.setDispensationDate(dispensationDate);
+		}
+		
+		try {
+			dispensationBatch.setResults(
+			    Context.getService(DispensationService.class).dispenseAll(dispensationBatch.getDispensations()));
+		}
+		catch (final Exception e) {
+			throw new APIException(e.getMessage());
+		}
+		return dispensationBatch;
+	}
+	
+	@Override
+	public DispensationBatch getByUniqueId(final String uniqueId) {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@Override
+	protected void delete(final DispensationBatch dispensationBatch, final String reason,
+	        final RequestContext context) throws ResponseException {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@Override
+	public void purge(final DispensationBatch dispensationBatch, final RequestContext context)
+	        throws ResponseException {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@PropertySetter("dispensations")
+	public static void setDispensations(final DispensationBatch instance, final List<Dispensation> dispensations) {
+		instance.setDispensations(dispensations);
+	}
+	
+	@PropertyGetter("results")
+	public static List<SimpleObject> getResults(final DispensationBatch instance) {
+		
+		final List<SimpleObject> results = new ArrayList<>();
+		for (final DispensationResult result : instance.getResults()) {
+			
+			final Dispensation dispensation = result.getDispensation();
+			final SimpleObject simpleObject = new SimpleObject();
+			simpleObject.add("patientUuid", dispensation.getPatientUuid());
+			simpleObject.add("successful", result.isSuccessful());
+			simpleObject.add("errorMessage", result.getErrorMessage());
+			results.add(simpleObject);
+		}
+		return results;
+	}
+	
+	@Override
+	public DelegatingResourceDescription getCreatableProperties() throws ResourceDoesNotSupportOperationException {
+		
+		final DelegatingResourceDescription description = new DelegatingResourceDescription();
+		description.addProperty("dispensations");
+		return description;
+	}
+}
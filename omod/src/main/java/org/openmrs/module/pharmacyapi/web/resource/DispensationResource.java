@@ -11,22 +11,31 @@ package org.openmrs.module.pharmacyapi.web.resource;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.lang3.StringUtils;
 import org.openmrs.Concept;
-import org.openmrs.Obs;
+import org.openmrs.Encounter;
 import org.openmrs.Order;
 import org.openmrs.Patient;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.common.util.EncounterObsDigest;
 import org.openmrs.module.pharmacyapi.api.common.util.MappedConcepts;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
 import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationItem;
 import org.openmrs.module.pharmacyapi.api.dispensation.service.DispensationService;
+import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.webservices.rest.web.RequestContext;
 import org.openmrs.module.webservices.rest.web.RestConstants;
 import org.openmrs.module.webservices.rest.web.annotation.PropertySetter;
@@ -36,10 +45,10 @@ import org.openmrs.module.webservices.rest.web.representation.FullRepresentation
 import org.openmrs.module.webservices.rest.web.representation.RefRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.Representation;
 import org.openmrs.module.webservices.rest.web.resource.api.PageableResult;
+import org.openmrs.module.webservices.rest.web.resource.impl.AlreadyPaged;
 import org.openmrs.module.webservices.rest.web.resource.impl.DataDelegatingCrudResource;
 import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
 import org.openmrs.module.webservices.rest.web.resource.impl.EmptySearchResult;
-import org.openmrs.module.webservices.rest.web.resource.impl.NeedsPaging;
 import org.openmrs.module.webservices.rest.web.response.ResourceDoesNotSupportOperationException;
 import org.openmrs.module.webservices.rest.web.response.ResponseException;
 
@@ -102,7 +111,8 @@ public class DispensationResource extends DataDelegatingCrudResource<Dispensatio
 	/**
 	 * Has the Approach for cancelation a dispensation will be made canceling each DrugOrder for a
 	 * especific Dispensation, the getByUniqueId will return a specific DrugOrder so will be
-	 * possible to make a cancelation for the found drugOrder
+	 * possible to make a cancelation for the found drugOrder. Other orders of the patient may be
+	 * cancelled in the same call through the comma separated uuids of the {@code orders} parameter
 	 * 
 	 * @param orderUuid the uuid of specific DrugOrder
 	 * @return {@Dispensation} a dispensation with a @Collection<DispensationItem>
@@ -114,26 +124,10 @@ public class DispensationResource extends DataDelegatingCrudResource<Dispensatio
 		final Order order = Context.getOrderService().getOrderByUuid(orderUuid);
 		if (order != null) {
 			final Dispensation dispensation = new Dispensation();
-			final DispensationItem dispensationItem = new DispensationItem();
-			dispensationItem.setOrderUuid(order.getUuid());
-			dispensation.setDispensationItems(Arrays.asList(dispensationItem));
+			dispensation.setDispensationItems(this.toDispensationItems(Arrays.asList(order)));
 			dispensation.setPatientUuid(order.getPatient().getUuid());
 			dispensation.setLocationUuid(order.getEncounter().getLocation().getUuid());
 			dispensation.setProviderUuid(order.getEncounter().getProvider().getUuid());
-			
-			final Concept arvConceptQuestion = Context.getConceptService()
-			        .getConceptByUuid(MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
-			
-			final Set<Obs> allObs = order.getEncounter().getAllObs(this.isRetirable());
-			
-			for (final Obs obs : allObs) {
-				
-				if (obs.getConcept().equals(arvConceptQuestion)) {
-					
-					dispensationItem.setRegimeUuid(obs.getValueCoded().getUuid());
-					break;
-				}
-			}
 			return dispensation;
 		}
 		
@@ -141,6 +135,35 @@ public class DispensationResource extends DataDelegatingCrudResource<Dispensatio
 		
 	}
 	
+	/**
+	 * Builds one item for each order, the regimes of their prescriptions are loaded together
+	 */
+	private List<DispensationItem> toDispensationItems(final List<Order> orders) {
+		
+		final Set<Encounter> prescriptions = new HashSet<>();
+		for (final Order order : orders) {
+			prescriptions.add(order.getEncounter());
+		}
+		
+		final EncounterObsDigest obsDigest = Context.getService(PharmacyHeuristicService.class)
+		        .loadEncounterObsDigest(prescriptions, MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+		
+		final List<DispensationItem> dispensationItems = new ArrayList<>();
+		for (final Order order : orders) {
+			
+			final DispensationItem dispensationItem = new DispensationItem();
+			dispensationItem.setOrderUuid(order.getUuid());
+			
+			final Concept regime = obsDigest.findValueCoded(order.getEncounter(),
+			    MappedConcepts.PREVIOUS_ANTIRETROVIRAL_DRUGS);
+			if (regime != null) {
+				dispensationItem.setRegimeUuid(regime.getUuid());
+			}
+			dispensationItems.add(dispensationItem);
+		}
+		return dispensationItems;
+	}
+	
 	@Override
 	protected PageableResult doSearch(final RequestContext context) {
 		
@@ -158,7 +181,11 @@ public class DispensationResource extends DataDelegatingCrudResource<Dispensatio
 			
 			try {
 				
-				return new NeedsPaging<>(this.findFilaByPatientAndDateInterval(patient, startDate, endDate), context);
+				final PagedResult<Dispensation> dispensations = this.findFilaByPatientAndDateInterval(patient,
+				    startDate, endDate, context);
+				
+				return new AlreadyPaged<>(context, dispensations.getResults(), dispensations.hasMoreResults(),
+				        dispensations.getTotalCount());
 			}
 			catch (ParseException | PharmacyBusinessException e) {
 				
@@ -169,15 +196,17 @@ public class DispensationResource extends DataDelegatingCrudResource<Dispensatio
 		return new EmptySearchResult();
 	}
 	
-	private List<Dispensation> findFilaByPatientAndDateInterval(final Patient patient, final String startDateText,
-	        final String endDateText) throws ParseException, PharmacyBusinessException {
+	private PagedResult<Dispensation> findFilaByPatientAndDateInterval(final Patient patient,
+	        final String startDateText, final String endDateText, final RequestContext context)
+	        throws ParseException, PharmacyBusinessException {
 		
 		final SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy");
 		final Date stardDate = formatter.parse(startDateText);
 		final Date endDate = formatter.parse(endDateText);
 		
-		final List<Dispensation> dispensations = Context.getService(DispensationService.class)
-		        .findFilaDispensationByPatientAndDateInterval(patient, stardDate, endDate);
+		final PagedResult<Dispensation> dispensations = Context.getService(DispensationService.class)
+		        .findFilaDispensationByPatientAndDateInterval(patient, stardDate, endDate, context.getStartIndex(),
+		            context.getLimit(), Boolean.TRUE.equals(context.getIncludeTotalCount()));
 		
 		return dispensations;
 	}
@@ -187,6 +216,7 @@ public class DispensationResource extends DataDelegatingCrudResource<Dispensatio
 	        throws ResponseException {
 		
 		try {
+			this.addOrdersToCancel(dispensation, context.getRequest().getParameter("orders"));
 			dispensation.setDispensationDate(new Date());
 			Context.getService(DispensationService.class).cancelDispensationItems(dispensation, reason);
 		}
@@ -197,6 +227,45 @@ public class DispensationResource extends DataDelegatingCrudResource<Dispensatio
 		
 	}
 	
+	/**
+	 * Adds to the dispensation the orders of the comma separated uuids, so that all of them are
+	 * cancelled in the same call
+	 */
+	private void addOrdersToCancel(final Dispensation dispensation, final String orderUuids) {
+		
+		if (StringUtils.isBlank(orderUuids)) {
+			return;
+		}
+		
+		final Set<String> uuidsToCancel = new LinkedHashSet<>();
+		for (final String orderUuid : StringUtils.split(orderUuids, ',')) {
+			uuidsToCancel.add(orderUuid.trim());
+		}
+		for (final DispensationItem dispensationItem : dispensation.getDispensationItems()) {
+			uuidsToCancel.remove(dispensationItem.getOrderUuid());
+		}
+		
+		// the orders are read with one query and given back in the order of their uuids
+		final Map<String, Order> ordersByUuid = new HashMap<>();
+		for (final Order order : Context.getService(PharmacyHeuristicService.class).findOrdersByUuids(uuidsToCancel)) {
+			ordersByUuid.put(order.getUuid(), order);
+		}
+		
+		final List<Order> orders = new ArrayList<>();
+		for (final String orderUuid : uuidsToCancel) {
+			
+			final Order order = ordersByUuid.get(orderUuid);
+			if (order == null) {
+				throw new APIException("Order with uuid: " + orderUuid + " not found");
+			}
+			orders.add(order);
+		}
+		
+		final List<DispensationItem> dispensationItems = new ArrayList<>(dispensation.getDispensationItems());
+		dispensationItems.addAll(this.toDispensationItems(orders));
+		dispensation.setDispensationItems(dispensationItems);
+	}
+	
 	@Override
 	public void purge(final Dispensation dispensation, final RequestContext context) throws ResponseException {
 		throw new ResourceDoesNotSupportOperationException();
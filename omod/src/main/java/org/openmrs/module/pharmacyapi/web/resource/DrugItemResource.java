@@ -13,6 +13,7 @@
 package org.openmrs.module.pharmacyapi.web.resource;
 
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.drugitem.model.DrugItem;
 import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugItemService;
 import org.openmrs.module.webservices.rest.web.RequestContext;
@@ -23,9 +24,9 @@ import org.openmrs.module.webservices.rest.web.representation.FullRepresentation
 import org.openmrs.module.webservices.rest.web.representation.RefRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.Representation;
 import org.openmrs.module.webservices.rest.web.resource.api.PageableResult;
+import org.openmrs.module.webservices.rest.web.resource.impl.AlreadyPaged;
 import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
 import org.openmrs.module.webservices.rest.web.resource.impl.MetadataDelegatingCrudResource;
-import org.openmrs.module.webservices.rest.web.resource.impl.NeedsPaging;
 import org.openmrs.module.webservices.rest.web.response.ResourceDoesNotSupportOperationException;
 import org.openmrs.module.webservices.rest.web.response.ResponseException;
 
@@ -80,7 +81,11 @@ public class DrugItemResource extends MetadataDelegatingCrudResource<DrugItem> {
 	@Override
 	protected PageableResult doGetAll(final RequestContext context) throws ResponseException {
 		
-		return new NeedsPaging<>(Context.getService(DrugItemService.class).findAllDrugItem(context.getIncludeAll()),
-		        context);
+		final PagedResult<DrugItem> drugItems = Context.getService(DrugItemService.class).findAllDrugItem(
+		    context.getIncludeAll(), context.getStartIndex(), context.getLimit(),
+		    Boolean.TRUE.equals(context.getIncludeTotalCount()));
+		
+		return new AlreadyPaged<>(context, drugItems.getResults(), drugItems.hasMoreResults(),
+		        drugItems.getTotalCount());
 	}
 }
@@ -12,10 +12,9 @@
  */
 package org.openmrs.module.pharmacyapi.web.resource;
 
-import java.util.List;
-
 import org.openmrs.Concept;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.drugregime.model.DrugRegime;
 import org.openmrs.module.pharmacyapi.api.drugregime.service.DrugRegimeService;
 import org.openmrs.module.webservices.rest.web.RequestContext;
@@ -26,6 +25,7 @@ import org.openmrs.module.webservices.rest.web.representation.FullRepresentation
 import org.openmrs.module.webservices.rest.web.representation.RefRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.Representation;
 import org.openmrs.module.webservices.rest.web.resource.api.PageableResult;
+import org.openmrs.module.webservices.rest.web.resource.impl.AlreadyPaged;
 import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
 import org.openmrs.module.webservices.rest.web.resource.impl.EmptySearchResult;
 import org.openmrs.module.webservices.rest.web.resource.impl.MetadataDelegatingCrudResource;
@@ -85,11 +85,14 @@ public class DrugRegimeResource extends MetadataDelegatingCrudResource<DrugRegim
 	}
 	
 	@Override
-	protected NeedsPaging<DrugRegime> doGetAll(final RequestContext context) {
+	protected PageableResult doGetAll(final RequestContext context) {
+		
+		final PagedResult<DrugRegime> drugRegimes = Context.getService(DrugRegimeService.class).findAllDrugRegimes(
+		    context.getIncludeAll(), context.getStartIndex(), context.getLimit(),
+		    Boolean.TRUE.equals(context.getIncludeTotalCount()));
 		
-		final List<DrugRegime> drugRegimes = Context.getService(DrugRegimeService.class)
-		        .findAllDrugRegimes(context.getIncludeAll());
-		return new NeedsPaging<>(drugRegimes, context);
+		return new AlreadyPaged<>(context, drugRegimes.getResults(), drugRegimes.hasMoreResults(),
+		        drugRegimes.getTotalCount());
 	}
 	
 	@Override
@@ -11,12 +11,13 @@ package org.openmrs.module.pharmacyapi.web.resource;
 
 import org.openmrs.Drug;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
 import org.openmrs.module.pharmacyapi.api.drugitem.service.DrugWrapperService;
 import org.openmrs.module.webservices.rest.web.RequestContext;
 import org.openmrs.module.webservices.rest.web.RestConstants;
 import org.openmrs.module.webservices.rest.web.annotation.Resource;
 import org.openmrs.module.webservices.rest.web.resource.api.PageableResult;
-import org.openmrs.module.webservices.rest.web.resource.impl.NeedsPaging;
+import org.openmrs.module.webservices.rest.web.resource.impl.AlreadyPaged;
 import org.openmrs.module.webservices.rest.web.v1_0.resource.openmrs1_10.DrugResource1_10;
 
 @Resource(name = RestConstants.VERSION_1 + "/drugresource", order = 2, supportedClass = Drug.class, supportedOpenmrsVersions = {
@@ -25,7 +26,9 @@ public class DrugWrapResource extends DrugResource1_10 {
 	
 	protected PageableResult doSearch(RequestContext ctx) {
 		
-		return new NeedsPaging<>(
-		        Context.getService(DrugWrapperService.class).findDrugsByNameLike(ctx.getParameter("q")), ctx);
+		final PagedResult<Drug> drugs = Context.getService(DrugWrapperService.class).findDrugsByNameLike(
+		    ctx.getParameter("q"), ctx.getStartIndex(), ctx.getLimit(), Boolean.TRUE.equals(ctx.getIncludeTotalCount()));
+		
+		return new AlreadyPaged<>(ctx, drugs.getResults(), drugs.hasMoreResults(), drugs.getTotalCount());
 	}
 }
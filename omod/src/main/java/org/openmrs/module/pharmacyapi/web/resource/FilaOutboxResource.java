@@ -0,0 +1,153 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.web.resource;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Encounter;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.model.FilaOutboxEntry.FilaOutboxStatus;
+import org.openmrs.module.pharmacyapi.api.filaoutbox.service.FilaOutboxService;
+import org.openmrs.module.webservices.rest.web.RequestContext;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.SimpleObject;
+import org.openmrs.module.webservices.rest.web.annotation.Resource;
+import org.openmrs.module.webservices.rest.web.representation.Representation;
+import org.openmrs.module.webservices.rest.web.resource.api.PageableResult;
+import org.openmrs.module.webservices.rest.web.resource.impl.AlreadyPaged;
+import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingCrudResource;
+import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
+import org.openmrs.module.webservices.rest.web.resource.impl.EmptySearchResult;
+import org.openmrs.module.webservices.rest.web.response.ResourceDoesNotSupportOperationException;
+import org.openmrs.module.webservices.rest.web.response.ResponseException;
+
+/**
+ * Status of the FILA outbox: the number of entries of each status, the entries of a status or of
+ * a dispensation encounter, and the retry of a dead letter by setting its status back to PENDING.
+ */
+@Resource(name = RestConstants.VERSION_1
+        + "/filaoutbox", order = 1, supportedClass = FilaOutboxEntry.class, supportedOpenmrsVersions = { "1.8.*",
+        "1.9.*", "1.10.*", "1.11.*", "1.12.*" })
+public class FilaOutboxResource extends DelegatingCrudResource<FilaOutboxEntry> {
+	
+	@Override
+	public DelegatingResourceDescription getRepresentationDescription(final Representation rep) {
+		
+		final DelegatingResourceDescription description = new DelegatingResourceDescription();
+		description.addProperty("uuid");
+		description.addProperty("patient", Representation.REF);
+		description.addProperty("dispensation", Representation.REF);
+		description.addProperty("fila", Representation.REF);
+		description.addProperty("dispensationDate");
+		description.addProperty("status");
+		description.addProperty("attempts");
+		description.addProperty("nextAttemptDate");
+		description.addProperty("lastError");
+		description.addProperty("claimedBy");
+		description.addProperty("dateCreated");
+		description.addProperty("dateProcessed");
+		description.addSelfLink();
+		return description;
+	}
+	
+	@Override
+	public FilaOutboxEntry newDelegate() {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	/**
+	 * Only updates are supported, setting the status of an entry to PENDING queues it again.
+	 */
+	@Override
+	public FilaOutboxEntry save(final FilaOutboxEntry filaOutboxEntry) {
+		
+		if (!FilaOutboxStatus.PENDING.equals(filaOutboxEntry.getStatus())) {
+			throw new ResourceDoesNotSupportOperationException();
+		}
+		return Context.getService(FilaOutboxService.class).retryFilaOutboxEntry(filaOutboxEntry);
+	}
+	
+	@Override
+	public FilaOutboxEntry getByUniqueId(final String uniqueId) {
+		return Context.getService(FilaOutboxService.class).findFilaOutboxEntryByUuid(uniqueId);
+	}
+	
+	/**
+	 * @return the number of entries of each status
+	 */
+	@Override
+	public SimpleObject getAll(final RequestContext context) throws ResponseException {
+		
+		final Map<FilaOutboxStatus, Long> counts = Context.getService(FilaOutboxService.class)
+		        .countFilaOutboxEntriesByStatus();
+		
+		final SimpleObject simpleObject = new SimpleObject();
+		for (final Entry<FilaOutboxStatus, Long> entry : counts.entrySet()) {
+			simpleObject.add(entry.getKey().name(), entry.getValue());
+		}
+		return simpleObject;
+	}
+	
+	@Override
+	protected PageableResult doSearch(final RequestContext context) {
+		
+		final FilaOutboxService filaOutboxService = Context.getService(FilaOutboxService.class);
+		
+		final String dispensationUuid = context.getRequest().getParameter("dispensation");
+		if (StringUtils.isNotBlank(dispensationUuid)) {
+			
+			final Encounter dispensation = Context.getEncounterService().getEncounterByUuid(dispensationUuid);
+			final FilaOutboxEntry entry = dispensation == null ? null
+			        : filaOutboxService.findFilaOutboxEntryByDispensation(dispensation);
+			
+			if (entry == null) {
+				return new EmptySearchResult();
+			}
+			return new AlreadyPaged<>(context, Collections.singletonList(entry), false, 1L);
+		}
+		
+		final FilaOutboxStatus status = EnumUtils.getEnum(FilaOutboxStatus.class,
+		    context.getRequest().getParameter("status"));
+		if (status == null) {
+			return new EmptySearchResult();
+		}
+		
+		final PagedResult<FilaOutboxEntry> entries = PagedResult.fromFetched(filaOutboxService
+		        .findFilaOutboxEntriesByStatus(status, context.getStartIndex(), context.getLimit() + 1),
+		    context.getLimit(), null);
+		
+		return new AlreadyPaged<>(context, entries.getResults(), entries.hasMoreResults(), entries.getTotalCount());
+	}
+	
+	@Override
+	protected void delete(final FilaOutboxEntry filaOutboxEntry, final String reason, final RequestContext context)
+	        throws ResponseException {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@Override
+	public void purge(final FilaOutboxEntry filaOutboxEntry, final RequestContext context) throws ResponseException {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@Override
+	public DelegatingResourceDescription getUpdatableProperties() throws ResourceDoesNotSupportOperationException {
+		
+		final DelegatingResourceDescription description = new DelegatingResourceDescription();
+		description.addProperty("status");
+		return description;
+	}
+}
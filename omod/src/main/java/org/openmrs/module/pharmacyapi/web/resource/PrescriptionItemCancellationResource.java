@@ -0,0 +1,108 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.web.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItemCancellation;
+import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItemCancellationResult;
+import org.openmrs.module.pharmacyapi.api.prescription.service.PrescriptionService;
+import org.openmrs.module.webservices.rest.web.RequestContext;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.SimpleObject;
+import org.openmrs.module.webservices.rest.web.annotation.PropertyGetter;
+import org.openmrs.module.webservices.rest.web.annotation.PropertySetter;
+import org.openmrs.module.webservices.rest.web.annotation.Resource;
+import org.openmrs.module.webservices.rest.web.representation.Representation;
+import org.openmrs.module.webservices.rest.web.resource.impl.DataDelegatingCrudResource;
+import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
+import org.openmrs.module.webservices.rest.web.response.ResourceDoesNotSupportOperationException;
+import org.openmrs.module.webservices.rest.web.response.ResponseException;
+
+/**
+ * Cancels in one request the prescription items of a list of orders for the same reason, answering
+ * with the outcome of each of them. It is the bulk counterpart of the delete of
+ * {@link DrugOrderResource}.
+ */
+@Resource(name = RestConstants.VERSION_1
+        + "/prescriptionitemcancellation", order = 1, supportedClass = PrescriptionItemCancellation.class, supportedOpenmrsVersions = {
+        "1.10.*", "1.11.*", "1.12.*", "2.0.*", "2.1.*" })
+public class PrescriptionItemCancellationResource extends DataDelegatingCrudResource<PrescriptionItemCancellation> {
+	
+	@Override
+	public DelegatingResourceDescription getRepresentationDescription(final Representation rep) {
+		
+		final DelegatingResourceDescription description = new DelegatingResourceDescription();
+		description.addProperty("uuid");
+		description.addProperty("results");
+		return description;
+	}
+	
+	@Override
+	public PrescriptionItemCancellation newDelegate() {
+		return new PrescriptionItemCancellation();
+	}
+	
+	@Override
+	public PrescriptionItemCancellation save(final PrescriptionItemCancellation cancellation) {
+		
+		cancellation.setResults(Context.getService(PrescriptionService.class)
+		        .cancelPrescriptionItems(cancellation.getOrderUuids(), cancellation.getCancelationReason()));
+		return cancellation;
+	}
+	
+	@Override
+	public PrescriptionItemCancellation getByUniqueId(final String uniqueId) {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@Override
+	protected void delete(final PrescriptionItemCancellation cancellation, final String reason,
+	        final RequestContext context) throws ResponseException {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@Override
+	public void purge(final PrescriptionItemCancellation cancellation, final RequestContext context)
+	        throws ResponseException {
+		throw new ResourceDoesNotSupportOperationException();
+	}
+	
+	@PropertySetter("orderUuids")
+	public static void setOrderUuids(final PrescriptionItemCancellation instance, final List<String> orderUuids) {
+		instance.setOrderUuids(orderUuids);
+	}
+	
+	@PropertyGetter("results")
+	public static List<SimpleObject> getResults(final PrescriptionItemCancellation instance) {
+		
+		final List<SimpleObject> results = new ArrayList<>();
+		for (final PrescriptionItemCancellationResult result : instance.getResults()) {
+			
+			final SimpleObject simpleObject = new SimpleObject();
+			simpleObject.add("orderUuid", result.getOrderUuid());
+			simpleObject.add("successful", result.isSuccessful());
+			simpleObject.add("errorMessage", result.getErrorMessage());
+			results.add(simpleObject);
+		}
+		return results;
+	}
+	
+	@Override
+	public DelegatingResourceDescription getCreatableProperties() throws ResourceDoesNotSupportOperationException {
+		
+		final DelegatingResourceDescription description = new DelegatingResourceDescription();
+		description.addProperty("orderUuids");
+		description.addProperty("cancelationReason");
+		return description;
+	}
+}
@@ -9,27 +9,41 @@
  */
 package org.openmrs.module.pharmacyapi.web.resource;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
+import org.openmrs.Location;
 import org.openmrs.Patient;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.pharmacyapi.api.common.exception.PharmacyBusinessException;
+import org.openmrs.module.pharmacyapi.api.common.model.PagedResult;
+import org.openmrs.module.pharmacyapi.api.pharmacyheuristic.service.PharmacyHeuristicService;
 import org.openmrs.module.pharmacyapi.api.prescription.model.Prescription;
 import org.openmrs.module.pharmacyapi.api.prescription.model.PrescriptionItem;
 import org.openmrs.module.pharmacyapi.api.prescription.service.PrescriptionService;
 import org.openmrs.module.webservices.rest.web.RequestContext;
 import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.SimpleObject;
 import org.openmrs.module.webservices.rest.web.annotation.PropertySetter;
 import org.openmrs.module.webservices.rest.web.annotation.Resource;
 import org.openmrs.module.webservices.rest.web.representation.DefaultRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.FullRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.RefRepresentation;
 import org.openmrs.module.webservices.rest.web.representation.Representation;
+import org.openmrs.module.webservices.rest.web.resource.api.Converter;
 import org.openmrs.module.webservices.rest.web.resource.api.PageableResult;
+import org.openmrs.module.webservices.rest.web.resource.impl.AlreadyPaged;
 import org.openmrs.module.webservices.rest.web.resource.impl.DataDelegatingCrudResource;
 import org.openmrs.module.webservices.rest.web.resource.impl.DelegatingResourceDescription;
 import org.openmrs.module.webservices.rest.web.resource.impl.EmptySearchResult;
@@ -142,9 +156,19 @@ public class PrescriptionResource extends DataDelegatingCrudResource<Prescriptio
 	protected PageableResult doSearch(final RequestContext context) {
 		
 		final String patientUuid = context.getRequest().getParameter("patient");
+		final String patientUuids = context.getRequest().getParameter("patients");
 		final String findAllPrescribed = context.getRequest().getParameter("findAllPrescribed");
 		final String findAllActive = context.getRequest().getParameter("findAllActive");
 		
+		if (StringUtils.isNotBlank(patientUuids)) {
+			return this.findAllActiveByPatients(context, patientUuids);
+		}
+		
+		final String locationUuid = context.getRequest().getParameter("location");
+		if (StringUtils.isNotBlank(locationUuid)) {
+			return this.findAllActiveByLocation(context, locationUuid);
+		}
+		
 		if (patientUuid == null) {
 			return new EmptySearchResult();
 		}
@@ -254,4 +278,111 @@ public class PrescriptionResource extends DataDelegatingCrudResource<Prescriptio
 		
 		return new EmptySearchResult();
 	}
+	
+	private PageableResult findAllActiveByPatients(final RequestContext context, final String patientUuids) {
+		
+		final List<String> uuids = new ArrayList<>();
+		for (final String uuid : StringUtils.split(patientUuids, ',')) {
+			uuids.add(uuid.trim());
+		}
+		
+		final Map<String, Patient> patientsByUuid = new HashMap<>();
+		for (final Patient patient : Context.getService(PharmacyHeuristicService.class).findPatientsByUuids(uuids)) {
+			patientsByUuid.put(patient.getUuid(), patient);
+		}
+		
+		// keeps the patients in the order of the queue
+		final Set<Patient> patients = new LinkedHashSet<>();
+		for (final String uuid : uuids) {
+			if (patientsByUuid.containsKey(uuid)) {
+				patients.add(patientsByUuid.get(uuid));
+			}
+		}
+		
+		if (patients.isEmpty()) {
+			return new EmptySearchResult();
+		}
+		
+		try {
+			return new PrescriptionsByPatient(context, Context.getService(PrescriptionService.class)
+			        .findActivePrescriptionsByPatients(patients, new Date()));
+		}
+		catch (final PharmacyBusinessException e) {
+			
+			throw new APIException(e.getMessage(), e);
+		}
+	}
+	
+	private PageableResult findAllActiveByLocation(final RequestContext context, final String locationUuid) {
+		
+		final Location location = Context.getLocationService().getLocationByUuid(locationUuid);
+		
+		if (location == null) {
+			return new EmptySearchResult();
+		}
+		
+		final String startDateText = context.getRequest().getParameter("startDate");
+		final String endDateText = context.getRequest().getParameter("endDate");
+		
+		try {
+			final SimpleDateFormat formatter = new SimpleDateFormat("dd-MM-yyyy");
+			final Date startDate = StringUtils.isBlank(startDateText) ? new Date() : formatter.parse(startDateText);
+			final Date endDate = StringUtils.isBlank(endDateText) ? new Date() : formatter.parse(endDateText);
+			
+			final PrescriptionService prescriptionService = Context.getService(PrescriptionService.class);
+			
+			final PagedResult<Prescription> page = prescriptionService.findActivePrescriptionsByLocation(location,
+			    startDate, endDate, context.getStartIndex(), context.getLimit(),
+			    Boolean.TRUE.equals(context.getIncludeTotalCount()));
+			
+			return new AlreadyPaged<>(context, page.getResults(), page.hasMoreResults(), page.getTotalCount());
+		}
+		catch (ParseException | PharmacyBusinessException e) {
+			
+			throw new APIException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * The active prescriptions of each patient of the queue, grouped under the uuid of the patient in
+	 * the order of the queue; a patient without active prescriptions gets an empty group.
+	 */
+	private static final class PrescriptionsByPatient implements PageableResult {
+		
+		private final RequestContext context;
+		
+		private final Map<Patient, List<Prescription>> prescriptionsByPatient;
+		
+		private PrescriptionsByPatient(final RequestContext context,
+		        final Map<Patient, List<Prescription>> prescriptionsByPatient) {
+			
+			this.context = context;
+			this.prescriptionsByPatient = prescriptionsByPatient;
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public SimpleObject toSimpleObject(final Converter<?> preferredConverter) throws ResponseException {
+			
+			final Converter<Prescription> converter = (Converter<Prescription>) preferredConverter;
+			
+			final List<SimpleObject> results = new ArrayList<>();
+			for (final Entry<Patient, List<Prescription>> entry : this.prescriptionsByPatient.entrySet()) {
+				
+				final List<Object> prescriptions = new ArrayList<>();
+				for (final Prescription prescription : entry.getValue()) {
+					prescriptions.add(converter.asRepresentation(prescription, this.context.getRepresentation()));
+				}
+				
+				final SimpleObject group = new SimpleObject();
+				group.add("patient", entry.getKey().getUuid());
+				group.add("prescriptions", prescriptions);
+				results.add(group);
+			}
+			
+			final SimpleObject simpleObject = new SimpleObject();
+			simpleObject.add("results", results);
+			return simpleObject;
+		}
+	}
 }
@@ -0,0 +1,108 @@
+/**
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.pharmacyapi.web.resource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.Order;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.Dispensation;
+import org.openmrs.module.pharmacyapi.api.dispensation.model.DispensationItem;
+import org.openmrs.module.pharmacyapi.api.dispensation.service.DispensationService;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.model.PrescriptionDispensation;
+import org.openmrs.module.pharmacyapi.api.prescriptiondispensation.service.PrescriptionDispensationService;
+import org.openmrs.module.pharmacyapi.api.util.BaseTest;
+import org.openmrs.module.webservices.rest.web.RequestContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class DispensationResourceTest extends BaseTest {
+	
+	@Test
+	public void shouldCancelTheOrdersOfTheOrdersParameterInTheSameCall() throws Exception {
+		
+		final PrescriptionDispensation prescriptionDispensation = this.dispenseTheArvItems();
+		final Encounter dispensationEncounter = prescriptionDispensation.getDispensation();
+		
+		final List<Order> orders = new ArrayList<>(dispensationEncounter.getOrders());
+		Assert.assertEquals(2, orders.size());
+		
+		// the order of the path is listed again, it is only cancelled once
+		final MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("orders", orders.get(1).getUuid() + " , " + orders.get(0).getUuid());
+		final RequestContext context = new RequestContext();
+		context.setRequest(request);
+		
+		final DispensationResource resource = new DispensationResource();
+		final Dispensation dispensation = resource.getByUniqueId(orders.get(0).getUuid());
+		resource.delete(dispensation, "cancelled", context);
+		
+		Assert.assertEquals(2, dispensation.getDispensationItems().size());
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		for (final Order order : orders) {
+			Assert.assertTrue(Context.getOrderService().getOrder(order.getOrderId()).isVoided());
+		}
+		Assert.assertTrue(Context.getEncounterService()
+		        .getEncounter(prescriptionDispensation.getFila().getEncounterId()).isVoided());
+	}
+	
+	/**
+	 * Dispenses in one dispensation the two ARV items of the prescription, picked up again long after
+	 * the cancellation, which the resource dates at the time of the call.
+	 */
+	private PrescriptionDispensation dispenseTheArvItems() throws Exception {
+		this.executeDataSet("dispensationservice/shouldCancelTheItemsOfAnArvDispensation-dataset.xml");
+		
+		final Calendar dispensationDate = Calendar.getInstance();
+		dispensationDate.set(2005, Calendar.JANUARY, 1);
+		final Calendar nextPickUp = Calendar.getInstance();
+		nextPickUp.set(2100, Calendar.JANUARY, 1);
+		
+		final Dispensation dispensation = new Dispensation();
+		dispensation.setPatientUuid("5946f880-b197-400b-9caa-a3c661d23041");
+		dispensation.setLocationUuid("8d6c993e-c2cc-11de-8d13-0010c6dffd0f");
+		dispensation.setProviderUuid("ba1b19c2-3ed6-4f63-b8c0-f762dc8d7562");
+		dispensation.setDispensationDate(dispensationDate.getTime());
+		
+		dispensation.setDispensationItems(
+		    Arrays.asList(this.createDispensationItem("921de0a3-05c4-444a-be03-0001", 3d, nextPickUp.getTime()),
+		        this.createDispensationItem("921de0a3-05c4-444a-be03-0002", 4d, nextPickUp.getTime())));
+		
+		Context.getService(DispensationService.class).dispense(dispensation);
+		
+		Context.flushSession();
+		Context.clearSession();
+		
+		return Context.getService(PrescriptionDispensationService.class)
+		        .findPrescriptionDispensationByPrescription(new Encounter(1000)).iterator().next();
+	}
+	
+	private DispensationItem createDispensationItem(final String orderUuid, final Double quantity,
+	        final Date nextPickUp) {
+		
+		final DispensationItem dispensationItem = new DispensationItem();
+		dispensationItem.setOrderUuid(orderUuid);
+		dispensationItem.setPrescriptionUuid("eec646cb-c847-4ss-enc-who-adult");
+		dispensationItem.setRegimeUuid("9dc17c1b-7b6d-488e-a38d-505a7b6xxx1");
+		dispensationItem.setQuantityDispensed(0d);
+		dispensationItem.setQuantityToDispense(quantity);
+		dispensationItem.setDateOfNextPickUp(nextPickUp);
+		return dispensationItem;
+	}
+}